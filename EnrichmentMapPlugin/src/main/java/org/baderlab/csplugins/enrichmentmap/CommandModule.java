@@ -9,11 +9,13 @@ import org.baderlab.csplugins.enrichmentmap.commands.EMBuildCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.EMGseaCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.ExportModelJsonCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.ExportNetworkImageCommandTask;
+import org.baderlab.csplugins.enrichmentmap.commands.ExportOverlapGenesCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.ExportPDFCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.GetColorsCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.GetDataSetNamesCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.MastermapCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.MastermapListCommandTask;
+import org.baderlab.csplugins.enrichmentmap.commands.OverlapGenesCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.PAKnownSignatureCommandTask;
 import org.baderlab.csplugins.enrichmentmap.commands.SignificanceListTask;
 import org.baderlab.csplugins.enrichmentmap.commands.TableCommandTask;
@@ -143,5 +145,22 @@ public class CommandModule extends AbstractModule {
 		String desc = "Returns the chart colors for the given nodes and the given dataset.";
 		return CommandTaskFactory.create("get colors", desc, null, taskProvider);
 	}
+	
+	@ProvidesIntoSet
+	public CommandTaskFactory provideGetOverlapGenes(Provider<OverlapGenesCommandTask> taskProvider) {
+		String desc = "Returns the overlap genes of the given edges, or of the selected edges if no edges are given.";
+		String longDesc = "The overlap genes are computed from the gene sets of the two nodes when the network was created "
+				+ "without the Overlap_genes column (the 'create.lazyOverlapGenes' property). Set 'createColumn' to true "
+				+ "to also write them to the Overlap_genes column.";
+		return CommandTaskFactory.create("get overlap genes", desc, longDesc, taskProvider);
+	}
+	
+	@ProvidesIntoSet
+	public CommandTaskFactory provideExportOverlapGenes(Provider<ExportOverlapGenesCommandTask> taskProvider) {
+		String desc = "Exports the overlap genes of the edges to a tab separated file.";
+		String longDesc = "Unlike an export of the edge table this also works for networks that were created without the "
+				+ "Overlap_genes column (the 'create.lazyOverlapGenes' property), the overlap genes are computed when needed.";
+		return CommandTaskFactory.create("export overlap genes", desc, longDesc, taskProvider);
+	}
 
 }
@@ -14,12 +14,14 @@ import org.baderlab.csplugins.enrichmentmap.actions.OpenPathwayCommonsTaskFactor
 import org.baderlab.csplugins.enrichmentmap.commands.tunables.MannWhitRanksTunableHandlerFactory;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMapManager;
 import org.baderlab.csplugins.enrichmentmap.model.io.SessionListener;
+import org.baderlab.csplugins.enrichmentmap.parsers.GMTFileCache;
 import org.baderlab.csplugins.enrichmentmap.rest.ExpressionsResource;
 import org.baderlab.csplugins.enrichmentmap.rest.ModelResource;
 import org.baderlab.csplugins.enrichmentmap.rest.UploadFileResource;
 import org.baderlab.csplugins.enrichmentmap.style.ChartFactoryManager;
 import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder;
 import org.baderlab.csplugins.enrichmentmap.style.charts.radialheatmap.RadialHeatMapChartFactory;
+import org.baderlab.csplugins.enrichmentmap.task.ParallelTaskExecutor;
 import org.baderlab.csplugins.enrichmentmap.task.genemania.QueryGeneManiaNodeViewTaskFactory;
 import org.baderlab.csplugins.enrichmentmap.task.string.QueryStringNodeViewTaskFactory;
 import org.baderlab.csplugins.enrichmentmap.task.tunables.GeneListGUITunableHandler;
@@ -183,6 +185,10 @@ public class CyActivator extends AbstractCyActivator {
 					dialogAction.dispose();
 				}
 			}
+			
+			// Stop the worker threads used by the parallel tasks
+			ParallelTaskExecutor.shutdownShared();
+			GMTFileCache.clearShared();
 		} finally {
 			super.shutDown();
 		}
@@ -13,6 +13,7 @@ import java.util.function.Function;
 import javax.swing.JCheckBoxMenuItem;
 
 import org.baderlab.csplugins.enrichmentmap.actions.OpenPathwayCommonsTask;
+import org.baderlab.csplugins.enrichmentmap.task.cluster.HierarchicalClusterTask.Engine;
 import org.baderlab.csplugins.enrichmentmap.view.creation.genemania.GenemaniaDialogParameters;
 import org.baderlab.csplugins.enrichmentmap.view.creation.genemania.StringDialogParameters;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
@@ -41,12 +42,15 @@ public class PropertyManager implements PropertyUpdatedListener {
 	public static final Property<Boolean>  HEATMAP_AUTO_SORT    = Property.of("heatmapAutoSort", true);
 	public static final Property<Boolean>  HEATMAP_SELECT_SYNC  = Property.of("heatmapSelectSync", true);
 	public static final Property<Integer>  HEATMAP_NAME_LENGTH  = Property.of("heatmapNameLength", 14);
+	public static final Property<Engine>   HEATMAP_CLUSTER_ENGINE = Property.of("heatmapClusterEngine", Engine.AVG_LINK, Engine::valueOf);
 	public static final Property<Double>   P_VALUE              = Property.of("default.pvalue", 1.0);
 	public static final Property<Double>   Q_VALUE              = Property.of("default.qvalue", 0.1);
 	public static final Property<Boolean>  CREATE_WARN          = Property.of("create.warn", true);
+	public static final Property<Boolean>  CREATE_LAZY_OVERLAP_GENES = Property.of("create.lazyOverlapGenes", false);
 	public static final Property<Distance> DISTANCE_METRIC      = Property.of("default.distanceMetric", Distance.PEARSON, Distance::valueOf);
 	public static final Property<String>   PATHWAY_COMMONS_URL  = Property.of("pathway.commons.url", OpenPathwayCommonsTask.DEFAULT_BASE_URL);
 	public static final Property<Boolean>  CONTROL_DATASET_SELECT_SYNC = Property.of("control.dataset.sync", false);
+	public static final Property<Boolean>  SESSION_BINARY_MODEL = Property.of("session.binaryModel", false);
 	
 	public static final Property<String> STRING_COLUMN_NAME  = Property.of("string.column.name",  StringDialogParameters.NAME_COLUMN_DEF);
 	public static final Property<String> STRING_COLUMN_FDR   = Property.of("string.column.fdr",   StringDialogParameters.FDR_COLUMN_DEF);
@@ -0,0 +1,69 @@
+package org.baderlab.csplugins.enrichmentmap.commands;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.baderlab.csplugins.enrichmentmap.commands.tunables.NetworkTunable;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.OverlapGenesCache;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTableUtil;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.ContainsTunables;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+import com.google.common.base.Joiner;
+import com.google.inject.Inject;
+
+/**
+ * Writes the overlap genes of the edges to a tab separated file. The genes are read through the {@link OverlapGenesCache},
+ * so the file is complete for networks that were created without the Overlap_genes column.
+ */
+public class ExportOverlapGenesCommandTask extends AbstractTask {
+
+	@ContainsTunables @Inject
+	public NetworkTunable networkTunable;
+
+	@Tunable(required=true, description="Absolute path to the file to be exported. Will be overwritten if it already exists.")
+	public File file;
+
+	@Tunable(description="true for only the selected edges, false (default) for all edges")
+	public boolean selectedOnly = false;
+
+
+	@Override
+	public void run(TaskMonitor tm) throws IOException {
+		tm.setTitle("Export Overlap Genes");
+
+		if(file == null)
+			throw new IllegalArgumentException("'file' argument is null");
+
+		EnrichmentMap map = networkTunable.getEnrichmentMap();
+		if(map == null)
+			throw new IllegalArgumentException("Network is not an Enrichment Map.");
+
+		CyNetwork network = networkTunable.getNetwork();
+		List<CyEdge> edges = selectedOnly ? CyTableUtil.getEdgesInState(network, CyNetwork.SELECTED, true) : network.getEdgeList();
+		OverlapGenesCache cache = map.getOverlapGenesCache();
+
+		// same list delimiter as the table export of Cytoscape
+		Joiner joiner = Joiner.on('|');
+
+		try(BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+			out.append("SUID").append('\t').append("name").append('\t').append("Overlap_genes").append('\n');
+			for(CyEdge edge : edges) {
+				if(cancelled)
+					return;
+				String name = network.getRow(edge).get(CyNetwork.NAME, String.class);
+				out.append(String.valueOf(edge.getSUID())).append('\t');
+				out.append(name == null ? "" : name).append('\t');
+				out.append(joiner.useForNull("").join(cache.getOverlapGenes(network, edge))).append('\n');
+			}
+		}
+	}
+}
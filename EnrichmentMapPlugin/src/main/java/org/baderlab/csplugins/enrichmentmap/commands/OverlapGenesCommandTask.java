@@ -0,0 +1,114 @@
+package org.baderlab.csplugins.enrichmentmap.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baderlab.csplugins.enrichmentmap.commands.tunables.EdgeListTunable;
+import org.baderlab.csplugins.enrichmentmap.commands.tunables.NetworkTunable;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.OverlapGenesCache;
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.baderlab.csplugins.enrichmentmap.util.BulkAttributeWriter;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyTableUtil;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.ContainsTunables;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+
+/**
+ * Returns the overlap genes of edges. Works for networks that were created with the lazy overlap genes 
+ * option, where the Overlap_genes column is not stored, see {@link OverlapGenesCache}.
+ */
+public class OverlapGenesCommandTask extends AbstractTask implements ObservableTask {
+
+	@ContainsTunables @Inject
+	public NetworkTunable networkTunable;
+	
+	@ContainsTunables @Inject
+	public EdgeListTunable edgeListTunable;
+	
+	@Tunable(description = "If true the overlap genes are also written to the Overlap_genes column of the edge table, "
+			+ "the column is created if it does not exist.")
+	public boolean createColumn = false;
+	
+	
+	private Map<Long,List<String>> results;
+	
+	
+	@Override
+	public void run(TaskMonitor tm) {
+		EnrichmentMap map = networkTunable.getEnrichmentMap();
+		if(map == null)
+			throw new IllegalArgumentException("Network is not an Enrichment Map.");
+		
+		CyNetwork network = networkTunable.getNetwork();
+		List<CyEdge> edges = getEdges(network);
+		
+		OverlapGenesCache cache = map.getOverlapGenesCache();
+		results = new LinkedHashMap<>();
+		for(CyEdge edge : edges) {
+			results.put(edge.getSUID(), cache.getOverlapGenes(network, edge));
+		}
+		
+		if(createColumn) {
+			writeColumn(network, map.getParams().getAttributePrefix());
+		}
+	}
+	
+	
+	private List<CyEdge> getEdges(CyNetwork network) {
+		if(edgeListTunable.isEmpty())
+			return CyTableUtil.getEdgesInState(network, CyNetwork.SELECTED, true);
+		
+		List<CyEdge> edges = new ArrayList<>();
+		for(Long suid : edgeListTunable.getEdgeSuids()) {
+			CyEdge edge = network.getEdge(suid);
+			if(edge == null)
+				throw new IllegalArgumentException("Edge with SUID " + suid + " not found");
+			edges.add(edge);
+		}
+		return edges;
+	}
+	
+	
+	private void writeColumn(CyNetwork network, String prefix) {
+		CyTable table = network.getDefaultEdgeTable();
+		if(table.getColumn(Columns.EDGE_OVERLAP_GENES.with(prefix, null)) == null)
+			Columns.EDGE_OVERLAP_GENES.createColumn(table, prefix, null);
+		
+		BulkAttributeWriter writer = new BulkAttributeWriter(table);
+		int overlapCol = writer.column(Columns.EDGE_OVERLAP_GENES.with(prefix, null));
+		results.forEach((suid, genes) -> {
+			writer.addRow(suid);
+			writer.set(overlapCol, genes);
+		});
+		writer.flush();
+	}
+	
+	
+	@Override
+	public List<Class<?>> getResultClasses() {
+		return Arrays.asList(String.class, Map.class);
+	}
+	
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if(String.class.equals(type)) {
+			return type.cast(new Gson().toJson(results));
+		} else if(Map.class.equals(type)) {
+			return type.cast(results);
+		}
+		return null;
+	}
+
+}
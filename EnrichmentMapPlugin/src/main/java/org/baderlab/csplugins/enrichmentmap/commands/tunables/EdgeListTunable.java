@@ -0,0 +1,28 @@
+package org.baderlab.csplugins.enrichmentmap.commands.tunables;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.cytoscape.work.Tunable;
+
+import com.google.common.base.Splitter;
+
+public class EdgeListTunable {
+	
+	@Tunable(description = "Comma separated list of edge SUIDs")
+	public String edges;
+	
+	public boolean isEmpty() {
+		return edges == null || edges.trim().isEmpty();
+	}
+	
+	public List<Long> getEdgeSuids() throws NumberFormatException {
+		return Splitter.on(',')
+			.trimResults()
+			.omitEmptyStrings()
+			.splitToStream(edges)
+			.map(Long::parseLong)
+			.collect(Collectors.toList());
+	}
+
+}
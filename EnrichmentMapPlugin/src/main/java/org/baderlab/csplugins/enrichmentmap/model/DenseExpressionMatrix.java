@@ -0,0 +1,173 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The values of an expression matrix stored in one contiguous float array, row after row, ordered by gene ID.
+ * A row is found with a binary search over the sorted gene IDs.
+ * <p>
+ * Rows usually all have the same length but that is not required, a row that has no values (a {@link GeneExpression}
+ * with a null array) has a length of -1. Once compacted the {@link GeneExpression} objects of a {@link GeneExpressionMatrix}
+ * are views of the rows of this matrix, see {@link GeneExpressionMatrix#compact()}.
+ * <p>
+ * Immutable, the array returned by {@link #getValues()} must not be modified.
+ */
+public class DenseExpressionMatrix {
+
+	private final int[] geneIds;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final float[] values;
+
+
+	/**
+	 * @param geneIds the gene ID of each row, in any order
+	 * @param lengths the number of values of each row, -1 for a row without values
+	 * @param values the values of all the rows one after the other, in the same order as geneIds
+	 */
+	public DenseExpressionMatrix(int[] geneIds, int[] lengths, float[] values) {
+		if(geneIds.length != lengths.length)
+			throw new IllegalArgumentException("geneIds and lengths must have the same length");
+
+		int n = geneIds.length;
+		int[] inOffsets = new int[n];
+		int total = 0;
+		for(int i = 0; i < n; i++) {
+			inOffsets[i] = total;
+			total += Math.max(lengths[i], 0);
+		}
+		if(total != values.length)
+			throw new IllegalArgumentException("expected " + total + " values but got " + values.length);
+
+		if(isSorted(geneIds)) {
+			this.geneIds = geneIds.clone();
+			this.lengths = lengths.clone();
+			this.offsets = inOffsets;
+			this.values = values;
+		} else {
+			Integer[] order = new Integer[n];
+			for(int i = 0; i < n; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Integer.compare(geneIds[a], geneIds[b]));
+
+			this.geneIds = new int[n];
+			this.lengths = new int[n];
+			this.offsets = new int[n];
+			this.values = new float[total];
+			int offset = 0;
+			for(int row = 0; row < n; row++) {
+				int i = order[row];
+				this.geneIds[row] = geneIds[i];
+				this.lengths[row] = lengths[i];
+				this.offsets[row] = offset;
+				if(lengths[i] > 0) {
+					System.arraycopy(values, inOffsets[i], this.values, offset, lengths[i]);
+					offset += lengths[i];
+				}
+			}
+		}
+
+		for(int row = 1; row < n; row++) {
+			if(this.geneIds[row] == this.geneIds[row - 1])
+				throw new IllegalArgumentException("duplicate gene ID " + this.geneIds[row]);
+		}
+	}
+
+	/**
+	 * Copies the values of the rows of the map.
+	 */
+	public static DenseExpressionMatrix of(Map<Integer,GeneExpression> expressions) {
+		int n = expressions.size();
+		int[] geneIds = new int[n];
+		int[] lengths = new int[n];
+		GeneExpression[] rows = new GeneExpression[n];
+		int i = 0, total = 0;
+		for(Map.Entry<Integer,GeneExpression> entry : expressions.entrySet()) {
+			geneIds[i] = entry.getKey();
+			rows[i] = entry.getValue();
+			lengths[i] = rows[i].getLength();
+			total += Math.max(lengths[i], 0);
+			i++;
+		}
+
+		float[] values = new float[total];
+		int offset = 0;
+		for(i = 0; i < n; i++) {
+			if(lengths[i] > 0) {
+				rows[i].copyTo(values, offset);
+				offset += lengths[i];
+			}
+		}
+		return new DenseExpressionMatrix(geneIds, lengths, values);
+	}
+
+	private static boolean isSorted(int[] array) {
+		for(int i = 1; i < array.length; i++) {
+			if(array[i] < array[i - 1])
+				return false;
+		}
+		return true;
+	}
+
+
+	public int getNumRows() {
+		return geneIds.length;
+	}
+
+	/**
+	 * Returns the row of the gene, or -1 if the matrix doesn't have the gene.
+	 */
+	public int getRow(int geneId) {
+		int row = Arrays.binarySearch(geneIds, geneId);
+		return row < 0 ? -1 : row;
+	}
+
+	public int getGeneId(int row) {
+		return geneIds[row];
+	}
+
+	/**
+	 * Returns the index of the first value of the row in {@link #getValues()}.
+	 */
+	public int getOffset(int row) {
+		return offsets[row];
+	}
+
+	/**
+	 * Returns the number of values in the row, or -1 if the row has no values.
+	 */
+	public int getLength(int row) {
+		return lengths[row];
+	}
+
+	public float get(int row, int index) {
+		if(index < 0 || index >= lengths[row])
+			throw new ArrayIndexOutOfBoundsException(index);
+		return values[offsets[row] + index];
+	}
+
+	/**
+	 * Copies the values of the row to the array, starting at destPos.
+	 */
+	public void copyRow(int row, float[] dest, int destPos) {
+		if(lengths[row] > 0)
+			System.arraycopy(values, offsets[row], dest, destPos, lengths[row]);
+	}
+
+	/**
+	 * Returns a copy of the values of the row, or null if the row has no values.
+	 */
+	public float[] copyRow(int row) {
+		int length = lengths[row];
+		return length < 0 ? null : Arrays.copyOfRange(values, offsets[row], offsets[row] + length);
+	}
+
+	/**
+	 * Returns the values of all the rows, one row after the other in gene ID order. Must not be modified.
+	 */
+	public float[] getValues() {
+		return values;
+	}
+}
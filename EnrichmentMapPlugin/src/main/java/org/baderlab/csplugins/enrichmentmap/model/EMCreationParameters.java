@@ -57,6 +57,14 @@ public class EMCreationParameters implements EnrichmentResultFilterParams {
 	
 	private String enrichmentEdgeType = "Geneset_Overlap";
 	
+	/**
+	 * When true the Overlap_genes column is not created for enrichment edges, the overlap genes are computed 
+	 * on demand from the gene sets of the two nodes. See OverlapGenesCache.
+	 * Use the 'enrichmentmap export overlap genes' command to export them, an export of the edge table only contains
+	 * the overlap genes that were written to the column (the 'enrichmentmap get overlap genes' command with createColumn=true).
+	 */
+	private boolean lazyOverlapGenes = false;
+	
 	private final Set<String> pValueColumnNames = new HashSet<>();
 	private final Set<String> qValueColumnNames = new HashSet<>();
 	private final Set<String> similarityCutoffColumnNames = new HashSet<>();
@@ -215,6 +223,14 @@ public class EMCreationParameters implements EnrichmentResultFilterParams {
 	public boolean getCreateDistinctEdges() {
 		return createDistinctEdges;
 	}
+	
+	public void setLazyOverlapGenes(boolean lazyOverlapGenes) {
+		this.lazyOverlapGenes = lazyOverlapGenes;
+	}
+	
+	public boolean isLazyOverlapGenes() {
+		return lazyOverlapGenes;
+	}
 
 	public String getEnrichmentEdgeType() {
 		return enrichmentEdgeType;
@@ -301,7 +317,7 @@ public class EMCreationParameters implements EnrichmentResultFilterParams {
 				+ ", combinedConstant=" + combinedConstant + ", greatFilter=" + greatFilter + ", fdr=" + fdr
 				+ ", emgmt=" + emgmt + ", qvalueMin=" + qvalueMin + ", pvalueMin=" + pvalueMin + ", networkName="
 				+ networkName + ", edgeStrategy=" + edgeStrategy + ", createDistinctEdges=" + createDistinctEdges
-				+ ", enrichmentEdgeType=" + enrichmentEdgeType + ", pValueColumnNames=" + pValueColumnNames
+				+ ", enrichmentEdgeType=" + enrichmentEdgeType + ", lazyOverlapGenes=" + lazyOverlapGenes + ", pValueColumnNames=" + pValueColumnNames
 				+ ", qValueColumnNames=" + qValueColumnNames + ", similarityCutoffColumnNames="
 				+ similarityCutoffColumnNames + "]";
 	}
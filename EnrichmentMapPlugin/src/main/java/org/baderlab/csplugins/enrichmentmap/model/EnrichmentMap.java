@@ -14,6 +14,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -25,9 +26,6 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.service.util.CyServiceRegistrar;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-
 /***
  * An Enrichment Map object contains the minimal information needed to build an enrichment map.
  */
@@ -50,16 +48,16 @@ public class EnrichmentMap {
 	 * here and have the EMDataSets keep a key to this map. That way datasets can share
 	 * expression matrices.
 	 */
-	private final Map<String, GeneExpressionMatrix> expressions = new HashMap<>();
-	private final Map<String, SetOfGeneSets> geneSets = new HashMap<>();
+	private final Map<String, GeneExpressionMatrix> expressions = Collections.synchronizedMap(new HashMap<>());
+	private final Map<String, SetOfGeneSets> geneSets = Collections.synchronizedMap(new HashMap<>());
 	
-	/** The set of genes defined in the Enrichment map. */
-	private final BiMap<Integer, String> genes = HashBiMap.create();
+	/** The set of genes defined in the Enrichment map. Data sets are loaded in parallel so this must be thread safe. */
+	private final GeneDictionary genes = new GeneDictionary();
 
 	/** Post analysis signature genesets associated with this map.*/
 	private final Map<String, EMSignatureDataSet> signatureDataSets = new HashMap<>();
 	
-	private int NumberOfGenes = 0;
+	private final AtomicInteger NumberOfGenes = new AtomicInteger(0);
 	private boolean isLegacy = false;
 	private boolean isDistinctExpressionSets = false;
 	private boolean isCommonExpressionValues = false;
@@ -68,6 +66,12 @@ public class EnrichmentMap {
 
 	private final Object lock = new Object();
 	
+	/** Shared index of all the gene sets in the map, see {@link #getGeneSetIndex()}. Guarded by lock. */
+	private transient GeneSetIndex geneSetIndex;
+	
+	/** Overlap genes of edges when they are not stored in the network, see {@link #getOverlapGenesCache()}. Guarded by lock. */
+	private transient OverlapGenesCache overlapGenesCache;
+	
 	/**
 	 * Used by the JSON deserializer only. Don't remove this constructor!
 	 */
@@ -165,16 +169,16 @@ public class EnrichmentMap {
 	}
 
 	public boolean containsGene(String gene) {
-		return genes.containsValue(gene);
+		return genes.containsName(gene);
 	}
 
 	public String getGeneFromHashKey(Integer hash) {
-		return genes.get(hash);
+		return genes.getName(hash);
 	}
 	
 	public Integer getHashFromGene(String gene) {
 		// MKTODO should I toUpperCase?
-		return genes.inverse().get(gene);
+		return genes.getId(gene);
 	}
 	
 	/**
@@ -182,7 +186,7 @@ public class EnrichmentMap {
 	 * want because you probably want a set of genes that has been filtered somehow.
 	 */
 	public Set<String> getAllGenes() {
-		return Collections.unmodifiableSet(genes.values());
+		return genes.getNames();
 	}
 	
 	public Integer addGene(String gene) {
@@ -190,31 +194,21 @@ public class EnrichmentMap {
 			return null;
 		
 		gene = gene.toUpperCase();
-		
-		Map<String,Integer> geneToHash = genes.inverse();
-		
-		Integer hash = geneToHash.get(gene);
-		if(hash != null)
-			return hash;
-
-		Integer newHash = ++NumberOfGenes;
-		genes.put(newHash, gene);
-		return newHash;
+		return genes.getOrAdd(gene, NumberOfGenes::incrementAndGet);
 	}
 	
 	@Deprecated // this is here to support legacy session loading
 	public void addGene(String gene, int id) {
 		genes.put(id, gene);
-		if(id > NumberOfGenes)
-			NumberOfGenes = id;
+		NumberOfGenes.accumulateAndGet(id, Math::max);
 	}
 	
 	public int getNumberOfGenes() {
-		return NumberOfGenes;
+		return NumberOfGenes.get();
 	}
 
 	public void setNumberOfGenes(int numberOfGenes) {
-		NumberOfGenes = numberOfGenes;
+		NumberOfGenes.set(numberOfGenes);
 	}
 
 	/**
@@ -250,23 +244,83 @@ public class EnrichmentMap {
 	 */
 	@Deprecated
 	public Map<String, GeneSet> getAllGeneSets() {
-		// Go through each dataset and get the genesets from each
-		Map<String, GeneSet> allGeneSets = new HashMap<>();
-		
+		return new HashMap<>(getGeneSetIndex());
+	}
+	
+	/**
+	 * Returns a read only map of all the gene sets in the map (including signature gene sets) by name, 
+	 * the same gene sets that {@link #getAllGeneSets()} returns a copy of.
+	 * <p>
+	 * The index is built once and shared by all callers, it is rebuilt on the next call after a data set or signature 
+	 * data set is added or removed, or after one of their SetOfGeneSets is changed, see {@link SetOfGeneSets#getModificationCount()}.
+	 */
+	public Map<String, GeneSet> getGeneSetIndex() {
 		synchronized (lock) {
-			// If a GeneSet appears in more than one DataSet, then its totally arbitrary which version of it gets picked
-			// If a GeneSet appears in an enrichment file it will override the one with the same name in the global GMT file
-			for (EMDataSet ds : dataSets.values()) {
-				allGeneSets.putAll(ds.getSetOfGeneSets().getGeneSets());
-			}
-			
-			if (signatureDataSets != null) {
-				for (EMSignatureDataSet sds : signatureDataSets.values())
-					allGeneSets.putAll(sds.getGeneSetsOfInterest().getGeneSets());
+			List<SetOfGeneSets> sources = getGeneSetSources();
+			if (geneSetIndex == null || !geneSetIndex.isBuiltFrom(sources))
+				geneSetIndex = new GeneSetIndex(sources);
+			return geneSetIndex.geneSets;
+		}
+	}
+	
+	/**
+	 * Returns the cache used to compute the overlap genes of edges on demand, 
+	 * see {@link EMCreationParameters#isLazyOverlapGenes()}.
+	 */
+	public OverlapGenesCache getOverlapGenesCache() {
+		synchronized (lock) {
+			if (overlapGenesCache == null)
+				overlapGenesCache = new OverlapGenesCache(this);
+			return overlapGenesCache;
+		}
+	}
+	
+	private List<SetOfGeneSets> getGeneSetSources() {
+		// If a GeneSet appears in more than one DataSet, then its totally arbitrary which version of it gets picked
+		// If a GeneSet appears in an enrichment file it will override the one with the same name in the global GMT file
+		List<SetOfGeneSets> sources = new ArrayList<>(dataSets.size() + signatureDataSets.size());
+		for (EMDataSet ds : dataSets.values())
+			sources.add(ds.getSetOfGeneSets());
+		for (EMSignatureDataSet sds : signatureDataSets.values())
+			sources.add(sds.getGeneSetsOfInterest());
+		return sources;
+	}
+	
+	/**
+	 * Union of the gene sets of the data sets. Remembers which SetOfGeneSets it was built from, with their 
+	 * modification counts and sizes, so that it can tell when it is out of date without looking at the gene sets.
+	 */
+	private static class GeneSetIndex {
+		
+		final Map<String, GeneSet> geneSets;
+		final List<SetOfGeneSets> sources;
+		final int[] modificationCounts;
+		final int[] sizes;
+		
+		GeneSetIndex(List<SetOfGeneSets> sources) {
+			Map<String, GeneSet> union = new HashMap<>();
+			this.sources = sources;
+			this.modificationCounts = new int[sources.size()];
+			this.sizes = new int[sources.size()];
+			for (int i = 0; i < sizes.length; i++) {
+				SetOfGeneSets source = sources.get(i);
+				modificationCounts[i] = source.getModificationCount();
+				sizes[i] = source.size();
+				union.putAll(source.getGeneSets());
 			}
+			this.geneSets = Collections.unmodifiableMap(union);
 		}
 		
-		return allGeneSets;
+		boolean isBuiltFrom(List<SetOfGeneSets> current) {
+			if (current.size() != sources.size())
+				return false;
+			for (int i = 0; i < sizes.length; i++) {
+				SetOfGeneSets source = current.get(i);
+				if (source != sources.get(i) || source.getModificationCount() != modificationCounts[i] || source.size() != sizes[i])
+					return false;
+			}
+			return true;
+		}
 	}
 
 	/*
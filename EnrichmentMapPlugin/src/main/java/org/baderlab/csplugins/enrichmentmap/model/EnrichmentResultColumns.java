@@ -0,0 +1,172 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read only columnar copy of a {@link SetOfEnrichmentResults}. Each enrichment result is a row, the gene set
+ * names are a dictionary that maps names to rows and the statistics are stored in primitive arrays, so that
+ * threshold filtering is a simple array scan instead of a method call on every result object.
+ * <p>
+ * Statistics that a result type doesn't have (for example the FWER q-value and ES of a {@link GenericResult})
+ * are NaN.
+ * <p>
+ * Use {@link SetOfEnrichmentResults#getColumns()} to get an up to date instance.
+ */
+public class EnrichmentResultColumns {
+
+	public static enum Statistic {
+		PVALUE, FDR_QVALUE, FWER_QVALUE, NES, ES
+	}
+
+	private static final byte GENERIC = 0, GSEA = 1, OTHER = 2;
+
+	private final String[] names;
+	private final Map<String,Integer> rows;
+	private final EnrichmentResult[] results;
+	private final byte[] types;
+
+	private final double[] pvalue;
+	private final double[] fdrqvalue;
+	private final double[] fwerqvalue;
+	private final double[] nes;
+	private final double[] es;
+
+
+	EnrichmentResultColumns(Map<String,EnrichmentResult> enrichments) {
+		int n = enrichments.size();
+		names = new String[n];
+		rows = new HashMap<>(n * 4 / 3 + 1);
+		results = new EnrichmentResult[n];
+		types = new byte[n];
+		pvalue = new double[n];
+		fdrqvalue = new double[n];
+		fwerqvalue = new double[n];
+		nes = new double[n];
+		es = new double[n];
+
+		int i = 0;
+		for(Map.Entry<String,EnrichmentResult> entry : enrichments.entrySet()) {
+			EnrichmentResult result = entry.getValue();
+			names[i] = entry.getKey();
+			rows.put(entry.getKey(), i);
+			results[i] = result;
+			pvalue[i] = result.getPvalue();
+
+			if(result instanceof GSEAResult) {
+				GSEAResult r = (GSEAResult) result;
+				types[i] = GSEA;
+				fdrqvalue[i] = r.getFdrqvalue();
+				fwerqvalue[i] = r.getFwerqvalue();
+				nes[i] = r.getNES();
+				es[i] = r.getES();
+			} else if(result instanceof GenericResult) {
+				GenericResult r = (GenericResult) result;
+				types[i] = GENERIC;
+				fdrqvalue[i] = r.getFdrqvalue();
+				fwerqvalue[i] = Double.NaN;
+				nes[i] = r.getNES();
+				es[i] = Double.NaN;
+			} else {
+				types[i] = OTHER;
+				fdrqvalue[i] = fwerqvalue[i] = nes[i] = es[i] = Double.NaN;
+			}
+			i++;
+		}
+	}
+
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the row of the gene set, or -1 if there is no result for it.
+	 */
+	public int indexOf(String genesetName) {
+		Integer row = rows.get(genesetName);
+		return row == null ? -1 : row;
+	}
+
+	public String getName(int row) {
+		return names[row];
+	}
+
+	public EnrichmentResult getResult(int row) {
+		return results[row];
+	}
+
+	public double get(Statistic statistic, int row) {
+		return column(statistic)[row];
+	}
+
+	private double[] column(Statistic statistic) {
+		switch(statistic) {
+			case PVALUE:      return pvalue;
+			case FDR_QVALUE:  return fdrqvalue;
+			case FWER_QVALUE: return fwerqvalue;
+			case NES:         return nes;
+			case ES:          return es;
+			default: throw new IllegalArgumentException(String.valueOf(statistic));
+		}
+	}
+
+
+	/**
+	 * Returns true if the result in the given row passes the thresholds,
+	 * same as calling {@link EnrichmentResult#isGeneSetOfInterest(EnrichmentResultFilterParams)}.
+	 */
+	public boolean isGeneSetOfInterest(int row, EnrichmentResultFilterParams params) {
+		return passes(row, params.getPvalue(), params.getQvalue(), params.isFDR(), params);
+	}
+
+	/**
+	 * Returns the rows in [from, to) that pass the thresholds, in ascending order.
+	 * Same as calling {@link EnrichmentResult#isGeneSetOfInterest(EnrichmentResultFilterParams)} on each result.
+	 */
+	public int[] filter(EnrichmentResultFilterParams params, int from, int to) {
+		double pvalueCutoff = params.getPvalue();
+		double qvalueCutoff = params.getQvalue();
+		boolean useFDR = params.isFDR();
+
+		int[] passed = new int[to - from];
+		int count = 0;
+		for(int row = from; row < to; row++) {
+			if(passes(row, pvalueCutoff, qvalueCutoff, useFDR, params)) {
+				passed[count++] = row;
+			}
+		}
+		return Arrays.copyOf(passed, count);
+	}
+
+	public int[] filter(EnrichmentResultFilterParams params) {
+		return filter(params, 0, size());
+	}
+
+	private boolean passes(int row, double pvalueCutoff, double qvalueCutoff, boolean useFDR, EnrichmentResultFilterParams params) {
+		switch(types[row]) {
+			case GSEA:    return pvalue[row] <= pvalueCutoff && fdrqvalue[row] <= qvalueCutoff;
+			case GENERIC: return pvalue[row] <= pvalueCutoff && (!useFDR || fdrqvalue[row] <= qvalueCutoff);
+			default:      return results[row].isGeneSetOfInterest(params);
+		}
+	}
+
+
+	/**
+	 * Returns the smallest p-value greater than zero of the results for the given gene sets, or NaN if there isn't one.
+	 */
+	public double getMinPvalueNotZero(Collection<String> genesetNames) {
+		double min = Double.NaN;
+		for(String name : genesetNames) {
+			Integer row = rows.get(name);
+			if(row != null) {
+				double p = pvalue[row];
+				if(p > 0.0 && !(p >= min)) // min is NaN until the first value is found
+					min = p;
+			}
+		}
+		return min;
+	}
+}
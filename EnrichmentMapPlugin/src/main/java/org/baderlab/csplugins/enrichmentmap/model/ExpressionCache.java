@@ -10,13 +10,30 @@ import org.apache.commons.lang3.tuple.Triple;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
+/**
+ * Caches transformed expression rows. The cache is bounded by the approximate number of bytes of the cached rows
+ * rather than by the number of rows, so a heat map with thousands of genes doesn't have to transform every row
+ * each time it is painted.
+ */
 public class ExpressionCache {
 	
+	public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+	
+	// float array header plus the cache entry, key and Optional
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+	
 	private final Cache<Triple<Integer,EMDataSet,Transform>, Optional<float[]>> cache;
 
 	public ExpressionCache() {
-		this.cache = CacheBuilder.newBuilder().maximumSize(20).build();
+		this(DEFAULT_MAX_BYTES);
+	}
+	
+	public ExpressionCache(long maxBytes) {
+		Weigher<Triple<Integer,EMDataSet,Transform>, Optional<float[]>> weigher = 
+			(key, value) -> ENTRY_OVERHEAD_BYTES + (value.isPresent() ? value.get().length * Float.BYTES : 0);
+		this.cache = CacheBuilder.newBuilder().maximumWeight(maxBytes).weigher(weigher).build();
 	}
 
 	public Optional<float[]> getExpressions(int geneID, EMDataSet dataset, Transform transform) {
@@ -29,10 +46,14 @@ public class ExpressionCache {
 		}
 	}
 	
+	/**
+	 * Returns one transformed value, computed from the row without creating or caching the transformed row.
+	 */
 	public float getExpression(int geneID, EMDataSet dataset, Transform transform, int expressionIndex) {
-		Optional<float[]> vals = getExpressions(geneID, dataset, transform);
-		
-		return vals.isPresent() ? vals.get()[expressionIndex] : Float.NaN;
+		GeneExpression expression = getGeneExpression(geneID, dataset);
+		if(expression == null || expression.getLength() < 0)
+			return Float.NaN;
+		return expression.getValue(expressionIndex, transform);
 	}
 
 	public static GeneExpression getGeneExpression(int geneID, EMDataSet dataset) {
@@ -46,12 +67,8 @@ public class ExpressionCache {
 	private static @Nullable float[] getExpression(int geneID, EMDataSet dataset, Transform transform) {
 		GeneExpression expression = getGeneExpression(geneID, dataset);
 		
-		if (expression != null) {
-			switch (transform) {
-				case ROW_NORMALIZE: return expression.rowNormalize();
-				case LOG_TRANSFORM: return expression.rowLogTransform();
-				case AS_IS:         return expression.getExpression();
-			}
+		if (expression != null && expression.getLength() >= 0) {
+			return expression.getExpression(transform);
 		}
 		
 		return null;
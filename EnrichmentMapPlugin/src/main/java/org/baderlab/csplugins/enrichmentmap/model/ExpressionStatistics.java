@@ -0,0 +1,90 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Statistics of a {@link GeneExpressionMatrix} that are needed to draw heat maps and charts: the global min and max
+ * of the expression values for each {@link Transform} and the smallest positive value. They are computed once per
+ * matrix instead of every time a color range is created, use {@link GeneExpressionMatrix#getStatistics()}.
+ * <p>
+ * The per-row mean and standard deviation used by {@link Transform#ROW_NORMALIZE} are stored by each {@link GeneExpression}.
+ */
+public class ExpressionStatistics {
+
+	private final Map<Transform,float[]> minMax = new EnumMap<>(Transform.class);
+	private final float closestToZero;
+
+
+	ExpressionStatistics(Collection<GeneExpression> expressions) {
+		for(Transform transform : Transform.values()) {
+			float[] values = computeMinMax(expressions, transform);
+			if(values != null) {
+				minMax.put(transform, values);
+			}
+		}
+		closestToZero = computeClosestToZero(expressions, getMinMax(Transform.AS_IS));
+	}
+
+
+	/**
+	 * Returns {min, max} of the transformed expression values, or null if the matrix is empty.
+	 */
+	public float[] getMinMax(Transform transform) {
+		float[] values = minMax.get(transform);
+		return values == null ? null : values.clone();
+	}
+
+	public float getClosestToZero() {
+		return closestToZero;
+	}
+
+
+	private static float[] computeMinMax(Collection<GeneExpression> expressions, Transform transform) {
+		Iterator<GeneExpression> iter = expressions.iterator();
+		if(!iter.hasNext())
+			return null;
+
+		GeneExpression first = iter.next();
+		float min = first.reduce(transform, false);
+		float max = first.reduce(transform, true);
+
+		while(iter.hasNext()) {
+			GeneExpression expression = iter.next();
+			float newMin = expression.reduce(transform, false);
+			float newMax = expression.reduce(transform, true);
+
+			if(!Float.isFinite(min))
+				min = newMin;
+			else if(Float.isFinite(newMin))
+				min = Math.min(min, newMin);
+
+			if(!Float.isFinite(max))
+				max = newMax;
+			else if(Float.isFinite(newMax))
+				max = Math.max(max, newMax);
+		}
+
+		return new float[] { min, max };
+	}
+
+	private static float computeClosestToZero(Collection<GeneExpression> expressions, float[] minMax) {
+		if(minMax == null)
+			return 0;
+		float closest = minMax[1];
+		if(closest <= 0)
+			return 0;
+		for(GeneExpression expression : expressions) {
+			int length = expression.getLength();
+			for(int i = 0; i < length; i++) {
+				float value = expression.getValue(i, Transform.AS_IS);
+				if(value > 0 && value < closest) {
+					closest = value;
+				}
+			}
+		}
+		return closest;
+	}
+}
@@ -0,0 +1,74 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+/**
+ * Two way mapping between gene names and the integer IDs that are used to represent genes
+ * everywhere else in the model.
+ * <p>
+ * Thread safe, the parsers for several data sets add genes to the same dictionary at the same time.
+ * Lookups don't lock.
+ */
+public class GeneDictionary {
+
+	private final Map<String,Integer> idsByName = new ConcurrentHashMap<>();
+	private final Map<Integer,String> namesById = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Returns the ID of the gene, if the gene is not in the dictionary it is added with
+	 * an ID taken from the given supplier. The supplier is called at most once per new gene.
+	 */
+	public Integer getOrAdd(String name, IntSupplier newId) {
+		return idsByName.computeIfAbsent(name, k -> {
+			Integer id = newId.getAsInt();
+			namesById.put(id, k); // must happen before the ID becomes visible to other threads
+			return id;
+		});
+	}
+
+	/**
+	 * Adds a gene with a known ID, used when loading sessions. If the ID or the name is already 
+	 * in the dictionary the old mapping is removed in both directions, like BiMap.forcePut().
+	 */
+	public synchronized void put(int id, String name) {
+		String oldName = namesById.put(id, name);
+		if(oldName != null && !oldName.equals(name))
+			idsByName.remove(oldName, id);
+		
+		Integer oldId = idsByName.put(name, id);
+		if(oldId != null && oldId != id)
+			namesById.remove(oldId, name);
+	}
+
+	public Integer getId(String name) {
+		return name == null ? null : idsByName.get(name);
+	}
+
+	public String getName(Integer id) {
+		return id == null ? null : namesById.get(id);
+	}
+
+	public boolean containsName(String name) {
+		return name != null && idsByName.containsKey(name);
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(idsByName.keySet());
+	}
+
+	/**
+	 * Returns an unmodifiable view of the ID to name mapping.
+	 */
+	public Map<Integer,String> asMap() {
+		return Collections.unmodifiableMap(namesById);
+	}
+
+	public int size() {
+		return namesById.size();
+	}
+}
@@ -47,7 +47,11 @@ import java.util.Arrays;
 
 
 /**
- * Class representing the expression of one gene/protein
+ * Class representing the expression of one gene/protein.
+ * <p>
+ * The values are either stored in the object's own array or, after {@link GeneExpressionMatrix#compact()},
+ * in a row of a {@link DenseExpressionMatrix}. In the second case {@link #getExpression()} returns a copy of the row,
+ * use {@link #getValue(int, Transform)} or {@link #copyTo(float[], int)} to read the values without allocating.
  */
 public class GeneExpression {
 
@@ -55,6 +59,13 @@ public class GeneExpression {
 	private String description;
 	private float[] expression;
 
+	/** The matrix that holds the values when expression is null */
+	private transient DenseExpressionMatrix block;
+	private transient int row;
+
+	/** {mean, std} of the row, computed on first use */
+	private transient volatile float[] rowStats;
+
 	private GeneExpression(String name, String description) {
 		this.name = name;
 		this.description = description;
@@ -69,6 +80,17 @@ public class GeneExpression {
 		this(name, description);
 		this.expression = new float[] { dummyVal };
 	}
+	
+	/**
+	 * Creates a view of a row of the matrix.
+	 */
+	public GeneExpression(String name, String description, DenseExpressionMatrix block, int row) {
+		this(name, description);
+		if(block.getLength(row) >= 0) {
+			this.block = block;
+			this.row = row;
+		}
+	}
 
 	/**
 	 * Row normalize the current gene expression set. Row normalization involved
@@ -78,22 +100,66 @@ public class GeneExpression {
 	 * @return an array of the row normalized values of the gene expression set.
 	 */
 	public float[] rowNormalize() {
-		float[] normalize = new float[expression.length];
-
-		float mean = mean();
-		float std  = std(mean);
-
-		if(std == 0.0) {
-			for (int i = 0; i < expression.length; i++)
-				normalize[i] = 0.0f;
-		} else {
-			for (int i = 0; i < expression.length; i++)
-				normalize[i] = (expression[i] - mean) / std;
-		}
-
+		float[] normalize = new float[getLength()];
+		for (int i = 0; i < normalize.length; i++)
+			normalize[i] = getValue(i, Transform.ROW_NORMALIZE);
 		return normalize;
 	}
 	
+	/**
+	 * Returns one transformed expression value, without allocating an array for the whole row.
+	 * Gives the same value as the element at the index of {@link #rowNormalize()} or {@link #rowLogTransform()}.
+	 */
+	public float getValue(int index, Transform transform) {
+		switch(transform) {
+			default:
+			case AS_IS: 
+				return raw(index);
+			case LOG_TRANSFORM: 
+				return (float) Math.log1p(raw(index));
+			case ROW_NORMALIZE:
+				float[] stats = getRowStats();
+				float mean = stats[0];
+				float std  = stats[1];
+				return std == 0.0 ? 0.0f : (raw(index) - mean) / std;
+		}
+	}
+	
+	private float raw(int index) {
+		float[] values = expression;
+		return values != null ? values[index] : block.get(row, index);
+	}
+	
+	/**
+	 * Returns the transformed row.
+	 */
+	public float[] getExpression(Transform transform) {
+		switch(transform) {
+			default:
+			case AS_IS:         return getExpression();
+			case LOG_TRANSFORM: return rowLogTransform();
+			case ROW_NORMALIZE: return rowNormalize();
+		}
+	}
+	
+	public float getMean() {
+		return getRowStats()[0];
+	}
+	
+	public float getStd() {
+		return getRowStats()[1];
+	}
+	
+	private float[] getRowStats() {
+		float[] stats = rowStats;
+		if(stats == null) {
+			float mean = mean();
+			float std  = std(mean);
+			rowStats = stats = new float[] { mean, std };
+		}
+		return stats;
+	}
+	
 	
 	public static float max(float[] expression) {
 		return reduceExpression(expression, Math::max);
@@ -140,25 +206,49 @@ public class GeneExpression {
 	
 	
 	private float mean() {
-		return reduceExpression(expression, (x,y) -> x + y) / expression.length;
+		return reduce(Transform.AS_IS, (x,y) -> x + y) / getLength();
 	}
 
 	private float std(final float mean) {
+		int length = getLength();
 		float sum = 0;
-		for(float exp : expression) {
+		for(int i = 0; i < length; i++) {
+			float exp = raw(i);
 			if(Float.isFinite(exp)) {
 				sum += (float)Math.pow(Math.abs(exp - mean), 2);
 			}
 		}
-		return (float) Math.sqrt(sum) / expression.length;
+		return (float) Math.sqrt(sum) / length;
 	}
 
 	public float[] rowLogTransform() {
-		float[] logtransformed = new float[expression.length];
-		for (int i = 0; i < expression.length; i++)
-			logtransformed[i] = (float) Math.log1p(expression[i]);
+		float[] logtransformed = new float[getLength()];
+		for (int i = 0; i < logtransformed.length; i++)
+			logtransformed[i] = getValue(i, Transform.LOG_TRANSFORM);
 		return logtransformed;
 	}
+	
+	/**
+	 * Same as {@link #min(float[])} or {@link #max(float[])} of the transformed row, without allocating.
+	 */
+	float reduce(Transform transform, boolean max) {
+		return max ? reduce(transform, Math::max) : reduce(transform, Math::min);
+	}
+	
+	private float reduce(Transform transform, FloatFloatFunc op) {
+		int length = getLength();
+		if(length <= 0)
+			return 0;
+		float x = getValue(0, transform);
+		for(int i = 1; i < length; i++) {
+			float e = getValue(i, transform);
+			if(!Float.isFinite(x))
+				x = e;
+			else if(Float.isFinite(e))
+				x = op.apply(x, e);
+		}
+		return x;
+	}
 
 
 	
@@ -198,12 +288,51 @@ public class GeneExpression {
 		this.description = description;
 	}
 
+	/**
+	 * Returns the values, this is a copy if the values are stored in a {@link DenseExpressionMatrix}.
+	 */
 	public float[] getExpression() {
-		return expression;
+		float[] values = expression;
+		if(values != null || block == null)
+			return values;
+		return block.copyRow(row);
+	}
+	
+	/**
+	 * Returns the number of values, or -1 if there are no values.
+	 */
+	public int getLength() {
+		float[] values = expression;
+		if(values != null)
+			return values.length;
+		return block == null ? -1 : block.getLength(row);
+	}
+	
+	/**
+	 * Copies the values to the array, starting at destPos.
+	 */
+	public void copyTo(float[] dest, int destPos) {
+		float[] values = expression;
+		if(values != null)
+			System.arraycopy(values, 0, dest, destPos, values.length);
+		else if(block != null)
+			block.copyRow(row, dest, destPos);
+	}
+	
+	/**
+	 * Replaces the values with a view of a row of the matrix, the row must have the same values.
+	 * Only meant to be called by {@link GeneExpressionMatrix#compact()}.
+	 */
+	void attach(DenseExpressionMatrix block, int row) {
+		this.block = block;
+		this.row = row;
+		this.expression = null;
 	}
 
 	public void setExpression(float[] expression) {
 		this.expression = expression;
+		this.block = null;
+		this.rowStats = null;
 	}
 	
 }
@@ -44,7 +44,6 @@
 package org.baderlab.csplugins.enrichmentmap.model;
 
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -65,56 +64,76 @@ public class GeneExpressionMatrix {
 	private Map<Integer, GeneExpression> expressionMatrix = new HashMap<>();
 
 
+	// computed on first use, recomputed if the matrix is replaced or genes are added
+	private transient ExpressionStatistics statistics;
+	private transient DenseExpressionMatrix denseMatrix;
+	private transient Map<Integer, GeneExpression> cachedMatrix;
+	private transient int cachedSize;
+
+
 	public float getClosestToZero() {
-		float closest = getMinMax(Transform.AS_IS)[1];
-		if(closest <= 0)
-			return 0;
-		for(GeneExpression expression : expressionMatrix.values()) {
-			for(float value : expression.getExpression()) {
-				if(value > 0 && value < closest) {
-					closest = value;
-				}
-			}
-		}
-		return closest;
+		return getStatistics().getClosestToZero();
 	}
 	
 	
 	public float[] getMinMax(Transform transform) {
-		Iterator<GeneExpression> iter = expressionMatrix.values().iterator();
-		if(!iter.hasNext())
-			return null;
-		
-		float[] normValues = getExpressions(iter.next(), transform);
-		float min = GeneExpression.min(normValues);
-		float max = GeneExpression.max(normValues);
-		
-		while(iter.hasNext()) {
-			normValues = getExpressions(iter.next(), transform);
-			float newMin = GeneExpression.min(normValues);
-			float newMax = GeneExpression.max(normValues);
-			
-			if(!Float.isFinite(min))
-				min = newMin;
-			else if(Float.isFinite(newMin)) 
-				min = Math.min(min, newMin);
-			
-			if(!Float.isFinite(max))
-				max = newMax;
-			else if(Float.isFinite(newMax)) 
-				max = Math.max(max, newMax);
+		return getStatistics().getMinMax(transform);
+	}
+	
+	
+	/**
+	 * Returns the min/max and closest to zero values of the matrix, computed once and reused until the matrix changes.
+	 * If the values of an existing row are changed {@link #invalidateStatistics()} must be called.
+	 */
+	public synchronized ExpressionStatistics getStatistics() {
+		validate();
+		if(statistics == null) {
+			statistics = new ExpressionStatistics(expressionMatrix.values());
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Returns all the values of the matrix in one block, for code that reads many rows at once.
+	 * If the matrix has not been compacted, or was changed after it was compacted, this is a copy.
+	 */
+	public synchronized DenseExpressionMatrix getDenseMatrix() {
+		validate();
+		if(denseMatrix == null) {
+			denseMatrix = DenseExpressionMatrix.of(expressionMatrix);
 		}
-		
-		return new float[] { min, max };
+		return denseMatrix;
 	}
 	
+	/**
+	 * Moves the values of all the rows into one {@link DenseExpressionMatrix}, the {@link GeneExpression} objects
+	 * become views of its rows. Meant to be called once the matrix is loaded, before it is shared with other threads.
+	 */
+	public synchronized void compact() {
+		invalidateStatistics();
+		DenseExpressionMatrix dense = getDenseMatrix();
+		for(Map.Entry<Integer, GeneExpression> entry : expressionMatrix.entrySet()) {
+			int row = dense.getRow(entry.getKey());
+			if(dense.getLength(row) >= 0) {
+				entry.getValue().attach(dense, row);
+			}
+		}
+	}
+	
+	/**
+	 * Drops the cached statistics and the dense copy of the matrix, call when the values of an existing row are changed.
+	 */
+	public synchronized void invalidateStatistics() {
+		statistics = null;
+		denseMatrix = null;
+		cachedMatrix = null;
+	}
 	
-	private static float[] getExpressions(GeneExpression expression, Transform transform) {
-		switch(transform) {
-			default:
-			case AS_IS: return expression.getExpression();
-			case LOG_TRANSFORM: return expression.rowLogTransform();
-			case ROW_NORMALIZE: return expression.rowNormalize();
+	private void validate() {
+		if(cachedMatrix != expressionMatrix || cachedSize != expressionMatrix.size()) {
+			invalidateStatistics();
+			cachedMatrix = expressionMatrix;
+			cachedSize = expressionMatrix.size();
 		}
 	}
 
@@ -163,6 +182,15 @@ public class GeneExpressionMatrix {
 		this.expressionMatrix = expressionMatrix;
 	}
 
+	/**
+	 * Sets a matrix whose rows are views of the dense matrix, see {@link GeneExpression#GeneExpression(String, String, DenseExpressionMatrix, int)}.
+	 */
+	public synchronized void setExpressionMatrix(Map<Integer, GeneExpression> expressionMatrix, DenseExpressionMatrix denseMatrix) {
+		this.expressionMatrix = expressionMatrix;
+		validate();
+		this.denseMatrix = denseMatrix;
+	}
+
 	/**
 	 * Restores parameters saved in the session file. Note, most of this object
 	 * is restored by the ExpressionFileReaderTask.
@@ -99,6 +99,14 @@ public class GeneSet {
 		return new GeneSet(name, description, genes, null, null, null, davidCategory);
 	}
 	
+	/**
+	 * @noreference
+	 * This method is only meant to be called by the BinaryModelSerializer.
+	 */
+	public static GeneSet create(String name, String description, Set<Integer> genes, String simpleName, String datasource, String datasourceId, String davidCategory) {
+		return new GeneSet(name, description, genes, simpleName, datasource, datasourceId, davidCategory);
+	}
+	
 	
 	protected GeneSet intersectionWith(Set<Integer> expressionGenes) {
 		Set<Integer> intersection = new HashSet<>(genes);
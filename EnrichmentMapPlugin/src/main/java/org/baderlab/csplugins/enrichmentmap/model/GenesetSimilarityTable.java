@@ -0,0 +1,271 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.baderlab.csplugins.enrichmentmap.util.SortedIntArrays;
+
+/**
+ * Compact columnar storage for the edges computed by ComputeSimilarityTaskParallel.
+ * <p>
+ * Each edge is a row index. Gene set names and data set names are stored once in
+ * dictionaries and edges refer to them by index. The overlapping genes of all the edges are
+ * stored in one shared int pool, each edge has an offset into the pool. This avoids creating
+ * a SimilarityKey, a GenesetSimilarity and a boxed Set of overlapping genes for every edge.
+ * <p>
+ * Use {@link #asMap()} for code that expects the old Map&lt;SimilarityKey,GenesetSimilarity&gt; representation.
+ */
+public class GenesetSimilarityTable {
+
+	private final String interactionType;
+
+	/** Dictionary of gene set names, the geneset1 and geneset2 columns are indices into this array. */
+	private final String[] geneSetNames;
+
+	/** The name used in the SimilarityKey for each layer, null for compound edges. */
+	private final String[] keyNames;
+	/** The data set name used in the GenesetSimilarity for each layer, "compound" for compound edges. */
+	private final String[] dataSetNames;
+
+	private final int size;
+	private final int[] geneset1;
+	private final int[] geneset2;
+	private final int[] layer;
+	private final double[] coeffecient;
+
+	/** Overlapping genes for edge i are overlapGenes[overlapOffsets[i]] to overlapGenes[overlapOffsets[i+1]-1], sorted. */
+	private final int[] overlapOffsets;
+	private final int[] overlapGenes;
+
+	private Map<SimilarityKey,Integer> keyIndex; // created lazily by asMap().get()
+
+
+	private GenesetSimilarityTable(String interactionType, String[] geneSetNames, String[] keyNames, String[] dataSetNames,
+			int size, int[] geneset1, int[] geneset2, int[] layer, double[] coeffecient, int[] overlapOffsets, int[] overlapGenes) {
+		this.interactionType = interactionType;
+		this.geneSetNames = geneSetNames;
+		this.keyNames = keyNames;
+		this.dataSetNames = dataSetNames;
+		this.size = size;
+		this.geneset1 = geneset1;
+		this.geneset2 = geneset2;
+		this.layer = layer;
+		this.coeffecient = coeffecient;
+		this.overlapOffsets = overlapOffsets;
+		this.overlapGenes = overlapGenes;
+	}
+
+	/**
+	 * Concatenates the rows of the given builders in order. The builders are typically
+	 * filled by separate threads.
+	 */
+	public static GenesetSimilarityTable concat(String interactionType, String[] geneSetNames, String[] keyNames, String[] dataSetNames, List<Builder> builders) {
+		int size = 0;
+		int poolSize = 0;
+		for(Builder builder : builders) {
+			size += builder.size;
+			poolSize += builder.poolSize;
+		}
+
+		int[] geneset1 = new int[size];
+		int[] geneset2 = new int[size];
+		int[] layer = new int[size];
+		double[] coeffecient = new double[size];
+		int[] overlapOffsets = new int[size + 1];
+		int[] overlapGenes = new int[poolSize];
+
+		int row = 0;
+		int pool = 0;
+		for(Builder builder : builders) {
+			System.arraycopy(builder.geneset1, 0, geneset1, row, builder.size);
+			System.arraycopy(builder.geneset2, 0, geneset2, row, builder.size);
+			System.arraycopy(builder.layer, 0, layer, row, builder.size);
+			System.arraycopy(builder.coeffecient, 0, coeffecient, row, builder.size);
+			for(int i = 0; i < builder.size; i++) {
+				overlapOffsets[row + i] = pool + builder.overlapOffsets[i];
+			}
+			System.arraycopy(builder.overlapGenes, 0, overlapGenes, pool, builder.poolSize);
+			row  += builder.size;
+			pool += builder.poolSize;
+		}
+		overlapOffsets[size] = pool;
+
+		return new GenesetSimilarityTable(interactionType, geneSetNames, keyNames, dataSetNames,
+				size, geneset1, geneset2, layer, coeffecient, overlapOffsets, overlapGenes);
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+	public String getInteractionType() {
+		return interactionType;
+	}
+
+	public String getGeneset1Name(int i) {
+		return geneSetNames[geneset1[i]];
+	}
+
+	public String getGeneset2Name(int i) {
+		return geneSetNames[geneset2[i]];
+	}
+
+	public double getSimilarityCoeffecient(int i) {
+		return coeffecient[i];
+	}
+
+	public boolean isCompound(int i) {
+		return keyNames[layer[i]] == null;
+	}
+
+	/**
+	 * Returns the data set name, or "compound" for compound edges. Same as {@link GenesetSimilarity#getDataSetName()}.
+	 */
+	public String getDataSetName(int i) {
+		return dataSetNames[layer[i]];
+	}
+
+	public int getSizeOfOverlap(int i) {
+		return overlapOffsets[i+1] - overlapOffsets[i];
+	}
+
+	/**
+	 * Returns the gene ID of the k-th overlapping gene of edge i, in sorted order.
+	 */
+	public int getOverlappingGene(int i, int k) {
+		return overlapGenes[overlapOffsets[i] + k];
+	}
+
+	/**
+	 * Returns an unmodifiable view of the overlapping genes, does not copy.
+	 */
+	public Set<Integer> getOverlappingGenes(int i) {
+		return SortedIntArrays.asSet(overlapGenes, overlapOffsets[i], overlapOffsets[i+1]);
+	}
+
+	public SimilarityKey getKey(int i) {
+		return new SimilarityKey(getGeneset1Name(i), getGeneset2Name(i), interactionType, keyNames[layer[i]]);
+	}
+
+	public GenesetSimilarity getSimilarity(int i) {
+		return new GenesetSimilarity(getGeneset1Name(i), getGeneset2Name(i), coeffecient[i], interactionType, getOverlappingGenes(i), getDataSetName(i));
+	}
+
+
+	/**
+	 * Returns a read-only Map view of this table. The SimilarityKey and GenesetSimilarity
+	 * objects are created on demand, they are not stored.
+	 */
+	public Map<SimilarityKey,GenesetSimilarity> asMap() {
+		return new AbstractMap<SimilarityKey,GenesetSimilarity>() {
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public GenesetSimilarity get(Object key) {
+				Integer i = getKeyIndex().get(key);
+				return i == null ? null : getSimilarity(i);
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return getKeyIndex().containsKey(key);
+			}
+
+			@Override
+			public Set<Entry<SimilarityKey,GenesetSimilarity>> entrySet() {
+				return new AbstractSet<Entry<SimilarityKey,GenesetSimilarity>>() {
+					@Override
+					public int size() {
+						return size;
+					}
+					@Override
+					public Iterator<Entry<SimilarityKey,GenesetSimilarity>> iterator() {
+						return new Iterator<Entry<SimilarityKey,GenesetSimilarity>>() {
+							int i = 0;
+							@Override
+							public boolean hasNext() {
+								return i < size;
+							}
+							@Override
+							public Entry<SimilarityKey,GenesetSimilarity> next() {
+								if(i >= size)
+									throw new NoSuchElementException();
+								int row = i++;
+								return new SimpleImmutableEntry<>(getKey(row), getSimilarity(row));
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+
+	private synchronized Map<SimilarityKey,Integer> getKeyIndex() {
+		if(keyIndex == null) {
+			keyIndex = new HashMap<>();
+			for(int i = 0; i < size; i++) {
+				keyIndex.put(getKey(i), i);
+			}
+		}
+		return keyIndex;
+	}
+
+
+	/**
+	 * Growable buffer of edges, not thread safe. Each worker thread fills its own Builder.
+	 */
+	public static class Builder {
+
+		private int size = 0;
+		private int[] geneset1 = new int[16];
+		private int[] geneset2 = new int[16];
+		private int[] layer = new int[16];
+		private double[] coeffecient = new double[16];
+		private int[] overlapOffsets = new int[16];
+
+		private int poolSize = 0;
+		private int[] overlapGenes = new int[64];
+
+		/**
+		 * Adds an edge, the overlapping genes are computed by merging the two sorted gene arrays directly into the pool.
+		 */
+		public void add(int geneset1Index, int geneset2Index, int layerIndex, double coeffecient, int[] genes1, int[] genes2) {
+			if(size == geneset1.length) {
+				int capacity = size * 2;
+				geneset1 = Arrays.copyOf(geneset1, capacity);
+				geneset2 = Arrays.copyOf(geneset2, capacity);
+				layer = Arrays.copyOf(layer, capacity);
+				this.coeffecient = Arrays.copyOf(this.coeffecient, capacity);
+				overlapOffsets = Arrays.copyOf(overlapOffsets, capacity);
+			}
+			int required = poolSize + Math.min(genes1.length, genes2.length);
+			if(required > overlapGenes.length) {
+				overlapGenes = Arrays.copyOf(overlapGenes, Math.max(required, overlapGenes.length * 2));
+			}
+
+			geneset1[size] = geneset1Index;
+			geneset2[size] = geneset2Index;
+			layer[size] = layerIndex;
+			this.coeffecient[size] = coeffecient;
+			overlapOffsets[size] = poolSize;
+			poolSize += SortedIntArrays.intersection(genes1, genes2, overlapGenes, poolSize);
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyRow;
+
+/**
+ * Computes the overlap genes of an edge from the gene sets of its two nodes.
+ * <p>
+ * When {@link EMCreationParameters#isLazyOverlapGenes()} is true the Overlap_genes column is not stored for
+ * enrichment edges, this class computes the same list on demand. The most recently requested lists are kept
+ * in a bounded cache. Use {@link EnrichmentMap#getOverlapGenesCache()} to get the instance for a map.
+ * <p>
+ * The cache is cleared when the gene sets of interest of the data sets change, for example when they are
+ * filtered again or a data set is added or removed, see {@link SetOfGeneSets#getModificationCount()}.
+ */
+public class OverlapGenesCache {
+
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+
+	private final EnrichmentMap map;
+	private final Map<String,List<String>> cache;
+	
+	/** The gene sets of interest the cached lists were computed from, with their modification counts. */
+	private List<Object> cachedState = Collections.emptyList();
+
+
+	public OverlapGenesCache(EnrichmentMap map, int cacheSize) {
+		this.map = map;
+		this.cache = new LinkedHashMap<String,List<String>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,List<String>> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	public OverlapGenesCache(EnrichmentMap map) {
+		this(map, DEFAULT_CACHE_SIZE);
+	}
+
+
+	/**
+	 * Returns the overlap genes of the edge sorted by name. If the edge has a value in the Overlap_genes
+	 * column that value is returned, otherwise it is computed from the gene sets of the edge's nodes.
+	 */
+	public List<String> getOverlapGenes(CyNetwork network, CyEdge edge) {
+		String prefix = map.getParams().getAttributePrefix();
+		CyRow row = network.getRow(edge);
+
+		if(network.getDefaultEdgeTable().getColumn(Columns.EDGE_OVERLAP_GENES.with(prefix, null)) != null) {
+			List<String> genes = Columns.EDGE_OVERLAP_GENES.get(row, prefix);
+			if(genes != null)
+				return genes;
+		}
+
+		String geneset1 = Columns.NODE_NAME.get(network.getRow(edge.getSource()), prefix);
+		String geneset2 = Columns.NODE_NAME.get(network.getRow(edge.getTarget()), prefix);
+		String dataSetName = Columns.EDGE_DATASET.get(row, prefix);
+		return getOverlapGenes(geneset1, geneset2, dataSetName);
+	}
+
+	/**
+	 * Returns the genes that two gene sets of interest have in common, sorted by name.
+	 * If dataSetName is the name of a data set that contains both gene sets then its gene sets are used (distinct edges),
+	 * otherwise the union of the gene sets over all the data sets is used (compound edges).
+	 */
+	public synchronized List<String> getOverlapGenes(String geneset1, String geneset2, String dataSetName) {
+		if(geneset1 == null || geneset2 == null)
+			return Collections.emptyList();
+
+		// overlap is symmetric
+		String key = geneset1.compareTo(geneset2) <= 0
+				? geneset1 + '\t' + geneset2 + '\t' + dataSetName
+				: geneset2 + '\t' + geneset1 + '\t' + dataSetName;
+
+		List<Object> state = getGeneSetsOfInterestState();
+		if(!state.equals(cachedState)) {
+			cache.clear();
+			cachedState = state;
+		}
+
+		List<String> genes = cache.get(key);
+		if(genes == null) {
+			genes = computeOverlapGenes(geneset1, geneset2, dataSetName);
+			cache.put(key, genes);
+		}
+		return genes;
+	}
+
+	public synchronized void clear() {
+		cache.clear();
+		cachedState = Collections.emptyList();
+	}
+
+	/**
+	 * The cached lists are valid as long as each data set has the same SetOfGeneSets object with the same
+	 * modification count. Compared by identity because SetOfGeneSets.equals() compares all the gene sets.
+	 */
+	private List<Object> getGeneSetsOfInterestState() {
+		List<EMDataSet> dataSets = map.getDataSetList();
+		List<Object> state = new ArrayList<>(dataSets.size() * 3);
+		for(EMDataSet ds : dataSets) {
+			SetOfGeneSets geneSets = ds.getGeneSetsOfInterest();
+			state.add(new IdentityKey(geneSets));
+			state.add(geneSets.getModificationCount());
+			state.add(geneSets.size());
+		}
+		return state;
+	}
+
+	private static final class IdentityKey {
+		private final Object object;
+
+		IdentityKey(Object object) {
+			this.object = object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(object);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey)obj).object == object;
+		}
+	}
+
+
+	private List<String> computeOverlapGenes(String geneset1, String geneset2, String dataSetName) {
+		Set<Integer> genes1, genes2;
+
+		EMDataSet dataset = dataSetName == null ? null : map.getDataSet(dataSetName);
+		GeneSet gs1 = dataset == null ? null : dataset.getGeneSetsOfInterest().getGeneSets().get(geneset1);
+		GeneSet gs2 = dataset == null ? null : dataset.getGeneSetsOfInterest().getGeneSets().get(geneset2);
+
+		if(gs1 != null && gs2 != null) {
+			genes1 = gs1.getGenes();
+			genes2 = gs2.getGenes();
+		} else {
+			genes1 = unionGeneSetOfInterest(geneset1);
+			genes2 = unionGeneSetOfInterest(geneset2);
+		}
+
+		if(genes1.size() > genes2.size()) {
+			Set<Integer> temp = genes1;
+			genes1 = genes2;
+			genes2 = temp;
+		}
+
+		List<String> names = new ArrayList<>();
+		for(Integer gene : genes1) {
+			if(genes2.contains(gene)) {
+				names.add(map.getGeneFromHashKey(gene));
+			}
+		}
+		// same order as the Overlap_genes column
+		names.sort(Comparator.nullsLast(Comparator.naturalOrder()));
+		return Collections.unmodifiableList(names);
+	}
+
+	private Set<Integer> unionGeneSetOfInterest(String genesetName) {
+		Set<Integer> union = new HashSet<>();
+		for(EMDataSet ds : map.getDataSetList()) {
+			GeneSet gs = ds.getGeneSetsOfInterest().getGeneSets().get(genesetName);
+			if(gs != null) {
+				union.addAll(gs.getGenes());
+			}
+		}
+		return union;
+	}
+}
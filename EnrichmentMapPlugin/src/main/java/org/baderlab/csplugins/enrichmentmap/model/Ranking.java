@@ -1,8 +1,8 @@
 package org.baderlab.csplugins.enrichmentmap.model;
 
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -17,12 +17,8 @@ public class Ranking {
 	//value - Rank
 	private Map<Integer, Rank> ranking = new HashMap<>(); 
 
-	// Lazily computed views
-	//hash for easy conversion between geneid and score
-	private transient Map<Integer, Integer> rank2gene = null;
-	private transient Map<Integer, Double> gene2score = null;
-	//array for storing scores of all genes in map
-	private double[] scores = null;
+	// Lazily computed, reads are lock free once it is built
+	private transient volatile RankingIndex index = null;
 
 	
 	public boolean isEmpty() {
@@ -39,11 +35,11 @@ public class Ranking {
 	
 	public void addRank(Integer gene, Rank rank) {
 		ranking.put(gene, rank);
-		invalidateLazyValues();
+		index = null;
 	}
 
 	public int getMaxRank() {
-		return Collections.max(getAllRanks());
+		return getIndex().getMaxRank();
 	}
 
 	public Set<Integer> getAllRanks() {
@@ -54,62 +50,47 @@ public class Ranking {
 		return ranking;
 	}
 	
-	
 	/**
-	 * Get gene2score hash
-	 * 
-	 * @return HashMap gene2score
+	 * Returns an immutable copy of the scores and ranks that can be read from many threads without locking.
+	 * Built the first time it is needed after the ranking changes.
 	 */
-	private synchronized Map<Integer, Double> getGene2Score() {
-		if(gene2score == null) {
-			gene2score = new HashMap<>();
-			ranking.forEach((gene,rank) -> gene2score.put(gene, rank.getScore()));
+	public RankingIndex getIndex() {
+		RankingIndex index = this.index;
+		if(index == null) {
+			synchronized(this) {
+				index = this.index;
+				if(index == null) {
+					index = new RankingIndex(ranking);
+					this.index = index;
+				}
+			}
 		}
-		return gene2score;
+		return index;
 	}
 	
 	public Double getScore(int gene) {
-		return getGene2Score().get(gene);
+		RankingIndex index = getIndex();
+		return index.containsScore(gene) ? index.getScore(gene) : null;
 	}
 
-	
-	private synchronized Map<Integer,Integer> getRank2Gene() {
-		if(rank2gene == null) {
-			rank2gene = new HashMap<>();
-			ranking.forEach((gene,rank) -> rank2gene.put(rank.getRank(), gene));
-		}
-		return rank2gene;
-	}
-	
 	public int getGene(int rank) {
-		return getRank2Gene().get(rank);
+		int gene = getIndex().getGene(rank);
+		if(gene == -1)
+			throw new NoSuchElementException("no gene with rank " + rank);
+		return gene;
 	}
 	
 	public boolean containsRank(int rank) {
-		return getRank2Gene().containsKey(rank);
+		return getIndex().containsRank(rank);
 	}
 	
 	/**
-	 * Get scores array (elements are in no particualr order)
+	 * Get scores array, sorted in ascending order. The array is shared and must not be modified.
 	 * 
 	 * @return double[] scores
 	 */
-	public synchronized double[] getScores() {
-		if(scores == null) {
-			Map<Integer, Double> gene2score = getGene2Score();
-			scores = new double[gene2score.size()];
-			int i = 0;
-			for(Double score : gene2score.values()) {
-				scores[i++] = score;
-			}
-		}
-		return scores;
-	}
-
-	private synchronized void invalidateLazyValues() {
-		rank2gene = null;
-		gene2score = null;
-		scores = null;
+	public double[] getScores() {
+		return getIndex().getSortedScores();
 	}
 
 }
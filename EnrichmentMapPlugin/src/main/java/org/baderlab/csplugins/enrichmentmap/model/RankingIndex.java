@@ -0,0 +1,182 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable array backed copy of the scores and ranks of a {@link Ranking}, see {@link Ranking#getIndex()}.
+ * <p>
+ * Scores are stored in an array indexed by gene ID and genes in an array indexed by rank, both offset by the smallest
+ * ID or rank. Gene IDs come from the map's gene dictionary and ranks from the position in the ranks file so both
+ * ranges are dense. The scores are also kept sorted in ascending order, and the rank of each gene's score among all
+ * the scores is precomputed for rank sum tests.
+ * <p>
+ * All methods are lock free and can be called from any number of threads.
+ */
+public final class RankingIndex {
+
+	private static final int NO_GENE = -1;
+
+	private final int size;
+
+	private final int geneOffset;
+	private final double[] scoreByGene;
+	private final boolean[] hasScore;
+	private final double[] averageRankByGene;
+
+	private final int rankOffset;
+	private final int[] geneByRank;
+	private final int maxRank;
+
+	private final double[] sortedScores;
+
+
+	/**
+	 * When two genes have the same rank the one that comes last in the iteration order of the map is kept, same as
+	 * the HashMap that this replaced. Genes without a score or rank are not indexed by score or rank.
+	 */
+	RankingIndex(Map<Integer,Rank> ranking) {
+		int minGene = Integer.MAX_VALUE, maxGene = Integer.MIN_VALUE;
+		int minRank = Integer.MAX_VALUE, maxRank = Integer.MIN_VALUE;
+		int scoreCount = 0;
+		for(Map.Entry<Integer,Rank> entry : ranking.entrySet()) {
+			Rank rank = entry.getValue();
+			if(rank.getScore() != null) {
+				minGene = Math.min(minGene, entry.getKey());
+				maxGene = Math.max(maxGene, entry.getKey());
+				scoreCount++;
+			}
+			if(rank.getRank() != null) {
+				minRank = Math.min(minRank, rank.getRank());
+				maxRank = Math.max(maxRank, rank.getRank());
+			}
+		}
+
+		this.size = ranking.size();
+		this.geneOffset = scoreCount == 0 ? 0 : minGene;
+		this.scoreByGene = new double[scoreCount == 0 ? 0 : checkedSpan(minGene, maxGene)];
+		this.hasScore = new boolean[scoreByGene.length];
+		this.averageRankByGene = new double[scoreByGene.length];
+		this.rankOffset = minRank > maxRank ? 0 : minRank;
+		this.geneByRank = new int[minRank > maxRank ? 0 : checkedSpan(minRank, maxRank)];
+		this.maxRank = maxRank;
+		this.sortedScores = new double[scoreCount];
+
+		Arrays.fill(geneByRank, NO_GENE);
+		int i = 0;
+		for(Map.Entry<Integer,Rank> entry : ranking.entrySet()) {
+			int gene = entry.getKey();
+			Rank rank = entry.getValue();
+			if(rank.getScore() != null) {
+				double score = rank.getScore();
+				scoreByGene[gene - geneOffset] = score;
+				hasScore[gene - geneOffset] = true;
+				sortedScores[i++] = score;
+			}
+			if(rank.getRank() != null) {
+				geneByRank[rank.getRank() - rankOffset] = gene;
+			}
+		}
+		Arrays.sort(sortedScores);
+
+		for(int g = 0; g < scoreByGene.length; g++) {
+			if(hasScore[g]) {
+				double score = scoreByGene[g];
+				// ranks start at 1, tied scores get the average of their ranks
+				averageRankByGene[g] = Double.isNaN(score) ? Double.NaN : (firstIndexOf(score) + lastIndexOf(score)) / 2.0 + 1;
+			}
+		}
+	}
+
+	private int firstIndexOf(double score) {
+		int lo = 0, hi = sortedScores.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sortedScores[mid], score) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private int lastIndexOf(double score) {
+		int lo = 0, hi = sortedScores.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sortedScores[mid], score) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+
+	private static int checkedSpan(int min, int max) {
+		long span = (long)max - min + 1;
+		if(span > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("range is too large to index: " + min + " to " + max);
+		return (int) span;
+	}
+
+
+	/**
+	 * Number of genes in the ranking.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean containsScore(int gene) {
+		int i = gene - geneOffset;
+		return i >= 0 && i < hasScore.length && hasScore[i];
+	}
+
+	/**
+	 * Returns the score of the gene, or NaN if the gene doesn't have a score. Use {@link #containsScore(int)}
+	 * to tell a missing score from a NaN score.
+	 */
+	public double getScore(int gene) {
+		int i = gene - geneOffset;
+		return i >= 0 && i < hasScore.length && hasScore[i] ? scoreByGene[i] : Double.NaN;
+	}
+
+	/**
+	 * Returns the rank of the gene's score among the scores of all the genes, the same as NaturalRanking with 
+	 * NaNStrategy.FIXED and TiesStrategy.AVERAGE would give it: ranks start at 1, tied scores get the average 
+	 * of their ranks and a NaN score has a NaN rank. Returns NaN if the gene doesn't have a score.
+	 */
+	public double getAverageRank(int gene) {
+		int i = gene - geneOffset;
+		return i >= 0 && i < hasScore.length && hasScore[i] ? averageRankByGene[i] : Double.NaN;
+	}
+
+	public boolean containsRank(int rank) {
+		return getGene(rank) != NO_GENE;
+	}
+
+	/**
+	 * Returns the gene with the rank, or -1 if no gene has the rank.
+	 */
+	public int getGene(int rank) {
+		int i = rank - rankOffset;
+		return i >= 0 && i < geneByRank.length ? geneByRank[i] : NO_GENE;
+	}
+
+	/**
+	 * @throws NoSuchElementException if no gene has a rank
+	 */
+	public int getMaxRank() {
+		if(geneByRank.length == 0)
+			throw new NoSuchElementException();
+		return maxRank;
+	}
+
+	/**
+	 * The scores of all the genes in ascending order. The array is shared and must not be modified.
+	 */
+	public double[] getSortedScores() {
+		return sortedScores;
+	}
+}
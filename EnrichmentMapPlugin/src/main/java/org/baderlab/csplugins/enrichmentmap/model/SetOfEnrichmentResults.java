@@ -26,6 +26,11 @@ public class SetOfEnrichmentResults {
 	private String phenotype1 = DataSetFiles.default_pheno1;
 	private String phenotype2 = DataSetFiles.default_pheno2;
 	
+	// Columnar copy of the enrichments, rebuilt when the enrichments map is replaced or changes size
+	private transient EnrichmentResultColumns columns;
+	private transient Map<String, EnrichmentResult> columnsSource;
+	private transient int columnsSize;
+	
 	public SetOfEnrichmentResults() {
 		this.enrichments = new HashMap<>();
 	}
@@ -55,6 +60,27 @@ public class SetOfEnrichmentResults {
 
 	public void setEnrichments(Map<String, EnrichmentResult> enrichments) {
 		this.enrichments = enrichments;
+		invalidateColumns();
+	}
+	
+	/**
+	 * Returns a columnar copy of the enrichments for fast filtering. The copy is cached, it is rebuilt when
+	 * results are added or removed, or when the map is replaced with {@link #setEnrichments(Map)}. Code that
+	 * replaces a result with another one for the same gene set must call {@link #invalidateColumns()},
+	 * the enrichment parsers do this once they have filled the map.
+	 */
+	public synchronized EnrichmentResultColumns getColumns() {
+		if(columns == null || columnsSource != enrichments || columnsSize != enrichments.size()) {
+			columns = new EnrichmentResultColumns(enrichments);
+			columnsSource = enrichments;
+			columnsSize = enrichments.size();
+		}
+		return columns;
+	}
+	
+	public synchronized void invalidateColumns() {
+		columns = null;
+		columnsSource = null;
 	}
 
 	public String[] getPhenotypes() {
@@ -5,9 +5,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Class represents a set of genesets.  In GSEA the set of genesets is contained in a gmt file.
+ * <p>
+ * All changes must go through the methods of this class so that the modification count is updated,
+ * {@link #getGeneSets()} returns a read only view.
  */
 public class SetOfGeneSets {
 
@@ -20,13 +24,16 @@ public class SetOfGeneSets {
 	 * an actual HashMap, otherwise it wants to use a LinkedTreeMap which uses much more memory.
 	 */
 	private HashMap<String, GeneSet> geneSets = new HashMap<>();
+	
+	/** Incremented while holding the lock of this object by the methods that change the gene sets, see {@link #getModificationCount()}. */
+	private transient volatile int modificationCount;
 
 
 	/**
 	 * FilterGenesets - restrict the genes contained in each gene set to only
 	 * the genes found in the expression file.
 	 */
-	public void filterGeneSets(Set<Integer> expressionGenes) {
+	public synchronized void filterGeneSets(Set<Integer> expressionGenes) {
 		HashMap<String, GeneSet> filteredGenesets = new HashMap<>();
 
 		//iterate through each geneset and filter each one
@@ -39,24 +46,39 @@ public class SetOfGeneSets {
 		}
 		
 		geneSets = filteredGenesets;
+		modificationCount++;
 	}
 	
 	public Collection<String> getGeneSetNames() {
 		return Collections.unmodifiableCollection(geneSets.keySet());
 	}
 	
+	/**
+	 * Returns a read only view of the gene sets.
+	 */
 	public Map<String, GeneSet> getGeneSets() {
-		return geneSets;
+		return Collections.unmodifiableMap(geneSets);
 	}
 
-	public void setGeneSets(HashMap<String, GeneSet> geneSets) {
+	public synchronized void setGeneSets(HashMap<String, GeneSet> geneSets) {
 		this.geneSets = geneSets;
+		modificationCount++;
 	}
 
-	public void addGeneSet(String key, GeneSet geneSet) {
-		synchronized (geneSet) {
-			geneSets.put(key, geneSet);
-		}
+	public synchronized void addGeneSet(String key, GeneSet geneSet) {
+		geneSets.put(key, geneSet);
+		modificationCount++;
+	}
+	
+	/**
+	 * Removes the gene sets whose names match the predicate.
+	 * @return true if any gene sets were removed
+	 */
+	public synchronized boolean removeIf(Predicate<String> genesetName) {
+		boolean removed = geneSets.keySet().removeIf(genesetName);
+		if(removed)
+			modificationCount++;
+		return removed;
 	}
 	
 
@@ -76,8 +98,17 @@ public class SetOfGeneSets {
 		return geneSets.size();
 	}
 
-	public void clear() {
+	public synchronized void clear() {
 		geneSets.clear();
+		modificationCount++;
+	}
+	
+	/**
+	 * Returns a number that changes every time the gene sets are filtered, replaced, added or cleared
+	 * through this class. Used by the caches of {@link EnrichmentMap} to tell when they are out of date.
+	 */
+	public int getModificationCount() {
+		return modificationCount;
 	}
 	
 	public boolean isEmpty() {
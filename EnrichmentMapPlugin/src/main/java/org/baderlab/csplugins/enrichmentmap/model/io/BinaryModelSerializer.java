@@ -0,0 +1,571 @@
+package org.baderlab.csplugins.enrichmentmap.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.baderlab.csplugins.enrichmentmap.model.AbstractDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.DenseExpressionMatrix;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EMSignatureDataSet;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
+import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpressionMatrix;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
+import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfEnrichmentResults;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Binary alternative to the JSON produced by {@link ModelSerializer}, for large maps.
+ * <p>
+ * The small parts of the model (parameters, data set properties, ranks...) are stored as JSON
+ * exactly like ModelSerializer does, but without the bulk data. The bulk data is stored in binary
+ * sections that are written and read by streaming, the whole model is never held in one String:
+ * <ul>
+ * <li>the gene dictionary
+ * <li>gene sets, with the genes as int arrays
+ * <li>expression matrices, with the values of each matrix in one float block
+ * <li>enrichment results, as one column per attribute
+ * </ul>
+ * <p>
+ * WARNING: The format is versioned, increment {@link #VERSION} when the format changes
+ * and keep reading the older versions.
+ */
+public class BinaryModelSerializer {
+
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x454D4D42; // "EMMB"
+	private static final int END = 0x454E4421;   // "END!"
+
+	private static final byte GENE_SETS_MAP = 0;
+	private static final byte GENE_SETS_DATA_SET = 1;
+	private static final byte GENE_SETS_SIGNATURE = 2;
+
+	private static final byte RESULT_BASE = 0;
+	private static final byte RESULT_GSEA = 1;
+	private static final byte RESULT_GENERIC = 2;
+
+	private static final int CHUNK = 8192;
+
+
+	/**
+	 * These fields are stored in the binary sections, not in the JSON.
+	 */
+	private static final ExclusionStrategy BULK_DATA = new ExclusionStrategy() {
+		@Override
+		public boolean shouldSkipField(FieldAttributes f) {
+			Class<?> c = f.getDeclaringClass();
+			String name = f.getName();
+			return (c == EnrichmentMap.class && name.equals("genes"))
+				|| (c == SetOfGeneSets.class && name.equals("geneSets"))
+				|| (c == GeneExpressionMatrix.class && name.equals("expressionMatrix"))
+				|| (c == SetOfEnrichmentResults.class && name.equals("enrichments"));
+		}
+		@Override
+		public boolean shouldSkipClass(Class<?> clazz) {
+			return false;
+		}
+	};
+
+
+	public static void serialize(EnrichmentMap map, File file) throws IOException {
+		try(var out = new FileOutputStream(file)) {
+			serialize(map, out);
+		}
+	}
+
+	public static void serialize(EnrichmentMap map, OutputStream stream) throws IOException {
+		var out = new Output(new DataOutputStream(new BufferedOutputStream(stream, 1 << 16)));
+		out.data.writeInt(MAGIC);
+		out.data.writeInt(VERSION);
+
+		Gson gson = ModelSerializer.createSerializerBuilder().setExclusionStrategies(BULK_DATA).create();
+		out.writeString(gson.toJson(map));
+
+		writeGenes(out, map);
+		writeGeneSets(out, map);
+		writeExpressions(out, map);
+		writeEnrichments(out, map);
+
+		out.data.writeInt(END);
+		out.data.flush();
+	}
+
+
+	public static EnrichmentMap deserialize(File file) throws IOException {
+		try(var in = new FileInputStream(file)) {
+			return deserialize(in);
+		}
+	}
+
+	public static EnrichmentMap deserialize(InputStream stream) throws IOException {
+		var in = new Input(new DataInputStream(new BufferedInputStream(stream, 1 << 16)));
+		if(in.data.readInt() != MAGIC)
+			throw new IOException("Not an EnrichmentMap binary model");
+		int version = in.data.readInt();
+		if(version < 1 || version > VERSION)
+			throw new IOException("Unsupported EnrichmentMap binary model version: " + version);
+
+		EnrichmentMap map;
+		try {
+			Gson gson = ModelSerializer.createDeserializerBuilder().setExclusionStrategies(BULK_DATA).create();
+			map = gson.fromJson(in.readString(), EnrichmentMap.class);
+		} catch(JsonParseException e) {
+			throw new IOException(e);
+		}
+		ModelSerializer.restoreParents(map);
+
+		readGenes(in, map);
+		readGeneSets(in, map);
+		readExpressions(in, map);
+		readEnrichments(in, map);
+
+		if(in.data.readInt() != END)
+			throw new IOException("EnrichmentMap binary model is corrupt");
+		return map;
+	}
+
+	/**
+	 * Returns true if the file starts like a file written by this class.
+	 */
+	public static boolean isBinaryModel(File file) {
+		try(var in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == MAGIC;
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+
+	private static void writeGenes(Output out, EnrichmentMap map) throws IOException {
+		// ModelSerializer sorts by ID as well, keeps the output independent of the order the genes were loaded
+		Map<Integer,String> genes = new TreeMap<>();
+		for(String gene : map.getAllGenes()) {
+			genes.put(map.getHashFromGene(gene), gene);
+		}
+		out.data.writeInt(genes.size());
+		out.writeInts(genes.keySet().stream().mapToInt(Integer::intValue).toArray());
+		for(String gene : genes.values()) {
+			out.writeString(gene);
+		}
+	}
+
+	private static void readGenes(Input in, EnrichmentMap map) throws IOException {
+		int n = in.data.readInt();
+		int[] ids = in.readInts(n);
+		for(int i = 0; i < n; i++) {
+			map.addGene(in.readString(), ids[i]);
+		}
+	}
+
+
+	private static void writeGeneSets(Output out, EnrichmentMap map) throws IOException {
+		List<String> keys = new ArrayList<>(map.getGeneSetsKeys());
+		out.data.writeInt(keys.size() + map.getDataSetCount() + map.getSignatureDataSets().size());
+		for(String key : keys) {
+			writeGeneSets(out, GENE_SETS_MAP, key, map.getGeneSets(key));
+		}
+		for(EMDataSet ds : map.getDataSetList()) {
+			writeGeneSets(out, GENE_SETS_DATA_SET, ds.getName(), ds.getGeneSetsOfInterest());
+		}
+		for(EMSignatureDataSet ds : map.getSignatureSetList()) {
+			writeGeneSets(out, GENE_SETS_SIGNATURE, ds.getName(), ds.getGeneSetsOfInterest());
+		}
+	}
+
+	private static void writeGeneSets(Output out, byte kind, String key, SetOfGeneSets setOfGeneSets) throws IOException {
+		out.data.writeByte(kind);
+		out.writeString(key);
+		Map<String,GeneSet> geneSets = setOfGeneSets == null ? Map.of() : setOfGeneSets.getGeneSets();
+		out.data.writeInt(geneSets.size());
+		for(Map.Entry<String,GeneSet> entry : geneSets.entrySet()) {
+			GeneSet gs = entry.getValue();
+			out.writeString(entry.getKey());
+			out.writeString(gs.getName());
+			out.writeString(gs.getDescription());
+			out.writeString(gs.getSimpleName().orElse(null));
+			out.writeString(gs.getSource().orElse(null));
+			out.writeString(gs.getDatasourceId().orElse(null));
+			out.writeString(gs.getDavidCategory().orElse(null));
+			int[] genes = gs.getGenes().stream().mapToInt(Integer::intValue).toArray();
+			out.data.writeInt(genes.length);
+			out.writeInts(genes);
+		}
+	}
+
+	private static void readGeneSets(Input in, EnrichmentMap map) throws IOException {
+		int count = in.data.readInt();
+		for(int i = 0; i < count; i++) {
+			byte kind = in.data.readByte();
+			String key = in.readString();
+
+			SetOfGeneSets setOfGeneSets;
+			switch(kind) {
+				case GENE_SETS_MAP:
+					setOfGeneSets = map.getGeneSets(key);
+					break;
+				case GENE_SETS_DATA_SET:
+					setOfGeneSets = geneSetsOfInterest(map.getDataSet(key));
+					break;
+				case GENE_SETS_SIGNATURE:
+					setOfGeneSets = geneSetsOfInterest(map.getSignatureDataSet(key));
+					break;
+				default:
+					throw new IOException("EnrichmentMap binary model is corrupt");
+			}
+
+			int n = in.data.readInt();
+			for(int g = 0; g < n; g++) {
+				String mapKey = in.readString();
+				String name = in.readString();
+				String description = in.readString();
+				String simpleName = in.readString();
+				String source = in.readString();
+				String datasourceId = in.readString();
+				String davidCategory = in.readString();
+				int[] genes = in.readInts(in.data.readInt());
+
+				ImmutableSet.Builder<Integer> builder = ImmutableSet.builderWithExpectedSize(genes.length);
+				for(int gene : genes) {
+					builder.add(gene);
+				}
+				GeneSet gs = GeneSet.create(name, description, builder.build(), simpleName, source, datasourceId, davidCategory);
+				if(setOfGeneSets != null) {
+					setOfGeneSets.addGeneSet(mapKey, gs);
+				}
+			}
+		}
+	}
+
+	private static SetOfGeneSets geneSetsOfInterest(AbstractDataSet ds) {
+		return ds == null ? null : ds.getGeneSetsOfInterest();
+	}
+
+
+	private static void writeExpressions(Output out, EnrichmentMap map) throws IOException {
+		List<String> keys = new ArrayList<>(map.getExpressionMatrixKeys());
+		out.data.writeInt(keys.size());
+		for(String key : keys) {
+			GeneExpressionMatrix expressionMatrix = map.getExpressionMatrix(key);
+			Map<Integer,GeneExpression> matrix = expressionMatrix.getExpressionMatrix();
+			DenseExpressionMatrix dense = expressionMatrix.getDenseMatrix();
+			int n = dense.getNumRows();
+			int[] ids = new int[n];
+			int[] lengths = new int[n];
+			GeneExpression[] rows = new GeneExpression[n];
+			for(int i = 0; i < n; i++) {
+				ids[i] = dense.getGeneId(i);
+				lengths[i] = dense.getLength(i);
+				rows[i] = matrix.get(ids[i]);
+			}
+
+			out.writeString(key);
+			out.data.writeInt(n);
+			out.writeInts(ids);
+			for(GeneExpression row : rows) {
+				out.writeString(row.getName());
+			}
+			for(GeneExpression row : rows) {
+				out.writeString(row.getDescription());
+			}
+			out.writeInts(lengths);
+
+			// All the values of the matrix in one block
+			out.data.writeInt(dense.getValues().length);
+			out.writeFloats(dense.getValues());
+		}
+	}
+
+	private static void readExpressions(Input in, EnrichmentMap map) throws IOException {
+		int count = in.data.readInt();
+		for(int m = 0; m < count; m++) {
+			String key = in.readString();
+			int n = in.data.readInt();
+			int[] ids = in.readInts(n);
+			String[] names = new String[n];
+			for(int i = 0; i < n; i++) {
+				names[i] = in.readString();
+			}
+			String[] descriptions = new String[n];
+			for(int i = 0; i < n; i++) {
+				descriptions[i] = in.readString();
+			}
+			int[] lengths = in.readInts(n);
+
+			int total = in.data.readInt();
+			DenseExpressionMatrix dense = new DenseExpressionMatrix(ids, lengths, in.readFloats(total));
+			Map<Integer,GeneExpression> expressions = new HashMap<>(Math.max(16, (int)(n / 0.75f) + 1));
+			for(int i = 0; i < n; i++) {
+				expressions.put(ids[i], new GeneExpression(names[i], descriptions[i], dense, dense.getRow(ids[i])));
+			}
+
+			GeneExpressionMatrix matrix = map.getExpressionMatrix(key);
+			if(matrix == null) {
+				matrix = new GeneExpressionMatrix();
+				map.putExpressionMatrix(key, matrix);
+			}
+			matrix.setExpressionMatrix(expressions, dense);
+		}
+	}
+
+
+	private static void writeEnrichments(Output out, EnrichmentMap map) throws IOException {
+		List<EMDataSet> dataSets = map.getDataSetList();
+		out.data.writeInt(dataSets.size());
+		for(EMDataSet ds : dataSets) {
+			Map<String,EnrichmentResult> enrichments = ds.getEnrichments().getEnrichments();
+			int n = enrichments.size();
+			String[] keys = new String[n];
+			EnrichmentResult[] results = new EnrichmentResult[n];
+			int i = 0;
+			for(Map.Entry<String,EnrichmentResult> entry : enrichments.entrySet()) {
+				keys[i] = entry.getKey();
+				results[i] = entry.getValue();
+				i++;
+			}
+
+			byte[] types = new byte[n];
+			int[] gsSize = new int[n], rankAtMax = new int[n];
+			double[] pvalue = new double[n], es = new double[n], nes = new double[n], fdr = new double[n], fwer = new double[n], scoreAtMax = new double[n];
+			for(i = 0; i < n; i++) {
+				EnrichmentResult r = results[i];
+				pvalue[i] = r.getPvalue();
+				gsSize[i] = r.getGsSize();
+				if(r.getClass() == GSEAResult.class) {
+					GSEAResult gr = (GSEAResult) r;
+					types[i] = RESULT_GSEA;
+					es[i] = gr.getES();
+					nes[i] = gr.getNES();
+					fdr[i] = gr.getFdrqvalue();
+					fwer[i] = gr.getFwerqvalue();
+					rankAtMax[i] = gr.getRankAtMax();
+					scoreAtMax[i] = gr.getScoreAtMax();
+				} else if(r.getClass() == GenericResult.class) {
+					GenericResult gr = (GenericResult) r;
+					types[i] = RESULT_GENERIC;
+					nes[i] = gr.getNES();
+					fdr[i] = gr.getFdrqvalue();
+				} else if(r.getClass() == EnrichmentResult.class) {
+					types[i] = RESULT_BASE;
+				} else {
+					throw new IOException("Unknown class: " + r.getClass().getSimpleName());
+				}
+			}
+
+			out.writeString(ds.getName());
+			out.data.writeInt(n);
+			out.data.write(types);
+			for(i = 0; i < n; i++) {
+				out.writeString(keys[i]);
+			}
+			for(i = 0; i < n; i++) {
+				out.writeString(results[i].getName());
+			}
+			for(i = 0; i < n; i++) {
+				out.writeString(results[i].getDescription());
+			}
+			out.writeInts(gsSize);
+			out.writeDoubles(pvalue);
+			out.writeDoubles(es);
+			out.writeDoubles(nes);
+			out.writeDoubles(fdr);
+			out.writeDoubles(fwer);
+			out.writeInts(rankAtMax);
+			out.writeDoubles(scoreAtMax);
+		}
+	}
+
+	private static void readEnrichments(Input in, EnrichmentMap map) throws IOException {
+		int count = in.data.readInt();
+		for(int d = 0; d < count; d++) {
+			String name = in.readString();
+			int n = in.data.readInt();
+			byte[] types = new byte[n];
+			in.data.readFully(types);
+			String[] keys = new String[n], names = new String[n], descriptions = new String[n];
+			for(int i = 0; i < n; i++) {
+				keys[i] = in.readString();
+			}
+			for(int i = 0; i < n; i++) {
+				names[i] = in.readString();
+			}
+			for(int i = 0; i < n; i++) {
+				descriptions[i] = in.readString();
+			}
+			int[] gsSize = in.readInts(n);
+			double[] pvalue = in.readDoubles(n);
+			double[] es = in.readDoubles(n);
+			double[] nes = in.readDoubles(n);
+			double[] fdr = in.readDoubles(n);
+			double[] fwer = in.readDoubles(n);
+			int[] rankAtMax = in.readInts(n);
+			double[] scoreAtMax = in.readDoubles(n);
+
+			Map<String,EnrichmentResult> enrichments = new HashMap<>(Math.max(16, (int)(n / 0.75f) + 1));
+			for(int i = 0; i < n; i++) {
+				EnrichmentResult r;
+				switch(types[i]) {
+					case RESULT_GSEA:
+						r = new GSEAResult(names[i], gsSize[i], es[i], nes[i], pvalue[i], fdr[i], fwer[i], rankAtMax[i], scoreAtMax[i]);
+						break;
+					case RESULT_GENERIC:
+						r = new GenericResult(names[i], descriptions[i], pvalue[i], gsSize[i], fdr[i], nes[i]);
+						break;
+					case RESULT_BASE:
+						r = new EnrichmentResult(names[i], descriptions[i], pvalue[i], gsSize[i]);
+						break;
+					default:
+						throw new IOException("EnrichmentMap binary model is corrupt");
+				}
+				enrichments.put(keys[i], r);
+			}
+
+			EMDataSet ds = map.getDataSet(name);
+			if(ds != null) {
+				ds.getEnrichments().setEnrichments(enrichments);
+			}
+		}
+	}
+
+
+	/**
+	 * Writes primitive arrays through a reusable buffer instead of one value at a time.
+	 */
+	private static class Output {
+		final DataOutputStream data;
+		final ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+
+		Output(DataOutputStream data) {
+			this.data = data;
+		}
+
+		void writeString(String s) throws IOException {
+			if(s == null) {
+				data.writeInt(-1);
+			} else {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				data.writeInt(bytes.length);
+				data.write(bytes);
+			}
+		}
+
+		void writeInts(int[] values) throws IOException {
+			for(int i = 0; i < values.length; ) {
+				buffer.clear();
+				int n = Math.min(values.length - i, CHUNK / Integer.BYTES);
+				buffer.asIntBuffer().put(values, i, n);
+				data.write(buffer.array(), 0, n * Integer.BYTES);
+				i += n;
+			}
+		}
+
+		void writeFloats(float[] values) throws IOException {
+			for(int i = 0; i < values.length; ) {
+				buffer.clear();
+				int n = Math.min(values.length - i, CHUNK / Float.BYTES);
+				buffer.asFloatBuffer().put(values, i, n);
+				data.write(buffer.array(), 0, n * Float.BYTES);
+				i += n;
+			}
+		}
+
+		void writeDoubles(double[] values) throws IOException {
+			for(int i = 0; i < values.length; ) {
+				buffer.clear();
+				int n = Math.min(values.length - i, CHUNK / Double.BYTES);
+				buffer.asDoubleBuffer().put(values, i, n);
+				data.write(buffer.array(), 0, n * Double.BYTES);
+				i += n;
+			}
+		}
+	}
+
+	private static class Input {
+		final DataInputStream data;
+		final ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+		byte[] stringBytes = new byte[256];
+
+		Input(DataInputStream data) {
+			this.data = data;
+		}
+
+		String readString() throws IOException {
+			int length = data.readInt();
+			if(length < 0)
+				return null;
+			if(length > stringBytes.length)
+				stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+			data.readFully(stringBytes, 0, length);
+			return new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+		}
+
+		private void checkLength(int length) throws IOException {
+			if(length < 0)
+				throw new EOFException("EnrichmentMap binary model is corrupt");
+		}
+
+		int[] readInts(int length) throws IOException {
+			checkLength(length);
+			int[] values = new int[length];
+			for(int i = 0; i < length; ) {
+				int n = Math.min(length - i, CHUNK / Integer.BYTES);
+				data.readFully(buffer.array(), 0, n * Integer.BYTES);
+				buffer.clear();
+				buffer.asIntBuffer().get(values, i, n);
+				i += n;
+			}
+			return values;
+		}
+
+		float[] readFloats(int length) throws IOException {
+			checkLength(length);
+			float[] values = new float[length];
+			for(int i = 0; i < length; ) {
+				int n = Math.min(length - i, CHUNK / Float.BYTES);
+				data.readFully(buffer.array(), 0, n * Float.BYTES);
+				buffer.clear();
+				buffer.asFloatBuffer().get(values, i, n);
+				i += n;
+			}
+			return values;
+		}
+
+		double[] readDoubles(int length) throws IOException {
+			checkLength(length);
+			double[] values = new double[length];
+			for(int i = 0; i < length; ) {
+				int n = Math.min(length - i, CHUNK / Double.BYTES);
+				data.readFully(buffer.array(), 0, n * Double.BYTES);
+				buffer.clear();
+				buffer.asDoubleBuffer().get(values, i, n);
+				i += n;
+			}
+			return values;
+		}
+	}
+}
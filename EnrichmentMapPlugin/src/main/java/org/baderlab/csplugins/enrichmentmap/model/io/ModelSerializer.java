@@ -12,18 +12,19 @@ import java.lang.reflect.Type;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMSignatureDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
+import org.baderlab.csplugins.enrichmentmap.model.GeneDictionary;
+import org.baderlab.csplugins.enrichmentmap.model.GeneExpression;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -67,11 +68,7 @@ public class ModelSerializer {
 	private static void serialize(EnrichmentMap map, boolean pretty, Appendable writer) {
 		// When saving to the session file DO NOT enable pretty printing, the Cytoscape
 		// CSV parser is very slow for multi-line text
-		GsonBuilder builder = new GsonBuilder()
-				.registerTypeHierarchyAdapter(Path.class, new PathAdapter())
-				.registerTypeAdapter(EnrichmentResult.class, new EnrichmentResultAdapter())
-				.registerTypeHierarchyAdapter(Color.class, new ColorAdapter())
-				.serializeSpecialFloatingPointValues(); // really important, we allow NaN in expression files
+		GsonBuilder builder = createSerializerBuilder();
 
 		if(pretty)
 			builder.setPrettyPrinting();
@@ -81,6 +78,45 @@ public class ModelSerializer {
 		
 	}
 	
+	static GsonBuilder createSerializerBuilder() {
+		return new GsonBuilder()
+				.registerTypeHierarchyAdapter(Path.class, new PathAdapter())
+				.registerTypeAdapter(EnrichmentResult.class, new EnrichmentResultAdapter())
+				.registerTypeAdapter(GeneDictionary.class, new GeneDictionaryAdapter())
+				.registerTypeAdapter(GeneExpression.class, new GeneExpressionAdapter())
+				.registerTypeHierarchyAdapter(Color.class, new ColorAdapter())
+				.serializeSpecialFloatingPointValues(); // really important, we allow NaN in expression files
+	}
+	
+	static GsonBuilder createDeserializerBuilder() {
+		Type immutableIntSetType = new TypeToken<ImmutableSet<Integer>>() {}.getType();
+		
+		return new GsonBuilder()
+				.registerTypeAdapter(GeneDictionary.class, new GeneDictionaryAdapter())
+				.registerTypeHierarchyAdapter(Path.class, new PathAdapter())
+				.registerTypeAdapter(EnrichmentResult.class, new EnrichmentResultAdapter())
+				.registerTypeHierarchyAdapter(Color.class, new ColorAdapter())
+				.registerTypeAdapter(immutableIntSetType, new ImmutableIntSetAdapter());
+	}
+	
+	/**
+	 * The parent pointers of the data sets are not serialized.
+	 */
+	static void restoreParents(EnrichmentMap map) {
+		for (EMDataSet dataset : map.getDataSetList()) {
+			dataset.setParent(map);
+		}
+		for (EMSignatureDataSet dataset : map.getSignatureSetList()) {
+			dataset.setParent(map);
+		}
+	}
+	
+	static void compactExpressions(EnrichmentMap map) {
+		for (String key : map.getExpressionMatrixKeys()) {
+			map.getExpressionMatrix(key).compact();
+		}
+	}
+	
 	public static EnrichmentMap deserialize(File file) throws IOException {
 		try(var reader = new FileReader(file)) {
 			return deserialize(reader);
@@ -95,23 +131,12 @@ public class ModelSerializer {
 	
 	
 	private static EnrichmentMap deserialize(Reader reader) {
-		Type immutableIntSetType = new TypeToken<ImmutableSet<Integer>>() {}.getType();
-
-		Gson gson = new GsonBuilder()
-				.registerTypeAdapter(BiMap.class, new BiMapAdapter())
-				.registerTypeHierarchyAdapter(Path.class, new PathAdapter())
-				.registerTypeAdapter(EnrichmentResult.class, new EnrichmentResultAdapter())
-				.registerTypeHierarchyAdapter(Color.class, new ColorAdapter())
-				.registerTypeAdapter(immutableIntSetType, new ImmutableIntSetAdapter()).create();
+		Gson gson = createDeserializerBuilder().create();
 
 		try {
 			EnrichmentMap map = gson.fromJson(reader, EnrichmentMap.class);
-			for (EMDataSet dataset : map.getDataSetList()) {
-				dataset.setParent(map);
-			}
-			for (EMSignatureDataSet dataset : map.getSignatureSetList()) {
-				dataset.setParent(map);
-			}
+			restoreParents(map);
+			compactExpressions(map);
 			return map;
 		} catch (JsonParseException e) {
 			logger.error(e.getMessage(), e);
@@ -119,17 +144,45 @@ public class ModelSerializer {
 		}
 	}
 
-	private static class BiMapAdapter implements JsonDeserializer<BiMap<Integer, String>> {
+	/**
+	 * Uses the same JSON as the BiMap that was used for the genes before, a map from ID to gene name.
+	 */
+	private static class GeneDictionaryAdapter implements JsonDeserializer<GeneDictionary>, JsonSerializer<GeneDictionary> {
 		@Override
-		public BiMap<Integer, String> deserialize(JsonElement json, Type type, JsonDeserializationContext context) {
-			BiMap<Integer, String> mapping = HashBiMap.create();
+		public GeneDictionary deserialize(JsonElement json, Type type, JsonDeserializationContext context) {
+			GeneDictionary genes = new GeneDictionary();
 			JsonObject object = (JsonObject) json;
 			for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
 				Integer geneId = Integer.parseInt(entry.getKey());
 				String geneName = entry.getValue().getAsString();
-				mapping.put(geneId, geneName);
+				genes.put(geneId, geneName);
+			}
+			return genes;
+		}
+
+		@Override
+		public JsonElement serialize(GeneDictionary genes, Type type, JsonSerializationContext context) {
+			JsonObject object = new JsonObject();
+			// sort by ID so the output doesn't depend on the order the genes were loaded
+			for (Map.Entry<Integer, String> entry : new TreeMap<>(genes.asMap()).entrySet()) {
+				object.addProperty(String.valueOf(entry.getKey()), entry.getValue());
 			}
-			return mapping;
+			return object;
+		}
+	}
+
+	/**
+	 * Writes the same JSON as the fields of GeneExpression, the values may be stored in a DenseExpressionMatrix.
+	 * Deserialization uses the default field based adapter.
+	 */
+	private static class GeneExpressionAdapter implements JsonSerializer<GeneExpression> {
+		@Override
+		public JsonElement serialize(GeneExpression expression, Type type, JsonSerializationContext context) {
+			JsonObject object = new JsonObject();
+			object.add("name", context.serialize(expression.getName()));
+			object.add("description", context.serialize(expression.getDescription()));
+			object.add("expression", context.serialize(expression.getExpression()));
+			return object;
 		}
 	}
 
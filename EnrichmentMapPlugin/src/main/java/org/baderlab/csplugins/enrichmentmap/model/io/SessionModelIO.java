@@ -1,9 +1,9 @@
 package org.baderlab.csplugins.enrichmentmap.model.io;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +14,7 @@ import java.util.regex.Pattern;
 
 import org.baderlab.csplugins.enrichmentmap.ApplicationModule.Headless;
 import org.baderlab.csplugins.enrichmentmap.CyActivator;
+import org.baderlab.csplugins.enrichmentmap.PropertyManager;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMSignatureDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
@@ -55,6 +56,7 @@ public class SessionModelIO {
 	
 	private static final String SESSION_FILE_NAME_FORMAT  = "EM_%d_";
 	private static final String SESSION_FILE_NAME_PATTERN = "EM_(\\d+)_";
+	private static final String BINARY_FILE_SUFFIX = ".embin";
 	
 	/**
 	 * WARNING
@@ -72,6 +74,8 @@ public class SessionModelIO {
 	private static final ColumnDescriptor<Integer> COL_PK         = new ColumnDescriptor<>("ID", Integer.class);
 	private static final ColumnDescriptor<Long>    COL_NETWORK_ID = new ColumnDescriptor<>("Network.SUID", Long.class);
 	private static final ColumnDescriptor<String>  COL_EM_JSON    = new ColumnDescriptor<>("Model.JSON", String.class);
+	/** Path of the temp file that holds the binary model, JSON is null when this is used. */
+	private static final ColumnDescriptor<String>  COL_EM_FILE    = new ColumnDescriptor<>("Model.File", String.class);
 	
 	@Inject private CyNetworkManager networkManager;
 	@Inject private CyTableManager tableManager;
@@ -82,6 +86,10 @@ public class SessionModelIO {
 	@Inject private Provider<ControlPanelMediator> controlPanelMediatorProvider;
 	@Inject private Provider<HeatMapMediator> heatMapMediatorProvider;
 	@Inject private EnrichmentMapManager emManager;
+	@Inject private PropertyManager propertyManager;
+	
+	/** The binary model file of each network, reused every time the session is saved. */
+	private final Map<Long,File> binaryFiles = new HashMap<>();
 	
 	@Inject private @Headless boolean headless;
 	
@@ -98,10 +106,25 @@ public class SessionModelIO {
 		int id[] = {0};
 		List<File> files = new ArrayList<>(); // Ideally this will remain empty.
 		
+		boolean binary = propertyManager.isTrue(PropertyManager.SESSION_BINARY_MODEL);
+		
 		Map<Long,EnrichmentMap> maps = emManager.getAllEnrichmentMaps();
 		maps.forEach((suid, em) -> {
 			CyNetwork network = networkManager.getNetwork(suid);
 			if(network != null) { // MKTODO big error if its null
+				if(binary) {
+					try {
+						File file = serializeToBinaryFile(em, suid);
+						files.add(file);
+						CyRow row = table.getRow(id[0]);
+						COL_NETWORK_ID.set(row, suid);
+						COL_EM_FILE.set(row, file.getAbsolutePath());
+						id[0]++;
+						return;
+					} catch(IOException ioe) {
+						log.warn("EnrichmentMap: Could not save binary model, saving JSON instead.", ioe);
+					}
+				}
 				try {
 					CyRow row = table.getRow(id[0]);
 					serializeToTableRow(em, suid, row);
@@ -122,6 +145,7 @@ public class SessionModelIO {
 			}
 		});
 		
+		deleteUnusedBinaryFiles(binary ? maps.keySet() : Set.of());
 		return files;
 	}
 	
@@ -157,6 +181,38 @@ public class SessionModelIO {
 	}
 	
 	
+	/**
+	 * Serializing the model to a file in the binary format, see {@link BinaryModelSerializer}.
+	 * The file gets zipped up into the session. Its path is also stored in the private table
+	 * so the model can be restored when the App is reloaded, the file lives as long as Cytoscape runs.
+	 * Each network has one file that is overwritten every time the session is saved.
+	 * 
+	 * @since 3.4.0 Restoring the model from a binary file won't work for older versions of EM.
+	 */
+	private synchronized File serializeToBinaryFile(EnrichmentMap em, Long suid) throws IOException {
+		File file = binaryFiles.get(suid);
+		if(file == null || !file.exists()) {
+			file = File.createTempFile(String.format(SESSION_FILE_NAME_FORMAT, suid), BINARY_FILE_SUFFIX);
+			file.deleteOnExit();
+			binaryFiles.put(suid, file);
+		}
+		BinaryModelSerializer.serialize(em, file);
+		return file;
+	}
+	
+	/**
+	 * Deletes the binary model files that the private table doesn't refer to anymore.
+	 */
+	private synchronized void deleteUnusedBinaryFiles(Set<Long> suids) {
+		binaryFiles.entrySet().removeIf(entry -> {
+			if(suids.contains(entry.getKey()))
+				return false;
+			entry.getValue().delete();
+			return true;
+		});
+	}
+	
+	
 	public void restoreModel(CySession session) {
 		if(debug)
 			System.out.println("SessionModelListener.restoreModel()");
@@ -216,6 +272,7 @@ public class SessionModelIO {
 		if(table == null)
 			return false;
 		
+		boolean hasFileColumn = hasColumn(table, COL_EM_FILE);
 		boolean sessionHasEM = false;
 		for(CyRow row : table.getAllRows()) {
 			Long suid = COL_NETWORK_ID.get(row); // suid is automatically mapped because the column name ends with .SUID
@@ -229,6 +286,20 @@ public class SessionModelIO {
 						sessionHasEM = true;
 					}
 				}
+			} else if(suid != null && session == null && hasFileColumn) {
+				// The App was reloaded, the binary model is still in the temp file. 
+				// When a session is loaded the file comes from the session instead, see restoreModelFromFiles().
+				String path = COL_EM_FILE.get(row);
+				CyNetwork network = networkManager.getNetwork(suid);
+				if(path != null && network != null && new File(path).exists()) {
+					try {
+						EnrichmentMap em = BinaryModelSerializer.deserialize(new File(path));
+						registerEnrichmentMap(em, network, session);
+						sessionHasEM = true;
+					} catch(IOException ioe) {
+						log.error("EnrichmentMap: Could not load binary model.", ioe);
+					}
+				}
 			}
 		}
 		return sessionHasEM;
@@ -250,15 +321,19 @@ public class SessionModelIO {
 			if(networkSuid != null) {
 				CyNetwork network = networkManager.getNetwork(networkSuid);
 				if(network != null) {
-					try(var reader = new FileReader(file)) {
-						EnrichmentMap em = ModelSerializer.deserialize(file);
+					try {
+						EnrichmentMap em;
+						if(BinaryModelSerializer.isBinaryModel(file))
+							em = BinaryModelSerializer.deserialize(file);
+						else
+							em = ModelSerializer.deserialize(file);
 						if(em != null) {
 							registerEnrichmentMap(em, network, session);
 							sessionHasEM = true;
 						}
 					} catch(IOException ioe) {
 						ioe.printStackTrace();
-						log.error("EnrichmentMap: Could not load JSON data from session.", ioe);
+						log.error("EnrichmentMap: Could not load model data from session.", ioe);
 					}
 				}
 			}
@@ -377,6 +452,7 @@ public class SessionModelIO {
 		CyTable table = tableFactory.createTable(MODEL_TABLE_TITLE, COL_PK.getBaseName(), COL_PK.getType(), false, false);
 		COL_NETWORK_ID.createColumn(table);
 		COL_EM_JSON.createColumn(table);
+		COL_EM_FILE.createColumn(table);
 		table.setPublic(false);
 		tableManager.addTable(table);
 		return table;
@@ -385,7 +461,7 @@ public class SessionModelIO {
 	
 	private static boolean hasColumn(CyTable table, ColumnDescriptor<?> colDesc) {
 		CyColumn col = table.getColumn(colDesc.getBaseName());
-		return col.getName().equals(colDesc.getBaseName()) && col.getType().equals(colDesc.getType());
+		return col != null && col.getName().equals(colDesc.getBaseName()) && col.getType().equals(colDesc.getType());
 	}
 	
 	private CyTable getOrCreatePrivateModelTable() {
@@ -393,6 +469,8 @@ public class SessionModelIO {
 		CyTable table = getPrivateTable();
 		if(table == null)
 			table = createPrivateTable();
+		else if(table.getColumn(COL_EM_FILE.getBaseName()) == null)
+			COL_EM_FILE.createColumn(table); // table from a session saved before the binary format
 		return table;
 	}
 	
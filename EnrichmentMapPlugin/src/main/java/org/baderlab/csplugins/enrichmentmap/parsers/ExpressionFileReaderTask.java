@@ -45,6 +45,7 @@ package org.baderlab.csplugins.enrichmentmap.parsers;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.function.IntSupplier;
 
 import org.apache.commons.math3.util.Precision;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
@@ -63,11 +64,20 @@ import org.cytoscape.work.TaskMonitor;
 public class ExpressionFileReaderTask extends AbstractTask {
 
 	private final EMDataSet dataset;
+	private IntSupplier maxGeneId = () -> Integer.MAX_VALUE;
 
 	public ExpressionFileReaderTask(EMDataSet dataset) {
 		this.dataset = dataset;
 	}
 	
+	/**
+	 * Only genes with an ID up to the value returned by the supplier are kept, the supplier is called
+	 * when the file is parsed. Used to ignore the genes that the data sets loaded after this one add to the map.
+	 */
+	public void setMaxGeneId(IntSupplier maxGeneId) {
+		this.maxGeneId = maxGeneId;
+	}
+	
 	@Override
 	public void run(TaskMonitor taskMonitor) throws IOException {
 		parse(taskMonitor);
@@ -83,21 +93,21 @@ public class ExpressionFileReaderTask extends AbstractTask {
 		taskMonitor.setTitle("Parsing Expression file");
 		
 		String fileName = dataset.getDataSetFiles().getExpressionFileName();
-		LineReader lines = LineReader.create(fileName);
+		TabDelimitedScanner scanner = TabDelimitedScanner.open(fileName);
 		
-		try(lines) {
-			return parseLines(lines);
+		try(scanner) {
+			return parseLines(scanner);
 		} catch(NumberFormatException e) {
-			throw new IOException("Invalid number on line " + lines.getLineNumber() + " of expression file: '" + fileName + "'", e);
+			throw new IOException("Invalid number on line " + scanner.getLineNumber() + " of expression file: '" + fileName + "'", e);
 		} catch(Exception e) {
-			throw new IOException("Could not parse line " + lines.getLineNumber() + " of expression file '" + fileName +  "'", e);
+			throw new IOException("Could not parse line " + scanner.getLineNumber() + " of expression file '" + fileName +  "'", e);
 		} finally {
 			taskMonitor.setProgress(1.0);
 		}
 	}
 	
 	
-	private GeneExpressionMatrix parseLines(LineReader lineReader) throws IOException {
+	private GeneExpressionMatrix parseLines(TabDelimitedScanner scanner) throws IOException {
 
 		//Need to check if the file specified as an expression file is actually a rank file
 		//If it is a rank file it can either be 5 or 2 columns but it is important that the rank
@@ -126,31 +136,38 @@ public class ExpressionFileReaderTask extends AbstractTask {
 		
 		int expressionUniverse = 0;
 		boolean twoColumns = false;
+		
+		// Only genes that are already in the map are kept, the interner looks up each distinct name once
+		// and the gene name is only turned into a String the first time it is seen.
+		int maxKey = maxGeneId.getAsInt();
+		TokenInterner geneKeys = new TokenInterner(true, true, name -> {
+			Integer key = map.getHashFromGene(name);
+			return key == null || key > maxKey ? -1 : key;
+		});
 
-
-		while(lineReader.hasMoreLines()) {
-			String line = lineReader.nextLine();
-			if(line.isBlank())
+		while(scanner.nextLine()) {
+			if(scanner.isBlank())
 				continue;
 			
-			String[] tokens = line.split("\t");
-			String name = tokens[0].toUpperCase().trim();
-
 			//if this is the first line and the expression matrix if still empty and the column names are empty
 			//Added column names empty for GSEA rank files that have no heading but after going through the loop
 			//the first time we have given them default headings
-			if(lineReader.getLineNumber() == 1 && (expressionMatrix == null || expressionMatrix.getExpressionMatrix().isEmpty()) && expressionMatrix.getColumnNames() == null) {
+			if(scanner.getLineNumber() == 1 && (expressionMatrix == null || expressionMatrix.getExpressionMatrix().isEmpty()) && expressionMatrix.getColumnNames() == null) {
+				String name = scanner.getToken(0).toUpperCase().trim();
 				//otherwise the first line is the header
 				if(name.equalsIgnoreCase("#1.2")) {
-					lineReader.nextLine();
-					line = lineReader.nextLine();
+					nextLine(scanner);
+					nextLine(scanner);
 				} else {
-					while(line.startsWith("#")) {
-						line = lineReader.nextLine(); //ignore all comment lines
+					while(scanner.startsWith('#')) {
+						nextLine(scanner); //ignore all comment lines
 					}
 				}
 				
-				tokens = line.split("\t"); // May have skipped lines, need to split again
+				String[] tokens = new String[scanner.getTokenCount()]; // May have skipped lines, need to read the tokens again
+				for(int i = 0; i < tokens.length; i++) {
+					tokens[i] = scanner.getToken(i);
+				}
 				
 				if(tokens.length == 2) {
 					twoColumns = true;
@@ -174,20 +191,21 @@ public class ExpressionFileReaderTask extends AbstractTask {
 			//Check to see if this gene is in the genes list
 			//Currently we only load gene expression data for genes that are already in the gene list (i.e. are listed in at least one geneset)
 			//TODO:is there the possibility that we need all the expression genes?  Currently this great decreases space when saving sessions
-			Integer genekey = map.getHashFromGene(name);
-			if(genekey != null) {
+			int genekey = scanner.intern(0, geneKeys);
+			if(genekey != -1) {
+				String name = map.getGeneFromHashKey(genekey);
 				String description = "";
 				if(twoColumns) {
 					try {
-						Double.parseDouble(tokens[1]);
+						Double.parseDouble(scanner.getToken(1));
 					} catch(NumberFormatException e) {
-						description = tokens[1];
+						description = scanner.getToken(1);
 					}
 				} else {
-					description = tokens[1];
+					description = scanner.getToken(1);
 				}
 
-				float[] expressionsAsFloat = parseExpressions(tokens);
+				float[] expressionsAsFloat = parseExpressions(scanner);
 				GeneExpression expres = new GeneExpression(name, description, expressionsAsFloat);
 				expression.put(genekey, expres);
 			}
@@ -196,6 +214,7 @@ public class ExpressionFileReaderTask extends AbstractTask {
 
 		//set the number of genes
 		expressionMatrix.setExpressionUniverse(expressionUniverse);
+		expressionMatrix.compact();
 		return expressionMatrix;
 	}
 
@@ -226,12 +245,45 @@ public class ExpressionFileReaderTask extends AbstractTask {
 		return expression;
 	}
 	
+	/**
+	 * Same as {@link #parseExpressions(String[])} but reads the numbers directly from the scanner's current line.
+	 */
+	private static float[] parseExpressions(TabDelimitedScanner scanner) {
+		int size = scanner.getTokenCount();
+		float[] expression;
+		
+		if (size > 2) {
+			expression = new float[size - 2];
+			for (int i = 2; i < size; i++) {
+				try {
+					expression[i - 2] = Precision.round(scanner.parseFloat(i), 4);
+				} catch(NumberFormatException e) {
+					throw new NumberFormatException("The expression file contains the text '" + scanner.getToken(i) + "' where a number was expected.");
+				}
+			}
+		} else {
+			expression = new float[1];
+			try {
+				expression[0] = Precision.round(scanner.parseFloat(1), 4);
+			} catch (NumberFormatException e) {
+				// if the column doesn't contain doubles then just assume that the expression file is empty
+				expression[0] = 0.0f;
+			}
+		}
+		return expression;
+	}
+	
 	
 	private static float parseAndRound(String exp) {
 		float f = Float.parseFloat(exp);
 		float r = Precision.round(f, 4);
 		return r;
 	}
+	
+	private static void nextLine(TabDelimitedScanner scanner) throws IOException {
+		if(!scanner.nextLine())
+			throw new IOException("Unexpected end of file");
+	}
 
 	
 }
@@ -0,0 +1,207 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Remembers parsed GMT files so that data sets (and later map builds) that use the same
+ * GMT file don't parse it again.
+ * <p>
+ * Entries are keyed by the path, size and modification time of the file and by the
+ * 'parse Baderlab gene sets' flag, so an entry is never used after the file changes.
+ * The total size of the entries is kept under a memory budget, the least recently used entries are evicted first.
+ * If several threads ask for the same file at the same time only one of them parses it.
+ */
+public class GMTFileCache {
+
+	public static final long DEFAULT_BUDGET = Math.min(Runtime.getRuntime().maxMemory() / 8, 512L * 1024 * 1024);
+
+	private static GMTFileCache shared;
+
+	@FunctionalInterface
+	public interface Loader {
+		ParsedGMTFile load() throws IOException, InterruptedException;
+	}
+
+	private final long budget;
+	private long used = 0;
+
+	private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order for LRU
+	private final Map<Key,FutureTask<ParsedGMTFile>> loading = new HashMap<>();
+
+
+	public GMTFileCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the cache shared by the App.
+	 */
+	public static synchronized GMTFileCache getShared() {
+		if(shared == null) {
+			shared = new GMTFileCache(DEFAULT_BUDGET);
+		}
+		return shared;
+	}
+
+	public static synchronized void clearShared() {
+		if(shared != null) {
+			shared.clear();
+		}
+	}
+
+
+	/**
+	 * Returns the parsed file from the cache, or calls the loader to parse it.
+	 */
+	public ParsedGMTFile get(Path path, boolean baderlab, Loader loader) throws IOException, InterruptedException {
+		Key key;
+		try {
+			key = new Key(path, baderlab);
+		} catch(IOException e) {
+			return loader.load(); // let the parser report the problem with the file
+		}
+
+		while(true) {
+			FutureTask<ParsedGMTFile> task;
+			boolean owner = false;
+			synchronized(this) {
+				Entry entry = entries.get(key);
+				if(entry != null)
+					return entry.file;
+				task = loading.get(key);
+				if(task == null) {
+					task = new FutureTask<>(loader::load);
+					loading.put(key, task);
+					owner = true;
+				}
+			}
+
+			if(owner) {
+				try {
+					task.run();
+					return put(key, task.get());
+				} catch(ExecutionException e) {
+					return rethrow(e);
+				} finally {
+					synchronized(this) {
+						loading.remove(key);
+					}
+				}
+			}
+
+			try {
+				return task.get();
+			} catch(ExecutionException e) {
+				if(!(e.getCause() instanceof InterruptedException))
+					return rethrow(e);
+				// The thread that was parsing the file was cancelled but this one wasn't, try again.
+			}
+		}
+	}
+
+
+	/**
+	 * Always throws, the return type is for the convenience of the caller.
+	 */
+	private static ParsedGMTFile rethrow(ExecutionException e) throws IOException, InterruptedException {
+		Throwable cause = e.getCause();
+		if(cause instanceof IOException)
+			throw (IOException) cause;
+		if(cause instanceof InterruptedException)
+			throw (InterruptedException) cause;
+		if(cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if(cause instanceof Error)
+			throw (Error) cause;
+		throw new RuntimeException(cause);
+	}
+
+
+	private synchronized ParsedGMTFile put(Key key, ParsedGMTFile file) {
+		// Remove entries for older versions of the same file
+		Iterator<Map.Entry<Key,Entry>> iter = entries.entrySet().iterator();
+		while(iter.hasNext()) {
+			Map.Entry<Key,Entry> e = iter.next();
+			if(e.getKey().path.equals(key.path) && e.getKey().baderlab == key.baderlab) {
+				used -= e.getValue().bytes;
+				iter.remove();
+			}
+		}
+
+		long bytes = file.estimateBytes();
+		if(bytes > budget)
+			return file; // too big to cache
+
+		entries.put(key, new Entry(file, bytes));
+		used += bytes;
+
+		iter = entries.entrySet().iterator();
+		while(used > budget && iter.hasNext()) {
+			used -= iter.next().getValue().bytes;
+			iter.remove();
+		}
+		return file;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		used = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getUsedBytes() {
+		return used;
+	}
+
+
+	private static class Entry {
+		final ParsedGMTFile file;
+		final long bytes;
+
+		Entry(ParsedGMTFile file, long bytes) {
+			this.file = file;
+			this.bytes = bytes;
+		}
+	}
+
+	private static class Key {
+		final Path path;
+		final long size;
+		final long modified;
+		final boolean baderlab;
+
+		Key(Path path, boolean baderlab) throws IOException {
+			this.path = path.toAbsolutePath().normalize();
+			this.size = Files.size(this.path);
+			this.modified = Files.getLastModifiedTime(this.path).toMillis();
+			this.baderlab = baderlab;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, size, modified, baderlab);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return path.equals(other.path) && size == other.size && modified == other.modified && baderlab == other.baderlab;
+		}
+	}
+}
@@ -43,11 +43,9 @@
 
 package org.baderlab.csplugins.enrichmentmap.parsers;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.Normalizer;
-import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -60,20 +58,25 @@ import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
 import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.Task;
 import org.cytoscape.work.TaskMonitor;
 
-import com.google.common.collect.ImmutableSet;
-
 /**
  * This class parses a GMT (gene set) file and creates a set of genesets
  */
 public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 
+	/** Share of the progress bar used for reading the file, the rest is for creating the gene sets. */
+	private static final double READ_PROGRESS = 0.8;
+
 	private final EnrichmentMap map;
 	private final SetOfGeneSets setOfGeneSets;
 	private final Supplier<String> fileNameSupplier;
 	private final Consumer<SetOfGeneSets> geneSetConsumer;
 
+	/** Set by the task returned by {@link #createReadTask()}. */
+	private volatile ParsedGMTFile parsedFile;
+
 	private Pattern baderlabPattern;
 
 	public GMTFileReaderTask(EMDataSet dataset) {
@@ -90,6 +93,9 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 		this.geneSetConsumer = null;
 		
 	}
+	/**
+	 * @param geneSetConsumer called once with all the gene sets when the whole file has been loaded
+	 */
 	public GMTFileReaderTask(EnrichmentMap map, Supplier<String> fileNameSupplier, Consumer<SetOfGeneSets> geneSetConsumer) {
 		this.map = map;
 		this.fileNameSupplier = fileNameSupplier;
@@ -97,6 +103,28 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 		this.geneSetConsumer = geneSetConsumer;
 	}
 	
+	/**
+	 * Returns a task that only reads the file, it does not add anything to the map. Several files can be
+	 * read at the same time this way. Running this task afterwards adds the genes to the map and creates 
+	 * the gene sets without reading the file again, so the gene IDs depend on the order these tasks run
+	 * in and not on which file was read first.
+	 */
+	public Task createReadTask() {
+		return new AbstractTask() {
+			@Override
+			public void run(TaskMonitor taskMonitor) throws Exception {
+				taskMonitor = NullTaskMonitor.check(taskMonitor);
+				taskMonitor.setTitle("Parsing GMT file");
+				parsedFile = readShared(taskMonitor);
+			}
+			@Override
+			public void cancel() {
+				super.cancel();
+				GMTFileReaderTask.this.cancel();
+			}
+		};
+	}
+	
 	private Pattern getBaderlabPattern() {
 		if(baderlabPattern == null) {
 			baderlabPattern = Pattern.compile("(.+)%(.+)%(.+)");
@@ -108,63 +136,98 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 	public void run(TaskMonitor taskMonitor) throws Exception {
 		taskMonitor = NullTaskMonitor.check(taskMonitor);
 		taskMonitor.setTitle("Parsing GMT file");
-		parse();
+		parse(taskMonitor);
 	}
 	
 	public void parse() throws IOException, InterruptedException {
+		parse(null);
+	}
+	
+	private void parse(TaskMonitor taskMonitor) throws IOException, InterruptedException {
+		taskMonitor = NullTaskMonitor.check(taskMonitor);
+		
+		ParsedGMTFile gmt = parsedFile;
+		if(gmt == null)
+			gmt = readShared(taskMonitor);
+		parsedFile = null;
+		taskMonitor.setProgress(READ_PROGRESS);
+		
+		int[] geneIds = gmt.addGenesTo(map);
+		
+		int size = gmt.size();
+		int percent = 0;
+		
+		for(int i = 0; i < size; i++) {
+			if (cancelled) {
+				throw new InterruptedException();
+			}
+			
+			GeneSet gs = gmt.getGeneSet(i, geneIds);
+			if (setOfGeneSets != null) {
+				setOfGeneSets.addGeneSet(gs.getName(), gs);
+			}
+			
+			int p = (int)(100L * (i + 1) / size);
+			if(p > percent) {
+				percent = p;
+				taskMonitor.setProgress(READ_PROGRESS + (1.0 - READ_PROGRESS) * p / 100.0);
+			}
+		}
+		
+		taskMonitor.setProgress(1.0);
+		if(geneSetConsumer != null) {
+			geneSetConsumer.accept(setOfGeneSets);
+		}
+	}
+	
+	private ParsedGMTFile readShared(TaskMonitor taskMonitor) throws IOException, InterruptedException {
 		String fileName = fileNameSupplier.get();
 		boolean baderlab = map.getParams().isParseBaderlabGeneSets();
+		// Data sets and maps that use the same GMT file share the parsed file
+		return GMTFileCache.getShared().get(Paths.get(fileName), baderlab, () -> read(fileName, baderlab, taskMonitor));
+	}
+	
+	private ParsedGMTFile read(String fileName, boolean baderlab, TaskMonitor taskMonitor) throws IOException, InterruptedException {
+		ParsedGMTFile.Builder builder = new ParsedGMTFile.Builder(baderlab);
 		
-		try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-			for (String line; (line = reader.readLine()) != null;) {
+		try (TabDelimitedScanner scanner = TabDelimitedScanner.open(fileName)) {
+			long fileSize = Math.max(scanner.getFileSize(), 1);
+			int percent = 0;
+			
+			while(scanner.nextLine()) {
 				if (cancelled) {
 					throw new InterruptedException();
 				}
 				
-				GeneSet gs;
+				int p = (int)(100L * scanner.getPosition() / fileSize);
+				if(p > percent) {
+					percent = p;
+					taskMonitor.setProgress(READ_PROGRESS * Math.min(p, 100) / 100.0);
+				}
+				
 				if(baderlab)
-					gs = readBaderlabGeneSet(map, line);
+					readBaderlabGeneSet(builder, scanner);
 				else 
-					gs = readGeneSet(map, line);
-				
-				
-				if (gs != null && setOfGeneSets != null) {
-					Map<String, GeneSet> genesets = setOfGeneSets.getGeneSets();
-					genesets.put(gs.getName(), gs);
-				}
-				if(geneSetConsumer != null) {
-					geneSetConsumer.accept(setOfGeneSets);
-				}
+					readGeneSet(builder, scanner);
 			}
 		}
+		return builder.build();
 	}
 
-	private static GeneSet readGeneSet(EnrichmentMap map, String line) {
-		String[] tokens = line.split("\t");
+	private static void readGeneSet(ParsedGMTFile.Builder builder, TabDelimitedScanner scanner) {
 		//only go through the lines that have at least a gene set name and description.
-		if(tokens.length >= 2) {
-			// set of genes keys
-			ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
-			
-			String name = tokens[0].toUpperCase().trim();
-			String description = tokens[1].trim();
-			
-			for(int i = 2; i < tokens.length; i++) {
-				Integer hash = map.addGene(tokens[i]);
-				if(hash != null)
-					builder.add(hash);
-			}
-			return new GeneSet(name, description, builder.build());
+		if(scanner.getTokenCount() >= 2) {
+			String name = scanner.getToken(0).toUpperCase().trim();
+			String description = scanner.getToken(1).trim();
+			builder.addGeneSet(name, description, null, null, null, scanner, 2);
 		}
-		return null;
 	}
 	
 	
-	private GeneSet readBaderlabGeneSet(EnrichmentMap map, String line) {
-		String[] tokens = line.split("\t");
-		if(tokens.length >= 2) {
-			final String name = tokens[0].toUpperCase().trim();
-			final String description = tokens[1].trim();
+	private void readBaderlabGeneSet(ParsedGMTFile.Builder builder, TabDelimitedScanner scanner) {
+		if(scanner.getTokenCount() >= 2) {
+			final String name = scanner.getToken(0).toUpperCase().trim();
+			final String description = scanner.getToken(1).trim();
 			
 			Pattern pattern = getBaderlabPattern();
 			Matcher m = pattern.matcher(name);
@@ -182,18 +245,8 @@ public class GMTFileReaderTask extends AbstractTask implements ObservableTask {
 				}
 			}
 			
-			// set of genes keys
-			ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
-			
-			for(int i = 2; i < tokens.length; i++) {
-				Integer hash = map.addGene(tokens[i]);
-				if(hash != null)
-					builder.add(hash);
-			}
-			
-			return GeneSet.createBaderLab(name, description, builder.build(), simpleName, datasource, id);
+			builder.addGeneSet(name, description, simpleName, datasource, id, scanner, 2);
 		}
-		return null;
 	}
 	
 	private String deAccent(String str) {
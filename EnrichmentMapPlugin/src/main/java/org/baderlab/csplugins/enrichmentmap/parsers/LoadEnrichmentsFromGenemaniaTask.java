@@ -15,6 +15,7 @@ import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.GenemaniaParameters;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
 import org.baderlab.csplugins.enrichmentmap.model.SetOfEnrichmentResults;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
 import org.baderlab.csplugins.enrichmentmap.view.creation.genemania.GenemaniaAnnotation;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyRow;
@@ -78,7 +79,7 @@ public class LoadEnrichmentsFromGenemaniaTask extends AbstractTask {
 	private void createDataSet(CyNetwork genemaniaNetwork, Map<String,Set<String>> geneSets, Map<String,GenemaniaAnnotation> annotations) {
 		EnrichmentMap map = dataset.getMap();
 		SetOfEnrichmentResults enrichments = dataset.getEnrichments();
-		Map<String,GeneSet> genesets = dataset.getSetOfGeneSets().getGeneSets();
+		SetOfGeneSets genesets = dataset.getSetOfGeneSets();
 		
 		for(Map.Entry<String, Set<String>> entry : geneSets.entrySet()) {
 			String name = entry.getKey();
@@ -100,11 +101,12 @@ public class LoadEnrichmentsFromGenemaniaTask extends AbstractTask {
 			
 			GeneSet gs = new GeneSet(annotation.getName(), name, builder.build());
 			int gsSize = gs.getGenes().size();
-			genesets.put(name, gs);
+			genesets.addGeneSet(name, gs);
 			
 			GenericResult result = new GenericResult(annotation.getName(), name, 1.0, gsSize, annotation.getqValue());
 			enrichments.getEnrichments().put(name, result);
 		}
+		enrichments.invalidateColumns();
 	}
 	
 
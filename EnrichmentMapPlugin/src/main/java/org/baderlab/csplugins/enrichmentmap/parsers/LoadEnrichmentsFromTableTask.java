@@ -2,7 +2,6 @@ package org.baderlab.csplugins.enrichmentmap.parsers;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Predicate;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
@@ -10,6 +9,7 @@ import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
 import org.baderlab.csplugins.enrichmentmap.model.SetOfEnrichmentResults;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
 import org.baderlab.csplugins.enrichmentmap.model.TableParameters;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
 import org.cytoscape.model.CyRow;
@@ -40,7 +40,7 @@ public class LoadEnrichmentsFromTableTask extends AbstractTask {
 		
 		EnrichmentMap map = dataset.getMap();
 		SetOfEnrichmentResults enrichments = dataset.getEnrichments();
-		Map<String,GeneSet> genesets = dataset.getSetOfGeneSets().getGeneSets();
+		SetOfGeneSets genesets = dataset.getSetOfGeneSets();
 		
 		Predicate<CyRow> filter = tableParams.getFilter();
 		
@@ -86,7 +86,7 @@ public class LoadEnrichmentsFromTableTask extends AbstractTask {
 					
 					GeneSet gs = new GeneSet(name, description, builder.build());
 					int gsSize = gs.getGenes().size();
-					genesets.put(name, gs);
+					genesets.addGeneSet(name, gs);
 					
 					GenericResult result = new GenericResult(name, description, pvalue, gsSize, qvalue, nes);
 					enrichments.getEnrichments().put(name, result);
@@ -94,6 +94,7 @@ public class LoadEnrichmentsFromTableTask extends AbstractTask {
 			}
 			tm.inc();
 		}
+		enrichments.invalidateColumns();
 		
 		map.getParams().setFDR(tableParams.getQvalueColumn() != null);
 		
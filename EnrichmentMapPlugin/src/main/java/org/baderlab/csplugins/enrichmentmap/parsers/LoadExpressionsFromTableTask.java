@@ -74,6 +74,7 @@ public class LoadExpressionsFromTableTask extends AbstractTask {
 		}
 		
 		expressionMatrix.setExpressionUniverse(expressionUniverse);
+		expressionMatrix.compact();
 	}
 
 	
@@ -117,7 +117,7 @@ public class ParseBingoEnrichmentResults extends AbstractTask {
 			//finished parsing that geneset
 			//add the current geneset to the hashmap of genesets
 			GeneSet gs = new GeneSet(name, description, builder.build());
-			genesets.put(name, gs);
+			dataset.getSetOfGeneSets().addGeneSet(name, gs);
 
 			//The 2nd column is the nominal p-value
 			if(tokens[1].equalsIgnoreCase("")) {
@@ -162,6 +162,7 @@ public class ParseBingoEnrichmentResults extends AbstractTask {
 			}
 
 		}
+		dataset.getEnrichments().invalidateColumns();
 		if(FDR)
 			dataset.getMap().getParams().setFDR(FDR);
 	}
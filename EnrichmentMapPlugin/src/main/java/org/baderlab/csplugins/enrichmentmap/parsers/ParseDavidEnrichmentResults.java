@@ -102,7 +102,7 @@ public class ParseDavidEnrichmentResults extends AbstractTask {
 			//finished parsing that geneset
 			//add the current geneset to the hashmap of genesets
 			GeneSet gs = GeneSet.createDavid(name, description, builder.build(), category);
-			genesets.put(name, gs);
+			dataset.getSetOfGeneSets().addGeneSet(name, gs);
 
 			//The 5th column is the nominal p-value
 			if(tokens[4].equalsIgnoreCase("")) {
@@ -147,6 +147,7 @@ public class ParseDavidEnrichmentResults extends AbstractTask {
 			}
 
 		}
+		dataset.getEnrichments().invalidateColumns();
 		
 		dataset.getMap().getParams().setDavid(true);
 		if(FDR) {
@@ -9,6 +9,7 @@ import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
 import org.baderlab.csplugins.enrichmentmap.model.SetOfEnrichmentResults;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
 import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskMonitor;
@@ -46,7 +47,7 @@ public class ParseEnrichrEnrichmentResults extends AbstractTask {
 		EnrichmentMap map = dataset.getMap();
 		SetOfEnrichmentResults enrichments = dataset.getEnrichments();
 		Map<String, EnrichmentResult> results = enrichments.getEnrichments();
-		Map<String,GeneSet> genesets = dataset.getSetOfGeneSets().getGeneSets();
+		SetOfGeneSets genesets = dataset.getSetOfGeneSets();
 		boolean useFDR = false;
 		
 		// skip the first line which just has the field names
@@ -81,11 +82,12 @@ public class ParseEnrichrEnrichmentResults extends AbstractTask {
 
 			GeneSet gs = new GeneSet(name, name, builder.build());
 			int gsSize = gs.getGenes().size();
-			genesets.put(name, gs);
+			genesets.addGeneSet(name, gs);
 			
 			GenericResult result = new GenericResult(name, name, pvalue, gsSize, qvalue);
 			results.put(name, result);
 		}
+		enrichments.invalidateColumns();
 		
 		if(useFDR) {
 			dataset.getMap().getParams().setFDR(useFDR);
@@ -132,7 +132,7 @@ public class ParseGREATEnrichmentResults extends AbstractTask {
 			//finished parsing that geneset
 			//add the current geneset to the hashmap of genesets
 			GeneSet gs = new GeneSet(name, description, builder.build());
-			genesets.put(name, gs);
+			dataset.getSetOfGeneSets().addGeneSet(name, gs);
 
 			//There are two tests run by GREAT, the binomial on regions and the hypergeometric based on genes
 			//The first pass of results shows only those that are significant both
@@ -209,6 +209,7 @@ public class ParseGREATEnrichmentResults extends AbstractTask {
 			}
 			
 		}
+		dataset.getEnrichments().invalidateColumns();
 	}
 
 }
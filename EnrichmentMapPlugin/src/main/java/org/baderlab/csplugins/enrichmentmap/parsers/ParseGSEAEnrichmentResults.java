@@ -126,6 +126,7 @@ public class ParseGSEAEnrichmentResults extends AbstractTask {
 			GSEAResult result = new GSEAResult(Name, size, ES, NES, pvalue, FDRqvalue, FWERqvalue, rankAtMax, scoreAtMax);
 			results.put(Name, result);
 		}
+		dataset.getEnrichments().invalidateColumns();
 	}
 	
 	private double parseDouble(String token) {
@@ -146,7 +146,7 @@ public class ParseGenericEnrichmentResults extends AbstractTask {
 
 						GeneSet gs = new GeneSet(name, description, builder.build());
 						gs_size = gs.getGenes().size();
-						genesets.put(name, gs);
+						dataset.getSetOfGeneSets().addGeneSet(name, gs);
 
 					} //end of tokens>5
 					result = new GenericResult(name, description, pvalue, gs_size, FDRqvalue, NES);
@@ -168,6 +168,7 @@ public class ParseGenericEnrichmentResults extends AbstractTask {
 			else if(result.getPvalue() < temp.getPvalue()) 
 				results.put(name, result);
 		}
+		dataset.getEnrichments().invalidateColumns();
 		
 		if(FDR)
 			dataset.getMap().getParams().setFDR(FDR);
@@ -0,0 +1,213 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The contents of a GMT file in a compact form that does not depend on any EnrichmentMap.
+ * <p>
+ * Gene names are stored once in a dictionary local to the file, in the order they first appear.
+ * The genes of each gene set are stored as indices into the dictionary, all the gene sets share one int array.
+ * Use {@link #addGenesTo(EnrichmentMap)} to translate the local indices to the gene IDs of a map.
+ * <p>
+ * Immutable once built, can be shared by several threads.
+ */
+public class ParsedGMTFile {
+
+	private final String[] names;
+	private final String[] descriptions;
+	/** Only used for Baderlab gene sets, null otherwise. */
+	private final String[] simpleNames;
+	private final String[] sources;
+	private final String[] sourceIds;
+
+	private final String[] genes;
+	/** Genes of gene set i are members[offsets[i]] to members[offsets[i+1]-1], in file order without duplicates. */
+	private final int[] offsets;
+	private final int[] members;
+
+
+	private ParsedGMTFile(Builder builder) {
+		int size = builder.names.size();
+		this.names = builder.names.toArray(new String[size]);
+		this.descriptions = builder.descriptions.toArray(new String[size]);
+		this.simpleNames = builder.baderlab ? builder.simpleNames.toArray(new String[size]) : null;
+		this.sources = builder.baderlab ? builder.sources.toArray(new String[size]) : null;
+		this.sourceIds = builder.baderlab ? builder.sourceIds.toArray(new String[size]) : null;
+		this.genes = builder.genes.toArray(new String[builder.genes.size()]);
+		this.offsets = Arrays.copyOf(builder.offsets, size + 1);
+		this.members = Arrays.copyOf(builder.members, builder.memberCount);
+	}
+
+
+	public int size() {
+		return names.length;
+	}
+
+	public int getNumberOfGenes() {
+		return genes.length;
+	}
+
+	public String getName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * Adds all the genes in this file to the map, in the order they appear in the file.
+	 * Returns the map gene ID for each local gene index.
+	 */
+	public int[] addGenesTo(EnrichmentMap map) {
+		int[] geneIds = new int[genes.length];
+		for(int g = 0; g < genes.length; g++) {
+			geneIds[g] = map.addGene(genes[g]);
+		}
+		return geneIds;
+	}
+
+	/**
+	 * Creates the GeneSet object for gene set i.
+	 * @param geneIds the array returned by {@link #addGenesTo(EnrichmentMap)}
+	 */
+	public GeneSet getGeneSet(int i, int[] geneIds) {
+		int start = offsets[i], end = offsets[i+1];
+		ImmutableSet.Builder<Integer> builder = ImmutableSet.builderWithExpectedSize(end - start);
+		for(int m = start; m < end; m++) {
+			builder.add(geneIds[members[m]]);
+		}
+		if(simpleNames == null)
+			return new GeneSet(names[i], descriptions[i], builder.build());
+		else
+			return GeneSet.createBaderLab(names[i], descriptions[i], builder.build(), simpleNames[i], sources[i], sourceIds[i]);
+	}
+
+	/**
+	 * Rough estimate of the heap used by this object, for the cache memory budget.
+	 */
+	public long estimateBytes() {
+		long bytes = 64;
+		bytes += 4L * (offsets.length + members.length);
+		bytes += estimateBytes(names) + estimateBytes(descriptions) + estimateBytes(genes);
+		if(simpleNames != null)
+			bytes += estimateBytes(simpleNames) + estimateBytes(sources) + estimateBytes(sourceIds);
+		return bytes;
+	}
+
+	private static long estimateBytes(String[] strings) {
+		long bytes = 16 + 4L * strings.length;
+		for(String s : strings) {
+			if(s != null)
+				bytes += 40 + s.length();
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * Not thread safe, used by the parser.
+	 */
+	public static class Builder {
+
+		private final boolean baderlab;
+
+		private final List<String> names = new ArrayList<>();
+		private final List<String> descriptions = new ArrayList<>();
+		private final List<String> simpleNames = new ArrayList<>();
+		private final List<String> sources = new ArrayList<>();
+		private final List<String> sourceIds = new ArrayList<>();
+
+		private final TokenInterner geneIndex = new TokenInterner(true, false, this::newGene);
+		private final List<String> genes = new ArrayList<>();
+
+		private int[] offsets = new int[64];
+		private int[] members = new int[1024];
+		private int memberCount = 0;
+
+		private int[] lastSeen = new int[1024]; // used to remove duplicate genes within a gene set
+
+
+		public Builder(boolean baderlab) {
+			this.baderlab = baderlab;
+		}
+
+		/**
+		 * Adds a gene set, the genes are tokens[firstGene] to the end of the array.
+		 * Gene names are converted to upper case, empty tokens are ignored.
+		 */
+		public void addGeneSet(String name, String description, String simpleName, String source, String sourceId, String[] tokens, int firstGene) {
+			int i = startGeneSet(name, description, simpleName, source, sourceId, tokens.length - firstGene);
+			for(int t = firstGene; t < tokens.length; t++) {
+				String token = tokens[t];
+				if(token == null || token.isEmpty())
+					continue;
+				char[] chars = token.toCharArray();
+				addMember(i, geneIndex.intern(chars, 0, chars.length));
+			}
+			endGeneSet(i);
+		}
+
+		/**
+		 * Adds a gene set, the genes are the tokens of the scanner's current line from firstGene to the end of the line.
+		 * Gene names are converted to upper case, empty tokens are ignored.
+		 * Only creates a String for a gene the first time it is seen in the file.
+		 */
+		public void addGeneSet(String name, String description, String simpleName, String source, String sourceId, TabDelimitedScanner scanner, int firstGene) {
+			int count = scanner.getTokenCount();
+			int i = startGeneSet(name, description, simpleName, source, sourceId, count - firstGene);
+			for(int t = firstGene; t < count; t++) {
+				if(scanner.isEmpty(t))
+					continue;
+				addMember(i, scanner.intern(t, geneIndex));
+			}
+			endGeneSet(i);
+		}
+
+		private int startGeneSet(String name, String description, String simpleName, String source, String sourceId, int maxGenes) {
+			names.add(name);
+			descriptions.add(description);
+			if(baderlab) {
+				simpleNames.add(simpleName);
+				sources.add(source);
+				sourceIds.add(sourceId);
+			}
+			ensureCapacity(Math.max(maxGenes, 0));
+			return names.size() - 1;
+		}
+
+		private void addMember(int i, int g) {
+			if(lastSeen[g] != i + 1) { // skip duplicates
+				lastSeen[g] = i + 1;
+				members[memberCount++] = g;
+			}
+		}
+
+		private void endGeneSet(int i) {
+			if(i + 2 > offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			offsets[i+1] = memberCount;
+		}
+
+		private int newGene(String gene) {
+			int g = genes.size();
+			genes.add(gene);
+			if(g == lastSeen.length)
+				lastSeen = Arrays.copyOf(lastSeen, lastSeen.length * 2);
+			return g;
+		}
+
+		private void ensureCapacity(int count) {
+			int required = memberCount + count;
+			if(required > members.length)
+				members = Arrays.copyOf(members, Math.max(required, members.length * 2));
+		}
+
+		public ParsedGMTFile build() {
+			return new ParsedGMTFile(this);
+		}
+	}
+}
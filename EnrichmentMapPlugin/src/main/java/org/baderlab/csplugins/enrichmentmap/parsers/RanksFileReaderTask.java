@@ -45,11 +45,7 @@ package org.baderlab.csplugins.enrichmentmap.parsers;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.function.IntSupplier;
 import java.util.regex.Pattern;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
@@ -91,6 +87,7 @@ public class RanksFileReaderTask extends AbstractTask implements ObservableTask
 	//distinguish between load from enrichment map input panel and heatmap interface
 	private boolean loadFromHeatmap = false;
 	private boolean sorted = true;
+	private IntSupplier maxGeneId = () -> Integer.MAX_VALUE;
 	
 
 
@@ -103,26 +100,39 @@ public class RanksFileReaderTask extends AbstractTask implements ObservableTask
 	}
 
 	
+	/**
+	 * Only genes with an ID up to the value returned by the supplier are kept, the supplier is called
+	 * when the file is parsed. Used to ignore the genes that the data sets loaded after this one add to the map.
+	 */
+	public void setMaxGeneId(IntSupplier maxGeneId) {
+		this.maxGeneId = maxGeneId;
+	}
+	
 	/**
 	 * parse the rank file
 	 */
 	public void parse(TaskMonitor taskMonitor) throws IOException {
 		taskMonitor = NullTaskMonitor.check(taskMonitor);
-		
-		List<String> lines = LineReader.readLines(RankFileName);
-		
-		int lineNumber = 0;
-		int currentProgress = 0;
-		int maxValue = lines.size();
-		taskMonitor.setStatusMessage("Parsing Rank file - " + maxValue + " rows");
+		taskMonitor.setStatusMessage("Parsing Rank file");
 
 		EnrichmentMap map = dataset.getMap();
-		// we don't know the number of scores in the rank file yet, but it can't be more than the number of lines.
-		Double[] score_collector = new Double[lines.size()];
+		// Only genes that are already in the map get a Rank, each distinct name is looked up once
+		int maxKey = maxGeneId.getAsInt();
+		TokenInterner geneKeys = new TokenInterner(true, false, name -> {
+			Integer key = map.getHashFromGene(name);
+			return key == null || key > maxKey ? -1 : key;
+		});
+
+		// every score in the file, in file order
+		double[] allScores = new double[1024];
+		// the lines with a gene in the map: gene key, score and rank from the order of the file (0 if not defined)
+		int[] rankGenes = new int[1024];
+		double[] rankScores = new double[1024];
+		int[] fileRanks = new int[1024];
+		int nRanks = 0;
 
 		boolean gseaDefinedRanks = false;
-
-		Map<Integer,Rank> ranks = new HashMap<>();
+		boolean headerSkipped = false;
 
 		/*
 		 * there are two possible Rank files: If loaded through the rpt file the
@@ -137,56 +147,52 @@ public class RanksFileReaderTask extends AbstractTask implements ObservableTask
 		double prevScore = Double.MAX_VALUE;
 		boolean sorted = true;
 		
-		for(int i = 0; i < lines.size(); i++) {
-			String line = lines.get(i);
-
-			//check to see if the line is commented out and should be ignored.
-			if(line.startsWith("#")) {
-				// look for ranks_name in comment line e.g.: "# Ranks Name : My Ranks"
-				if(Pattern.matches("^# *Ranks[ _-]?Name *:.+", line)) {
-					this.ranks_name = line.split(":", 2)[1];
-					while(this.ranks_name.startsWith(" "))
-						this.ranks_name = this.ranks_name.substring(1);
+		try(TabDelimitedScanner scanner = TabDelimitedScanner.open(RankFileName)) {
+			long fileSize = Math.max(scanner.getFileSize(), 1);
+			int percent = 0;
+			
+			while(scanner.nextLine()) {
+				int p = (int)(100L * scanner.getPosition() / fileSize);
+				if(p > percent) {
+					percent = p;
+					taskMonitor.setProgress(Math.min(p, 100) / 100.0);
 				}
-				//ignore comment line
-				continue;
-			}
 
-			String[] tokens = line.split("\t");
-
-			String name = tokens[0].toUpperCase();
-			double score = 0;
-
-			//if there are 2, 3 or 5 columns in the data then the rank is the last column
-			if(tokens.length == 2 || tokens.length == 3 || tokens.length == 5) {
-				//ignore rows where the expected rank value is not a valid double
-				try {
-					//gseaDefinedRanks = true;
-					score = Double.parseDouble(tokens[tokens.length-1]);
-				} catch(NumberFormatException nfe) {
-					if(lineNumber == 0) {
-						lineNumber++;
-						continue;
-					} else
-						throw new IllegalThreadStateException("rank value for" + tokens[0] + "is not a valid number");
+				//check to see if the line is commented out and should be ignored.
+				if(scanner.startsWith('#')) {
+					// look for ranks_name in comment line e.g.: "# Ranks Name : My Ranks"
+					String line = scanner.getLine();
+					if(Pattern.matches("^# *Ranks[ _-]?Name *:.+", line)) {
+						this.ranks_name = line.split(":", 2)[1];
+						while(this.ranks_name.startsWith(" "))
+							this.ranks_name = this.ranks_name.substring(1);
+					}
+					//ignore comment line
+					continue;
 				}
-				nScores++;
-			} else {
-				System.out.println("Invalid number of tokens line of Rank File (should be 5 or 2)");
-				//skip invalid line
-				continue;
-			}
-
-			if((tokens.length == 5 || tokens.length == 3) || (dataset.getMethod() == Method.GSEA && !loadFromHeatmap))
-				gseaDefinedRanks = true;
 
-			//add score to array of scores
-			score_collector[nScores - 1] = score;
+				int tokenCount = scanner.getTokenCount();
+				double score = 0;
+
+				//if there are 2, 3 or 5 columns in the data then the rank is the last column
+				if(tokenCount == 2 || tokenCount == 3 || tokenCount == 5) {
+					//ignore rows where the expected rank value is not a valid double
+					try {
+						score = scanner.parseDouble(tokenCount - 1);
+					} catch(NumberFormatException nfe) {
+						if(!headerSkipped) {
+							headerSkipped = true;
+							continue;
+						} else
+							throw new IllegalThreadStateException("rank value for" + scanner.getToken(0) + "is not a valid number");
+					}
+					nScores++;
+				} else {
+					System.out.println("Invalid number of tokens line of Rank File (should be 5 or 2)");
+					//skip invalid line
+					continue;
+				}
 
-			//check to see if the gene is in the genelist
-			Integer genekey = map.getHashFromGene(name);
-			if(genekey != null) {
-				Rank current_ranking;
 				//if their were 5 tokens in the rank file then the assumption
 				//is that this is a GSEA rank file and the order of the scores
 				//is indicative of the rank
@@ -197,27 +203,38 @@ public class RanksFileReaderTask extends AbstractTask implements ObservableTask
 				// based on the order of the scores.
 				// Making the assumption that all rank files loaded for GSEA results from EM input panel are leading
 				// edge compatible files.
-				if((tokens.length == 5 || tokens.length == 3) || (dataset.getMethod() == Method.GSEA && !loadFromHeatmap)) {
-					current_ranking = new Rank(name, score, nScores);
-				} else {
-					current_ranking = new Rank(name, score);
+				boolean gseaLine = (tokenCount == 5 || tokenCount == 3) || (dataset.getMethod() == Method.GSEA && !loadFromHeatmap);
+				if(gseaLine)
+					gseaDefinedRanks = true;
+
+				//add score to array of scores
+				if(nScores > allScores.length)
+					allScores = Arrays.copyOf(allScores, allScores.length * 2);
+				allScores[nScores - 1] = score;
+
+				//check to see if the gene is in the genelist
+				int genekey = scanner.intern(0, geneKeys);
+				if(genekey != -1) {
+					if(nRanks == rankGenes.length) {
+						rankGenes  = Arrays.copyOf(rankGenes,  nRanks * 2);
+						rankScores = Arrays.copyOf(rankScores, nRanks * 2);
+						fileRanks  = Arrays.copyOf(fileRanks,  nRanks * 2);
+					}
+					rankGenes[nRanks] = genekey;
+					rankScores[nRanks] = score;
+					fileRanks[nRanks] = gseaLine ? nScores : 0;
+					nRanks++;
 				}
-				ranks.put(genekey, current_ranking);
-			}
 
-			// Calculate Percentage.  This must be a value between 0..100.
-			int percentComplete = (int) (((double) currentProgress / maxValue) * 100);
-			taskMonitor.setProgress(percentComplete);
-			currentProgress++;
-			
-			if(score > prevScore) {
-				sorted = false;
+				if(score > prevScore) {
+					sorted = false;
+				}
+				prevScore = score;
 			}
-			prevScore = score;
 		}
 
 		//the none of the genes are in the gene list
-		if(ranks.isEmpty()) {
+		if(nRanks == 0) {
 			String message = "The genes in the provided rank file were not found in the enrichments file or in the GMT file.";
 			throw new RanksGeneMismatchException(RankFileName, message);
 		}
@@ -231,68 +248,67 @@ public class RanksFileReaderTask extends AbstractTask implements ObservableTask
 			}
 		}
 
-		//remove Null values from collector
-		Double[] sort_scores = new Double[nScores];
-		double[] scores = new double[nScores];
-		for(int i = 0; i < nScores; i++) {
-			sort_scores[i] = score_collector[i];
-			scores[i] = (double) score_collector[i];
-		}
-
 		//after we have loaded in all the scores, sort the score to compute ranks
-		//create hash of scores to ranks.
-		HashMap<Double, Integer> score2ranks = new HashMap<Double, Integer>();
-		//sorts the array in descending order
-		Arrays.sort(sort_scores, Collections.reverseOrder());
+		double[] ascending = Arrays.copyOf(allScores, nScores);
+		Arrays.sort(ascending);
 
-		//check to see if they are p-values (if the values are between -1 and 1 , for a signed pvalue)
+		//the scores are ranked in descending order, unless they are p-values (if the values are between -1 and 1 , for a signed pvalue)
 		//this will actually give a weird sorting behaviour if the scores are actually not p-values and
 		//just signed statistics for instance as it will sort them in the opposite direction.
-		if(sort_scores[0] <= 1 && sort_scores[sort_scores.length - 1] >= -1)
-			Arrays.sort(sort_scores);
-
-		for(int j = 0; j < sort_scores.length; j++) {
-			//check to see if this score is already enter
-			if(!score2ranks.containsKey(sort_scores[j]))
-				score2ranks.put(sort_scores[j], j);
-		}
-
-		//update scores Hash to contain the ranks as well.
-		//only update the ranks if we haven't already defined them using order of scores in file
-		if(!gseaDefinedRanks) {
-			for(Iterator<Integer> k = ranks.keySet().iterator(); k.hasNext();) {
-				Integer gene_key = k.next();
-				Rank current_ranking = ranks.get(gene_key);
-				Integer rank = score2ranks.get(current_ranking.getScore());
-				current_ranking.setRank(rank);
-				// update rank2gene and gene2score as well
-			}
-		}
-		
-		//check to see if some of the dataset genes are not in this rank file
-//		Set<Integer> current_genes = dataset.getDataSetGenes();
-//
-//		Set<Integer> current_ranks = ranks.keySet();
-//
-//		//intersect the genes with the ranks.  only retain the genes that have ranks.
-//		Set<Integer> intersection = new HashSet<>(current_genes);
-//		intersection.retainAll(current_ranks);
-//
-//		//see if there more genes than there are ranks
-//		if(!(intersection.size() == current_genes.size())) {
-//			//JOptionPane.showMessageDialog(Cytoscape.getDesktop(),"Ranks for some of the genes/proteins listed in the expression file are missing. \n These genes/proteins will be excluded from ranked listing in the heat map.");
-//
-//		}
+		boolean pvalues = ascending[nScores - 1] <= 1 && ascending[0] >= -1;
 
 		//create a new Ranking
 		Ranking new_ranking = new Ranking();
-		ranks.forEach(new_ranking::addRank);
+		for(int i = 0; i < nRanks; i++) {
+			String name = map.getGeneFromHashKey(rankGenes[i]);
+			double score = rankScores[i];
+			Rank current_ranking;
+			if(fileRanks[i] > 0) {
+				current_ranking = new Rank(name, score, fileRanks[i]);
+			} else {
+				current_ranking = new Rank(name, score);
+				//only define the ranks using the sorted scores if we haven't already defined them using order of scores in file
+				//the rank is the position of the first occurrence of the score in the sorted scores
+				if(!gseaDefinedRanks)
+					current_ranking.setRank(pvalues ? firstIndexOf(ascending, score) : nScores - 1 - lastIndexOf(ascending, score));
+			}
+			// a gene that is in the file twice gets the rank of its last line
+			new_ranking.addRank(rankGenes[i], current_ranking);
+		}
+		taskMonitor.setProgress(1.0);
 
 		//add the Ranks to the expression file ranking
 		dataset.addRanks(ranks_name, new_ranking);
 
 	}
 
+	/**
+	 * Index of the first element of the sorted array that is equal to the key, using Double.compare() like the sort does.
+	 */
+	private static int firstIndexOf(double[] sorted, double key) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sorted[mid], key) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static int lastIndexOf(double[] sorted, double key) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(Double.compare(sorted[mid], key) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+
 	@Override
 	public void run(TaskMonitor taskMonitor) throws Exception {
 		taskMonitor.setTitle("Parsing Ranks file");
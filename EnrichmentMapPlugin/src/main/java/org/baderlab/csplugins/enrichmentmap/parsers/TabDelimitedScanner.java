@@ -0,0 +1,350 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a tab delimited file one line at a time without creating a String for every line and every cell.
+ * <p>
+ * The file is read through a FileChannel into a reusable buffer. Each line is decoded into a reusable char array
+ * and the cells are available as ranges of that array, a String is only created when asked for with {@link #getToken(int)}.
+ * Numbers can be parsed directly from the char array with {@link #parseFloat(int)}, and gene names can be
+ * looked up with a {@link TokenInterner} which only creates a String the first time a name is seen.
+ * <p>
+ * Produces the same lines as BufferedReader.readLine() (lines end with \n, \r or \r\n) decoded
+ * with the default charset like FileReader, and the same cells as String.split("\t"),
+ * including the removal of trailing empty cells.
+ * <p>
+ * Not thread safe.
+ */
+public class TabDelimitedScanner implements AutoCloseable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+	/** Numbers with at most this many digits are parsed without Float.parseFloat(). */
+	private static final int FAST_FLOAT_DIGITS = 7;
+	/** Numbers with at most this many digits are parsed without Double.parseDouble(). */
+	private static final int FAST_DOUBLE_DIGITS = 15;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final ByteBuffer buffer;
+	private final CharsetDecoder decoder;
+
+	private long position = 0; // bytes consumed
+	private boolean eof = false;
+	private boolean skipLF = false;
+	private int lineNumber = 0;
+
+	private byte[] bytes = new byte[256];
+	private char[] chars = new char[256];
+	private int length;
+
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int tokenCount;
+
+
+	private TabDelimitedScanner(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.buffer.flip(); // empty
+		this.decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	public static TabDelimitedScanner open(String fileName) throws IOException {
+		return new TabDelimitedScanner(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ));
+	}
+
+
+	/**
+	 * Advances to the next line. Returns false at the end of the file.
+	 */
+	public boolean nextLine() throws IOException {
+		int n = 0;
+		boolean any = false;
+
+		while(true) {
+			if(!buffer.hasRemaining()) {
+				if(!fill())
+					break;
+			}
+			byte b = buffer.get();
+			position++;
+			if(skipLF) {
+				skipLF = false;
+				if(b == '\n')
+					continue;
+			}
+			any = true;
+			if(b == '\n') {
+				break;
+			} else if(b == '\r') {
+				skipLF = true;
+				break;
+			}
+			if(n == bytes.length)
+				bytes = Arrays.copyOf(bytes, n * 2);
+			bytes[n++] = b;
+		}
+
+		if(!any) {
+			length = 0;
+			tokenCount = 0;
+			return false;
+		}
+
+		decode(n);
+		tokenize();
+		lineNumber++;
+		return true;
+	}
+
+	private boolean fill() throws IOException {
+		if(eof)
+			return false;
+		buffer.clear();
+		int read;
+		do {
+			read = channel.read(buffer);
+		} while(read == 0);
+		buffer.flip();
+		if(read < 0) {
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	private void decode(int n) throws IOException {
+		if(chars.length < n)
+			chars = new char[Math.max(n, chars.length * 2)];
+
+		boolean ascii = true;
+		for(int i = 0; i < n; i++) {
+			byte b = bytes[i];
+			if(b < 0) {
+				ascii = false;
+				break;
+			}
+			chars[i] = (char) b;
+		}
+		if(ascii) {
+			length = n;
+			return;
+		}
+
+		decoder.reset();
+		CharBuffer out = CharBuffer.wrap(chars);
+		ByteBuffer in = ByteBuffer.wrap(bytes, 0, n);
+		while(true) {
+			var result = decoder.decode(in, out, true);
+			if(result.isOverflow()) {
+				chars = Arrays.copyOf(chars, chars.length * 2);
+				int pos = out.position();
+				out = CharBuffer.wrap(chars);
+				out.position(pos);
+			} else {
+				if(result.isError())
+					result.throwException();
+				break;
+			}
+		}
+		decoder.flush(out);
+		length = out.position();
+	}
+
+	private void tokenize() {
+		tokenCount = 0;
+		int start = 0;
+		boolean tab = false;
+		for(int i = 0; i < length; i++) {
+			if(chars[i] == '\t') {
+				addToken(start, i);
+				start = i + 1;
+				tab = true;
+			}
+		}
+		addToken(start, length);
+
+		if(tab) {
+			// String.split() removes trailing empty strings
+			while(tokenCount > 0 && starts[tokenCount-1] == ends[tokenCount-1]) {
+				tokenCount--;
+			}
+		}
+	}
+
+	private void addToken(int start, int end) {
+		if(tokenCount == starts.length) {
+			starts = Arrays.copyOf(starts, tokenCount * 2);
+			ends = Arrays.copyOf(ends, tokenCount * 2);
+		}
+		starts[tokenCount] = start;
+		ends[tokenCount] = end;
+		tokenCount++;
+	}
+
+
+	/**
+	 * Returns the number of the current line, starting from 1.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Returns the number of bytes of the file that have been read so far, for progress reporting.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public String getLine() {
+		return new String(chars, 0, length);
+	}
+
+	public boolean isBlank() {
+		for(int i = 0; i < length; i++) {
+			if(!Character.isWhitespace(chars[i]))
+				return false;
+		}
+		return true;
+	}
+
+	public boolean startsWith(char c) {
+		return length > 0 && chars[0] == c;
+	}
+
+	public int getTokenCount() {
+		return tokenCount;
+	}
+
+	private void checkIndex(int i) {
+		if(i < 0 || i >= tokenCount)
+			throw new ArrayIndexOutOfBoundsException(i);
+	}
+
+	public String getToken(int i) {
+		checkIndex(i);
+		return new String(chars, starts[i], ends[i] - starts[i]);
+	}
+
+	public boolean isEmpty(int i) {
+		checkIndex(i);
+		return starts[i] == ends[i];
+	}
+
+	/**
+	 * Looks up the token in the interner, see {@link TokenInterner#intern(char[], int, int)}.
+	 */
+	public int intern(int i, TokenInterner interner) {
+		checkIndex(i);
+		return interner.intern(chars, starts[i], ends[i]);
+	}
+
+
+	/**
+	 * Same as Float.parseFloat(getToken(i)). Plain decimal numbers with up to 7 digits are
+	 * parsed directly from the line, anything else falls back to Float.parseFloat().
+	 * @throws NumberFormatException
+	 */
+	public float parseFloat(int i) {
+		checkIndex(i);
+		int p = starts[i], end = ends[i];
+
+		boolean negative = false;
+		if(p < end && (chars[p] == '-' || chars[p] == '+')) {
+			negative = chars[p] == '-';
+			p++;
+		}
+
+		int digits = 0;
+		int fraction = -1; // number of digits after the decimal point, -1 if there is no point
+		int mantissa = 0;
+		for(; p < end; p++) {
+			char c = chars[p];
+			if(c >= '0' && c <= '9') {
+				if(++digits > FAST_FLOAT_DIGITS)
+					return Float.parseFloat(getToken(i));
+				mantissa = mantissa * 10 + (c - '0');
+				if(fraction >= 0)
+					fraction++;
+			} else if(c == '.' && fraction < 0) {
+				fraction = 0;
+			} else {
+				return Float.parseFloat(getToken(i)); // exponent, whitespace, NaN, Infinity, garbage
+			}
+		}
+		if(digits == 0)
+			return Float.parseFloat(getToken(i));
+
+		// With at most 7 digits the mantissa and the power of ten are exact doubles and the
+		// correctly rounded quotient converts to the same float as Float.parseFloat() would return.
+		float value = (float) (mantissa / POW10[Math.max(fraction, 0)]);
+		return negative ? -value : value;
+	}
+
+
+	/**
+	 * Same as Double.parseDouble(getToken(i)). Plain decimal numbers with up to 15 digits are
+	 * parsed directly from the line, anything else falls back to Double.parseDouble().
+	 * @throws NumberFormatException
+	 */
+	public double parseDouble(int i) {
+		checkIndex(i);
+		int p = starts[i], end = ends[i];
+
+		boolean negative = false;
+		if(p < end && (chars[p] == '-' || chars[p] == '+')) {
+			negative = chars[p] == '-';
+			p++;
+		}
+
+		int digits = 0;
+		int fraction = -1;
+		long mantissa = 0;
+		for(; p < end; p++) {
+			char c = chars[p];
+			if(c >= '0' && c <= '9') {
+				if(++digits > FAST_DOUBLE_DIGITS)
+					return Double.parseDouble(getToken(i));
+				mantissa = mantissa * 10 + (c - '0');
+				if(fraction >= 0)
+					fraction++;
+			} else if(c == '.' && fraction < 0) {
+				fraction = 0;
+			} else {
+				return Double.parseDouble(getToken(i));
+			}
+		}
+		if(digits == 0)
+			return Double.parseDouble(getToken(i));
+
+		// Below 10^15 the mantissa is an exact double, so is the power of ten, and one correctly
+		// rounded division gives the same result as Double.parseDouble().
+		double value = mantissa / POW10[Math.max(fraction, 0)];
+		return negative ? -value : value;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
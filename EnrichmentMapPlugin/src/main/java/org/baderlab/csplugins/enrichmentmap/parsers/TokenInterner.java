@@ -0,0 +1,157 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import java.util.Locale;
+import java.util.function.ToIntFunction;
+
+/**
+ * Maps tokens read by a {@link TabDelimitedScanner} to integer IDs, for example gene names to gene IDs.
+ * <p>
+ * Tokens are hashed and compared directly from the scanner's char array, a String is only created
+ * the first time a token is seen, then the resolver is called to get its ID.
+ * The ID returned by the resolver is remembered (including -1 for 'not found') so the resolver is
+ * called at most once for each distinct token.
+ * <p>
+ * The token can optionally be converted with toUpperCase() and trim(), the result is the same as
+ * calling those methods on the String.
+ * <p>
+ * Not thread safe.
+ */
+public class TokenInterner {
+
+	private final boolean upperCase;
+	private final boolean trim;
+	private final ToIntFunction<String> resolver;
+	private final boolean asciiUpperCase;
+
+	private String[] keys = new String[1024];
+	private int[] ids = new int[1024];
+	private int size = 0;
+
+	private char[] scratch = new char[64];
+
+
+	/**
+	 * @param resolver called with the converted token the first time it is seen, returns the ID or -1
+	 */
+	public TokenInterner(boolean upperCase, boolean trim, ToIntFunction<String> resolver) {
+		this.upperCase = upperCase;
+		this.trim = trim;
+		this.resolver = resolver;
+		// In these locales String.toUpperCase() doesn't just map a-z to A-Z
+		String lang = Locale.getDefault().getLanguage();
+		this.asciiUpperCase = !("tr".equals(lang) || "az".equals(lang) || "lt".equals(lang));
+	}
+
+
+	public int intern(char[] chars, int start, int end) {
+		int length = convert(chars, start, end);
+		int hash = hash(scratch, length);
+		int mask = keys.length - 1;
+		int slot = hash & mask;
+
+		String key;
+		while((key = keys[slot]) != null) {
+			if(matches(key, length))
+				return ids[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		String token = new String(scratch, 0, length);
+		int id = resolver.applyAsInt(token);
+		keys[slot] = token;
+		ids[slot] = id;
+		if(++size * 2 > keys.length)
+			rehash();
+		return id;
+	}
+
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Copies the converted token into the scratch array, returns its length.
+	 */
+	private int convert(char[] chars, int start, int end) {
+		int length = end - start;
+		if(scratch.length < length)
+			scratch = new char[Math.max(length, scratch.length * 2)];
+
+		if(upperCase) {
+			boolean ascii = asciiUpperCase;
+			for(int i = 0; i < length && ascii; i++) {
+				char c = chars[start + i];
+				if(c >= 128)
+					ascii = false;
+				else
+					scratch[i] = (c >= 'a' && c <= 'z') ? (char)(c - ('a' - 'A')) : c;
+			}
+			if(!ascii) {
+				// Case mapping can change the length of the string, let String handle it
+				String s = new String(chars, start, length).toUpperCase();
+				if(scratch.length < s.length())
+					scratch = new char[s.length()];
+				s.getChars(0, s.length(), scratch, 0);
+				length = s.length();
+			}
+		} else {
+			System.arraycopy(chars, start, scratch, 0, length);
+		}
+
+		if(trim) {
+			int from = 0, to = length;
+			while(from < to && scratch[from] <= ' ')
+				from++;
+			while(to > from && scratch[to-1] <= ' ')
+				to--;
+			if(from > 0)
+				System.arraycopy(scratch, from, scratch, 0, to - from);
+			length = to - from;
+		}
+		return length;
+	}
+
+	/**
+	 * Same as String.hashCode() so a rehash can use the cached hash of the keys.
+	 */
+	private static int hash(char[] chars, int length) {
+		int h = 0;
+		for(int i = 0; i < length; i++) {
+			h = 31 * h + chars[i];
+		}
+		return spread(h);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private boolean matches(String key, int length) {
+		if(key.length() != length)
+			return false;
+		for(int i = 0; i < length; i++) {
+			if(key.charAt(i) != scratch[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void rehash() {
+		String[] oldKeys = keys;
+		int[] oldIds = ids;
+		keys = new String[oldKeys.length * 2];
+		ids = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			String key = oldKeys[i];
+			if(key != null) {
+				int slot = spread(key.hashCode()) & mask;
+				while(keys[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				ids[slot] = oldIds[i];
+			}
+		}
+	}
+}
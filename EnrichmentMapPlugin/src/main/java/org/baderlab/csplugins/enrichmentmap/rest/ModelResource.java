@@ -8,9 +8,15 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import java.util.List;
+import java.util.Optional;
+
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.io.ModelSerializer;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
 
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 
 import io.swagger.annotations.Api;
@@ -38,6 +44,30 @@ public class ModelResource {
 	}
 	
 	
+	@GET
+	@ApiOperation(value="Get the overlap genes of an edge.", 
+		notes="The overlap genes are computed from the gene sets of the two nodes if the network doesn't have an Overlap_genes column.",
+		response=List.class)
+	@Path("/{network}/overlapgenes/{edge}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getOverlapGenes(
+			@ApiParam(value="Network name or SUID") @PathParam("network") String network,
+			@ApiParam(value="Edge SUID") @PathParam("edge") long edgeSuid
+	) {
+		Optional<EnrichmentMap> map = resourceUtil.getEnrichmentMap(network);
+		Optional<CyNetwork> cyNetwork = resourceUtil.getNetwork(network);
+		if(!map.isPresent() || !cyNetwork.isPresent())
+			return Response.status(Status.NOT_FOUND).build();
+		
+		CyEdge edge = cyNetwork.get().getEdge(edgeSuid);
+		if(edge == null)
+			return Response.status(Status.NOT_FOUND).build();
+		
+		List<String> genes = map.get().getOverlapGenesCache().getOverlapGenes(cyNetwork.get(), edge);
+		return Response.ok(new Gson().toJson(genes)).build();
+	}
+	
+	
 	private String getEnrichmentMapJSON(EnrichmentMap map) {
 		// Don't rely on the auto json serialization because ModelSerializer needs to customize the GSON serializer.
 		return ModelSerializer.serialize(map, true);
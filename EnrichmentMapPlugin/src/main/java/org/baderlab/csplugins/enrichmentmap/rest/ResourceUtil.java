@@ -25,6 +25,15 @@ public class ResourceUtil {
 		}
 	}
 	
+	public Optional<CyNetwork> getNetwork(String network) {
+		try {
+			long suid = Long.parseLong(network);
+			return Optional.ofNullable(networkManager.getNetwork(suid));
+		} catch(NumberFormatException e) {
+			return getNetworkByName(network).map(networkManager::getNetwork);
+		}
+	}
+	
 	private Optional<Long> getNetworkByName(String name) {
 		for(CyNetwork network : networkManager.getNetworkSet()) {
 			String netName = network.getRow(network).get(CyNetwork.NAME, String.class);
@@ -1,10 +1,7 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
 import java.text.MessageFormat;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
@@ -12,34 +9,73 @@ import org.baderlab.csplugins.enrichmentmap.util.NullTaskMonitor;
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskMonitor;
 
+/**
+ * Base class for tasks that split their work across threads. The work runs on the
+ * {@link ParallelTaskExecutor} shared by the App, so no threads are created per task.
+ * <p>
+ * Cancelling the task stops the work immediately: queued work is discarded and running work is interrupted.
+ * An exception thrown by any of the worker runnables fails the task.
+ */
 public abstract class CancellableParallelTask<T> extends AbstractTask {
 
+	private volatile ParallelTaskExecutor.Scope scope;
+	
 	@Override
-	public void run(TaskMonitor tm) throws InterruptedException {
+	public void run(TaskMonitor tm) throws Exception {
 		tm = NullTaskMonitor.check(tm);
-			
-		int cpus = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(cpus);
-
-		T t = compute(tm, executor);
-
-		// Support cancellation
-		Timer timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
-			public void run() {
-				if (cancelled) {
+		
+		ParallelTaskExecutor.Scope executor = ParallelTaskExecutor.getShared().newScope(getParallelism());
+		scope = executor;
+		if(cancelled) // cancelled before the scope was visible to cancel()
+			executor.shutdownNow();
+		
+		T t;
+		try {
+			t = compute(tm, executor);
+			executor.shutdown();
+			while(!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				if(cancelled)
 					executor.shutdownNow();
-				}
 			}
-		}, 0, 1000);
-
-		executor.shutdown();
-		executor.awaitTermination(3, TimeUnit.HOURS);
-		timer.cancel();
-
+		} catch(RuntimeException e) {
+			executor.shutdownNow();
+			if(cancelled)
+				return; // work that was cut short by cancellation may fail, ignore
+			throw e;
+		} catch(InterruptedException e) {
+			executor.shutdownNow();
+			throw e;
+		} finally {
+			scope = null;
+		}
+		
+		Throwable failure = executor.getFailure();
+		if(failure != null && !cancelled) {
+			if(failure instanceof Exception)
+				throw (Exception) failure;
+			if(failure instanceof Error)
+				throw (Error) failure;
+			throw new RuntimeException(failure);
+		}
+		
 		if(!cancelled)
 			done(t);
 	}
+	
+	@Override
+	public void cancel() {
+		super.cancel();
+		ParallelTaskExecutor.Scope executor = scope;
+		if(executor != null)
+			executor.shutdownNow();
+	}
+	
+	/**
+	 * The maximum number of threads this task may use at once, defaults to one per CPU.
+	 */
+	protected int getParallelism() {
+		return Runtime.getRuntime().availableProcessors();
+	}
 
 	public abstract T compute(TaskMonitor tm, ExecutorService executor);
 
@@ -1,106 +1,367 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
-import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarityTable;
 import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.baderlab.csplugins.enrichmentmap.util.SortedIntArrays;
 import org.cytoscape.work.TaskMonitor;
 
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 
-public class ComputeSimilarityTaskParallel extends CancellableParallelTask<Map<SimilarityKey,GenesetSimilarity>> {
+public class ComputeSimilarityTaskParallel extends CancellableParallelTask<GenesetSimilarityTable> {
+
+	/** Create more blocks than threads so that idle threads can steal work from busy ones. */
+	private static final int BLOCKS_PER_CPU = 8;
+	
 
 	private final EnrichmentMap map;
-	private final Consumer<Map<SimilarityKey,GenesetSimilarity>> consumer;
+	private Consumer<GenesetSimilarityTable> consumer;
 	
-	public ComputeSimilarityTaskParallel(EnrichmentMap map, Consumer<Map<SimilarityKey,GenesetSimilarity>> consumer) {
+	private ComputeSimilarityTaskParallel(EnrichmentMap map) {
 		this.map = map;
-		this.consumer = consumer;
+	}
+	
+	/**
+	 * The consumer receives a Map view of the similarity table, see {@link GenesetSimilarityTable#asMap()}.
+	 */
+	public ComputeSimilarityTaskParallel(EnrichmentMap map, Consumer<Map<SimilarityKey,GenesetSimilarity>> consumer) {
+		this(map);
+		this.consumer = table -> consumer.accept(table.asMap());
+	}
+	
+	public static ComputeSimilarityTaskParallel createForTable(EnrichmentMap map, Consumer<GenesetSimilarityTable> consumer) {
+		ComputeSimilarityTaskParallel task = new ComputeSimilarityTaskParallel(map);
+		task.consumer = consumer;
+		return task;
 	}
 	
 	@Override
-	public void done(Map<SimilarityKey,GenesetSimilarity> similarities) {
+	public void done(GenesetSimilarityTable similarities) {
 		consumer.accept(similarities);
 	}
 	
 	@Override
-	public Map<SimilarityKey,GenesetSimilarity> compute(TaskMonitor tm, ExecutorService executor) {
+	public GenesetSimilarityTable compute(TaskMonitor tm, ExecutorService executor) {
 		boolean distinct = useDistinctEdges();
 		map.getParams().setCreateDistinctEdges(distinct); // set this value for access by UI components 
 		
-		Set<String> names = map.getAllGeneSetOfInterestNames();
-		Map<String,Set<Integer>> unionedGenesets = distinct ? null : map.unionAllGeneSetsOfInterest();
+		// Index the gene sets so that each unordered pair (i,j) with i < j is only visited once.
+		String[] names = map.getAllGeneSetOfInterestNames().stream().sorted().toArray(String[]::new);
+		List<Layer> layers = distinct ? distinctLayers(names) : compoundLayers(names);
+		
+		SimilarityKernel kernel = new SimilarityKernel(map.getParams());
+		
+		// When pairs with no genes in common can't pass the cutoff only the pairs found in the inverted index need to be scored.
+		if(!kernel.passesWithoutOverlap()) {
+			for(Layer layer : layers) {
+				layer.buildIndex();
+			}
+		}
+		
+		List<int[]> blocks = partitionRows(layers, names.length, Runtime.getRuntime().availableProcessors() * BLOCKS_PER_CPU);
 		
-		DiscreteTaskMonitor taskMonitor = discreteTaskMonitor(tm, names.size());
+		DiscreteTaskMonitor taskMonitor = discreteTaskMonitor(tm, names.length);
 		String edgeType = map.getParams().getEnrichmentEdgeType();
-		Map<SimilarityKey,GenesetSimilarity> similarities = new ConcurrentHashMap<>();
-		
-		Collection<EMDataSet> dataSets = map.getDataSetList();
-		
-		for(final String geneset1Name : names) {
-			// Compute similarities in batches, creating a Runnable for every similarity pair would create too many objects
-			executor.execute(() -> {
-				loop:
-				for(final String geneset2Name : names) {
-					if(Thread.interrupted())
-						break loop;
-					if (geneset1Name.equalsIgnoreCase(geneset2Name))
-						continue; //don't compare two identical gene sets
-					
-					if(distinct) {
-						for(EMDataSet dataset : dataSets) {
-							SimilarityKey key = new SimilarityKey(geneset1Name, geneset2Name, edgeType, dataset.getName());
-							
-							if(!similarities.containsKey(key)) {
-								Map<String,GeneSet> genesets = dataset.getGeneSetsOfInterest().getGeneSets();
-								GeneSet geneset1 = genesets.get(geneset1Name);
-								GeneSet geneset2 = genesets.get(geneset2Name);
-								
-								if(geneset1 != null && geneset2 != null) {
-									// returns null if the similarity coefficient doesn't pass the cutoff
-									GenesetSimilarity similarity = computeGenesetSimilarity(map.getParams(), geneset1Name, geneset2Name, geneset1.getGenes(), geneset2.getGenes(), dataset.getName());
-									if(similarity != null) {
-										similarities.put(key, similarity);
-									}
-								}
-							}
+		
+		// Each block of rows is computed into its own result buffer, the buffers are merged at the end
+		List<Future<GenesetSimilarityTable.Builder>> futures = new ArrayList<>(blocks.size());
+		for(int[] block : blocks) {
+			futures.add(executor.submit(() -> computeRows(block[0], block[1], names, layers, kernel, taskMonitor)));
+		}
+		
+		List<GenesetSimilarityTable.Builder> buffers = new ArrayList<>(futures.size());
+		for(Future<GenesetSimilarityTable.Builder> future : futures) {
+			buffers.add(getResult(future));
+		}
+		
+		String[] keyNames = layers.stream().map(layer -> layer.keyName).toArray(String[]::new);
+		String[] dataSetNames = layers.stream().map(layer -> layer.dataSetName).toArray(String[]::new);
+		return GenesetSimilarityTable.concat(edgeType, names, keyNames, dataSetNames, buffers);
+	}
+	
+	
+	private GenesetSimilarityTable.Builder computeRows(int start, int end, String[] names, List<Layer> layers, 
+			SimilarityKernel kernel, DiscreteTaskMonitor taskMonitor) {
+		GenesetSimilarityTable.Builder similarities = new GenesetSimilarityTable.Builder();
+		CandidateBuffer buffer = new CandidateBuffer(names.length);
+		
+		for(int i = start; i < end; i++) {
+			if(cancelled || Thread.currentThread().isInterrupted())
+				break;
+			
+			for(int l = 0; l < layers.size(); l++) {
+				Layer layer = layers.get(l);
+				int[] geneset1 = layer.genesets[i];
+				if(geneset1 == null)
+					continue;
+				
+				if(layer.postings == null) {
+					for(int j = i + 1; j < names.length; j++) {
+						int[] geneset2 = layer.genesets[j];
+						if(geneset2 != null) {
+							score(i, j, l, geneset1, geneset2, SortedIntArrays.intersectionSize(geneset1, geneset2), names, kernel, similarities);
 						}
 					}
-					else {
-						SimilarityKey key = new SimilarityKey(geneset1Name, geneset2Name, edgeType, null);
-						
-						if(!similarities.containsKey(key)) {
-							Set<Integer> geneset1 = unionedGenesets.get(geneset1Name);
-							Set<Integer> geneset2 = unionedGenesets.get(geneset2Name);
-							
-							// returns null if the similarity coefficient doesn't pass the cutoff
-							GenesetSimilarity similarity = computeGenesetSimilarity(map.getParams(), geneset1Name, geneset2Name, geneset1, geneset2, "compound");
-							if(similarity != null) {
-								similarities.put(key, similarity);
-							}
-						}
+				} else {
+					buffer.findCandidates(i, layer, kernel);
+					for(int c = 0; c < buffer.size; c++) {
+						int j = buffer.candidates[c];
+						score(i, j, l, geneset1, layer.genesets[j], buffer.counts[j], names, kernel, similarities);
 					}
+					buffer.clear();
 				}
-				
-				taskMonitor.inc();
-			});
+			}
+			
+			taskMonitor.inc();
 		}
 		
 		return similarities;
 	}
 	
 	
+	private static void score(int i, int j, int layer, int[] geneset1, int[] geneset2, int intersectionSize, String[] names, 
+			SimilarityKernel kernel, GenesetSimilarityTable.Builder similarities) {
+		if(names[i].equalsIgnoreCase(names[j]))
+			return; //don't compare two identical gene sets
+		
+		double coeffecient = kernel.coeffecient(intersectionSize, geneset1.length, geneset2.length);
+		if(kernel.passes(coeffecient)) {
+			similarities.add(i, j, layer, coeffecient, geneset1, geneset2);
+		}
+	}
+	
+	
+	/**
+	 * Finds the gene sets that share at least one gene with a given gene set by walking the inverted index, 
+	 * counting the size of each intersection along the way. Reused for every row in a block.
+	 */
+	private static class CandidateBuffer {
+		final int[] counts;     // intersection size indexed by gene set, -1 if the pair was pruned
+		final int[] candidates; // gene sets that have a non-zero count
+		int size = 0;
+		
+		CandidateBuffer(int n) {
+			counts = new int[n];
+			candidates = new int[n];
+		}
+		
+		void findCandidates(int i, Layer layer, SimilarityKernel kernel) {
+			int size1 = layer.genesets[i].length;
+			
+			for(int gene : layer.genesets[i]) {
+				int[] posting = layer.postings[gene];
+				// postings are sorted, only look at gene sets after i in the upper triangle
+				for(int p = upperBound(posting, i); p < posting.length; p++) {
+					int j = posting[p];
+					int count = counts[j];
+					if(count > 0) {
+						counts[j] = count + 1;
+					} else if(count == 0) {
+						candidates[size++] = j;
+						// size-ratio bound, prune pairs that can't reach the cutoff no matter how many genes they share
+						counts[j] = kernel.isUnreachable(size1, layer.genesets[j].length) ? -1 : 1;
+					}
+				}
+			}
+			
+			// remove the pruned candidates
+			int n = 0;
+			for(int c = 0; c < size; c++) {
+				int j = candidates[c];
+				if(counts[j] > 0)
+					candidates[n++] = j;
+				else
+					counts[j] = 0;
+			}
+			size = n;
+			Arrays.sort(candidates, 0, size); // keep the same order as a full scan
+		}
+		
+		void clear() {
+			for(int c = 0; c < size; c++) {
+				counts[candidates[c]] = 0;
+			}
+			size = 0;
+		}
+	}
+	
+	/**
+	 * Returns the index of the first element in the sorted array that is greater than the key.
+	 */
+	private static int upperBound(int[] array, int key) {
+		int index = Arrays.binarySearch(array, key);
+		return index >= 0 ? index + 1 : -index - 1;
+	}
+	
+	
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	
+	/**
+	 * Splits the rows of the upper triangle into contiguous blocks of roughly equal estimated cost.
+	 * Rows near the top of the triangle have many more pairs than rows near the bottom so the
+	 * blocks can't just have the same number of rows. Returns a list of [start, end) row ranges.
+	 */
+	static List<int[]> partitionRows(List<Layer> layers, int n, int targetBlocks) {
+		double[] rowCost = new double[n];
+		for(Layer layer : layers) {
+			if(layer.postings != null) {
+				// The cost of a row is the number of postings that get visited in the inverted index
+				for(int i = 0; i < n; i++) {
+					int[] geneset = layer.genesets[i];
+					if(geneset != null) {
+						for(int gene : geneset) {
+							int[] posting = layer.postings[gene];
+							rowCost[i] += 1.0 + posting.length - upperBound(posting, i);
+						}
+					}
+				}
+				continue;
+			}
+			
+			// The cost of comparing two gene sets is proportional to the sum of their sizes
+			double suffixSize = 0;
+			int suffixCount = 0;
+			for(int i = n - 1; i >= 0; i--) {
+				int[] geneset = layer.genesets[i];
+				if(geneset != null) {
+					rowCost[i] += suffixCount * (geneset.length + 1.0) + suffixSize;
+					suffixSize += geneset.length;
+					suffixCount++;
+				}
+			}
+		}
+		
+		double totalCost = 0;
+		for(double cost : rowCost)
+			totalCost += cost;
+		double blockCost = totalCost / Math.max(1, targetBlocks);
+		
+		List<int[]> blocks = new ArrayList<>();
+		int start = 0;
+		double cost = 0;
+		for(int i = 0; i < n; i++) {
+			cost += rowCost[i];
+			if(cost >= blockCost || i == n - 1) {
+				blocks.add(new int[] { start, i + 1 });
+				start = i + 1;
+				cost = 0;
+			}
+		}
+		return blocks;
+	}
+	
+	
+	/**
+	 * The gene sets to compare aligned by index with the array of gene set names,
+	 * null if the gene set does not exist in this layer.
+	 */
+	static class Layer {
+		final int[][] genesets;
+		final String keyName; // null for compound edges
+		final String dataSetName;
+		
+		/** Inverted index, gene ID -> sorted indices of the gene sets that contain the gene. May be null. */
+		int[][] postings;
+		
+		Layer(int[][] genesets, String keyName, String dataSetName) {
+			this.genesets = genesets;
+			this.keyName = keyName;
+			this.dataSetName = dataSetName;
+		}
+		
+		void buildIndex() {
+			int maxGeneId = 0;
+			for(int[] geneset : genesets) {
+				if(geneset != null && geneset.length > 0) {
+					if(geneset[0] < 0)
+						return; // gene IDs are expected to be small positive numbers, leave the index null and do a full scan
+					maxGeneId = Math.max(maxGeneId, geneset[geneset.length-1]);
+				}
+			}
+			
+			int[] sizes = new int[maxGeneId + 1];
+			for(int[] geneset : genesets) {
+				if(geneset != null) {
+					for(int gene : geneset) {
+						sizes[gene]++;
+					}
+				}
+			}
+			
+			postings = new int[maxGeneId + 1][];
+			for(int gene = 0; gene <= maxGeneId; gene++) {
+				postings[gene] = new int[sizes[gene]];
+			}
+			
+			// gene sets are visited in index order so each posting array ends up sorted
+			int[] fill = new int[maxGeneId + 1];
+			for(int i = 0; i < genesets.length; i++) {
+				if(genesets[i] != null) {
+					for(int gene : genesets[i]) {
+						postings[gene][fill[gene]++] = i;
+					}
+				}
+			}
+		}
+	}
+	
+	private List<Layer> compoundLayers(String[] names) {
+		int[][] genesets = toSortedArrays(names, map.unionAllGeneSetsOfInterest());
+		return Collections.singletonList(new Layer(genesets, null, "compound"));
+	}
+	
+	private List<Layer> distinctLayers(String[] names) {
+		List<Layer> layers = new ArrayList<>();
+		for(EMDataSet dataset : map.getDataSetList()) {
+			Map<String,GeneSet> genesets = dataset.getGeneSetsOfInterest().getGeneSets();
+			int[][] arrays = toSortedArrays(names, Maps.transformValues(genesets, GeneSet::getGenes));
+			layers.add(new Layer(arrays, dataset.getName(), dataset.getName()));
+		}
+		return layers;
+	}
+	
+	/**
+	 * Convert each gene set to a sorted int[] once up front, the similarity kernel works directly on the arrays.
+	 */
+	private static int[][] toSortedArrays(String[] names, Map<String,? extends Collection<Integer>> genesets) {
+		int[][] arrays = new int[names.length][];
+		for(int i = 0; i < names.length; i++) {
+			Collection<Integer> genes = genesets.get(names[i]);
+			if(genes != null) {
+				arrays[i] = SortedIntArrays.toSortedArray(genes);
+			}
+		}
+		return arrays;
+	}
+	
+	
 	private boolean useDistinctEdges() {
 		switch(map.getParams().getEdgeStrategy()) {
 			case DISTINCT: 
@@ -119,45 +380,12 @@ public class ComputeSimilarityTaskParallel extends CancellableParallelTask<Map<S
 	}
 
 	
-	public static double computeSimilarityCoeffecient(EMCreationParameters params, Set<?> intersection, Set<?> union, Set<?> genes1, Set<?> genes2) {
-		// Note: Do not call intersection.size() or union.size() more than once on a Guava SetView! 
+	public static double computeSimilarityCoeffecient(EMCreationParameters params, Set<?> intersection, Set<?> genes1, Set<?> genes2) {
+		// Note: Do not call intersection.size() more than once on a Guava SetView! 
 		// It is a potentially slow operation that needs to be recalcuated each time it is called.
-		
-		if (params.getSimilarityMetric() == SimilarityMetric.JACCARD) {
-			return (double) intersection.size() / (double) union.size();
-		} 
-		else if (params.getSimilarityMetric() == SimilarityMetric.OVERLAP) {
-			return (double) intersection.size() / Math.min((double) genes1.size(), (double) genes2.size());
-		} 
-		else { 
-			// It must be combined. Compute a combination of the overlap and jaccard coefecient. We need both the Jaccard and the Overlap.
-			double intersectionSize = (double) intersection.size(); // do not call size() more than once on the same SetView
-			
-			double jaccard = intersectionSize / (double) union.size();
-			double overlap = intersectionSize / Math.min((double) genes1.size(), (double) genes2.size());
-
-			double k = params.getCombinedConstant();
-
-			return (k * overlap) + ((1 - k) * jaccard);
-		}
-	}
-
-	
-	static GenesetSimilarity computeGenesetSimilarity(EMCreationParameters params, String geneset1Name, String geneset2Name, Set<Integer> geneset1, Set<Integer> geneset2, String dataset) {
-		Set<Integer> intersection = Sets.intersection(geneset1, geneset2);
-		Set<Integer> union = Sets.union(geneset1, geneset2);
-
-		double coeffecient = computeSimilarityCoeffecient(params, intersection, union, geneset1, geneset2);
-		
-		if(!Double.isFinite(coeffecient))
-			return null;
-		
-		if(coeffecient < params.getSimilarityCutoff())
-			return null;
-			
-		String edgeType = params.getEnrichmentEdgeType();
-		GenesetSimilarity similarity = new GenesetSimilarity(geneset1Name, geneset2Name, coeffecient, edgeType, intersection, dataset);
-		return similarity;
+		// The size of the union is derived from the sizes of the intersection and the two gene sets.
+		int intersectionSize = intersection.size();
+		return SimilarityKernel.computeSimilarityCoeffecient(params.getSimilarityMetric(), params.getCombinedConstant(), intersectionSize, genes1.size(), genes2.size());
 	}
 	
 }
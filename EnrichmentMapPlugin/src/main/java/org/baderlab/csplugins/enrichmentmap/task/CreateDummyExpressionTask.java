@@ -51,7 +51,7 @@ public class CreateDummyExpressionTask extends AbstractTask {
 			GeneExpression expres = new GeneExpression(geneName, geneName, DEFAULT_VAL);
 			expression.put(geneKey, expres);
 		}
-		
+		expressionMatrix.compact();
 	}
 	
 	private Set<Integer> getGenes() throws IOException {
@@ -1,32 +1,35 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
+import org.baderlab.csplugins.enrichmentmap.PropertyManager;
 import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMapManager;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultColumns;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultColumns.Statistic;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
-import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarityTable;
 import org.baderlab.csplugins.enrichmentmap.model.LegacySupport;
 import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.baderlab.csplugins.enrichmentmap.util.BulkAttributeWriter;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
 import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkFactory;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.subnetwork.CyRootNetwork;
 import org.cytoscape.model.subnetwork.CySubNetwork;
@@ -44,20 +47,21 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 	@Inject private CyNetworkFactory networkFactory;
 	@Inject private CyNetworkNaming networkNaming;
 	@Inject private EnrichmentMapManager emManager;
+	@Inject private PropertyManager propertyManager;
 	
 	private final EnrichmentMap map;
 	private final String prefix;
 	
-	private final Supplier<Map<SimilarityKey,GenesetSimilarity>> supplier;
+	private final Supplier<GenesetSimilarityTable> supplier;
 	
 	private Long networkSuidResult;
 	
 	public interface Factory {
-		CreateEMNetworkTask create(EnrichmentMap map, Supplier<Map<SimilarityKey,GenesetSimilarity>> supplier);
+		CreateEMNetworkTask create(EnrichmentMap map, Supplier<GenesetSimilarityTable> supplier);
 	}
 	
 	@Inject
-	public CreateEMNetworkTask(@Assisted EnrichmentMap map, @Assisted Supplier<Map<SimilarityKey,GenesetSimilarity>> supplier) {
+	public CreateEMNetworkTask(@Assisted EnrichmentMap map, @Assisted Supplier<GenesetSimilarityTable> supplier) {
 		this.map = map;
 		this.prefix = map.getParams().getAttributePrefix();
 		this.supplier = supplier;
@@ -91,11 +95,14 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 		CyNetwork network = createNetwork();
 		map.setNetworkID(network.getSUID());
 		
+		if(propertyManager.isTrue(PropertyManager.CREATE_LAZY_OVERLAP_GENES))
+			map.getParams().setLazyOverlapGenes(true);
+		
 		createNodeColumns(network);
 		createEdgeColumns(network);
 		
 		Map<String,Set<Integer>> geneSets = map.unionAllGeneSetsOfInterest();
-		Map<SimilarityKey,GenesetSimilarity> similarities = supplier.get();
+		GenesetSimilarityTable similarities = supplier.get();
 		
 		int numNodes = geneSets.size();
 		int numEdges = similarities.size();
@@ -103,13 +110,14 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 		tm.setProgress(0.1);
 		
 		var nodeTm = new DiscreteTaskMonitor(tm, numNodes, 0.1, 0.2).percentMessage("Creating " + numNodes + " Nodes: {0,number,#%}");
-		Map<String,CyNode> nodes = createNodes(network, geneSets, nodeTm);
+		GeneNameListCache geneNames = new GeneNameListCache(map);
+		Map<String,CyNode> nodes = createNodes(network, geneSets, geneNames, nodeTm);
 		
 		if(cancelled)
 			return null;
 		
 		var edgeTm = new DiscreteTaskMonitor(tm, numEdges, 0.2, 1.0).percentMessage("Creating " + numEdges + " Edges: {0,number,#%}");
-		createEdges(network, nodes, similarities, edgeTm);
+		createEdges(network, nodes, similarities, geneNames, edgeTm);
 		
 		if(cancelled)
 			return null;
@@ -136,96 +144,151 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 	}
 	
 	
-	private Map<String, CyNode> createNodes(CyNetwork network, Map<String,Set<Integer>> geneSets, DiscreteTaskMonitor tm) {
+	/**
+	 * Per data set column indexes for the {@link BulkAttributeWriter}.
+	 */
+	private static class DataSetColumns {
+		final EMDataSet dataset;
+		final EnrichmentResultColumns results;
+		final int pvalue, fdrqvalue, fwerqvalue, es, nes, logPvalue, colouring;
+		
+		DataSetColumns(EMDataSet dataset, BulkAttributeWriter writer, String prefix) {
+			this.dataset = dataset;
+			this.results = dataset.getEnrichments().getColumns();
+			this.pvalue     = writer.column(Columns.NODE_PVALUE.with(prefix, dataset));
+			this.fdrqvalue  = writer.column(Columns.NODE_FDR_QVALUE.with(prefix, dataset));
+			this.fwerqvalue = writer.column(Columns.NODE_FWER_QVALUE.with(prefix, dataset));
+			this.es         = writer.column(Columns.NODE_ES.with(prefix, dataset));
+			this.nes        = writer.column(Columns.NODE_NES.with(prefix, dataset));
+			this.logPvalue  = writer.column(Columns.NODE_LOG_PVALUE.with(prefix, dataset));
+			this.colouring  = writer.column(Columns.NODE_COLOURING.with(prefix, dataset));
+		}
+	}
+	
+	
+	private Map<String, CyNode> createNodes(CyNetwork network, Map<String,Set<Integer>> geneSets, GeneNameListCache geneNames, DiscreteTaskMonitor tm) {
 		Map<String,CyNode> nodes = new HashMap<>();
+		EMCreationParameters params = map.getParams();
 		
-		for(String genesetName : geneSets.keySet()) {
+		BulkAttributeWriter writer = new BulkAttributeWriter(network.getDefaultNodeTable());
+		int nameCol       = writer.column(CyNetwork.NAME);
+		int emNameCol     = writer.column(Columns.NODE_NAME.with(prefix, null)); // MKTODO why is this column needed?
+		int descrCol      = writer.column(Columns.NODE_GS_DESCR.with(prefix, null));
+		int sourceCol     = writer.column(Columns.NODE_DATASOURCE.with(prefix, null));
+		int sourceIdCol   = writer.column(Columns.NODE_DATASOURCEID.with(prefix, null));
+		int categoryCol   = writer.column(Columns.NODE_DAVID_CATEGORY.with(prefix, null));
+		int typeCol       = writer.column(Columns.NODE_GS_TYPE.with(prefix, null));
+		int genesCol      = writer.column(Columns.NODE_GENES.with(prefix, null));
+		int sizeCol       = writer.column(Columns.NODE_GS_SIZE.with(prefix, null));
+		int logPvalMaxCol = writer.column(Columns.NODE_LOG_PVALUE_MAX.with(prefix, null));
+		
+		List<DataSetColumns> dataSets = new ArrayList<>();
+		for(EMDataSet ds : map.getDataSetList()) {
+			dataSets.add(new DataSetColumns(ds, writer, prefix));
+		}
+		
+		int[] geneIds = new int[0];
+		
+		for(Map.Entry<String,Set<Integer>> entry : geneSets.entrySet()) {
 			if(cancelled)
 				return null;
 			
+			String genesetName = entry.getKey();
 			CyNode node = network.addNode();
 			nodes.put(genesetName, node);
 			
 			// Set common attributes
-			CyRow row = network.getRow(node);
-			row.set(CyNetwork.NAME, genesetName);
-			Columns.NODE_NAME.set(row, prefix, null, genesetName); // MKTODO why is this column needed?
+			writer.addRow(node.getSUID());
+			writer.set(nameCol, genesetName);
+			writer.set(emNameCol, genesetName);
 			
 			GeneSet geneSet = map.getGeneSet(genesetName);
 			if(geneSet != null) {
-				Columns.NODE_GS_DESCR.set(row, prefix, null, geneSet.getLabel());
-				if(map.getParams().isParseBaderlabGeneSets()) {
-					if(geneSet.getSource().isPresent()) {
-						Columns.NODE_DATASOURCE.set(row, prefix, null, geneSet.getSource().get());
-					}
-					if(geneSet.getDatasourceId().isPresent()) {
-						Columns.NODE_DATASOURCEID.set(row, prefix, null, geneSet.getDatasourceId().get());
-					}
+				writer.set(descrCol, geneSet.getLabel());
+				if(params.isParseBaderlabGeneSets()) {
+					writer.set(sourceCol, geneSet.getSource().orElse(null));
+					writer.set(sourceIdCol, geneSet.getDatasourceId().orElse(null));
 				}
-				if(map.getParams().isDavid()) {
-					if(geneSet.getDavidCategory().isPresent()) {
-						Columns.NODE_DAVID_CATEGORY.set(row, prefix, null, geneSet.getDavidCategory().get());
-					}
+				if(params.isDavid()) {
+					writer.set(categoryCol, geneSet.getDavidCategory().orElse(null));
 				}
 			}
 			
-			Columns.NODE_GS_TYPE.set(row, prefix, null, Columns.NODE_GS_TYPE_ENRICHMENT);
-			Set<Integer> geneIds = geneSets.get(genesetName);
-			List<String> genes = geneIds.stream().map(map::getGeneFromHashKey).collect(Collectors.toList());
-			Columns.NODE_GENES.set(row, prefix, null, genes);
-			Columns.NODE_GS_SIZE.set(row, prefix, null, genes.size());
-			Columns.NODE_LOG_PVALUE_MAX.set(row, prefix, null, getMaxNegLog10pval(genesetName));
-			
+			writer.set(typeCol, Columns.NODE_GS_TYPE_ENRICHMENT);
+			Set<Integer> genesetGenes = entry.getValue();
+			if(geneIds.length < genesetGenes.size())
+				geneIds = new int[genesetGenes.size()];
+			int n = 0;
+			for(Integer id : genesetGenes) {
+				geneIds[n++] = id;
+			}
+			List<String> genes = geneNames.getSortedNames(geneIds, n);
+			writer.set(genesCol, genes);
+			writer.set(sizeCol, genes.size());
+			writer.set(logPvalMaxCol, getMaxNegLog10pval(genesetName, dataSets));
 			
-			for(EMDataSet ds : map.getDataSetList()) {
-				if(ds.getGeneSetsOfInterest().getGeneSets().containsKey(genesetName))
-					ds.addNodeSuid(node.getSUID());
+			for(DataSetColumns dsc : dataSets) {
+				if(dsc.dataset.getGeneSetsOfInterest().getGeneSets().containsKey(genesetName))
+					dsc.dataset.addNodeSuid(node.getSUID());
 				
-				var result = ds.getEnrichment(genesetName);
+				int row = dsc.results.indexOf(genesetName);
+				if(row < 0)
+					continue;
 				
-				// if result is null it will fail both instanceof checks
-				if(result instanceof GSEAResult)
-					setGSEAResultNodeAttributes(row, ds, (GSEAResult) result);
-				else if(result instanceof GenericResult)
-					setGenericResultNodeAttributes(row, ds, (GenericResult) result);
+				EnrichmentResult result = dsc.results.getResult(row);
+				if(result instanceof GSEAResult) {
+					setResultNodeAttributes(writer, dsc, row);
+					writer.set(dsc.fwerqvalue, dsc.results.get(Statistic.FWER_QVALUE, row));
+					writer.set(dsc.es, dsc.results.get(Statistic.ES, row));
+				} else if(result instanceof GenericResult) {
+					setResultNodeAttributes(writer, dsc, row);
+				}
 			}
 			
 			tm.inc();
 		}
 		
+		writer.flush();
 		return nodes;
 	}
 	
 	
+	/**
+	 * Sets the attributes that GSEA and generic results have in common.
+	 */
+	private void setResultNodeAttributes(BulkAttributeWriter writer, DataSetColumns dsc, int row) {
+		double pvalue = dsc.results.get(Statistic.PVALUE, row);
+		writer.set(dsc.pvalue, pvalue);
+		writer.set(dsc.fdrqvalue, dsc.results.get(Statistic.FDR_QVALUE, row));
+		writer.set(dsc.nes, dsc.results.get(Statistic.NES, row));
+		writer.set(dsc.colouring, getColorScore(pvalue, dsc.results.get(Statistic.NES, row)));
+		writer.set(dsc.logPvalue, getNegLog10pval(pvalue));
+	}
+	
+	
 	
 	private boolean needsInit = true;
 	private Double minPValueThatsNotZero = null;
 	
 	private Double getMinPValueThatsNotZero() {
 		if(needsInit) {
-			Double minPValue = null;
+			Set<String> genesetNames = map.getAllGeneSetOfInterestNames();
+			double minPValue = Double.NaN;
 			
-			for(String genesetName : map.getAllGeneSetOfInterestNames()) {
-				for(EMDataSet ds : map.getDataSetList()) { 
-					var result = ds.getEnrichment(genesetName);
-					if(result != null) {
-						double pval = result.getPvalue();
-						if(pval > 0.0) {
-							minPValue = minPValue == null ? pval : Math.min(minPValue, pval);
-						}
-					}
-				}
+			for(EMDataSet ds : map.getDataSetList()) {
+				double pval = ds.getEnrichments().getColumns().getMinPvalueNotZero(genesetNames);
+				if(pval < minPValue || Double.isNaN(minPValue))
+					minPValue = pval;
 			}
 			
-			minPValueThatsNotZero = minPValue; // could still possibly be null
+			minPValueThatsNotZero = Double.isNaN(minPValue) ? null : minPValue; // could still possibly be null
 			needsInit = false;
 		}
 		return minPValueThatsNotZero;
 	}
 		
 	
-	private Double getNegLog10pval(EMDataSet dataset, EnrichmentResult result) {
-		double pval = result.getPvalue();
+	private Double getNegLog10pval(double pval) {
 		if(pval > 0.0) {
 			return -Math.log10(pval);
 		} else if(pval == 0.0) {
@@ -238,14 +301,15 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 	}
 	
 	
-	private Double getMaxNegLog10pval(String genesetName) {
+	private Double getMaxNegLog10pval(String genesetName, List<DataSetColumns> dataSets) {
 		boolean hasVal = false;
 		double maxVal = Double.MIN_VALUE;
 		
-		for(EMDataSet ds : map.getDataSetList()) {
-			var result = ds.getEnrichment(genesetName);
-			if(result != null) {
-				double pval = result.getPvalue();
+		for(DataSetColumns dsc : dataSets) {
+			EnrichmentResultColumns columns = dsc.results;
+			int row = columns.indexOf(genesetName);
+			if(row >= 0) {
+				double pval = columns.get(Statistic.PVALUE, row);
 				if(pval > 0.0) {
 					hasVal = true;
 					maxVal = Math.max(maxVal, -Math.log10(pval));
@@ -263,20 +327,31 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 	
 		
 	/**
-	 * Note, we expect that GenesetSimilarity object that don't pass the cutoff have already been filtered out.
+	 * Note, we expect that similarities that don't pass the cutoff have already been filtered out.
 	 */
-	private void createEdges(CyNetwork network, Map<String,CyNode> nodes, Map<SimilarityKey,GenesetSimilarity> similarities, DiscreteTaskMonitor tm) {
-		for(SimilarityKey key : similarities.keySet()) {
+	private void createEdges(CyNetwork network, Map<String,CyNode> nodes, GenesetSimilarityTable similarities, GeneNameListCache geneNames, DiscreteTaskMonitor tm) {
+		BulkAttributeWriter writer = new BulkAttributeWriter(network.getDefaultEdgeTable());
+		int nameCol        = writer.column(CyNetwork.NAME);
+		int interactionCol = writer.column(CyEdge.INTERACTION);
+		int similarityCol  = writer.column(Columns.EDGE_SIMILARITY_COEFF.with(prefix, null));
+		int overlapSizeCol = writer.column(Columns.EDGE_OVERLAP_SIZE.with(prefix, null));
+		boolean lazyOverlapGenes = map.getParams().isLazyOverlapGenes();
+		int overlapCol     = lazyOverlapGenes ? -1 : writer.column(Columns.EDGE_OVERLAP_GENES.with(prefix, null));
+		int datasetCol     = writer.column(Columns.EDGE_DATASET.with(prefix, null));
+		
+		String interactionType = similarities.getInteractionType();
+		int[] overlapGenes = new int[0];
+		
+		for(int i = 0; i < similarities.size(); i++) {
 			if(cancelled)
 				return;
 			
-			GenesetSimilarity similarity = similarities.get(key);
-			
-			CyNode node1 = nodes.get(similarity.getGeneset1Name());
-			CyNode node2 = nodes.get(similarity.getGeneset2Name());
+			CyNode node1 = nodes.get(similarities.getGeneset1Name(i));
+			CyNode node2 = nodes.get(similarities.getGeneset2Name(i));
 			
 			CyEdge edge = network.addEdge(node1, node2, false);
 			
+			SimilarityKey key = similarities.getKey(i);
 			String datasetName = key.getName();
 			if(datasetName != null) {
 				EMDataSet dataset = map.getDataSet(datasetName);
@@ -285,27 +360,31 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 				}
 			}
 			
-			List<String> overlapGenes = 
-				similarity.getOverlappingGenes().stream()
-				.map(map::getGeneFromHashKey)
-				.collect(Collectors.toList());
-			
-			String edgeName = key.toString();
+			int overlapSize = similarities.getSizeOfOverlap(i);
 			
-			CyRow row = network.getRow(edge);
-			row.set(CyNetwork.NAME, edgeName);
-			row.set(CyEdge.INTERACTION, similarity.getInteractionType());
-			Columns.EDGE_SIMILARITY_COEFF.set(row, prefix, null, similarity.getSimilarityCoeffecient());
-			Columns.EDGE_OVERLAP_SIZE.set(row, prefix, null, similarity.getSizeOfOverlap());
-			Columns.EDGE_OVERLAP_GENES.set(row, prefix, null, overlapGenes);
+			writer.addRow(edge.getSUID());
+			writer.set(nameCol, key.toString());
+			writer.set(interactionCol, interactionType);
+			writer.set(similarityCol, similarities.getSimilarityCoeffecient(i));
+			writer.set(overlapSizeCol, overlapSize);
+			if(!lazyOverlapGenes) {
+				if(overlapGenes.length < overlapSize)
+					overlapGenes = new int[Math.max(overlapSize, overlapGenes.length * 2)];
+				for(int k = 0; k < overlapSize; k++) {
+					overlapGenes[k] = similarities.getOverlappingGene(i, k);
+				}
+				writer.set(overlapCol, geneNames.getSortedNames(overlapGenes, overlapSize));
+			}
 			if(key.isCompound()) {
-				Columns.EDGE_DATASET.set(row, prefix, null, Columns.EDGE_DATASET_VALUE_COMPOUND);
+				writer.set(datasetCol, Columns.EDGE_DATASET_VALUE_COMPOUND);
 			} else {
-				Columns.EDGE_DATASET.set(row, prefix, null, similarity.getDataSetName());
+				writer.set(datasetCol, similarities.getDataSetName(i));
 			}
 			
 			tm.inc();
 		}
+		
+		writer.flush();
 	}
 	
 	private CyTable createNodeColumns(CyNetwork network) {
@@ -349,48 +428,19 @@ public class CreateEMNetworkTask extends AbstractTask implements ObservableTask
 		Columns.EDGE_SIMILARITY_COEFF.createColumn(table, prefix, null);
 		Columns.EDGE_OVERLAP_SIZE.createColumn(table, prefix, null);
 		Columns.EDGE_DATASET.createColumn(table, prefix, null);
-		Columns.EDGE_OVERLAP_GENES.createColumn(table, prefix, null);
+		if(!map.getParams().isLazyOverlapGenes()) // see OverlapGenesCache
+			Columns.EDGE_OVERLAP_GENES.createColumn(table, prefix, null);
 		
 		map.getParams().addSimilarityCutoffColumnName(Columns.EDGE_SIMILARITY_COEFF.with(prefix, null));
 		
 		return table;
 	}
 	
-	private void setGenericResultNodeAttributes(CyRow row, EMDataSet dataset, GenericResult result) {
-		Columns.NODE_PVALUE.set(row, prefix, dataset, result.getPvalue());
-		Columns.NODE_FDR_QVALUE.set(row, prefix, dataset, result.getFdrqvalue());
-		Columns.NODE_NES.set(row, prefix, dataset, result.getNES());
-		Columns.NODE_COLOURING.set(row, prefix, dataset, getColorScore(result));
-		Columns.NODE_LOG_PVALUE.set(row, prefix, dataset, getNegLog10pval(dataset, result));
-	}
-	
-	private void setGSEAResultNodeAttributes(CyRow row, EMDataSet dataset, GSEAResult result) {
-		Columns.NODE_PVALUE.set(row, prefix, dataset, result.getPvalue());
-		Columns.NODE_FDR_QVALUE.set(row, prefix, dataset, result.getFdrqvalue());
-		Columns.NODE_FWER_QVALUE.set(row, prefix, dataset, result.getFwerqvalue());
-		Columns.NODE_ES.set(row, prefix, dataset, result.getES());
-		Columns.NODE_NES.set(row, prefix, dataset, result.getNES());
-		Columns.NODE_COLOURING.set(row, prefix, dataset, getColorScore(result));
-		Columns.NODE_LOG_PVALUE.set(row, prefix, dataset, getNegLog10pval(dataset, result));
-		
-		EMCreationParameters params = map.getParams();
-		params.addPValueColumnName(Columns.NODE_PVALUE.with(prefix, dataset));
-	}
-	
-	private static double getColorScore(EnrichmentResult result) {
-		if(result == null)
-			return 0.0;
-		
-		double nes;
-		if(result instanceof GSEAResult)
-			nes = ((GSEAResult)result).getNES();
-		else
-			nes = ((GenericResult)result).getNES();
-			
+	private static double getColorScore(double pvalue, double nes) {
 		if(nes >= 0)
-			return 1 - result.getPvalue();
+			return 1 - pvalue;
 		else
-			return (-1) * (1 - result.getPvalue());
+			return (-1) * (1 - pvalue);
 	}
 	
 }
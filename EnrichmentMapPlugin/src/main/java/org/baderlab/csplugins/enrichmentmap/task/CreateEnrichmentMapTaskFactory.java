@@ -1,6 +1,8 @@
 package org.baderlab.csplugins.enrichmentmap.task;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,9 +14,8 @@ import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.GenemaniaParameters;
-import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarity;
+import org.baderlab.csplugins.enrichmentmap.model.GenesetSimilarityTable;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
-import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.model.TableExpressionParameters;
 import org.baderlab.csplugins.enrichmentmap.model.TableParameters;
 import org.baderlab.csplugins.enrichmentmap.parsers.ClassFileReaderTask;
@@ -83,7 +84,25 @@ public class CreateEnrichmentMapTaskFactory {
 	}
 	
 	
+	/**
+	 * Data sets are loaded in three stages, the parsers in the first and last stage run in parallel.
+	 * <ol>
+	 * <li>GMT files for all the data sets are read, each into its own gene dictionary, see {@link GMTFileReaderTask#createReadTask()}.</li>
+	 * <li>In data set order, the genes and gene sets of the GMT file are added to the map, then the enrichments are loaded. 
+	 *     Both add genes, and the enrichment parsers set the shared FDR/David/GMT flags on the parameters. Running them in 
+	 *     order gives the genes the same IDs as loading one data set at a time.</li>
+	 * <li>Expressions, ranks and classes for all the data sets, these only look up genes. Each data set only uses the genes
+	 *     that were in the map after its enrichments were loaded ({@link RecordMaxGeneIdTask}), the same genes it would have used if the data sets were
+	 *     loaded one at a time.
+	 *     Data sets that share an expression file are loaded by the same thread so the file is only parsed once.</li>
+	 * </ol>
+	 */
 	private void createTasks(EnrichmentMap map, TaskIterator tasks, TaskErrorStrategies strategies) {
+		LoadDataSetsTaskParallel geneSetTasks = new LoadDataSetsTaskParallel("Parsing GMT files");
+		LoadDataSetsTaskParallel expressionTasks = new LoadDataSetsTaskParallel("Parsing expression and rank files");
+		Map<String,List<AbstractTask>> expressionGroups = new LinkedHashMap<>();
+		TaskIterator enrichmentTasks = new TaskIterator();
+		
 		for(DataSetParameters dataSetParameters : dataSets) {
 			String datasetName = dataSetParameters.getName();
 			Method method = dataSetParameters.getMethod();
@@ -96,48 +115,74 @@ public class CreateEnrichmentMapTaskFactory {
 			if(dataSetParameters.getTableParams().isPresent()) { 
 				// load from table
 				TableParameters tableParams = dataSetParameters.getTableParams().get();
-				tasks.append(new LoadEnrichmentsFromTableTask(tableParams, dataset));
+				enrichmentTasks.append(new LoadEnrichmentsFromTableTask(tableParams, dataset));
 				
 				if(dataSetParameters.getTableExpressionParams().isPresent()) {
 					TableExpressionParameters expressionParams = dataSetParameters.getTableExpressionParams().get();
-					tasks.append(new LoadExpressionsFromTableTask(expressionParams, dataset));
+					enrichmentTasks.append(new LoadExpressionsFromTableTask(expressionParams, dataset));
 				} else {
-					tasks.append(new CreateDummyExpressionTask(dataset));
+					enrichmentTasks.append(new CreateDummyExpressionTask(dataset));
 				}
 				
 			} else if(dataSetParameters.getGenemaniaParams().isPresent()) { 
 				// load from a genemania network
 				GenemaniaParameters genemaniaParams = dataSetParameters.getGenemaniaParams().get();
-				tasks.append(genemanaiaTaskFactory.create(genemaniaParams, dataset));
-				tasks.append(new CreateDummyExpressionTask(dataset));
+				enrichmentTasks.append(genemanaiaTaskFactory.create(genemaniaParams, dataset));
+				enrichmentTasks.append(new CreateDummyExpressionTask(dataset));
 				
 			} else { 
 				// load from files
 				
 				// Load GMT File
-				if(!Strings.isNullOrEmpty(dataset.getDataSetFiles().getGMTFileName()))
-					tasks.append(new GMTFileReaderTask(dataset));
+				if(!Strings.isNullOrEmpty(dataset.getDataSetFiles().getGMTFileName())) {
+					GMTFileReaderTask gmtTask = new GMTFileReaderTask(dataset);
+					geneSetTasks.addGroup(List.of(gmtTask.createReadTask()));
+					enrichmentTasks.append(gmtTask);
+				}
 				
 				// Load the enrichments 
-				tasks.append(getEnrichmentParserTasks(dataset, strategies.getGseaStrategy()));
+				enrichmentTasks.append(getEnrichmentParserTasks(dataset, strategies.getGseaStrategy()));
+				
+				RecordMaxGeneIdTask maxGeneId = new RecordMaxGeneIdTask(map);
+				enrichmentTasks.append(maxGeneId);
 
 				// Load expression file if specified in the dataset.
 				// If there is no expression file then create a dummy file to associate with this dataset so we can still use the expression viewer (heat map)
-				if(Strings.isNullOrEmpty(dataset.getDataSetFiles().getExpressionFileName()))
-					tasks.append(new CreateDummyExpressionTask(dataset));
-				else
-					tasks.append(new ExpressionFileReaderTask(dataset));
+				String expressionFile = dataset.getDataSetFiles().getExpressionFileName();
+				List<AbstractTask> group;
+				if(Strings.isNullOrEmpty(expressionFile)) {
+					group = new ArrayList<>();
+					expressionGroups.put("Dummy_" + datasetName, group);
+					group.add(new CreateDummyExpressionTask(dataset));
+				} else {
+					group = expressionGroups.computeIfAbsent(expressionFile, k -> new ArrayList<>());
+					ExpressionFileReaderTask expressionTask = new ExpressionFileReaderTask(dataset);
+					expressionTask.setMaxGeneId(maxGeneId);
+					group.add(expressionTask);
+				}
 				
 				// Load ranks if present
 				String ranksName = dataset.getMethod() == Method.GSEA ? Ranking.GSEARanking : datasetName;
-				if(dataset.getRanksByName(ranksName) != null)
-					tasks.append(new RanksFileReaderTask(files.getRankedFile(), dataset, ranksName, false, strategies.getRanksStrategy()));
+				if(dataset.getRanksByName(ranksName) != null) {
+					RanksFileReaderTask ranksTask = new RanksFileReaderTask(files.getRankedFile(), dataset, ranksName, false, strategies.getRanksStrategy());
+					ranksTask.setMaxGeneId(maxGeneId);
+					group.add(ranksTask);
+				}
 				
 				if(!Strings.isNullOrEmpty(dataset.getDataSetFiles().getClassFile()))
-					tasks.append(new ClassFileReaderTask(dataset));
+					group.add(new ClassFileReaderTask(dataset));
 			}
 		}
 		
+		if(!geneSetTasks.isEmpty())
+			tasks.append(geneSetTasks);
+		
+		tasks.append(enrichmentTasks);
+		
+		expressionGroups.values().forEach(expressionTasks::addGroup);
+		if(!expressionTasks.isEmpty())
+			tasks.append(expressionTasks);
+		
 		// Filter out genesets that don't pass the p-value and q-value thresholds
 		InitializeGenesetsOfInterestTask genesetsTask = new InitializeGenesetsOfInterestTask(map, strategies.getGenesetStrategy());
 		tasks.append(genesetsTask);
@@ -146,10 +191,10 @@ public class CreateEnrichmentMapTaskFactory {
 		tasks.append(new FilterGenesetsByDatasetGenes(map));
 
 		// Link the ComputeSimilarityTask to the MasterMapNetworkTask by a "pipe"
-		Baton<Map<SimilarityKey,GenesetSimilarity>> pipe = new Baton<>();
+		Baton<GenesetSimilarityTable> pipe = new Baton<>();
 		
 		// Compute the geneset similarities
-		tasks.append(new ComputeSimilarityTaskParallel(map, pipe.consumer()));
+		tasks.append(ComputeSimilarityTaskParallel.createForTable(map, pipe.consumer()));
 
 		// Create the network
 		tasks.append(createEMNetworkTaskFactory.create(map, pipe.supplier()));
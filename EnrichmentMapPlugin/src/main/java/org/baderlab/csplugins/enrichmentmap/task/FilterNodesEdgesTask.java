@@ -12,6 +12,8 @@ import static org.cytoscape.view.presentation.property.BasicVisualLexicon.NODE_L
 import static org.cytoscape.view.presentation.property.BasicVisualLexicon.NODE_TRANSPARENCY;
 import static org.cytoscape.view.presentation.property.BasicVisualLexicon.NODE_VISIBLE;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -51,6 +53,7 @@ public class FilterNodesEdgesTask extends AbstractTask {
 	}
 	
 	@Inject private RenderingEngineManager renderingEngineManager;
+	@Inject private FilterViewStates viewStates;
 	
 	private final EnrichmentMap map;
 	private final CyNetworkView networkView;
@@ -80,7 +83,14 @@ public class FilterNodesEdgesTask extends AbstractTask {
 		taskMonitor.setStatusMessage("Filtering nodes...");
 		taskMonitor.setProgress(0.0);
 		
-		filterNodes(nodes, taskMonitor);
+		// Only the nodes and edges that changed state since the last run need to be updated,
+		// unless this is the first run for the view or the filter mode changed.
+		FilterViewStates.State previous = viewStates.get(networkView);
+		if (previous != null && previous.filterMode != filterMode)
+			previous = null;
+		viewStates.invalidate(networkView); // in case the task gets cancelled part way
+		
+		Set<Long> filteredOutNodes = filterNodes(nodes, previous);
 		
 		if (cancelled)
 			return;
@@ -88,96 +98,128 @@ public class FilterNodesEdgesTask extends AbstractTask {
 		taskMonitor.setStatusMessage("Filtering edges...");
 		taskMonitor.setProgress(0.2);
 		
-		filterEdges(nodes, edges, taskMonitor, 0.2);
+		Set<Long> filteredOutEdges = filterEdges(nodes, edges, previous, taskMonitor, 0.2);
+		
+		if (cancelled)
+			return;
+		
+		viewStates.put(networkView, new FilterViewStates.State(filterMode, filteredOutNodes, filteredOutEdges));
 		taskMonitor.setProgress(1.0);
 	}
 
-	private void filterNodes(Set<CyNode> nodes, TaskMonitor taskMonitor) {
+	private Set<Long> filterNodes(Set<CyNode> nodes, FilterViewStates.State previous) {
 		CyNetwork net = networkView.getModel();
 		
+		VisualLexicon lexicon = renderingEngineManager.getDefaultVisualLexicon(); 
+		VisualProperty<?> customGraphics1 = lexicon.lookup(CyNode.class, "NODE_CUSTOMGRAPHICS_1");
+		String prefix = map.getParams().getAttributePrefix();
+		
+		Set<Long> filteredOut = new HashSet<>();
 		for (CyNode n : net.getNodeList()) {
-			if (cancelled)
-				return;
-			
-			final View<CyNode> nv = networkView.getNodeView(n);
-			
-			if (nv == null)
-				continue; // Should never happen!
-			
-			boolean filteredIn = nodes.contains(n);
-			
-			VisualLexicon lexicon = renderingEngineManager.getDefaultVisualLexicon(); 
-			VisualProperty<?> customGraphics1 = lexicon.lookup(CyNode.class, "NODE_CUSTOMGRAPHICS_1");
-			
-			// Don't forget to remove all previous locked values first!
-			nv.clearValueLock(NODE_VISIBLE);
-			nv.clearValueLock(NODE_TRANSPARENCY);
-			nv.clearValueLock(NODE_BORDER_TRANSPARENCY);
-			nv.clearValueLock(NODE_LABEL_TRANSPARENCY);
-			
-			if (customGraphics1 != null)
-				nv.clearValueLock(customGraphics1);
-			
-			if (!filteredIn) {
-				switch (filterMode) {
-					case HIDE:
-						net.getRow(n).set(CyNetwork.SELECTED, false);
-						nv.setLockedValue(NODE_VISIBLE, false);
-						break;
-					case HIGHLIGHT:
-						nv.setLockedValue(NODE_TRANSPARENCY, FILTERED_OUT_NODE_TRANSPARENCY);
-						nv.setLockedValue(NODE_BORDER_TRANSPARENCY, FILTERED_OUT_NODE_TRANSPARENCY);
-						nv.setLockedValue(NODE_LABEL_TRANSPARENCY, 0);
-						if (customGraphics1 != null)
-							nv.setLockedValue(customGraphics1, NullCustomGraphics.getNullObject());
-						break;
-				}
-			} else {
-				// Signature (PA) nodes must have their chart-hiding bypass restored
-				String prefix = map.getParams().getAttributePrefix();
-				CyRow row = net.getRow(n);
-				if(NODE_GS_TYPE_SIGNATURE.equals(NODE_GS_TYPE.get(row,prefix))) {
-					nv.setLockedValue(customGraphics1, NullCustomGraphics.getNullObject());
-				}
+			if (!nodes.contains(n))
+				filteredOut.add(n.getSUID());
+		}
+		
+		if (previous == null) {
+			for (CyNode n : net.getNodeList()) {
+				if (cancelled)
+					break;
+				updateNodeView(net, n, !filteredOut.contains(n.getSUID()), customGraphics1, prefix);
+			}
+		} else {
+			for (Long suid : filteredOut) {
+				if (cancelled)
+					break;
+				if (!previous.filteredOutNodes.contains(suid))
+					updateNodeView(net, net.getNode(suid), false, customGraphics1, prefix);
+			}
+			for (Long suid : previous.filteredOutNodes) {
+				if (cancelled)
+					break;
+				if (!filteredOut.contains(suid))
+					updateNodeView(net, net.getNode(suid), true, customGraphics1, prefix);
+			}
+		}
+		
+		return filteredOut;
+	}
+	
+	private void updateNodeView(CyNetwork net, CyNode n, boolean filteredIn, VisualProperty<?> customGraphics1, String prefix) {
+		final View<CyNode> nv = n == null ? null : networkView.getNodeView(n);
+		
+		if (nv == null)
+			return; // The node was removed
+		
+		// Don't forget to remove all previous locked values first!
+		nv.clearValueLock(NODE_VISIBLE);
+		nv.clearValueLock(NODE_TRANSPARENCY);
+		nv.clearValueLock(NODE_BORDER_TRANSPARENCY);
+		nv.clearValueLock(NODE_LABEL_TRANSPARENCY);
+		
+		if (customGraphics1 != null)
+			nv.clearValueLock(customGraphics1);
+		
+		if (!filteredIn) {
+			switch (filterMode) {
+				case HIDE:
+					net.getRow(n).set(CyNetwork.SELECTED, false);
+					nv.setLockedValue(NODE_VISIBLE, false);
+					break;
+				case HIGHLIGHT:
+					nv.setLockedValue(NODE_TRANSPARENCY, FILTERED_OUT_NODE_TRANSPARENCY);
+					nv.setLockedValue(NODE_BORDER_TRANSPARENCY, FILTERED_OUT_NODE_TRANSPARENCY);
+					nv.setLockedValue(NODE_LABEL_TRANSPARENCY, 0);
+					if (customGraphics1 != null)
+						nv.setLockedValue(customGraphics1, NullCustomGraphics.getNullObject());
+					break;
+			}
+		} else {
+			// Signature (PA) nodes must have their chart-hiding bypass restored
+			CyRow row = net.getRow(n);
+			if(customGraphics1 != null && NODE_GS_TYPE_SIGNATURE.equals(NODE_GS_TYPE.get(row,prefix))) {
+				nv.setLockedValue(customGraphics1, NullCustomGraphics.getNullObject());
 			}
 		}
 	}
 	
-	private void filterEdges(Set<CyNode> nodes, Set<CyEdge> edges, TaskMonitor taskMonitor, double initialProgress) {
+	private Set<Long> filterEdges(Set<CyNode> nodes, Set<CyEdge> edges, FilterViewStates.State previous, TaskMonitor taskMonitor, double initialProgress) {
 		CyNetwork net = networkView.getModel();
 		List<CyEdge> edgeList = net.getEdgeList();
-		int total = edgeList.size();
-		int count = 0;
-		float progress = (float) initialProgress;
 		
+		Set<Long> filteredOut = new HashSet<>();
 		for (CyEdge e : edgeList) {
-			if (cancelled)
-				return;
-			
-			final View<CyEdge> ev = networkView.getEdgeView(e);
-			
-			if (ev == null)
-				continue; // Should never happen!
-			
 			boolean filteredIn = edges.contains(e) && nodes.contains(e.getSource()) && nodes.contains(e.getTarget());
-
-			// Don't forget to remove all locked values first!
-			ev.clearValueLock(EDGE_VISIBLE);
-			ev.clearValueLock(EDGE_TRANSPARENCY);
-			ev.clearValueLock(EDGE_LABEL_TRANSPARENCY);
-			
-			if (!filteredIn) {
-				switch (filterMode) {
-					case HIDE:
-						net.getRow(e).set(CyNetwork.SELECTED, false);
-						ev.setLockedValue(EDGE_VISIBLE, false);
-						break;
-					case HIGHLIGHT:
-						ev.setLockedValue(EDGE_TRANSPARENCY, FILTERED_OUT_EDGE_TRANSPARENCY);
-						ev.setLockedValue(EDGE_LABEL_TRANSPARENCY, FILTERED_OUT_EDGE_TRANSPARENCY);
-						break;
+			if (!filteredIn)
+				filteredOut.add(e.getSUID());
+		}
+		
+		List<CyEdge> changed;
+		if (previous == null) {
+			changed = edgeList;
+		} else {
+			changed = new ArrayList<>();
+			for (Long suid : filteredOut) {
+				if (!previous.filteredOutEdges.contains(suid))
+					changed.add(net.getEdge(suid));
+			}
+			for (Long suid : previous.filteredOutEdges) {
+				if (!filteredOut.contains(suid)) {
+					CyEdge e = net.getEdge(suid);
+					if (e != null) // The edge was removed
+						changed.add(e);
 				}
 			}
+		}
+		
+		int total = changed.size();
+		int count = 0;
+		float progress = (float) initialProgress;
+		
+		for (CyEdge e : changed) {
+			if (cancelled)
+				break;
+			
+			updateEdgeView(net, e, !filteredOut.contains(e.getSUID()));
 			
 			// Use only 2 decimals to avoid too many UI updates when setting very small numbers
 			float newProgress = Math.round((initialProgress + count * (1 - initialProgress) / total) * 100) / 100.0f;
@@ -189,5 +231,32 @@ public class FilterNodesEdgesTask extends AbstractTask {
 			
 			count++;
 		}
+		
+		return filteredOut;
+	}
+	
+	private void updateEdgeView(CyNetwork net, CyEdge e, boolean filteredIn) {
+		final View<CyEdge> ev = networkView.getEdgeView(e);
+		
+		if (ev == null)
+			return; // Should never happen!
+		
+		// Don't forget to remove all locked values first!
+		ev.clearValueLock(EDGE_VISIBLE);
+		ev.clearValueLock(EDGE_TRANSPARENCY);
+		ev.clearValueLock(EDGE_LABEL_TRANSPARENCY);
+		
+		if (!filteredIn) {
+			switch (filterMode) {
+				case HIDE:
+					net.getRow(e).set(CyNetwork.SELECTED, false);
+					ev.setLockedValue(EDGE_VISIBLE, false);
+					break;
+				case HIGHLIGHT:
+					ev.setLockedValue(EDGE_TRANSPARENCY, FILTERED_OUT_EDGE_TRANSPARENCY);
+					ev.setLockedValue(EDGE_LABEL_TRANSPARENCY, FILTERED_OUT_EDGE_TRANSPARENCY);
+					break;
+			}
+		}
 	}
 }
@@ -0,0 +1,49 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.baderlab.csplugins.enrichmentmap.task.FilterNodesEdgesTask.FilterMode;
+import org.cytoscape.view.model.CyNetworkView;
+
+import com.google.inject.Singleton;
+
+/**
+ * Remembers which nodes and edges {@link FilterNodesEdgesTask} filtered out of each network view, so that the next
+ * filter change only has to update the views of the nodes and edges that changed state.
+ */
+@Singleton
+public class FilterViewStates {
+
+	static class State {
+		final FilterMode filterMode;
+		final Set<Long> filteredOutNodes;
+		final Set<Long> filteredOutEdges;
+
+		State(FilterMode filterMode, Set<Long> filteredOutNodes, Set<Long> filteredOutEdges) {
+			this.filterMode = filterMode;
+			this.filteredOutNodes = filteredOutNodes;
+			this.filteredOutEdges = filteredOutEdges;
+		}
+	}
+
+	private final Map<CyNetworkView,State> states = new WeakHashMap<>();
+
+
+	synchronized State get(CyNetworkView networkView) {
+		return states.get(networkView);
+	}
+
+	synchronized void put(CyNetworkView networkView, State state) {
+		states.put(networkView, state);
+	}
+
+	/**
+	 * Forgets the state of the view, the next filter change will update every node and edge view.
+	 * Must be called if the filter bypasses are changed by anything other than FilterNodesEdgesTask.
+	 */
+	public synchronized void invalidate(CyNetworkView networkView) {
+		states.remove(networkView);
+	}
+}
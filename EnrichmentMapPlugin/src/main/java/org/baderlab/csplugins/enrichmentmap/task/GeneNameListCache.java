@@ -0,0 +1,168 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+
+/**
+ * Translates gene IDs to lists of gene names sorted by name, for the Genes and Overlap_genes columns.
+ * <p>
+ * Gene IDs depend on the order the data sets were loaded in, so the lists are sorted by name to make the columns
+ * always the same. Instead of sorting the names of every list the names are ranked once, each list is sorted
+ * as an array of ranks. The returned lists are unmodifiable views of the rank arrays. Lists with the same genes are
+ * only created once and shared, up to a maximum number of distinct lists, after that new lists are not cached.
+ * <p>
+ * Not thread safe.
+ */
+public class GeneNameListCache {
+
+	/** Stop adding to the cache when it gets this big */
+	private static final int MAX_CACHE_SIZE = 1 << 16;
+
+	private final EnrichmentMap map;
+
+	/** Gene name by rank */
+	private final String[] sortedNames;
+	/** Rank of the gene name by gene ID */
+	private final int[] rankById;
+
+	private final Map<RankKey,List<String>> lists = new HashMap<>();
+	/** Reused to look up the sorted ranks without copying them */
+	private final RankKey probe = new RankKey();
+
+
+	public GeneNameListCache(EnrichmentMap map) {
+		this.map = map;
+		int maxId = map.getNumberOfGenes();
+
+		Integer[] ids = new Integer[maxId + 1];
+		String[] names = new String[maxId + 1];
+		for(int id = 0; id <= maxId; id++) {
+			ids[id] = id;
+			names[id] = map.getGeneFromHashKey(id);
+		}
+		Arrays.sort(ids, Comparator.comparing((Integer id) -> names[id], Comparator.nullsLast(Comparator.naturalOrder())));
+
+		sortedNames = new String[ids.length];
+		rankById = new int[ids.length];
+		for(int rank = 0; rank < ids.length; rank++) {
+			sortedNames[rank] = names[ids[rank]];
+			rankById[ids[rank]] = rank;
+		}
+	}
+
+
+	/**
+	 * Returns the names of the first length gene IDs in the array, sorted by name.
+	 */
+	public List<String> getSortedNames(int[] geneIds, int length) {
+		if(probe.ranks.length < length)
+			probe.ranks = new int[Math.max(length, probe.ranks.length * 2)];
+
+		int[] scratch = probe.ranks;
+		for(int i = 0; i < length; i++) {
+			int id = geneIds[i];
+			if(id < 0 || id >= rankById.length)
+				return uncached(geneIds, length); // gene was added after the cache was created
+			scratch[i] = rankById[id];
+		}
+		Arrays.sort(scratch, 0, length);
+		probe.reset(length);
+
+		List<String> list = lists.get(probe);
+		if(list == null) {
+			int[] ranks = Arrays.copyOf(scratch, length);
+			list = new NameList(sortedNames, ranks);
+			if(lists.size() < MAX_CACHE_SIZE)
+				lists.put(new RankKey(ranks), list);
+		}
+		return list;
+	}
+
+	private List<String> uncached(int[] geneIds, int length) {
+		String[] names = new String[length];
+		for(int i = 0; i < length; i++) {
+			names[i] = map.getGeneFromHashKey(geneIds[i]);
+		}
+		Arrays.sort(names, Comparator.nullsLast(Comparator.naturalOrder()));
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	/**
+	 * Returns the number of distinct lists created so far.
+	 */
+	public int size() {
+		return lists.size();
+	}
+
+
+	/**
+	 * Unmodifiable list of names backed by the array of sorted ranks.
+	 */
+	private static class NameList extends AbstractList<String> {
+		private final String[] sortedNames;
+		private final int[] ranks;
+
+		NameList(String[] sortedNames, int[] ranks) {
+			this.sortedNames = sortedNames;
+			this.ranks = ranks;
+		}
+
+		@Override
+		public String get(int index) {
+			return sortedNames[ranks[index]];
+		}
+
+		@Override
+		public int size() {
+			return ranks.length;
+		}
+	}
+
+
+	/**
+	 * The first length ranks of the array, keys in the map share the array with their NameList.
+	 */
+	private static class RankKey {
+		int[] ranks;
+		int length;
+		int hash;
+
+		RankKey() {
+			this.ranks = new int[64];
+		}
+
+		RankKey(int[] ranks) {
+			this.ranks = ranks;
+			reset(ranks.length);
+		}
+
+		void reset(int length) {
+			this.length = length;
+			int h = 1;
+			for(int i = 0; i < length; i++) {
+				h = 31 * h + ranks[i];
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof RankKey))
+				return false;
+			RankKey other = (RankKey) obj;
+			return hash == other.hash && Arrays.equals(ranks, 0, length, other.ranks, 0, other.length);
+		}
+	}
+}
@@ -43,17 +43,24 @@
 
 package org.baderlab.csplugins.enrichmentmap.task;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultColumns;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
 import org.baderlab.csplugins.enrichmentmap.model.GeneSet;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
@@ -70,6 +77,9 @@ import org.cytoscape.work.TaskMonitor;
 
 public class InitializeGenesetsOfInterestTask extends AbstractTask {
 
+	/** Number of enrichment results scanned by each parallel job. */
+	private static final int CHUNK_SIZE = 2000;
+	
 	private final EnrichmentMap map;
 
 	public enum MissingGenesetStrategy {
@@ -107,59 +117,43 @@ public class InitializeGenesetsOfInterestTask extends AbstractTask {
 		Map<String,Integer> occurrences = minExperiments.isPresent() ? new HashMap<>() : null;
 		Set<String> missingGeneSets = new LinkedHashSet<>();
 		
-		for(String datasetName : datasets.keySet()) {
-			taskMonitor.inc();
-			
-			EMDataSet dataset = datasets.get(datasetName);
-
-			// all these maps use the geneset name as key
-			Map<String,EnrichmentResult> enrichmentResults = dataset.getEnrichments().getEnrichments();
-			Map<String,GeneSet> genesets = dataset.getSetOfGeneSets().getGeneSets();
-			Map<String,GeneSet> genesetsOfInterest = dataset.getGeneSetsOfInterest().getGeneSets();
-
-			// If there are no genesets associated with this dataset then get the complete set assumption being that the gmt file applies to all datasets.
-			if(genesets == null || genesets.isEmpty()) {
-				genesets = map.getAllGeneSets();
-			}
-
-			//if there are no enrichment Results then do nothing
-			if(enrichmentResults == null || enrichmentResults.isEmpty()) {
-				continue;
+		// The enrichment results of all the data sets are scanned in parallel, then the results 
+		// are merged here in the same order as a serial scan would visit them.
+		ParallelTaskExecutor.Scope executor = ParallelTaskExecutor.getShared().newScope(Runtime.getRuntime().availableProcessors());
+		try {
+			Map<String,List<Future<List<Match>>>> scans = new LinkedHashMap<>();
+			for(String datasetName : datasets.keySet()) {
+				scans.put(datasetName, scan(datasetName, datasets.get(datasetName), executor));
 			}
 			
-			//iterate through the GSEA Results to figure out which genesets we want to use
-			for(String genesetName : enrichmentResults.keySet()) {
-				EnrichmentResult result = enrichmentResults.get(genesetName);
-				 
-				// update rank at max for leading edge calculation
-				if(dataset.getMethod() == Method.GSEA) {
-					Ranking ranks = dataset.getRanksByName(datasetName);
-					updateRankAtMax((GSEAResult)result, ranks);
-				}
+			for(String datasetName : scans.keySet()) {
+				taskMonitor.inc();
 				
-				if(result.isGeneSetOfInterest(map.getParams())) {
-					GeneSet geneset = genesets.get(genesetName);
-					
-					if(geneset == null) {
-						switch(missingGenesetStrategy) {
-						case FAIL_IMMEDIATELY:
-							throw new MissingGenesetsException(genesetName);
-						case FAIL_AT_END:
-							missingGeneSets.add(genesetName);
-							break;
-						case IGNORE:
-							break;
-						}
-					} else {
-						// while we are checking, update the size of the genesets based on post filtered data
-						result.setGsSize(geneset.getGenes().size());
-						if(occurrences != null) {
-							occurrences.merge(genesetName, 1, (v,d) -> v + 1);
+				SetOfGeneSets genesetsOfInterest = datasets.get(datasetName).getGeneSetsOfInterest();
+				
+				for(Future<List<Match>> future : scans.get(datasetName)) {
+					for(Match match : getResult(future)) {
+						if(match.geneset == null) {
+							switch(missingGenesetStrategy) {
+							case FAIL_IMMEDIATELY:
+								throw new MissingGenesetsException(match.genesetName);
+							case FAIL_AT_END:
+								missingGeneSets.add(match.genesetName);
+								break;
+							case IGNORE:
+								break;
+							}
+						} else {
+							if(occurrences != null) {
+								occurrences.merge(match.genesetName, 1, (v,d) -> v + 1);
+							}
+							genesetsOfInterest.addGeneSet(match.genesetName, match.geneset);
 						}
-						genesetsOfInterest.put(genesetName, geneset);
 					}
 				}
 			}
+		} finally {
+			executor.shutdownNow();
 		}
 		
 		if(!missingGeneSets.isEmpty()) {
@@ -169,9 +163,9 @@ public class InitializeGenesetsOfInterestTask extends AbstractTask {
 		// Remove gene-sets that don't pass the minimum occurrence cutoff
 		if(occurrences != null) {
 			for(EMDataSet dataset : datasets.values()) {
-				Map<String,GeneSet> genesetsOfInterest = dataset.getGeneSetsOfInterest().getGeneSets();
+				SetOfGeneSets genesetsOfInterest = dataset.getGeneSetsOfInterest();
 				
-				genesetsOfInterest.keySet().removeIf(geneset -> 
+				genesetsOfInterest.removeIf(geneset -> 
 					occurrences.getOrDefault(geneset, 0) < minExperiments.get()
 				);
 			}
@@ -184,13 +178,90 @@ public class InitializeGenesetsOfInterestTask extends AbstractTask {
 		
 		// MKTODO clear all the genesets that are not "of interest" just to free up memory
 	}
+	
+	
+	/**
+	 * A gene set that passed the filter, geneset is null if it is not in the GMT file.
+	 */
+	private static class Match {
+		final String genesetName;
+		final GeneSet geneset;
+		
+		Match(String genesetName, GeneSet geneset) {
+			this.genesetName = genesetName;
+			this.geneset = geneset;
+		}
+	}
+	
+	/**
+	 * Splits the enrichment results of the data set into chunks and submits a scan of each chunk to the executor.
+	 */
+	private List<Future<List<Match>>> scan(String datasetName, EMDataSet dataset, ExecutorService executor) {
+		// all these maps use the geneset name as key
+		Map<String,EnrichmentResult> enrichmentResults = dataset.getEnrichments().getEnrichments();
+		Map<String,GeneSet> datasetGenesets = dataset.getSetOfGeneSets().getGeneSets();
 
-	private void updateRankAtMax(GSEAResult current_result, Ranking ranks) {
-		//update the current geneset to reflect score at max
+		//if there are no enrichment Results then do nothing
+		if(enrichmentResults == null || enrichmentResults.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		// If there are no genesets associated with this dataset then get the complete set assumption being that the gmt file applies to all datasets.
+		Map<String,GeneSet> genesets = (datasetGenesets == null || datasetGenesets.isEmpty()) ? map.getGeneSetIndex() : datasetGenesets;
+		
+		// update rank at max for leading edge calculation
+		Ranking ranks = dataset.getMethod() == Method.GSEA ? dataset.getRanksByName(datasetName) : null;
+		int largestRank = ranks == null ? 0 : ranks.getMaxRank();
+		
+		EnrichmentResultColumns columns = dataset.getEnrichments().getColumns();
+		List<Future<List<Match>>> futures = new ArrayList<>();
+		for(int start = 0; start < columns.size(); start += CHUNK_SIZE) {
+			int from = start, to = Math.min(start + CHUNK_SIZE, columns.size());
+			futures.add(executor.submit(() -> scanChunk(columns, from, to, genesets, ranks, largestRank)));
+		}
+		return futures;
+	}
+	
+	private List<Match> scanChunk(EnrichmentResultColumns columns, int from, int to, Map<String,GeneSet> genesets, Ranking ranks, int largestRank) {
 		if(ranks != null) {
-			Set<Integer> allranks = ranks.getAllRanks();
-			Integer largestRank = Collections.max(allranks);
+			for(int row = from; row < to; row++) {
+				updateRankAtMax((GSEAResult)columns.getResult(row), ranks, largestRank);
+			}
+		}
+		
+		//filter the results to figure out which genesets we want to use
+		int[] passed = columns.filter(map.getParams(), from, to);
+		List<Match> matches = new ArrayList<>(passed.length);
+		
+		for(int row : passed) {
+			String genesetName = columns.getName(row);
+			GeneSet geneset = genesets.get(genesetName);
+			if(geneset != null) {
+				// while we are checking, update the size of the genesets based on post filtered data
+				columns.getResult(row).setGsSize(geneset.getGenes().size());
+			}
+			matches.add(new Match(genesetName, geneset));
+		}
+		return matches;
+	}
+	
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		}
+	}
 
+	private void updateRankAtMax(GSEAResult current_result, Ranking ranks, int largestRank) {
+		//update the current geneset to reflect score at max
+		if(ranks != null) {
 			//get the max at rank for this geneset
 			int currentRankAtMax = current_result.getRankAtMax();
 
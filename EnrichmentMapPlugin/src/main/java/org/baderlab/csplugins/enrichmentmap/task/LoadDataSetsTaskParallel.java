@@ -0,0 +1,120 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.cytoscape.work.Task;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Runs the file parsers of several data sets at the same time.
+ * <p>
+ * The parsers are given as groups, the tasks in each group are run one after another
+ * in order, the groups run in parallel. Put tasks that depend on each other in the same group.
+ * If any task fails the remaining tasks are cancelled and the exception it threw is thrown from this task.
+ */
+public class LoadDataSetsTaskParallel extends CancellableParallelTask<Void> {
+
+	private final String title;
+	private final List<List<Task>> groups = new ArrayList<>();
+	private final Set<Task> running = ConcurrentHashMap.newKeySet();
+
+	public LoadDataSetsTaskParallel(String title) {
+		this.title = title;
+	}
+
+	public void addGroup(List<? extends Task> tasks) {
+		if(!tasks.isEmpty())
+			groups.add(new ArrayList<>(tasks));
+	}
+
+	public boolean isEmpty() {
+		return groups.isEmpty();
+	}
+
+	@Override
+	public void run(TaskMonitor tm) throws Exception {
+		try {
+			super.run(tm);
+		} catch(TaskFailedException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public Void compute(TaskMonitor tm, ExecutorService executor) {
+		int total = groups.stream().mapToInt(List::size).sum();
+		DiscreteTaskMonitor taskMonitor = new DiscreteTaskMonitor(tm, total);
+		taskMonitor.setTitle(title);
+		taskMonitor.ofMessage("Loaded {0} of {1} files");
+
+		// The parsers set their own title and progress, only let warnings through to the real task monitor
+		TaskMonitor messages = new MessageOnlyTaskMonitor(tm);
+
+		for(List<Task> group : groups) {
+			executor.execute(() -> {
+				for(Task task : group) {
+					if(cancelled || Thread.currentThread().isInterrupted())
+						return;
+					running.add(task);
+					try {
+						task.run(messages);
+					} catch(RuntimeException e) {
+						throw e;
+					} catch(Exception e) {
+						throw new TaskFailedException(e);
+					} finally {
+						running.remove(task);
+					}
+					taskMonitor.inc();
+				}
+			});
+		}
+		return null;
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		for(Task task : running) {
+			task.cancel();
+		}
+	}
+
+
+	@SuppressWarnings("serial")
+	private static class TaskFailedException extends RuntimeException {
+		TaskFailedException(Exception cause) {
+			super(cause);
+		}
+		@Override
+		public synchronized Exception getCause() {
+			return (Exception) super.getCause();
+		}
+	}
+
+	private static class MessageOnlyTaskMonitor implements TaskMonitor {
+		private final TaskMonitor delegate;
+
+		MessageOnlyTaskMonitor(TaskMonitor delegate) {
+			this.delegate = delegate;
+		}
+		@Override
+		public void setTitle(String title) {
+		}
+		@Override
+		public void setProgress(double progress) {
+		}
+		@Override
+		public void setStatusMessage(String statusMessage) {
+		}
+		@Override
+		public void showMessage(Level level, String message) {
+			delegate.showMessage(level, message);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of named worker threads that is shared by all the parallel tasks in the App,
+ * so that running several tasks back to back (or at the same time) does not create a new set of threads every time.
+ * <p>
+ * Each task gets its own {@link Scope}, an ExecutorService view of the shared pool that limits how many
+ * threads the task may use at once, can be cancelled on its own, and records exceptions thrown by its runnables.
+ * <p>
+ * Idle threads time out, so the pool does not hold on to any threads when no tasks are running.
+ * The shared instance is shut down by the CyActivator when the App is stopped.
+ */
+public class ParallelTaskExecutor {
+
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static ParallelTaskExecutor shared;
+
+	private final ThreadPoolExecutor pool;
+	private final int maxThreads;
+
+
+	public ParallelTaskExecutor(int maxThreads) {
+		this.maxThreads = maxThreads;
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory threadFactory = r -> {
+			Thread thread = new Thread(r, "EnrichmentMap-Worker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		pool = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+
+	/**
+	 * Returns the executor shared by the App, one thread per CPU.
+	 */
+	public static synchronized ParallelTaskExecutor getShared() {
+		if(shared == null || shared.pool.isShutdown()) {
+			shared = new ParallelTaskExecutor(Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	public static synchronized void shutdownShared() {
+		if(shared != null) {
+			shared.pool.shutdownNow();
+			shared = null;
+		}
+	}
+
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Creates a new scope for one task that will run at most the given number of runnables at the same time.
+	 */
+	public Scope newScope(int parallelism) {
+		return new Scope(Math.max(1, Math.min(parallelism, maxThreads)));
+	}
+
+
+	/**
+	 * The ExecutorService given to a single task. Runnables are queued here and handed to the
+	 * shared pool only while the number of running runnables is under the quota.
+	 * <p>
+	 * {@link #shutdownNow()} discards the queued runnables, cancels their futures and interrupts the
+	 * running ones immediately, it does not affect any other task using the shared pool.
+	 * If a runnable passed to {@link #execute(Runnable)} throws, the exception is recorded, the rest
+	 * of the work is cancelled and the exception is available from {@link #getFailure()}.
+	 */
+	public class Scope extends AbstractExecutorService {
+
+		private final int parallelism;
+
+		private final Deque<Runnable> pending = new ArrayDeque<>();
+		private final Set<Thread> running = new HashSet<>();
+		private int active = 0;
+
+		private boolean shutdown = false;
+		private boolean stopped = false;
+		private Throwable failure;
+
+
+		private Scope(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public synchronized void execute(Runnable command) {
+			if(shutdown)
+				throw new RejectedExecutionException("Task has been shut down");
+			pending.add(command);
+			dispatch();
+		}
+
+		private synchronized void dispatch() {
+			while(active < parallelism && !pending.isEmpty()) {
+				Runnable command = pending.poll();
+				active++;
+				try {
+					pool.execute(() -> runWorker(command));
+				} catch(RejectedExecutionException e) {
+					// the App is being stopped
+					active--;
+					failure = e;
+					stopNow();
+					return;
+				}
+			}
+		}
+
+		private void runWorker(Runnable command) {
+			Thread thread = Thread.currentThread();
+			synchronized(this) {
+				if(stopped) {
+					finished();
+					return;
+				}
+				running.add(thread);
+			}
+
+			try {
+				command.run();
+			} catch(Throwable e) {
+				synchronized(this) {
+					if(failure == null && !stopped)
+						failure = e;
+					stopNow();
+				}
+			} finally {
+				synchronized(this) {
+					running.remove(thread);
+					Thread.interrupted(); // don't leak an interrupt into the next runnable on this thread
+					finished();
+				}
+			}
+		}
+
+		private synchronized void finished() {
+			active--;
+			dispatch();
+			if(isTerminated())
+				notifyAll();
+		}
+
+		private synchronized List<Runnable> stopNow() {
+			shutdown = true;
+			stopped = true;
+			List<Runnable> discarded = new ArrayList<>(pending);
+			pending.clear();
+			// unblock anyone waiting on a future that will never run
+			for(Runnable r : discarded) {
+				if(r instanceof Future)
+					((Future<?>)r).cancel(false);
+			}
+			for(Thread thread : running) {
+				thread.interrupt();
+			}
+			if(isTerminated())
+				notifyAll();
+			return discarded;
+		}
+
+		/**
+		 * Returns the first exception thrown by a runnable passed to {@link #execute(Runnable)}, or null.
+		 * Exceptions thrown by callables passed to submit() are reported by their Futures.
+		 */
+		public synchronized Throwable getFailure() {
+			return failure;
+		}
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		@Override
+		public synchronized void shutdown() {
+			shutdown = true;
+			if(isTerminated())
+				notifyAll();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return Collections.unmodifiableList(stopNow());
+		}
+
+		@Override
+		public synchronized boolean isShutdown() {
+			return shutdown;
+		}
+
+		@Override
+		public synchronized boolean isTerminated() {
+			return shutdown && active == 0 && pending.isEmpty();
+		}
+
+		@Override
+		public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while(!isTerminated()) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import java.util.function.IntSupplier;
+
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Records the largest gene id in the map when it runs. Runs right after the enrichments of a data set are loaded,
+ * the expression and ranks readers of that data set use it to ignore the genes that the data sets loaded after
+ * it add to the map. See {@link CreateEnrichmentMapTaskFactory}.
+ */
+public class RecordMaxGeneIdTask extends AbstractTask implements IntSupplier {
+
+	private final EnrichmentMap map;
+	private volatile int maxGeneId = Integer.MAX_VALUE;
+
+	public RecordMaxGeneIdTask(EnrichmentMap map) {
+		this.map = map;
+	}
+
+	@Override
+	public void run(TaskMonitor taskMonitor) {
+		maxGeneId = map.getNumberOfGenes();
+	}
+
+	/**
+	 * Returns Integer.MAX_VALUE (all genes) if the task hasn't run yet.
+	 */
+	@Override
+	public int getAsInt() {
+		return maxGeneId;
+	}
+}
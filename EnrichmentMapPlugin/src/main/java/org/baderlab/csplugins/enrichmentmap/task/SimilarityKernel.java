@@ -0,0 +1,87 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
+
+/**
+ * Computes the similarity coefficient between two gene sets that are represented
+ * as sorted arrays of gene IDs. The coefficient only depends on the size of the intersection
+ * and the sizes of the two gene sets, so callers only need to materialize the overlapping genes
+ * for pairs that pass the similarity cutoff.
+ */
+public class SimilarityKernel {
+
+	private final SimilarityMetric metric;
+	private final double combinedConstant;
+	private final double cutoff;
+
+
+	public SimilarityKernel(EMCreationParameters params) {
+		this.metric = params.getSimilarityMetric();
+		this.combinedConstant = params.getCombinedConstant();
+		this.cutoff = params.getSimilarityCutoff();
+	}
+
+
+	public static double computeSimilarityCoeffecient(SimilarityMetric metric, double combinedConstant, int intersectionSize, int size1, int size2) {
+		double intersection = intersectionSize;
+		double union = size1 + size2 - intersectionSize;
+
+		if(metric == SimilarityMetric.JACCARD) {
+			return intersection / union;
+		}
+		else if(metric == SimilarityMetric.OVERLAP) {
+			return intersection / Math.min((double) size1, (double) size2);
+		}
+		else {
+			// It must be combined. Compute a combination of the overlap and jaccard coefecient.
+			double jaccard = intersection / union;
+			double overlap = intersection / Math.min((double) size1, (double) size2);
+			double k = combinedConstant;
+			return (k * overlap) + ((1 - k) * jaccard);
+		}
+	}
+
+
+	public double coeffecient(int intersectionSize, int size1, int size2) {
+		return computeSimilarityCoeffecient(metric, combinedConstant, intersectionSize, size1, size2);
+	}
+
+	/**
+	 * Returns an upper bound on the coefficient of any two gene sets with the given sizes.
+	 * The intersection can be no larger than the smaller gene set, so Jaccard is bounded by the size ratio.
+	 */
+	public double maxCoeffecient(int size1, int size2) {
+		double ratio = Math.min(size1, size2) / (double) Math.max(size1, size2);
+		if(metric == SimilarityMetric.JACCARD)
+			return ratio;
+		else if(metric == SimilarityMetric.OVERLAP)
+			return 1.0;
+		else
+			return combinedConstant + ((1 - combinedConstant) * ratio);
+	}
+	
+	/**
+	 * Returns true if the sizes of the two gene sets make it impossible to pass the cutoff.
+	 * Only valid when the cutoff is positive, see {@link #passesWithoutOverlap()}.
+	 */
+	public boolean isUnreachable(int size1, int size2) {
+		return size1 == 0 || size2 == 0 || maxCoeffecient(size1, size2) < cutoff;
+	}
+	
+	/**
+	 * Returns true if two gene sets that have no genes in common can still pass the cutoff,
+	 * which happens when the cutoff is zero.
+	 */
+	public boolean passesWithoutOverlap() {
+		return cutoff <= 0.0;
+	}
+
+	/**
+	 * Returns true if the coefficient is a number and passes the similarity cutoff.
+	 */
+	public boolean passes(double coeffecient) {
+		return Double.isFinite(coeffecient) && coeffecient >= cutoff;
+	}
+
+}
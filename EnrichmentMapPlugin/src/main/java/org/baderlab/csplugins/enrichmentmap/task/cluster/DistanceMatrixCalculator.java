@@ -0,0 +1,263 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.baderlab.csplugins.brainlib.DistanceMatrix;
+import org.baderlab.csplugins.brainlib.DistanceMetric;
+import org.baderlab.csplugins.enrichmentmap.task.ParallelTaskExecutor;
+import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Calculates the same {@link DistanceMatrix} as {@link DistanceMatrix#calcDistances(java.util.List, DistanceMetric)}
+ * from the rows of a packed row-major float matrix, using the threads of the shared {@link ParallelTaskExecutor}.
+ * <p>
+ * The lower triangle is split into square tiles of rows so that the rows of a tile stay in the CPU cache while
+ * they are compared. {@link PearsonCorrelation}, {@link CosineDistance} and {@link EuclideanDistance} have fast paths
+ * that compute the means and norms of each row once instead of once per pair, and give exactly the same distances
+ * as the metric classes. Any other metric is called for each pair.
+ */
+public class DistanceMatrixCalculator {
+
+	/** Approximate number of floats in the rows of one tile */
+	private static final int TILE_FLOATS = 16 * 1024;
+
+	private final DistanceMetric metric;
+	private final int parallelism;
+
+
+	public DistanceMatrixCalculator(DistanceMetric metric, int parallelism) {
+		this.metric = metric;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public DistanceMatrixCalculator(DistanceMetric metric) {
+		this(metric, Runtime.getRuntime().availableProcessors());
+	}
+
+
+	/**
+	 * @param values the rows one after the other, each row has cols values
+	 * @param rows the number of rows to use, values may be longer than rows * cols
+	 * @param cancelled checked between tiles, a {@link CancellationException} is thrown if it returns true
+	 */
+	public DistanceMatrix calculate(float[] values, int rows, int cols, TaskMonitor tm, BooleanSupplier cancelled) {
+		DistanceMatrix distanceMatrix = new DistanceMatrix(rows);
+		calculate(values, rows, cols, tm, cancelled, distanceMatrix::setValue);
+		return distanceMatrix;
+	}
+
+	/**
+	 * Same as {@link #calculate(float[], int, int, TaskMonitor, BooleanSupplier)} but returns the lower triangle
+	 * as floats, the distance between rows i and j (j < i) is at index i*(i-1)/2 + j. Uses half the memory of a DistanceMatrix.
+	 */
+	public float[] calculateCondensed(float[] values, int rows, int cols, TaskMonitor tm, BooleanSupplier cancelled) {
+		if(rows < 2)
+			throw new IllegalArgumentException("Distance matrix size must be larger than 1");
+		long size = (long)rows * (rows - 1) / 2;
+		if(size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many rows for a distance matrix: " + rows);
+
+		float[] condensed = new float[(int)size];
+		calculate(values, rows, cols, tm, cancelled, (i, j, d) -> condensed[(int)((long)i * (i - 1) / 2) + j] = (float)d);
+		return condensed;
+	}
+
+	@FunctionalInterface
+	private interface DistanceWriter {
+		void set(int i, int j, double distance);
+	}
+
+	private void calculate(float[] values, int rows, int cols, TaskMonitor tm, BooleanSupplier cancelled, DistanceWriter distanceMatrix) {
+		Kernel kernel = createKernel(values, rows, cols);
+
+		int tileSize = Math.max(16, Math.min(256, TILE_FLOATS / Math.max(1, cols)));
+		int tilesPerSide = (rows + tileSize - 1) / tileSize;
+		int tileCount = tilesPerSide * (tilesPerSide + 1) / 2;
+
+		DiscreteTaskMonitor taskMonitor = new DiscreteTaskMonitor(tm, tileCount);
+		AtomicInteger nextTile = new AtomicInteger();
+
+		Runnable worker = () -> {
+			int tile;
+			while((tile = nextTile.getAndIncrement()) < tileCount) {
+				if(cancelled.getAsBoolean() || Thread.currentThread().isInterrupted())
+					return;
+				// tile t is (ti, tj) with tj <= ti, in the order (0,0), (1,0), (1,1), (2,0)...
+				int ti = (int)((Math.sqrt(8.0 * tile + 1) - 1) / 2);
+				while(ti * (ti + 1) / 2 > tile)
+					ti--;
+				while((ti + 1) * (ti + 2) / 2 <= tile)
+					ti++;
+				int tj = tile - ti * (ti + 1) / 2;
+
+				int iEnd = Math.min(rows, (ti + 1) * tileSize);
+				int jEnd = Math.min(rows, (tj + 1) * tileSize);
+				for(int i = ti * tileSize; i < iEnd; i++) {
+					for(int j = tj * tileSize, end = Math.min(jEnd, i); j < end; j++) {
+						distanceMatrix.set(i, j, kernel.distance(i, j));
+					}
+				}
+				taskMonitor.inc();
+			}
+		};
+
+		ParallelTaskExecutor.Scope executor = ParallelTaskExecutor.getShared().newScope(Math.min(parallelism, tileCount));
+		try {
+			for(int t = 0; t < executor.getParallelism(); t++) {
+				executor.execute(worker);
+			}
+			executor.shutdown();
+			while(!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+				if(cancelled.getAsBoolean())
+					executor.shutdownNow();
+			}
+		} catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		}
+
+		Throwable failure = executor.getFailure();
+		if(failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if(failure instanceof Error)
+			throw (Error) failure;
+		if(failure != null)
+			throw new RuntimeException(failure);
+		if(cancelled.getAsBoolean())
+			throw new CancellationException();
+	}
+
+
+	/**
+	 * Returns the distance function used by the calculate methods, for the rows of the packed matrix.
+	 */
+	Kernel createKernel(float[] values, int rows, int cols) {
+		if(metric instanceof PearsonCorrelation)
+			return new PearsonKernel(values, rows, cols);
+		if(metric instanceof CosineDistance)
+			return new CosineKernel(values, rows, cols);
+		if(metric instanceof EuclideanDistance)
+			return new EuclideanKernel(values, cols);
+
+		float[][] rowArrays = new float[rows][];
+		for(int i = 0; i < rows; i++) {
+			rowArrays[i] = new float[cols];
+			System.arraycopy(values, i * cols, rowArrays[i], 0, cols);
+		}
+		return (i, j) -> metric.calc(rowArrays[i], rowArrays[j]);
+	}
+
+
+	@FunctionalInterface
+	interface Kernel {
+		float distance(int i, int j);
+	}
+
+
+	/**
+	 * Same arithmetic as {@link PearsonCorrelation#calc(float[], float[])}, the sums that only depend on one row are computed once.
+	 */
+	private static class PearsonKernel implements Kernel {
+		private final float[] values;
+		private final int cols;
+		private final double[] means;
+		private final double[] deviations;
+
+		PearsonKernel(float[] values, int rows, int cols) {
+			this.values = values;
+			this.cols = cols;
+			this.means = new double[rows];
+			this.deviations = new double[rows];
+			for(int r = 0; r < rows; r++) {
+				double sum = 0;
+				double sumSq = 0;
+				for(int k = 0, o = r * cols; k < cols; k++, o++) {
+					sum += values[o];
+					sumSq += values[o] * values[o];
+				}
+				double mean = sum / cols;
+				means[r] = mean;
+				deviations[r] = Math.sqrt(sumSq / cols - (mean * mean));
+			}
+		}
+
+		@Override
+		public float distance(int i, int j) {
+			double sumXY = 0;
+			for(int k = 0, x = i * cols, y = j * cols; k < cols; k++, x++, y++) {
+				sumXY += values[x] * values[y];
+			}
+			double numerator = sumXY / cols - (means[i] * means[j]);
+			double denominator = deviations[i] * deviations[j];
+			if(denominator == 0)
+				throw new RuntimeException("standard deviation is zero");
+			return (float)(1 - numerator / denominator);
+		}
+	}
+
+
+	/**
+	 * Same arithmetic as {@link CosineDistance#calc(float[], float[])}, the magnitudes are computed once.
+	 */
+	private static class CosineKernel implements Kernel {
+		private final float[] values;
+		private final int cols;
+		private final float[] magnitudes;
+
+		CosineKernel(float[] values, int rows, int cols) {
+			if(cols == 0)
+				throw new RuntimeException("vectors are not the same length. Can not compute cosine distance");
+			this.values = values;
+			this.cols = cols;
+			this.magnitudes = new float[rows];
+			for(int r = 0; r < rows; r++) {
+				float magnitude = 0;
+				for(int k = 0, o = r * cols; k < cols; k++, o++) {
+					magnitude = magnitude + (values[o] * values[o]);
+				}
+				magnitudes[r] = (float)Math.sqrt(magnitude);
+			}
+		}
+
+		@Override
+		public float distance(int i, int j) {
+			float numerator = 0;
+			for(int k = 0, x = i * cols, y = j * cols; k < cols; k++, x++, y++) {
+				numerator = numerator + (values[x] * values[y]);
+			}
+			float denominator = magnitudes[i] * magnitudes[j];
+			if(denominator == 0)
+				throw new RuntimeException("Can not divided by zero.  Can not computer cosine distance");
+			return 1 - numerator / denominator;
+		}
+	}
+
+
+	/**
+	 * Same arithmetic as {@link EuclideanDistance#calc(float[], float[])}.
+	 */
+	private static class EuclideanKernel implements Kernel {
+		private final float[] values;
+		private final int cols;
+
+		EuclideanKernel(float[] values, int cols) {
+			this.values = values;
+			this.cols = cols;
+		}
+
+		@Override
+		public float distance(int i, int j) {
+			float distance = 0;
+			for(int k = 0, x = i * cols, y = j * cols; k < cols; k++, x++, y++) {
+				double d = values[x] - values[y];
+				distance += d * d;
+			}
+			return (float) Math.sqrt(distance);
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 
 import org.baderlab.csplugins.brainlib.AvgLinkHierarchicalClustering;
 import org.baderlab.csplugins.brainlib.DistanceMatrix;
@@ -25,16 +26,36 @@ import com.google.common.collect.ImmutableList;
 
 public class HierarchicalClusterTask extends AbstractTask implements ObservableTask {
 
+	/**
+	 * AVG_LINK uses {@link AvgLinkHierarchicalClustering}, which needs a double distance matrix plus an n x n matrix 
+	 * for the optimal leaf ordering. NN_CHAIN uses {@link NNChainClustering}, which only needs the float distance matrix. 
+	 * AUTO uses NN_CHAIN for more than 1000 genes.
+	 * <p>
+	 * AVG_LINK is the default. The engines don't order the leaves the same way, switching engines changes the order
+	 * of the heat map rows, so NN_CHAIN and AUTO are opt-in with the 'heatmapClusterEngine' property.
+	 */
+	public enum Engine {
+		AVG_LINK, NN_CHAIN, AUTO
+	}
+
+	private static final int AUTO_NN_CHAIN_THRESHOLD = 1000;
+
 	private final Collection<Integer> genes;
 	private final EnrichmentMap map;
 	private final DistanceMetric distanceMetric;
+	private final Engine engine;
 
 	private Optional<RankingResult> results;
 
-	public HierarchicalClusterTask(EnrichmentMap map, Collection<Integer> genes, DistanceMetric distanceMetric) {
+	public HierarchicalClusterTask(EnrichmentMap map, Collection<Integer> genes, DistanceMetric distanceMetric, Engine engine) {
 		this.map = map;
 		this.genes = ImmutableList.copyOf(genes);
 		this.distanceMetric = distanceMetric;
+		this.engine = engine == null ? Engine.AVG_LINK : engine;
+	}
+
+	public HierarchicalClusterTask(EnrichmentMap map, Collection<Integer> genes, DistanceMetric distanceMetric) {
+		this(map, genes, distanceMetric, Engine.AVG_LINK);
 	}
 
 	public Map<Integer, RankValue> cluster(TaskMonitor tm) {
@@ -43,15 +64,16 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 
 		tm.setStatusMessage("Loading expression data");
 
-		List<float[]> clusteringExpressionSet = new ArrayList<>(genes.size());
 		List<Integer> geneIds = new ArrayList<>(genes.size());
 
 		List<EMDataSet> dataSets = map.getDataSetList();
 		final int expressionCount = getTotalExpressionCount(dataSets);
 
+		// one row per gene, values all default to 0.0
+		float[] clusteringExpressionSet = new float[genes.size() * expressionCount];
+
 		for (int geneId : genes) {
-			float[] vals = new float[expressionCount]; // values all default to 0.0
-			int valsIndex = 0;
+			int valsIndex = geneIds.size() * expressionCount;
 
 			boolean found = false;
 
@@ -61,35 +83,46 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 				GeneExpression geneExpression = expressionSets.getExpressionMatrix().get(geneId);
 				if (geneExpression != null) {
 					found = true;
-					float[] expression = geneExpression.getExpression();
-					System.arraycopy(expression, 0, vals, valsIndex, expression.length);
+					geneExpression.copyTo(clusteringExpressionSet, valsIndex);
 				}
 				valsIndex += numConditions;
 			}
 
 			if (found) {
-				clusteringExpressionSet.add(vals);
 				geneIds.add(geneId);
 			}
 		}
 
 		tm.setStatusMessage("Calculating Distance");
 
-		DistanceMatrix distanceMatrix = new DistanceMatrix(clusteringExpressionSet.size());
-		distanceMatrix.calcDistances(clusteringExpressionSet, distanceMetric);
+		DistanceMatrixCalculator calculator = new DistanceMatrixCalculator(distanceMetric);
+		int[] order;
 
-		tm.setStatusMessage("Clustering");
+		if (useNNChain(geneIds.size())) {
+			float[] distances = calculator.calculateCondensed(clusteringExpressionSet, geneIds.size(), expressionCount, tm, () -> cancelled);
 
-		AvgLinkHierarchicalClustering clusterResult = new AvgLinkHierarchicalClustering(distanceMatrix);
-		// check to see if there more than 1000 genes, if there are use eisen ordering otherwise use bar-joseph
-		clusterResult.setOptimalLeafOrdering(genes.size() <= 1000);
-		clusterResult.run();
+			tm.setStatusMessage("Clustering");
+
+			DistanceMatrixCalculator.Kernel leafDistance = calculator.createKernel(clusteringExpressionSet, geneIds.size(), expressionCount);
+			NNChainClustering clusterResult = new NNChainClustering(distances, geneIds.size(), leafDistance);
+			clusterResult.run(() -> cancelled);
+			order = clusterResult.getLeafOrder();
+		} else {
+			DistanceMatrix distanceMatrix = calculator.calculate(clusteringExpressionSet, geneIds.size(), expressionCount, tm, () -> cancelled);
+
+			tm.setStatusMessage("Clustering");
+
+			AvgLinkHierarchicalClustering clusterResult = new AvgLinkHierarchicalClustering(distanceMatrix);
+			// check to see if there more than 1000 genes, if there are use eisen ordering otherwise use bar-joseph
+			clusterResult.setOptimalLeafOrdering(genes.size() <= 1000);
+			clusterResult.run();
+			order = clusterResult.getLeafOrder();
+		}
 
 		tm.setStatusMessage("Ranking");
 
 		Map<Integer, RankValue> ranks = new HashMap<>();
 
-		int[] order = clusterResult.getLeafOrder();
 		for (int i = 0; i < order.length; i++) {
 			Integer geneId = geneIds.get(order[i]);
 			ranks.put(geneId, new RankValue(i + 1, null, false));
@@ -99,6 +132,14 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 		return ranks;
 	}
 
+	private boolean useNNChain(int geneCount) {
+		switch (engine) {
+			case NN_CHAIN: return true;
+			case AVG_LINK: return false;
+			default:       return geneCount > AUTO_NN_CHAIN_THRESHOLD;
+		}
+	}
+
 	private static int getTotalExpressionCount(List<EMDataSet> dataSetList) {
 		return dataSetList.stream()
 				.map(EMDataSet::getExpressionSets)
@@ -112,6 +153,8 @@ public class HierarchicalClusterTask extends AbstractTask implements ObservableT
 		try {
 			Map<Integer,RankValue> ranking = cluster(tm);
 			results = Optional.of(new RankingResult(ranking, false));
+		} catch (CancellationException e) {
+			results = Optional.empty();
 		} catch (Exception e) {
 			e.printStackTrace();
 			results = Optional.empty();
@@ -0,0 +1,264 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+import org.baderlab.csplugins.brainlib.AvgLinkHierarchicalClustering;
+
+/**
+ * Average linkage (UPGMA) hierarchical clustering using the nearest-neighbor chain algorithm,
+ * O(n^2) time and no memory beyond the distance matrix, which is updated in place.
+ * <p>
+ * Gives the same tree as {@link AvgLinkHierarchicalClustering} (up to ties) and uses the same representation for
+ * the result: row k of {@link #getResult()} are the two nodes joined by the k-th link, leaves are numbered from 0 and
+ * the node created by link k is -(k+1). Links are sorted by distance.
+ * <p>
+ * The optimal leaf ordering of AvgLinkHierarchicalClustering needs an n x n matrix and is too slow for large trees.
+ * Instead each node's two subtrees are oriented so that the leaves on either side of the join are as close as possible,
+ * using the original distances between leaves. This needs 4 distance calculations per node.
+ */
+public class NNChainClustering {
+
+	private final float[] distances;
+	private final int nelements;
+	private final int[] rowStart;
+	private final DistanceMatrixCalculator.Kernel leafDistance;
+
+	private int[][] result;
+	private double[] linkDistance;
+	private int[] leafOrder;
+
+
+	/**
+	 * @param distances the lower triangle of the distance matrix as returned by {@link DistanceMatrixCalculator#calculateCondensed},
+	 *                  it is overwritten by the clustering
+	 * @param nelements the number of elements clustered
+	 * @param leafDistance the distance between two elements, used for the leaf ordering
+	 */
+	NNChainClustering(float[] distances, int nelements, DistanceMatrixCalculator.Kernel leafDistance) {
+		if(nelements < 2)
+			throw new IllegalArgumentException("Distance matrix size must be larger than 1");
+		if(distances.length < (long)nelements * (nelements - 1) / 2)
+			throw new IllegalArgumentException("distances is too short");
+		this.distances = distances;
+		this.nelements = nelements;
+		this.leafDistance = leafDistance;
+		this.rowStart = new int[nelements];
+		for(int i = 1; i < nelements; i++) {
+			rowStart[i] = rowStart[i - 1] + (i - 1);
+		}
+	}
+
+
+	private int index(int i, int j) {
+		return i > j ? rowStart[i] + j : rowStart[j] + i;
+	}
+
+
+	/**
+	 * @param cancelled checked regularly, a {@link CancellationException} is thrown if it returns true
+	 */
+	public void run(BooleanSupplier cancelled) {
+		int links = nelements - 1;
+		int[] linkA = new int[links];
+		int[] linkB = new int[links];
+		float[] linkDist = new float[links];
+
+		// active clusters, each cluster is stored in the slot of one of its elements
+		int[] active = new int[nelements];
+		int[] position = new int[nelements];
+		int[] size = new int[nelements];
+		float[] height = new float[nelements];
+		for(int i = 0; i < nelements; i++) {
+			active[i] = i;
+			position[i] = i;
+			size[i] = 1;
+			height[i] = Float.NEGATIVE_INFINITY;
+		}
+		int activeCount = nelements;
+
+		int[] chain = new int[nelements];
+		int top = 0;
+
+		for(int link = 0; link < links; link++) {
+			if((link & 0xFF) == 0 && cancelled.getAsBoolean())
+				throw new CancellationException();
+
+			if(top == 0)
+				chain[top++] = active[0];
+
+			int a, b;
+			float dist;
+			while(true) {
+				a = chain[top - 1];
+				// prefer the previous element of the chain on ties, so the chain always ends
+				int prev = top > 1 ? chain[top - 2] : -1;
+				b = prev;
+				dist = prev >= 0 ? distances[index(a, prev)] : Float.POSITIVE_INFINITY;
+				for(int p = 0; p < activeCount; p++) {
+					int k = active[p];
+					if(k != a) {
+						float d = distances[index(a, k)];
+						if(d < dist || b < 0) {
+							dist = d;
+							b = k;
+						}
+					}
+				}
+				if(b == prev)
+					break;
+				chain[top++] = b;
+			}
+			top -= 2;
+
+			// a and b are reciprocal nearest neighbors, merge b into a
+			int sizeA = size[a];
+			int sizeB = size[b];
+			int total = sizeA + sizeB;
+			for(int p = 0; p < activeCount; p++) {
+				int k = active[p];
+				if(k != a && k != b) {
+					int ka = index(k, a);
+					distances[ka] = (float)(((double)distances[ka] * sizeA + (double)distances[index(k, b)] * sizeB) / total);
+				}
+			}
+
+			linkA[link] = a;
+			linkB[link] = b;
+			// rounding must not make a link lower than the links below it
+			linkDist[link] = Math.max(dist, Math.max(height[a], height[b]));
+			height[a] = linkDist[link];
+			size[a] = total;
+
+			int last = active[--activeCount];
+			active[position[b]] = last;
+			position[last] = position[b];
+		}
+
+		buildResult(linkA, linkB, linkDist);
+		orderLeaves();
+	}
+
+
+	/**
+	 * Sorts the links by distance and numbers the nodes like AvgLinkHierarchicalClustering.
+	 */
+	private void buildResult(int[] linkA, int[] linkB, float[] linkDist) {
+		int links = linkA.length;
+		Integer[] order = new Integer[links];
+		for(int i = 0; i < links; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (x, y) -> Float.compare(linkDist[x], linkDist[y])); // stable, children stay before parents
+
+		// node currently representing the cluster stored in each slot
+		int[] nodeOf = new int[nelements];
+		for(int i = 0; i < nelements; i++) {
+			nodeOf[i] = i;
+		}
+
+		result = new int[links][2];
+		linkDistance = new double[links];
+		for(int k = 0; k < links; k++) {
+			int l = order[k];
+			result[k][0] = nodeOf[linkA[l]];
+			result[k][1] = nodeOf[linkB[l]];
+			linkDistance[k] = linkDist[l];
+			nodeOf[linkA[l]] = -(k + 1);
+		}
+	}
+
+	/**
+	 * Orients the two subtrees of each node so the distance between the leaves where they meet is smallest.
+	 */
+	private void orderLeaves() {
+		int links = result.length;
+		int[] first = new int[links];
+		int[] last = new int[links];
+		boolean[] flipLeft = new boolean[links];
+		boolean[] flipRight = new boolean[links];
+
+		for(int k = 0; k < links; k++) {
+			int left = result[k][0], right = result[k][1];
+			int leftFirst  = left  < 0 ? first[-left - 1]  : left;
+			int leftLast   = left  < 0 ? last[-left - 1]   : left;
+			int rightFirst = right < 0 ? first[-right - 1] : right;
+			int rightLast  = right < 0 ? last[-right - 1]  : right;
+
+			boolean bestFlipLeft = false, bestFlipRight = false;
+			if(leafDistance != null) {
+				float best = Float.POSITIVE_INFINITY;
+				for(int f = 0; f < 4; f++) {
+					boolean fl = (f & 1) != 0, fr = (f & 2) != 0;
+					if((fl && left >= 0) || (fr && right >= 0))
+						continue; // flipping a leaf changes nothing
+					int end   = fl ? leftFirst : leftLast;
+					int start = fr ? rightLast : rightFirst;
+					float d = leafDistance.distance(end, start);
+					if(d < best) {
+						best = d;
+						bestFlipLeft = fl;
+						bestFlipRight = fr;
+					}
+				}
+			}
+			flipLeft[k] = bestFlipLeft;
+			flipRight[k] = bestFlipRight;
+			first[k] = bestFlipLeft ? leftLast : leftFirst;
+			last[k] = bestFlipRight ? rightFirst : rightLast;
+		}
+
+		// walk the tree from the root, a flipped node visits its children in reverse order and flips them
+		leafOrder = new int[nelements];
+		int count = 0;
+		int[] stackNode = new int[nelements];
+		boolean[] stackFlip = new boolean[nelements];
+		int top = 0;
+		stackNode[top] = -links;
+		stackFlip[top++] = false;
+		while(top > 0) {
+			int node = stackNode[--top];
+			boolean flip = stackFlip[top];
+			if(node >= 0) {
+				leafOrder[count++] = node;
+				continue;
+			}
+			int k = -node - 1;
+			int left = result[k][0], right = result[k][1];
+			boolean leftFlip = flip ^ flipLeft[k];
+			boolean rightFlip = flip ^ flipRight[k];
+			// push the child that comes second first
+			if(flip) {
+				stackNode[top] = left;  stackFlip[top++] = leftFlip;
+				stackNode[top] = right; stackFlip[top++] = rightFlip;
+			} else {
+				stackNode[top] = right; stackFlip[top++] = rightFlip;
+				stackNode[top] = left;  stackFlip[top++] = leftFlip;
+			}
+		}
+	}
+
+
+	public int[][] getResult() {
+		return result;
+	}
+
+	/**
+	 * For each link, the distance between the two nodes that were joined.
+	 */
+	public double[] getLinkDistance() {
+		return linkDistance;
+	}
+
+	/**
+	 * Return the order to output the leaves, array values are leaf indices.
+	 */
+	public int[] getLeafOrder() {
+		return leafOrder;
+	}
+
+	public int getNelements() {
+		return nelements;
+	}
+}
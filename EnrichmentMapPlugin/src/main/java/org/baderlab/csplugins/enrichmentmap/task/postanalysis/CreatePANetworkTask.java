@@ -383,6 +383,8 @@ public class CreatePANetworkTask extends AbstractTask implements ObservableTask
 		Columns.EDGE_MANN_WHIT_CUTOFF.createColumnIfAbsent(table, prefix, null);
 		Columns.EDGE_CUTOFF_TYPE.createColumnIfAbsent(table, prefix, null);
 		Columns.EDGE_SIG_DATASET.createColumnIfAbsent(table, prefix, null);
+		// not created by CreateEMNetworkTask when the map has lazy overlap genes, see OverlapGenesCache
+		Columns.EDGE_OVERLAP_GENES.createColumnIfAbsent(table, prefix, null);
 		return table;
 	}
 	
@@ -1,16 +1,14 @@
 package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
 
-import java.util.Arrays;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisFilterType;
 import org.baderlab.csplugins.enrichmentmap.model.Ranking;
+import org.baderlab.csplugins.enrichmentmap.model.RankingIndex;
 import org.baderlab.csplugins.enrichmentmap.model.SignatureGenesetSimilarity;
-import org.baderlab.csplugins.mannwhit.MannWhitneyMemoized;
 import org.baderlab.csplugins.mannwhit.MannWhitneyTestResult;
-import org.baderlab.csplugins.mannwhit.MannWhitneyUTestSided;
 
 import com.google.common.collect.Sets;
 
@@ -157,6 +155,7 @@ public interface FilterMetric {
 	class Hypergeom extends BaseFilterMetric {
 
 		private final int u;
+		private final HypergeometricCalculator calculator = new HypergeometricCalculator();
 		
 		private Set<Integer> universeGenes = null;
 		
@@ -192,7 +191,7 @@ public interface FilterMetric {
 
 			double hyperPval;
 			if(k > 0)
-				hyperPval = Hypergeometric.hyperGeomPvalueSum(u, n, m, k, 0);
+				hyperPval = calculator.upperTail(u, n, m, k);
 			else // Correct p-value of empty intersections to 1 (i.e. not significant)
 				hyperPval = 1.0;
 			
@@ -217,7 +216,6 @@ public interface FilterMetric {
 
 		private final String rankingName;
 		private final @Nullable Ranking ranks;
-		private final MannWhitneyMemoized mannWhitneyCache = new MannWhitneyMemoized();
 
 		
 		public MannWhit(PostAnalysisFilterType type, double filter, String rankingName, Ranking ranks) {
@@ -237,9 +235,9 @@ public interface FilterMetric {
 		}
 		
 		public double computeValue(Set<Integer> geneSet, Set<Integer> sigSet, @Nullable SignatureGenesetSimilarity similarity) {
-			Set<Integer> intersection = Sets.intersection(geneSet, sigSet);
-			int size = intersection.size();
-			if(ranks == null || ranks.isEmpty() || size == 0) {
+			RankingIndex index = ranks == null ? null : ranks.getIndex();
+			MannWhitneyRankSum rankSum = index == null ? null : MannWhitneyRankSum.of(index, geneSet, sigSet);
+			if(ranks == null || ranks.isEmpty() || rankSum.getOverlapSize() == 0) {
 				if(similarity != null) {
 					similarity.setMannWhitPValueTwoSided(1.0); // avoid NoDataException
 					similarity.setMannWhitPValueGreater(1.0);
@@ -249,40 +247,22 @@ public interface FilterMetric {
 				return 1.0;
 			}
 			
-			Integer[] overlapGeneIds = intersection.toArray(new Integer[size]);
-			double[] overlapGeneScores = new double[overlapGeneIds.length];
-			
-			int j = 0;
-			for (Integer geneId : overlapGeneIds) {
-				Double score = ranks.getScore(geneId);
-				if (score != null) {
-					overlapGeneScores[j++] = score; // unbox
-				}
-			}
-	
-			overlapGeneScores = Arrays.copyOf(overlapGeneScores, j);
-			double[] scores = ranks.getScores();
-			
-			if(overlapGeneScores.length == 0 || scores.length == 0) {
+			if(!rankSum.hasData()) {
 				return 1.0;  // avoid NoDataException
 			}
 			
-			if(similarity == null) {
-				MannWhitneyUTestSided mann_whit = new MannWhitneyUTestSided();
-				return mann_whit.mannWhitneyUTest(overlapGeneScores, scores, type.mannWhitneyTestType());
-			} 
-			else {
-				MannWhitneyTestResult result = mannWhitneyCache.mannWhitneyUTestBatch(overlapGeneScores, scores);
+			MannWhitneyTestResult result = rankSum.test();
+			if(similarity != null) {
 				similarity.setMannWhitPValueTwoSided(result.twoSided);
 				similarity.setMannWhitPValueGreater(result.greater);
 				similarity.setMannWhitPValueLess(result.less);
-				
-				switch(type) {
-					default:
-					case MANN_WHIT_TWO_SIDED: return result.twoSided;
-					case MANN_WHIT_GREATER: return result.greater;
-					case MANN_WHIT_LESS: return result.less;
-				}
+			}
+			
+			switch(type) {
+				default:
+				case MANN_WHIT_TWO_SIDED: return result.twoSided;
+				case MANN_WHIT_GREATER: return result.greater;
+				case MANN_WHIT_LESS: return result.less;
 			}
 		}
 		
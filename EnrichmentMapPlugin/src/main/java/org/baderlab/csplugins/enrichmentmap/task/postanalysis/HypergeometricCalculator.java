@@ -0,0 +1,148 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cern.jet.stat.Gamma;
+
+/**
+ * Computes the same upper tail p-values as {@link Hypergeometric#hyperGeomPvalueSum(int, int, int, int)}
+ * without calling logGamma for every term.
+ * <p>
+ * The log factorials are looked up in a table that is shared by all instances and grows to the largest universe
+ * seen. Only the largest term of the tail is computed from the table, the other terms are computed from their
+ * neighbour with the ratio of consecutive hypergeometric probabilities, and the summation stops once the terms
+ * that are left can no longer change the sum. Results are memoized on (N,n,m,k) because many gene sets share the
+ * same sizes and overlap.
+ * <p>
+ * Thread safe.
+ */
+public class HypergeometricCalculator {
+
+	/** Stop adding to the memo when it gets this big */
+	private static final int MAX_CACHE_SIZE = 1 << 18;
+
+	/** Relative contribution of the remaining terms below which the summation stops */
+	private static final double EPSILON = 1e-17;
+
+	private static volatile double[] logFactorials = new double[0];
+
+	private final Map<Key,Double> cache = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Returns P(X &ge; k), same as hyperGeomPvalueSum(N, n, m, k, 0).
+	 *
+	 * @param N size of the population (Universe of genes)
+	 * @param n size of the sample (signature geneset)
+	 * @param m successes in population (enrichment geneset)
+	 * @param k successes in sample (intersection of both genesets)
+	 * @throws ArithmeticException if the tail is not empty and the parameters are not valid,
+	 *         same as {@link Hypergeometric#hyperGeomPvalueSum(int, int, int, int)}
+	 */
+	public double upperTail(int N, int n, int m, int k) throws ArithmeticException {
+		Key key = new Key(N, n, m, k);
+		Double pValue = cache.get(key);
+		if(pValue == null) {
+			pValue = computeUpperTail(N, n, m, k);
+			if(cache.size() < MAX_CACHE_SIZE)
+				cache.put(key, pValue);
+		}
+		return pValue;
+	}
+
+
+	static double computeUpperTail(int N, int n, int m, int k) throws ArithmeticException {
+		int kMax = Math.min(n, m);
+		if(k > kMax)
+			return 0.0;
+		if(k < 0 || n < 0 || m < 0 || n > N || m > N || N - m - n + k < 0)
+			throw new ArithmeticException("Invalid hypergeometric parameters: N=" + N + ", n=" + n + ", m=" + m + ", k=" + k);
+
+		double[] lf = getLogFactorials(N);
+
+		// the terms increase up to the mode and then decrease, start at the largest term of the tail
+		int mode = (int)(((long)n + 1) * ((long)m + 1) / ((long)N + 2));
+		int start = Math.max(k, Math.min(mode, kMax));
+
+		double logDenominator = lf[N] - lf[n] - lf[N - n];
+		double first = Math.exp(
+			(lf[m] - lf[start] - lf[m - start]) +
+			(lf[N - m] - lf[n - start] - lf[N - m - n + start]) -
+			logDenominator);
+
+		double sum = first;
+
+		// P(X=x+1) = P(X=x) * (m-x)(n-x) / ((x+1)(N-m-n+x+1))
+		double term = first;
+		for(int x = start; x < kMax && term > 0; x++) {
+			double ratio = ((double)(m - x) * (n - x)) / ((double)(x + 1) * (N - m - n + x + 1));
+			term *= ratio;
+			sum += term;
+			// the ratio keeps decreasing, so the rest of the tail is less than a geometric series
+			if(ratio < 1 && term * ratio / (1 - ratio) < sum * EPSILON)
+				break;
+		}
+
+		// P(X=x-1) = P(X=x) * x(N-m-n+x) / ((m-x+1)(n-x+1))
+		term = first;
+		for(int x = start; x > k && term > 0; x--) {
+			double ratio = ((double)x * (N - m - n + x)) / ((double)(m - x + 1) * (n - x + 1));
+			term *= ratio;
+			sum += term;
+			if(ratio < 1 && term * ratio / (1 - ratio) < sum * EPSILON)
+				break;
+		}
+
+		return sum;
+	}
+
+
+	/**
+	 * Returns a table of log(i!) for i from 0 to at least n, the values are the same as Gamma.logGamma(i + 1.0).
+	 */
+	static double[] getLogFactorials(int n) {
+		double[] table = logFactorials;
+		if(table.length > n)
+			return table;
+
+		synchronized(HypergeometricCalculator.class) {
+			table = logFactorials;
+			if(table.length > n)
+				return table;
+
+			double[] grown = new double[Math.max(n + 1, table.length * 2)];
+			System.arraycopy(table, 0, grown, 0, table.length);
+			for(int i = table.length; i < grown.length; i++) {
+				grown[i] = Gamma.logGamma(i + 1.0);
+			}
+			logFactorials = grown;
+			return grown;
+		}
+	}
+
+
+	private static final class Key {
+		private final int N, n, m, k;
+
+		Key(int N, int n, int m, int k) {
+			this.N = N;
+			this.n = n;
+			this.m = m;
+			this.k = k;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((N * 31 + n) * 31 + m) * 31 + k;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return N == other.N && n == other.n && m == other.m && k == other.k;
+		}
+	}
+}
@@ -75,7 +75,7 @@ public class PAMostSimilarTaskParallel extends CancellableParallelTask<List<SigG
 				loop:
 				for(String geneSetName : enrichmentGeneSetNames) {
 					for(String dataSetName : metrics.getDataSetNames()) {
-						if(Thread.interrupted())
+						if(Thread.currentThread().isInterrupted())
 							break loop;
 						
 						EMDataSet dataSet = map.getDataSet(dataSetName);
@@ -1,11 +1,13 @@
 package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet;
@@ -16,12 +18,12 @@ import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisParameters;
 import org.baderlab.csplugins.enrichmentmap.model.SignatureGenesetSimilarity;
 import org.baderlab.csplugins.enrichmentmap.model.SimilarityKey;
 import org.baderlab.csplugins.enrichmentmap.task.CancellableParallelTask;
-import org.baderlab.csplugins.enrichmentmap.task.ComputeSimilarityTaskParallel;
+import org.baderlab.csplugins.enrichmentmap.task.SimilarityKernel;
 import org.baderlab.csplugins.enrichmentmap.util.DiscreteTaskMonitor;
+import org.baderlab.csplugins.enrichmentmap.util.SortedIntArrays;
 import org.cytoscape.work.Task;
 import org.cytoscape.work.TaskMonitor;
 
-import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -40,6 +42,9 @@ public class PASimilarityTaskParallel extends CancellableParallelTask<Map<Simila
 
 	public static final String INTERACTION = PostAnalysisParameters.SIGNATURE_INTERACTION_TYPE;
 
+	/** Create more blocks than threads so that idle threads can steal work from busy ones. */
+	private static final int BLOCKS_PER_CPU = 8;
+
 	
 	@Inject private CreatePANetworkTask.Factory networkTaskFactory;
 	
@@ -79,9 +84,6 @@ public class PASimilarityTaskParallel extends CancellableParallelTask<Map<Simila
 		insertTasksAfterCurrentTask(networkTask);
 	}
 
-	/**
-	 * Returns immediately, need to wait on the executor to join all threads.
-	 */
 	@Override
 	public Map<SimilarityKey,SignatureGenesetSimilarity> compute(TaskMonitor tm, ExecutorService executor) {
 		Set<String> enrichmentGeneSetNames = getEnrichmentGeneSetNames();
@@ -89,63 +91,209 @@ public class PASimilarityTaskParallel extends CancellableParallelTask<Map<Simila
 		
 		DiscreteTaskMonitor taskMonitor = discreteTaskMonitor(tm, signatureGeneSets.size());
 		
-		Set<Integer> geneUniverse = map.getAllEnrichmentGenes(); // Gene universe is all enrichment genes in the map
+		int[] geneUniverse = SortedIntArrays.toSortedArray(map.getAllEnrichmentGenes()); // Gene universe is all enrichment genes in the map
+		String[] names = enrichmentGeneSetNames.toArray(new String[enrichmentGeneSetNames.size()]);
+		
+		// Encode the enrichment gene sets of each data set once, and look up the metric chosen by the user once
+		FilterMetricSet rankTests = params.getRankTestParameters();
+		List<DataSetGeneSets> dataSetGeneSets = new ArrayList<>(dataSets.size());
+		for(EMDataSet dataSet : dataSets) {
+			dataSetGeneSets.add(new DataSetGeneSets(dataSet, names, geneUniverse, rankTests.get(dataSet.getName())));
+		}
+		
+		// the hypergeometric is always computed, one instance so all the threads share its cache
+		FilterMetric hypergeom = new FilterMetric.Hypergeom(PostAnalysisFilterType.HYPERGEOM.defaultValue, map.getNumberOfGenes()); // use GMT for universe size
+		SimilarityKernel kernel = new SimilarityKernel(map.getParams());
 		
-		Map<SimilarityKey, SignatureGenesetSimilarity> geneSetSimilarities = new ConcurrentHashMap<>();
+		String[] hubNames = signatureGeneSets.keySet().toArray(new String[signatureGeneSets.size()]);
+		int blockCount = Math.min(hubNames.length, Runtime.getRuntime().availableProcessors() * BLOCKS_PER_CPU);
+		
+		// Each block of signature gene sets is computed into its own map, the maps are merged at the end
+		List<Future<Map<SimilarityKey,SignatureGenesetSimilarity>>> futures = new ArrayList<>(blockCount);
+		for(int b = 0; b < blockCount; b++) {
+			int start = (int)((long)hubNames.length * b / blockCount);
+			int end = (int)((long)hubNames.length * (b + 1) / blockCount);
+			futures.add(executor.submit(() -> computeBlock(hubNames, start, end, names, geneUniverse, dataSetGeneSets, kernel, hypergeom, taskMonitor)));
+		}
 		
-		for(String hubName : signatureGeneSets.keySet()) {
+		Map<SimilarityKey,SignatureGenesetSimilarity> geneSetSimilarities = new HashMap<>();
+		for(Future<Map<SimilarityKey,SignatureGenesetSimilarity>> future : futures) {
+			geneSetSimilarities.putAll(getResult(future));
+		}
+		return geneSetSimilarities;
+	}
+	
+	
+	private Map<SimilarityKey,SignatureGenesetSimilarity> computeBlock(String[] hubNames, int start, int end, String[] names, int[] geneUniverse,
+			List<DataSetGeneSets> dataSetGeneSets, SimilarityKernel kernel, FilterMetric hypergeom, DiscreteTaskMonitor taskMonitor) {
+		Map<SimilarityKey,SignatureGenesetSimilarity> similarities = new HashMap<>();
+		CandidateBuffer buffer = new CandidateBuffer(names.length);
+		
+		for(int h = start; h < end; h++) {
+			if(cancelled || Thread.currentThread().isInterrupted())
+				break;
+			
+			String hubName = hubNames[h];
 			GeneSet sigGeneSet = signatureGeneSets.get(hubName);
-			Set<Integer> sigGenesInUniverse = Sets.intersection(sigGeneSet.getGenes(), geneUniverse);
+			// restrict to a common gene universe
+			int[] sigGenesInUniverse = SortedIntArrays.intersection(SortedIntArrays.toSortedArray(sigGeneSet.getGenes()), geneUniverse);
 			
-			// Compute similarities in batches
-			executor.execute(() -> {
-				loop:
-				for(String geneSetName : enrichmentGeneSetNames) {
-					FilterMetricSet rankTests = params.getRankTestParameters();
+			for(DataSetGeneSets geneSets : dataSetGeneSets) {
+				// only the gene sets that share a gene with the signature are compared
+				buffer.findCandidates(sigGenesInUniverse, geneSets);
+				
+				for(int c = 0; c < buffer.size; c++) {
+					int j = buffer.candidates[c];
+					GeneSet enrGeneSet = geneSets.genesets[j];
+					int[] enrGenes = geneSets.genesInUniverse[j];
+					Set<Integer> intersection = SortedIntArrays.toSet(SortedIntArrays.intersection(sigGenesInUniverse, enrGenes));
 					
-					for(EMDataSet dataSet : dataSets) {
-						if(Thread.interrupted())
-							break loop;
-						
-						GeneSet enrGeneSet = dataSet.getGeneSetsOfInterest().getGeneSetByName(geneSetName);
-						if(enrGeneSet != null) {
-							
-							// restrict to a common gene universe
-							Set<Integer> enrGenes = Sets.intersection(enrGeneSet.getGenes(), geneUniverse); // wait, is this necessary??, isn't enrGeneSet a subset of geneUniverse???
-							Set<Integer> union = Sets.union(sigGeneSet.getGenes(), enrGenes);
-							Set<Integer> intersection = Sets.intersection(sigGenesInUniverse, enrGenes);
-
-							if(!intersection.isEmpty()) {
-								// Jaccard or whatever from the original map
-								double coeffecient = ComputeSimilarityTaskParallel.computeSimilarityCoeffecient(map.getParams(), intersection, union, sigGeneSet.getGenes(), enrGenes);
-								SignatureGenesetSimilarity comparison = new SignatureGenesetSimilarity(hubName, geneSetName, coeffecient, INTERACTION, intersection, dataSet.getName());
-								
-								FilterMetric metric = rankTests.get(dataSet.getName());
-								
-								// always compute hypergeometric
-								if(metric.getFilterType() != PostAnalysisFilterType.HYPERGEOM) {
-									FilterMetric hypergeom = new FilterMetric.Hypergeom(PostAnalysisFilterType.HYPERGEOM.defaultValue, map.getNumberOfGenes()); // use GMT for universe size
-									hypergeom.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
-								}
-								
-								// now compute the similarity using the metric chosen by the user
-								double value = metric.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
-								boolean passesCutoff = metric.passes(value);
-								comparison.setPassesCutoff(passesCutoff);
-
-								// Very important that the SimilarityKey name is the dataset name.
-								// This gets picked up by the CreatePANetworkTask and set on the "Dataset" edge column.
-								SimilarityKey key = new SimilarityKey(hubName, geneSetName, INTERACTION, dataSet.getName());
-								geneSetSimilarities.put(key, comparison);
-							} 
-						}
+					// Jaccard or whatever from the original map
+					double coeffecient = kernel.coeffecient(intersection.size(), sigGeneSet.getGenes().size(), enrGenes.length);
+					SignatureGenesetSimilarity comparison = new SignatureGenesetSimilarity(hubName, names[j], coeffecient, INTERACTION, intersection, geneSets.dataSetName);
+					
+					FilterMetric metric = geneSets.metric;
+					
+					// always compute hypergeometric
+					if(metric.getFilterType() != PostAnalysisFilterType.HYPERGEOM) {
+						hypergeom.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
 					}
+					
+					// now compute the similarity using the metric chosen by the user
+					double value = metric.computeValue(enrGeneSet.getGenes(), sigGeneSet.getGenes(), comparison);
+					boolean passesCutoff = metric.passes(value);
+					comparison.setPassesCutoff(passesCutoff);
+					
+					// Very important that the SimilarityKey name is the dataset name.
+					// This gets picked up by the CreatePANetworkTask and set on the "Dataset" edge column.
+					SimilarityKey key = new SimilarityKey(hubName, names[j], INTERACTION, geneSets.dataSetName);
+					similarities.put(key, comparison);
 				}
-				taskMonitor.inc();
-			});
+				buffer.clear();
+			}
+			taskMonitor.inc();
 		}
 		
-		return geneSetSimilarities;
+		return similarities;
+	}
+	
+	
+	private static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	
+	/**
+	 * The enrichment gene sets of one data set aligned by index with the array of gene set names,
+	 * null if the data set doesn't have the gene set.
+	 */
+	private static class DataSetGeneSets {
+		final String dataSetName;
+		final GeneSet[] genesets;
+		final int[][] genesInUniverse;
+		final FilterMetric metric;
+		
+		/** Inverted index, gene ID -> indices of the gene sets that contain the gene. Null if there are negative gene IDs. */
+		final int[][] postings;
+		
+		DataSetGeneSets(EMDataSet dataSet, String[] names, int[] geneUniverse, FilterMetric metric) {
+			this.dataSetName = dataSet.getName();
+			this.metric = metric;
+			this.genesets = new GeneSet[names.length];
+			this.genesInUniverse = new int[names.length][];
+			
+			int maxGeneId = 0;
+			boolean negative = false;
+			for(int i = 0; i < names.length; i++) {
+				GeneSet geneSet = dataSet.getGeneSetsOfInterest().getGeneSetByName(names[i]);
+				if(geneSet != null) {
+					int[] genes = SortedIntArrays.intersection(SortedIntArrays.toSortedArray(geneSet.getGenes()), geneUniverse);
+					genesets[i] = geneSet;
+					genesInUniverse[i] = genes;
+					if(genes.length > 0) {
+						negative |= genes[0] < 0;
+						maxGeneId = Math.max(maxGeneId, genes[genes.length-1]);
+					}
+				}
+			}
+			
+			if(negative) {
+				postings = null; // gene IDs are expected to be small positive numbers, compare with every gene set
+				return;
+			}
+			
+			int[] sizes = new int[maxGeneId + 1];
+			for(int[] genes : genesInUniverse) {
+				if(genes != null) {
+					for(int gene : genes) {
+						sizes[gene]++;
+					}
+				}
+			}
+			postings = new int[maxGeneId + 1][];
+			for(int gene = 0; gene <= maxGeneId; gene++) {
+				postings[gene] = new int[sizes[gene]];
+			}
+			int[] fill = new int[maxGeneId + 1];
+			for(int i = 0; i < genesInUniverse.length; i++) {
+				if(genesInUniverse[i] != null) {
+					for(int gene : genesInUniverse[i]) {
+						postings[gene][fill[gene]++] = i;
+					}
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Finds the gene sets that share at least one gene with a signature gene set. Reused for every signature in a block.
+	 */
+	private static class CandidateBuffer {
+		final boolean[] seen;
+		final int[] candidates;
+		int size = 0;
+		
+		CandidateBuffer(int n) {
+			seen = new boolean[n];
+			candidates = new int[n];
+		}
+		
+		void findCandidates(int[] sigGenes, DataSetGeneSets geneSets) {
+			if(geneSets.postings == null) {
+				for(int j = 0; j < geneSets.genesInUniverse.length; j++) {
+					int[] genes = geneSets.genesInUniverse[j];
+					if(genes != null && SortedIntArrays.intersectionSize(sigGenes, genes) > 0)
+						candidates[size++] = j;
+				}
+				return;
+			}
+			
+			for(int gene : sigGenes) {
+				if(gene < 0 || gene >= geneSets.postings.length)
+					continue;
+				for(int j : geneSets.postings[gene]) {
+					if(!seen[j]) {
+						seen[j] = true;
+						candidates[size++] = j;
+					}
+				}
+			}
+		}
+		
+		void clear() {
+			for(int c = 0; c < size; c++) {
+				seen[candidates[c]] = false;
+			}
+			size = 0;
+		}
 	}
 	
 	
@@ -0,0 +1,107 @@
+package org.baderlab.csplugins.enrichmentmap.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+
+/**
+ * Writes attribute values for many rows of a CyTable, typically the nodes or edges of a network that is being created.
+ * <p>
+ * The values are buffered in a batch of rows and written to the table one column at a time when the batch is full
+ * (or when {@link #flush()} is called). Each CyRow is looked up once per batch instead of once per cell, the values
+ * are still written one cell at a time with {@link CyRow#set(String, Object)}. Null values are not written, those
+ * cells are left empty.
+ * <p>
+ * Usage: register the columns with {@link #column(String)}, then for each row call {@link #addRow(Long)}
+ * followed by {@link #set(int, Object)} for each column. Call {@link #flush()} at the end.
+ * <p>
+ * Not thread safe.
+ */
+public class BulkAttributeWriter {
+
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	private final CyTable table;
+	private final int batchSize;
+
+	private final List<String> columnNames = new ArrayList<>();
+	private final List<Object[]> columnValues = new ArrayList<>();
+	private final Long[] keys;
+	private int size = 0;
+
+
+	public BulkAttributeWriter(CyTable table, int batchSize) {
+		if(batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		this.table = table;
+		this.batchSize = batchSize;
+		this.keys = new Long[batchSize];
+	}
+
+	public BulkAttributeWriter(CyTable table) {
+		this(table, DEFAULT_BATCH_SIZE);
+	}
+
+
+	/**
+	 * Registers a column, returns the index to pass to {@link #set(int, Object)}.
+	 * The column must already exist in the table when the batch is written.
+	 */
+	public int column(String name) {
+		int index = columnNames.indexOf(name);
+		if(index < 0) {
+			index = columnNames.size();
+			columnNames.add(name);
+			columnValues.add(new Object[batchSize]);
+		}
+		return index;
+	}
+
+	/**
+	 * Starts a new row, writes the batch first if it is full.
+	 */
+	public void addRow(Long key) {
+		if(size == batchSize)
+			flush();
+		keys[size++] = key;
+	}
+
+	/**
+	 * Sets a value in the current row.
+	 */
+	public void set(int column, Object value) {
+		if(size == 0)
+			throw new IllegalStateException("addRow() must be called first");
+		columnValues.get(column)[size - 1] = value;
+	}
+
+	/**
+	 * Writes the buffered rows to the table.
+	 */
+	public void flush() {
+		if(size == 0)
+			return;
+
+		CyRow[] rows = new CyRow[size];
+		for(int r = 0; r < size; r++) {
+			rows[r] = table.getRow(keys[r]);
+		}
+
+		for(int c = 0; c < columnNames.size(); c++) {
+			String name = columnNames.get(c);
+			Object[] values = columnValues.get(c);
+			for(int r = 0; r < size; r++) {
+				Object value = values[r];
+				if(value != null)
+					rows[r].set(name, value);
+			}
+			Arrays.fill(values, 0, size, null);
+		}
+
+		Arrays.fill(keys, 0, size, null);
+		size = 0;
+	}
+}
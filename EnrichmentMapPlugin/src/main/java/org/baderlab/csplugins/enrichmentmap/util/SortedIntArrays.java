@@ -0,0 +1,167 @@
+package org.baderlab.csplugins.enrichmentmap.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Set operations on sorted arrays of distinct ints, typically gene IDs.
+ * These are much faster than the equivalent operations on boxed Set&lt;Integer&gt; objects
+ * and do not allocate unless the result needs to be materialized.
+ */
+public final class SortedIntArrays {
+
+	/**
+	 * When one array is this many times larger than the other its faster to
+	 * binary search the larger array than to do a linear merge.
+	 */
+	private static final int GALLOP_RATIO = 32;
+
+	private SortedIntArrays() {
+		// restrict instantiation
+	}
+
+
+	public static int[] toSortedArray(Collection<Integer> values) {
+		int[] array = new int[values.size()];
+		int i = 0;
+		for(Integer value : values) {
+			array[i++] = value;
+		}
+		Arrays.sort(array);
+		return array;
+	}
+
+	public static Set<Integer> toSet(int[] array) {
+		ImmutableSet.Builder<Integer> builder = ImmutableSet.builderWithExpectedSize(array.length);
+		for(int value : array) {
+			builder.add(value);
+		}
+		return builder.build();
+	}
+
+	public static boolean contains(int[] array, int value) {
+		return Arrays.binarySearch(array, value) >= 0;
+	}
+
+
+	/**
+	 * Returns the number of values that appear in both arrays.
+	 */
+	public static int intersectionSize(int[] a, int[] b) {
+		if(a.length > b.length) {
+			int[] t = a; a = b; b = t;
+		}
+		if(a.length == 0)
+			return 0;
+		if(a[a.length-1] < b[0] || b[b.length-1] < a[0])
+			return 0; // ranges don't overlap
+
+		if(b.length / a.length >= GALLOP_RATIO) {
+			int count = 0;
+			int from = 0;
+			for(int value : a) {
+				int index = Arrays.binarySearch(b, from, b.length, value);
+				if(index >= 0) {
+					count++;
+					from = index + 1;
+				} else {
+					from = -index - 1;
+				}
+				if(from == b.length)
+					break;
+			}
+			return count;
+		}
+
+		int count = 0;
+		int i = 0, j = 0;
+		while(i < a.length && j < b.length) {
+			int x = a[i], y = b[j];
+			if(x < y) {
+				i++;
+			} else if(x > y) {
+				j++;
+			} else {
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Returns the values that appear in both arrays, in sorted order.
+	 */
+	public static int[] intersection(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = intersection(a, b, result, 0);
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Writes the values that appear in both arrays into dest starting at the given offset.
+	 * The dest array must have room for at least min(a.length, b.length) values.
+	 * Returns the number of values written.
+	 */
+	public static int intersection(int[] a, int[] b, int[] dest, int offset) {
+		int n = offset;
+		int i = 0, j = 0;
+		while(i < a.length && j < b.length) {
+			int x = a[i], y = b[j];
+			if(x < y) {
+				i++;
+			} else if(x > y) {
+				j++;
+			} else {
+				dest[n++] = x;
+				i++;
+				j++;
+			}
+		}
+		return n - offset;
+	}
+
+
+	/**
+	 * Returns an unmodifiable Set view of the sorted range array[from] to array[to-1], does not copy.
+	 */
+	public static Set<Integer> asSet(int[] array, int from, int to) {
+		return new AbstractSet<Integer>() {
+			@Override
+			public int size() {
+				return to - from;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof Integer && Arrays.binarySearch(array, from, to, (Integer)o) >= 0;
+			}
+
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					int i = from;
+					@Override
+					public boolean hasNext() {
+						return i < to;
+					}
+					@Override
+					public Integer next() {
+						if(i >= to)
+							throw new NoSuchElementException();
+						return array[i++];
+					}
+				};
+			}
+		};
+	}
+
+}
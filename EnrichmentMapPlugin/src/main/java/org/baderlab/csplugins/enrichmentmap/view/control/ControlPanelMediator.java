@@ -1,9 +1,5 @@
 package org.baderlab.csplugins.enrichmentmap.view.control;
 
-import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.EDGE_DATASET_VALUE_COMPOUND;
-import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.EDGE_INTERACTION_VALUE_SIG;
-import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.NODE_GS_TYPE;
-import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.NODE_GS_TYPE_ENRICHMENT;
 import static org.baderlab.csplugins.enrichmentmap.view.util.SwingUtil.invokeOnEDT;
 
 import java.awt.BorderLayout;
@@ -25,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
@@ -68,7 +65,6 @@ import org.baderlab.csplugins.enrichmentmap.style.ChartData;
 import org.baderlab.csplugins.enrichmentmap.style.ChartOptions;
 import org.baderlab.csplugins.enrichmentmap.style.ChartType;
 import org.baderlab.csplugins.enrichmentmap.style.ColorScheme;
-import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
 import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.StyleUpdateScope;
 import org.baderlab.csplugins.enrichmentmap.style.EMStyleOptions;
 import org.baderlab.csplugins.enrichmentmap.style.WidthFunction;
@@ -109,8 +105,6 @@ import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyRow;
-import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableUtil;
 import org.cytoscape.model.events.RowsSetEvent;
 import org.cytoscape.model.events.RowsSetListener;
@@ -167,6 +161,7 @@ public class ControlPanelMediator implements SetCurrentNetworkViewListener, Enri
 	
 	private final CoalesceTimer selectionEventTimer = new CoalesceTimer(200, 1);
 	private Map<CyNetworkView, Timer> filterTimers = new HashMap<>();
+	private Map<Long, FilterIndex> filterIndexes = new ConcurrentHashMap<>();
 	
 	private boolean firstTime = true;
 	private boolean updating;
@@ -387,6 +382,9 @@ public class ControlPanelMediator implements SetCurrentNetworkViewListener, Enri
 	
 	@Override
 	public void handleEvent(RowsSetEvent e) {
+		for(FilterIndex filterIndex : filterIndexes.values())
+			filterIndex.handleEvent(e);
+		
 		if(propertyManager.isFalse(PropertyManager.CONTROL_DATASET_SELECT_SYNC))
 			return;
 		
@@ -445,6 +443,8 @@ public class ControlPanelMediator implements SetCurrentNetworkViewListener, Enri
 		Timer timer = filterTimers.remove(netView);
 		if (timer != null)
 			timer.stop();
+		if (netView != null)
+			filterIndexes.remove(netView.getModel().getSUID());
 		
 		invokeOnEDT(() -> {
 			getControlPanel().removeEnrichmentMapView(netView);
@@ -1069,6 +1069,10 @@ public class ControlPanelMediator implements SetCurrentNetworkViewListener, Enri
 		dialogTaskManager.execute(new TaskIterator(task));
 	}
 	
+	private FilterIndex getFilterIndex(EnrichmentMap map, CyNetwork network) {
+		return filterIndexes.computeIfAbsent(network.getSUID(), k -> new FilterIndex(network, map.getParams().getAttributePrefix()));
+	}
+	
 	private class FilterActionListener implements ActionListener {
 
 		private final EMViewControlPanel viewPanel;
@@ -1184,27 +1188,22 @@ public class ControlPanelMediator implements SetCurrentNetworkViewListener, Enri
 			Double minCutoff = sliderPanel.getMin();
 			
 			CyNetwork network = networkView.getModel();
-			CyTable table = network.getDefaultNodeTable();
-
-			EMCreationParameters params = map.getParams();
+			FilterIndex filterIndex = getFilterIndex(map, network);
 			
-			// Get the prefix of the current network
-			final String prefix = params.getAttributePrefix();
+			// Only enrichment nodes can be filtered out by the slider
+			Set<Long> filteredOut = filterIndex.getNodesOutOfRange(columnNames, minCutoff, maxCutoff);
 			
-			// Go through all the existing nodes to see if we need to hide any new nodes.
-			for (CyNode n : network.getNodeList()) {
-				boolean show = true;
-				CyRow row = network.getRow(n);
-				
-				if (dataSetNodes != null && !dataSetNodes.contains(n.getSUID())) {
-					show = false;
-				} else if (table.getColumn(prefix + NODE_GS_TYPE) != null
-						&& NODE_GS_TYPE_ENRICHMENT.equalsIgnoreCase(row.get(prefix + NODE_GS_TYPE, String.class))) {
-					show = FilterUtil.passesFilter(columnNames, table, row, maxCutoff, minCutoff);
+			if (dataSetNodes == null) {
+				for (CyNode n : network.getNodeList()) {
+					if (!filteredOut.contains(n.getSUID()))
+						nodes.add(n);
+				}
+			} else {
+				for (Long suid : dataSetNodes) {
+					CyNode n = network.getNode(suid);
+					if (n != null && !filteredOut.contains(suid))
+						nodes.add(n);
 				}
-				
-				if (show)
-					nodes.add(n);
 			}
 			
 			return nodes;
@@ -1221,32 +1220,31 @@ public class ControlPanelMediator implements SetCurrentNetworkViewListener, Enri
 			Double minCutoff = sliderPanel.getValue();
 			
 			CyNetwork network = networkView.getModel();
-			CyTable table = network.getDefaultEdgeTable();
-
-			// Go through all the existing edges to see if we need to hide any new ones.
-			for (CyEdge e : network.getEdgeList()) {
-				CyRow row = network.getRow(e);
-				String dataset = Columns.EDGE_DATASET.get(row, map.getParams().getAttributePrefix());
-				
-				boolean show;
-				if(EDGE_DATASET_VALUE_COMPOUND.equals(dataset)) { // compound edge
-					show = FilterUtil.passesFilter(columnNames, table, row, maxCutoff, minCutoff);
+			FilterIndex filterIndex = getFilterIndex(map, network);
+			
+			// Signature edges that aren't compound edges are never filtered out by the slider
+			Set<Long> filteredOut = filterIndex.getEdgesOutOfRange(columnNames, minCutoff, maxCutoff);
+			
+			if (dataSetEdges == null) {
+				for (CyEdge e : network.getEdgeList()) {
+					if (!filteredOut.contains(e.getSUID()))
+						edges.add(e);
 				}
-				else { // discrete edge
-					if (dataSetEdges != null && !dataSetEdges.contains(e.getSUID())) {
-						show = false;
-					} else {
-						String interaction = row.get(CyEdge.INTERACTION, String.class);
-						if (EDGE_INTERACTION_VALUE_SIG.equals(interaction)) { 
-							show = true;
-						} else {
-							show = FilterUtil.passesFilter(columnNames, table, row, maxCutoff, minCutoff);
-						}
-					}
+			} else {
+				// Compound edges are not associated with a data set, discrete edges must be in one of the selected data sets
+				Set<Long> compoundEdges = filterIndex.getCompoundEdges();
+				for (Long suid : compoundEdges) {
+					CyEdge e = network.getEdge(suid);
+					if (e != null && !filteredOut.contains(suid))
+						edges.add(e);
+				}
+				for (Long suid : dataSetEdges) {
+					if (compoundEdges.contains(suid) || filteredOut.contains(suid))
+						continue;
+					CyEdge e = network.getEdge(suid);
+					if (e != null)
+						edges.add(e);
 				}
-				
-				if (show)
-					edges.add(e);
 			}
 			
 			return edges;
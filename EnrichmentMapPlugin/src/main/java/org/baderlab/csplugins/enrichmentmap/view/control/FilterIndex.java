@@ -0,0 +1,238 @@
+package org.baderlab.csplugins.enrichmentmap.view.control;
+
+import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.EDGE_DATASET_VALUE_COMPOUND;
+import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.EDGE_INTERACTION_VALUE_SIG;
+import static org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns.NODE_GS_TYPE_ENRICHMENT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RowsSetEvent;
+
+/**
+ * Sorted index over the p-value, q-value and similarity columns of one network, used by the filter sliders.
+ * Each column is indexed as an array of values in ascending order with the SUIDs of the rows, so a slider change
+ * is a binary search per column instead of looking up the columns of every node and edge.
+ * <p>
+ * Gives the same result as {@link FilterUtil#passesFilter(Set, CyTable, CyRow, Double, Double)}: a row is filtered out
+ * if it has a value in at least one of the columns and none of its values are in the range. Only the rows that the
+ * control panel filters are indexed, enrichment nodes and edges that are compound or not signature edges.
+ * <p>
+ * A column is indexed the first time it is queried. The index of a column is dropped when a RowsSetEvent sets values
+ * in the column, and all the indexes of a table are dropped when the gene set type, interaction or data set column
+ * is set or when the number of nodes or edges changes.
+ */
+class FilterIndex {
+
+	private final CyNetwork network;
+	private final String prefix;
+
+	private final Map<String,ColumnIndex> nodeColumns = new HashMap<>();
+	private final Map<String,ColumnIndex> edgeColumns = new HashMap<>();
+	private Set<Long> compoundEdges;
+
+	private int nodeCount = -1;
+	private int edgeCount = -1;
+
+
+	public FilterIndex(CyNetwork network, String prefix) {
+		this.network = network;
+		this.prefix = prefix;
+	}
+
+
+	/**
+	 * Returns the SUIDs of the enrichment nodes that are filtered out.
+	 */
+	public synchronized Set<Long> getNodesOutOfRange(Collection<String> columnNames, double minCutoff, double maxCutoff) {
+		if(nodeCount != network.getNodeCount()) {
+			nodeColumns.clear();
+			nodeCount = network.getNodeCount();
+		}
+
+		CyTable table = network.getDefaultNodeTable();
+		String typeColumn = Columns.NODE_GS_TYPE.with(prefix, null);
+		if(table.getColumn(typeColumn) == null)
+			return Collections.emptySet();
+
+		Predicate<CyRow> filter = row -> NODE_GS_TYPE_ENRICHMENT.equalsIgnoreCase(row.get(typeColumn, String.class));
+		return getOutOfRange(table, nodeColumns, filter, columnNames, minCutoff, maxCutoff);
+	}
+
+	/**
+	 * Returns the SUIDs of the edges that are filtered out. Signature edges that are not compound edges are never filtered out.
+	 */
+	public synchronized Set<Long> getEdgesOutOfRange(Collection<String> columnNames, double minCutoff, double maxCutoff) {
+		validateEdges();
+
+		CyTable table = network.getDefaultEdgeTable();
+		Set<Long> compound = getCompoundEdges();
+		Predicate<CyRow> filter = row ->
+			compound.contains(row.get(CyIdentifiable.SUID, Long.class))
+			|| !EDGE_INTERACTION_VALUE_SIG.equals(row.get(CyEdge.INTERACTION, String.class));
+
+		return getOutOfRange(table, edgeColumns, filter, columnNames, minCutoff, maxCutoff);
+	}
+
+	/**
+	 * Returns the SUIDs of the compound edges, these are not associated with a data set.
+	 */
+	public synchronized Set<Long> getCompoundEdges() {
+		validateEdges();
+
+		if(compoundEdges == null) {
+			Set<Long> suids = new HashSet<>();
+			String datasetColumn = Columns.EDGE_DATASET.with(prefix, null);
+			CyTable table = network.getDefaultEdgeTable();
+			if(table.getColumn(datasetColumn) != null) {
+				for(CyRow row : table.getAllRows()) {
+					if(EDGE_DATASET_VALUE_COMPOUND.equals(row.get(datasetColumn, String.class))) {
+						suids.add(row.get(CyIdentifiable.SUID, Long.class));
+					}
+				}
+			}
+			compoundEdges = Collections.unmodifiableSet(suids);
+		}
+		return compoundEdges;
+	}
+
+	private void validateEdges() {
+		if(edgeCount != network.getEdgeCount()) {
+			edgeColumns.clear();
+			compoundEdges = null;
+			edgeCount = network.getEdgeCount();
+		}
+	}
+
+
+	public synchronized void handleEvent(RowsSetEvent e) {
+		if(e.getSource() == network.getDefaultNodeTable()) {
+			if(e.containsColumn(Columns.NODE_GS_TYPE.with(prefix, null)))
+				nodeColumns.clear();
+			else
+				nodeColumns.keySet().removeIf(e::containsColumn);
+		} else if(e.getSource() == network.getDefaultEdgeTable()) {
+			if(e.containsColumn(CyEdge.INTERACTION) || e.containsColumn(Columns.EDGE_DATASET.with(prefix, null))) {
+				edgeColumns.clear();
+				compoundEdges = null;
+			} else {
+				edgeColumns.keySet().removeIf(e::containsColumn);
+			}
+		}
+	}
+
+
+	private static Set<Long> getOutOfRange(CyTable table, Map<String,ColumnIndex> indexes, Predicate<CyRow> filter,
+			Collection<String> columnNames, double minCutoff, double maxCutoff) {
+		List<ColumnIndex> columns = new ArrayList<>(columnNames.size());
+		for(String name : columnNames) {
+			CyColumn column = table.getColumn(name);
+			if(column == null || column.getType() != Double.class)
+				continue; // Ignore this column name (maybe the user deleted it)
+			columns.add(indexes.computeIfAbsent(name, k -> new ColumnIndex(table, name, filter)));
+		}
+
+		Set<Long> outOfRange = new HashSet<>();
+		for(ColumnIndex column : columns) {
+			column.addOutOfRange(outOfRange, minCutoff, maxCutoff);
+		}
+		if(columns.size() > 1) {
+			// a row passes if any of its values is in range
+			for(ColumnIndex column : columns) {
+				column.removeInRange(outOfRange, minCutoff, maxCutoff);
+			}
+		}
+		return outOfRange;
+	}
+
+
+	/**
+	 * The non-null values of one column in ascending order, with the SUIDs of their rows.
+	 */
+	private static class ColumnIndex {
+
+		final double[] values;
+		final Long[] suids;
+
+		ColumnIndex(CyTable table, String columnName, Predicate<CyRow> filter) {
+			List<Double> rowValues = new ArrayList<>();
+			List<Long> rowSuids = new ArrayList<>();
+			for(CyRow row : table.getAllRows()) {
+				Double value = row.get(columnName, Double.class);
+				if(value != null && filter.test(row)) {
+					rowValues.add(value);
+					rowSuids.add(row.get(CyIdentifiable.SUID, Long.class));
+				}
+			}
+
+			Integer[] order = new Integer[rowValues.size()];
+			for(int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (i, j) -> Double.compare(rowValues.get(i), rowValues.get(j))); // NaN goes last
+
+			values = new double[order.length];
+			suids = new Long[order.length];
+			for(int i = 0; i < order.length; i++) {
+				values[i] = rowValues.get(order[i]);
+				suids[i] = rowSuids.get(order[i]);
+			}
+		}
+
+		/** Index of the first value >= minCutoff */
+		int from(double minCutoff) {
+			int lo = 0, hi = values.length;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(values[mid] < minCutoff)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		/** Index of the first value > maxCutoff (or NaN) */
+		int to(double maxCutoff) {
+			int lo = 0, hi = values.length;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(values[mid] <= maxCutoff)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		void addOutOfRange(Set<Long> result, double minCutoff, double maxCutoff) {
+			int from = from(minCutoff);
+			int to = Math.max(from, to(maxCutoff));
+			result.addAll(Arrays.asList(suids).subList(0, from));
+			result.addAll(Arrays.asList(suids).subList(to, suids.length));
+		}
+
+		void removeInRange(Set<Long> result, double minCutoff, double maxCutoff) {
+			int from = from(minCutoff);
+			int to = to(maxCutoff);
+			for(int i = from; i < to; i++) {
+				result.remove(suids[i]);
+			}
+		}
+	}
+}
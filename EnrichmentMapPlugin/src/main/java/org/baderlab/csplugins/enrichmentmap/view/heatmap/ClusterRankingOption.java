@@ -5,6 +5,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import org.baderlab.csplugins.enrichmentmap.CytoscapeServiceModule.Dialog;
+import org.baderlab.csplugins.enrichmentmap.PropertyManager;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
 import org.baderlab.csplugins.enrichmentmap.task.cluster.HierarchicalClusterTask;
 import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
@@ -20,6 +21,7 @@ import com.google.inject.assistedinject.Assisted;
 public class ClusterRankingOption implements RankingOption {
 
 	private final TaskManager<?,?> taskManager;
+	private final PropertyManager propertyManager;
 	
 	private final EnrichmentMap map;
 	private Distance distance;
@@ -29,9 +31,11 @@ public class ClusterRankingOption implements RankingOption {
 	}
 	
 	@Inject
-	public ClusterRankingOption(@Assisted EnrichmentMap map, @Assisted Distance distance, @Dialog TaskManager<?,?> taskManager) {
+	public ClusterRankingOption(@Assisted EnrichmentMap map, @Assisted Distance distance, @Dialog TaskManager<?,?> taskManager, 
+			PropertyManager propertyManager) {
 		this.map = map;
 		this.taskManager = taskManager;
+		this.propertyManager = propertyManager;
 		this.distance = distance;
 	}
 
@@ -66,7 +70,7 @@ public class ClusterRankingOption implements RankingOption {
 			return CompletableFuture.completedFuture(Optional.of(RankingResult.empty()));
 		}
 		
-		HierarchicalClusterTask task = new HierarchicalClusterTask(map, genes, distance.getMetric());
+		HierarchicalClusterTask task = new HierarchicalClusterTask(map, genes, distance.getMetric(), propertyManager.getValue(PropertyManager.HEATMAP_CLUSTER_ENGINE));
 		
 		CompletableFuture<Optional<RankingResult>> future = new CompletableFuture<>();
 		
@@ -42,6 +42,10 @@ public class MannWhitneyUTestSided {
 		TWO_SIDED, GREATER, LESS
 	}
 	
+    /** Only used for cumulativeProbability(), which is thread safe, so no random generator is needed. */
+    private static final NormalDistribution STANDARD_NORMAL =
+        new NormalDistribution(null, 0, 1, NormalDistribution.DEFAULT_INVERSE_ABSOLUTE_ACCURACY);
+
     /** Ranking algorithm. */
     private NaturalRanking naturalRanking;
 
@@ -247,10 +251,7 @@ public class MannWhitneyUTestSided {
 
         final double z = (Umin - EU) / FastMath.sqrt(VarU);
 
-        // No try-catch or advertised exception because args are valid
-        final NormalDistribution standardNormal = new NormalDistribution(0, 1);
-
-        double p = 2 * standardNormal.cumulativeProbability(z);
+        double p = 2 * STANDARD_NORMAL.cumulativeProbability(z);
                 
         if(side == Type.TWO_SIDED) {
         	return p;
@@ -345,6 +346,28 @@ public class MannWhitneyUTestSided {
         	calculateAsymptoticPValue(Umin, U1, U2, x.length, y.length, Type.LESS)
         );
     }
+    
+    
+    /*
+     * Same as the above method for callers that already know the U1 statistic of x, 
+     * the sum of the ranks of x in the concatenated samples minus n1 * (n1 + 1) / 2.
+     */
+    public MannWhitneyTestResult mannWhitneyUTestBatch(final double U1, final int n1, final int n2) throws NoDataException, ConvergenceException, MaxCountExceededException {
+        if (n1 == 0 || n2 == 0) {
+            throw new NoDataException();
+        }
+
+        final double n1n2 = (long) n1 * n2;
+        final double U2 = n1n2 - U1;
+        final double Umax = FastMath.max(U1, U2);
+        final double Umin = n1n2 - Umax;
+
+        return new MannWhitneyTestResult(
+        	calculateAsymptoticPValue(Umin, U1, U2, n1, n2, Type.TWO_SIDED),
+        	calculateAsymptoticPValue(Umin, U1, U2, n1, n2, Type.GREATER),
+        	calculateAsymptoticPValue(Umin, U1, U2, n1, n2, Type.LESS)
+        );
+    }
 
 }
 
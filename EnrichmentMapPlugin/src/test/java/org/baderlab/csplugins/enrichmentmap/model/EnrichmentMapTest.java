@@ -1,11 +1,17 @@
 package org.baderlab.csplugins.enrichmentmap.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -87,6 +93,60 @@ public class EnrichmentMapTest {
 	}
 	
 	
+	@Test
+	public void testGeneSetIndex() {
+		EMCreationParameters params = 
+			new EMCreationParameters("EM1_", null, 1.0, 0.24, NESFilter.ALL, Optional.empty(), true, false, SimilarityMetric.JACCARD, 0.25, 0.5, EdgeStrategy.AUTOMATIC);
+		EnrichmentMap em = new EnrichmentMap(params, serviceRegistrar);
+		
+		EMDataSet ds1 = em.createDataSet("DS1", Method.Generic, dummyDataSetFiles());
+		ds1.getSetOfGeneSets().addGeneSet("GS1", new GeneSet("GS1", "gs1", set(1, 2, 3)));
+		ds1.getSetOfGeneSets().addGeneSet("GS2", new GeneSet("GS2", "gs2", set(3, 4)));
+		
+		Map<String, GeneSet> index = em.getGeneSetIndex();
+		assertEquals(set("GS1", "GS2"), index.keySet());
+		assertSame(index, em.getGeneSetIndex());
+		
+		// replacing a gene set under the same name
+		ds1.getSetOfGeneSets().addGeneSet("GS1", new GeneSet("GS1", "gs1", set(1, 2)));
+		assertEquals(set(1, 2), em.getGeneSetIndex().get("GS1").getGenes());
+		
+		// filtering
+		ds1.getSetOfGeneSets().filterGeneSets(set(1, 4));
+		assertEquals(set(1), em.getGeneSetIndex().get("GS1").getGenes());
+		assertEquals(set(4), em.getGeneSetIndex().get("GS2").getGenes());
+		
+		// replacing all the gene sets
+		HashMap<String, GeneSet> geneSets = new HashMap<>();
+		geneSets.put("GS3", new GeneSet("GS3", "gs3", set(5)));
+		ds1.getSetOfGeneSets().setGeneSets(geneSets);
+		assertEquals(set("GS3"), em.getGeneSetIndex().keySet());
+		
+		// removing a gene set and adding another one keeps the size
+		ds1.getSetOfGeneSets().removeIf("GS3"::equals);
+		ds1.getSetOfGeneSets().addGeneSet("GS4", new GeneSet("GS4", "gs4", set(6)));
+		assertEquals(set("GS4"), em.getGeneSetIndex().keySet());
+		
+		// the gene sets can only be changed through SetOfGeneSets
+		try {
+			ds1.getSetOfGeneSets().getGeneSets().put("GS5", new GeneSet("GS5", "gs5", set(7)));
+			fail();
+		} catch(UnsupportedOperationException e) { }
+		
+		// signature data sets
+		EMSignatureDataSet sigDataSet = new EMSignatureDataSet(em, "Sig");
+		sigDataSet.getGeneSetsOfInterest().addGeneSet("SIG1", new GeneSet("SIG1", "sig1", set(6)));
+		em.addSignatureDataSet(sigDataSet);
+		assertEquals(set("GS4", "SIG1"), em.getGeneSetIndex().keySet());
+		em.removeSignatureDataSet(sigDataSet);
+		assertFalse(em.getGeneSetIndex().containsKey("SIG1"));
+	}
+	
+	@SafeVarargs
+	private static <T> Set<T> set(T ... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+	
 	private static DataSetFiles dummyDataSetFiles() {
 		DataSetFiles files = new DataSetFiles();
 		files.setEnrichmentFileName1("blah/blah/blah.txt");
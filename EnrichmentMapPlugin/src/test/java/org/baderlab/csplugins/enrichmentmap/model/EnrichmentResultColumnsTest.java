@@ -0,0 +1,104 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.Random;
+
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.EdgeStrategy;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultColumns.Statistic;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultFilterParams.NESFilter;
+import org.junit.Test;
+
+public class EnrichmentResultColumnsTest {
+
+	private static SetOfEnrichmentResults createResults() {
+		Random random = new Random(1);
+		SetOfEnrichmentResults results = new SetOfEnrichmentResults();
+		for(int i = 0; i < 500; i++) {
+			String name = "GS" + i;
+			double p = i == 0 ? 0.0 : random.nextDouble();
+			double q = random.nextDouble();
+			EnrichmentResult result;
+			switch(i % 3) {
+				case 0:  result = new GSEAResult(name, 10, random.nextGaussian(), random.nextGaussian(), p, q, q, 1, 1); break;
+				case 1:  result = new GenericResult(name, name, p, 10, q, -1.0); break;
+				default: result = new EnrichmentResult(name, name, p, 10); break;
+			}
+			results.getEnrichments().put(name, result);
+		}
+		return results;
+	}
+
+	private static EMCreationParameters params(double pvalue, double qvalue, boolean fdr) {
+		EMCreationParameters params = new EMCreationParameters("EM1_", null, pvalue, qvalue, NESFilter.ALL, Optional.empty(), true, false,
+				SimilarityMetric.JACCARD, 0.5, 0.5, EdgeStrategy.AUTOMATIC);
+		params.setFDR(fdr);
+		return params;
+	}
+
+
+	@Test
+	public void testFilterSameAsResults() {
+		SetOfEnrichmentResults results = createResults();
+		EnrichmentResultColumns columns = results.getColumns();
+		assertEquals(500, columns.size());
+
+		for(EMCreationParameters params : Arrays.asList(params(0.3, 0.5, true), params(0.3, 0.5, false), params(1.0, 1.0, true), params(0.0, 0.0, false))) {
+			int[] passed = columns.filter(params);
+			int count = 0;
+			for(int row = 0; row < columns.size(); row++) {
+				EnrichmentResult result = results.getEnrichments().get(columns.getName(row));
+				assertSame(result, columns.getResult(row));
+				boolean expected = result.isGeneSetOfInterest(params);
+				assertEquals(expected, columns.isGeneSetOfInterest(row, params));
+				if(expected) {
+					assertEquals(row, passed[count++]);
+				}
+			}
+			assertEquals(count, passed.length);
+		}
+	}
+
+	@Test
+	public void testMinPvalueNotZero() {
+		SetOfEnrichmentResults results = createResults();
+		EnrichmentResultColumns columns = results.getColumns();
+
+		assertTrue(Double.isNaN(columns.get(Statistic.ES, columns.indexOf("GS1"))));
+
+		assertEquals(results.getEnrichments().get("GS5").getPvalue(), columns.getMinPvalueNotZero(Arrays.asList("GS0", "GS5", "missing")), 0.0);
+		assertTrue(Double.isNaN(columns.getMinPvalueNotZero(Arrays.asList("GS0"))));
+		assertEquals(-1, columns.indexOf("missing"));
+	}
+
+	@Test
+	public void testColumnsRebuiltWhenResultsChange() {
+		SetOfEnrichmentResults results = createResults();
+		EnrichmentResultColumns columns = results.getColumns();
+		assertSame(columns, results.getColumns());
+
+		results.getEnrichments().put("NEW", new GenericResult("NEW", "NEW", 0.01, 10));
+		assertNotSame(columns, results.getColumns());
+		assertEquals(501, results.getColumns().size());
+		assertTrue(results.getColumns().indexOf("NEW") >= 0);
+	}
+
+	@Test
+	public void testColumnsRebuiltWhenResultsReplaced() {
+		SetOfEnrichmentResults results = createResults();
+		EnrichmentResultColumns columns = results.getColumns();
+
+		results.getEnrichments().put("GS5", new GenericResult("GS5", "GS5", 0.5, 10));
+		results.invalidateColumns();
+		assertNotSame(columns, results.getColumns());
+		assertEquals(0.5, results.getColumns().get(Statistic.PVALUE, results.getColumns().indexOf("GS5")), 0.0);
+
+		columns = results.getColumns();
+		results.setEnrichments(new HashMap<>(results.getEnrichments()));
+		assertNotSame(columns, results.getColumns());
+	}
+}
@@ -109,6 +109,66 @@ public class ExpressionOpsTest {
 		assertEquals(0f, matrix.getClosestToZero(), 0.0f);
 	}
 
+	@Test
+	public void testTransformedValues() {
+		GeneExpression expression = new GeneExpression("ge1", "", new float[] {0.5f, Float.NaN, 1.0f, 2.0f, -3.0f});
+		float[] normalized = expression.rowNormalize();
+		float[] logged = expression.rowLogTransform();
+		
+		for(int i = 0; i < normalized.length; i++) {
+			assertEquals(normalized[i], expression.getValue(i, Transform.ROW_NORMALIZE), 0.0f);
+			assertEquals(logged[i], expression.getValue(i, Transform.LOG_TRANSFORM), 0.0f);
+			assertEquals(expression.getExpression()[i], expression.getValue(i, Transform.AS_IS), 0.0f);
+		}
+		
+		expression.setExpression(new float[] {1.0f, 1.0f});
+		assertEquals(1.0f, expression.getMean(), 0.0f);
+		assertEquals(0.0f, expression.getValue(0, Transform.ROW_NORMALIZE), 0.0f);
+	}
+	
+	@Test
+	public void testExpressionMatrixStatisticsUpdated() {
+		Map<Integer,GeneExpression> map = new HashMap<>();
+		map.put(1, new GeneExpression("ge1", "", new float[] {1.0f, 2.0f, 3.0f}));
+		
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		matrix.setExpressionMatrix(map);
+		assertEquals(3.0f, matrix.getMinMax(Transform.AS_IS)[1], 0.0f);
+		assertEquals(1.0f, matrix.getClosestToZero(), 0.0f);
+		
+		matrix.getExpressionMatrix().put(2, new GeneExpression("ge2", "", new float[] {0.5f, 4.0f, -1.0f}));
+		assertEquals(4.0f,  matrix.getMinMax(Transform.AS_IS)[1], 0.0f);
+		assertEquals(-1.0f, matrix.getMinMax(Transform.AS_IS)[0], 0.0f);
+		assertEquals(0.5f,  matrix.getClosestToZero(), 0.0f);
+		assertEquals((float)Math.log1p(4.0f), matrix.getMinMax(Transform.LOG_TRANSFORM)[1], 0.0f);
+	}
+
+	@Test
+	public void testCompactedMatrix() {
+		Map<Integer,GeneExpression> map = new HashMap<>();
+		map.put(7, new GeneExpression("ge7", "", new float[] {4.0f, 5.0f}));
+		map.put(2, new GeneExpression("ge2", "", new float[] {1.0f, Float.NaN}));
+		map.put(3, new GeneExpression("ge3", "", (float[]) null));
+		
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		matrix.setExpressionMatrix(map);
+		float[] normalized = map.get(7).rowNormalize();
+		matrix.compact();
+		
+		DenseExpressionMatrix dense = matrix.getDenseMatrix();
+		assertEquals(3, dense.getNumRows());
+		assertEquals(2, dense.getGeneId(0));
+		assertEquals(-1, dense.getLength(dense.getRow(3)));
+		assertEquals(-1, dense.getRow(4));
+		assertEquals(4, dense.getValues().length);
+		
+		assertEquals(5.0f, map.get(7).getValue(1, Transform.AS_IS), 0.0f);
+		assertEquals(normalized[0], map.get(7).getValue(0, Transform.ROW_NORMALIZE), 0.0f);
+		assertEquals(2, map.get(2).getExpression().length);
+		assertEquals(null, map.get(3).getExpression());
+		assertEquals(5.0f, matrix.getMinMax(Transform.AS_IS)[1], 0.0f);
+	}
+
 	@Test
 	public void testDataSetColorRangeNaN() {
 		Map<Integer,GeneExpression> map = new HashMap<>();
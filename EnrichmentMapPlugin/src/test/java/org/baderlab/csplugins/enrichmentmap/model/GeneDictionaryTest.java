@@ -0,0 +1,84 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class GeneDictionaryTest {
+
+	@Test
+	public void testAddAndLookup() {
+		GeneDictionary genes = new GeneDictionary();
+		AtomicInteger ids = new AtomicInteger();
+		
+		assertEquals(Integer.valueOf(1), genes.getOrAdd("A", ids::incrementAndGet));
+		assertEquals(Integer.valueOf(2), genes.getOrAdd("B", ids::incrementAndGet));
+		assertEquals(Integer.valueOf(1), genes.getOrAdd("A", ids::incrementAndGet));
+		
+		assertEquals("B", genes.getName(2));
+		assertEquals(Integer.valueOf(2), genes.getId("B"));
+		assertNull(genes.getId("C"));
+		assertNull(genes.getName(null));
+		assertTrue(genes.containsName("A"));
+		assertEquals(2, genes.size());
+	}
+	
+	@Test
+	public void testPutReplaces() {
+		GeneDictionary genes = new GeneDictionary();
+		genes.put(1, "A");
+		genes.put(2, "B");
+		
+		// new name for an existing ID
+		genes.put(1, "C");
+		assertEquals("C", genes.getName(1));
+		assertNull(genes.getId("A"));
+		
+		// new ID for an existing name
+		genes.put(3, "B");
+		assertEquals(Integer.valueOf(3), genes.getId("B"));
+		assertNull(genes.getName(2));
+		
+		assertEquals(2, genes.size());
+		assertEquals(2, genes.getNames().size());
+	}
+	
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		GeneDictionary genes = new GeneDictionary();
+		AtomicInteger ids = new AtomicInteger();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for(int t = 0; t < 4; t++) {
+				futures.add(executor.submit(() -> {
+					for(int i = 0; i < 10000; i++) {
+						Integer id = genes.getOrAdd("GENE" + i, ids::incrementAndGet);
+						assertEquals("GENE" + i, genes.getName(id));
+					}
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		// every gene gets exactly one ID, and no IDs are wasted
+		assertEquals(10000, genes.size());
+		assertEquals(10000, ids.get());
+		Set<Integer> distinct = new HashSet<>(genes.asMap().keySet());
+		assertEquals(10000, distinct.size());
+	}
+}
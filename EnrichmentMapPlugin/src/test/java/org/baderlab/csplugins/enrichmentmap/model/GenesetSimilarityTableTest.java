@@ -0,0 +1,72 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class GenesetSimilarityTableTest {
+
+	private static final String INTERACTION = "Geneset_Overlap";
+
+	private static GenesetSimilarityTable createTable() {
+		String[] names = { "A", "B", "C" };
+		String[] keyNames = { "DS1", null };
+		String[] dataSetNames = { "DS1", "compound" };
+
+		GenesetSimilarityTable.Builder builder1 = new GenesetSimilarityTable.Builder();
+		builder1.add(0, 1, 0, 0.5, new int[] { 1, 2, 3, 4 }, new int[] { 2, 4, 6 });
+
+		GenesetSimilarityTable.Builder builder2 = new GenesetSimilarityTable.Builder();
+		builder2.add(1, 2, 1, 0.25, new int[] { 2, 4, 6 }, new int[] { 6, 7 });
+		builder2.add(0, 2, 1, 0.0,  new int[] { 1, 2, 3, 4 }, new int[] { 6, 7 });
+
+		return GenesetSimilarityTable.concat(INTERACTION, names, keyNames, dataSetNames, Arrays.asList(builder1, builder2));
+	}
+
+	@Test
+	public void testColumns() {
+		GenesetSimilarityTable table = createTable();
+		assertEquals(3, table.size());
+
+		assertEquals("A", table.getGeneset1Name(0));
+		assertEquals("B", table.getGeneset2Name(0));
+		assertEquals(0.5, table.getSimilarityCoeffecient(0), 0.0);
+		assertFalse(table.isCompound(0));
+		assertEquals("DS1", table.getDataSetName(0));
+		assertEquals(2, table.getSizeOfOverlap(0));
+		assertEquals(ImmutableSet.of(2, 4), table.getOverlappingGenes(0));
+
+		assertTrue(table.isCompound(1));
+		assertEquals("compound", table.getDataSetName(1));
+		assertEquals(1, table.getSizeOfOverlap(1));
+		assertEquals(6, table.getOverlappingGene(1, 0));
+
+		assertEquals(0, table.getSizeOfOverlap(2));
+		assertTrue(table.getOverlappingGenes(2).isEmpty());
+	}
+
+	@Test
+	public void testMapAdapter() {
+		Map<SimilarityKey,GenesetSimilarity> map = createTable().asMap();
+		assertEquals(3, map.size());
+
+		// keys are symmetric
+		GenesetSimilarity similarity = map.get(new SimilarityKey("B", "A", INTERACTION, "DS1"));
+		assertNotNull(similarity);
+		assertEquals(0.5, similarity.getSimilarityCoeffecient(), 0.0);
+		assertEquals(ImmutableSet.of(2, 4), similarity.getOverlappingGenes());
+		assertEquals("DS1", similarity.getDataSetName());
+
+		similarity = map.get(new SimilarityKey("B", "C", INTERACTION, null));
+		assertNotNull(similarity);
+		assertEquals("compound", similarity.getDataSetName());
+
+		assertNull(map.get(new SimilarityKey("B", "C", INTERACTION, "DS1")));
+		assertEquals(3, map.keySet().size());
+	}
+}
@@ -0,0 +1,65 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+
+import org.baderlab.csplugins.enrichmentmap.model.io.BinaryModelSerializer;
+import org.baderlab.csplugins.enrichmentmap.model.io.ModelSerializer;
+import org.junit.Test;
+
+/**
+ * Compares the time it takes to save and load the same large map with the JSON and binary model formats.
+ * <p>
+ * Skipped unless the em.benchmark system property is true, run it with:
+ * <pre>
+ * mvn test -Dtest=ModelSerializerBenchmark -Dem.benchmark=true
+ * </pre>
+ * The size of the map can be changed with the em.benchmark.dataSets, em.benchmark.geneSets, em.benchmark.genes
+ * and em.benchmark.conditions properties. The timings of each round are printed to standard out.
+ */
+public class ModelSerializerBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	@Test
+	public void benchmarkSaveAndLoad() throws Exception {
+		assumeTrue(Boolean.getBoolean("em.benchmark"));
+
+		int dataSets   = Integer.getInteger("em.benchmark.dataSets", 4);
+		int geneSets   = Integer.getInteger("em.benchmark.geneSets", 10000);
+		int genes      = Integer.getInteger("em.benchmark.genes", 20000);
+		int conditions = Integer.getInteger("em.benchmark.conditions", 50);
+
+		EnrichmentMap map = ModelSerializerTest.createLargeMap(dataSets, geneSets, genes, conditions);
+		System.out.printf("Map: %d data sets, %d gene sets, %d genes, %d expression columns%n", dataSets, geneSets, genes, conditions);
+
+		File jsonFile = File.createTempFile("em_benchmark", ".json");
+		File binaryFile = File.createTempFile("em_benchmark", ".embin");
+		try {
+			for(int round = 1; round <= ROUNDS; round++) {
+				long t0 = System.nanoTime();
+				ModelSerializer.serialize(map, jsonFile);
+				long t1 = System.nanoTime();
+				EnrichmentMap jsonMap = ModelSerializer.deserialize(jsonFile);
+				long t2 = System.nanoTime();
+				BinaryModelSerializer.serialize(map, binaryFile);
+				long t3 = System.nanoTime();
+				EnrichmentMap binaryMap = BinaryModelSerializer.deserialize(binaryFile);
+				long t4 = System.nanoTime();
+
+				System.out.printf("Round %d  JSON: save %5d ms, load %5d ms, %6d KB   Binary: save %5d ms, load %5d ms, %6d KB%n", round,
+						(t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000, jsonFile.length() / 1024,
+						(t3 - t2) / 1_000_000, (t4 - t3) / 1_000_000, binaryFile.length() / 1024);
+
+				// make sure both formats loaded the whole map
+				assertEquals(map.getDataSetCount(), jsonMap.getDataSetCount());
+				assertEquals(map.getDataSetCount(), binaryMap.getDataSetCount());
+			}
+		} finally {
+			jsonFile.delete();
+			binaryFile.delete();
+		}
+	}
+}
@@ -5,14 +5,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
 import java.util.function.BiConsumer;
 
 import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.EdgeStrategy;
 import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
 import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
 import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultFilterParams.NESFilter;
+import org.baderlab.csplugins.enrichmentmap.model.io.BinaryModelSerializer;
 import org.baderlab.csplugins.enrichmentmap.model.io.ModelSerializer;
 import org.baderlab.csplugins.enrichmentmap.task.BaseNetworkTest;
 import org.jukito.JukitoRunner;
@@ -21,6 +27,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonParser;
 
 @RunWith(JukitoRunner.class)
 public class ModelSerializerTest extends BaseNetworkTest {
@@ -71,6 +78,104 @@ public class ModelSerializerTest extends BaseNetworkTest {
 	    assertEnrichmentMapEquals(expectedEM, roundTripEM);
 	}
 	
+	@Test
+	public void testBinaryModelSerializer(EnrichmentMapManager emManager) throws Exception {
+		EnrichmentMap expectedEM = emManager.getAllEnrichmentMaps().values().iterator().next();
+		assertNotNull(expectedEM);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryModelSerializer.serialize(expectedEM, out);
+		EnrichmentMap roundTripEM = BinaryModelSerializer.deserialize(new ByteArrayInputStream(out.toByteArray()));
+		
+		assertEnrichmentMapEquals(expectedEM, roundTripEM);
+		assertEquals(expectedEM.getAllGenes(), roundTripEM.getAllGenes());
+		for(String gene : expectedEM.getAllGenes()) {
+			assertEquals(expectedEM.getHashFromGene(gene), roundTripEM.getHashFromGene(gene));
+		}
+		
+		// The JSON and binary formats must produce the same model
+		JsonParser parser = new JsonParser();
+		assertEquals(parser.parse(ModelSerializer.serialize(expectedEM)), parser.parse(ModelSerializer.serialize(roundTripEM)));
+	}
+	
+	@Test
+	public void testBinaryModelSerializerLargeMap() throws Exception {
+		// data sets share the gene sets and the expression matrix, like data sets loaded from the same files
+		EnrichmentMap expectedEM = createLargeMap(3, 1000, 3000, 10);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryModelSerializer.serialize(expectedEM, out);
+		EnrichmentMap roundTripEM = BinaryModelSerializer.deserialize(new ByteArrayInputStream(out.toByteArray()));
+		
+		assertEnrichmentMapEquals(expectedEM, roundTripEM);
+		String expectedJson = ModelSerializer.serialize(expectedEM);
+		JsonParser parser = new JsonParser();
+		assertEquals(parser.parse(expectedJson), parser.parse(ModelSerializer.serialize(roundTripEM)));
+		
+		// the binary format is meant to be smaller than the JSON
+		assertTrue(out.size() < expectedJson.length());
+	}
+	
+	/**
+	 * Creates a map where the data sets share the gene sets and the expression matrix, also used by {@link ModelSerializerBenchmark}.
+	 */
+	static EnrichmentMap createLargeMap(int dataSetCount, int geneSetCount, int geneCount, int conditions) {
+		Random random = new Random(42);
+		EMCreationParameters params = new EMCreationParameters("Benchmark_", null, 0.05, 0.1, NESFilter.ALL, Optional.empty(), true, false,
+				SimilarityMetric.JACCARD, 0.375, 0.5, EdgeStrategy.AUTOMATIC);
+		EnrichmentMap map = new EnrichmentMap(params, null);
+
+		for(int g = 0; g < geneCount; g++) {
+			map.addGene("GENE" + g);
+		}
+
+		SetOfGeneSets setOfGeneSets = new SetOfGeneSets();
+		for(int s = 0; s < geneSetCount; s++) {
+			Set<Integer> genes = new HashSet<>();
+			int size = 10 + random.nextInt(200);
+			while(genes.size() < size) {
+				genes.add(1 + random.nextInt(geneCount));
+			}
+			String name = "GENESET" + s + "%SOURCE%ID" + s;
+			setOfGeneSets.addGeneSet(name, new GeneSet(name, "Description of gene set " + s, genes));
+		}
+		map.putGeneSets("Benchmark.gmt", setOfGeneSets);
+
+		GeneExpressionMatrix matrix = new GeneExpressionMatrix();
+		String[] columns = new String[conditions + 2];
+		columns[0] = "Name";
+		columns[1] = "Description";
+		for(int c = 0; c < conditions; c++) {
+			columns[c + 2] = "Sample" + c;
+		}
+		matrix.setColumnNames(columns);
+		matrix.setNumConditions(columns.length);
+		for(int g = 1; g <= geneCount; g++) {
+			float[] values = new float[conditions];
+			for(int c = 0; c < conditions; c++) {
+				values[c] = (float) random.nextGaussian();
+			}
+			matrix.getExpressionMatrix().put(g, new GeneExpression(map.getGeneFromHashKey(g), "na", values));
+		}
+		matrix.setExpressionUniverse(geneCount);
+		map.putExpressionMatrix("Benchmark.txt", matrix);
+
+		for(int d = 0; d < dataSetCount; d++) {
+			EMDataSet ds = map.createDataSet("DataSet " + d, Method.GSEA, new DataSetFiles());
+			ds.setGeneSetsKey("Benchmark.gmt");
+			ds.setExpressionKey("Benchmark.txt");
+			for(GeneSet gs : setOfGeneSets.getGeneSets().values()) {
+				double p = random.nextDouble();
+				ds.getEnrichments().getEnrichments().put(gs.getName(),
+						new GSEAResult(gs.getName(), gs.getGenes().size(), random.nextGaussian(), random.nextGaussian(), p, Math.min(1, p * 2), Math.min(1, p * 3), random.nextInt(geneCount), random.nextGaussian()));
+				if(p < 0.05) {
+					ds.getGeneSetsOfInterest().addGeneSet(gs.getName(), gs);
+				}
+			}
+		}
+		return map;
+	}
+
 	private static void assertEnrichmentMapEquals(EnrichmentMap expected, EnrichmentMap actual) {
 		assertEquals(expected.getNetworkID(), actual.getNetworkID());
 		assertEquals(expected.getNumberOfGenes(), actual.getNumberOfGenes());
@@ -0,0 +1,79 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.EdgeStrategy;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultFilterParams.NESFilter;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class OverlapGenesCacheTest {
+
+	private static EnrichmentMap createMap() {
+		EMCreationParameters params =
+			new EMCreationParameters("EM1_", null, 1.0, 0.24, NESFilter.ALL, Optional.empty(), true, false, SimilarityMetric.JACCARD, 0.25, 0.5, EdgeStrategy.DISTINCT);
+		return new EnrichmentMap(params, null);
+	}
+
+	private static GeneSet geneSet(EnrichmentMap map, String name, String ... genes) {
+		ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
+		for(String gene : genes) {
+			builder.add(map.addGene(gene));
+		}
+		return new GeneSet(name, name, builder.build());
+	}
+
+	@Test
+	public void testOverlapGenes() {
+		EnrichmentMap map = createMap();
+		EMDataSet ds1 = map.createDataSet("DS1", Method.Generic, new DataSetFiles());
+		EMDataSet ds2 = map.createDataSet("DS2", Method.Generic, new DataSetFiles());
+		ds1.getGeneSetsOfInterest().addGeneSet("GS1", geneSet(map, "GS1", "C", "A", "B"));
+		ds1.getGeneSetsOfInterest().addGeneSet("GS2", geneSet(map, "GS2", "B", "C", "D"));
+		ds2.getGeneSetsOfInterest().addGeneSet("GS1", geneSet(map, "GS1", "E"));
+		ds2.getGeneSetsOfInterest().addGeneSet("GS2", geneSet(map, "GS2", "E"));
+
+		OverlapGenesCache cache = map.getOverlapGenesCache();
+
+		// distinct edge, sorted by name and symmetric
+		List<String> genes = cache.getOverlapGenes("GS1", "GS2", "DS1");
+		assertEquals(Arrays.asList("B", "C"), genes);
+		assertSame(genes, cache.getOverlapGenes("GS2", "GS1", "DS1"));
+
+		// compound edge, union over the data sets
+		assertEquals(Arrays.asList("B", "C", "E"), cache.getOverlapGenes("GS1", "GS2", null));
+
+		assertTrue(cache.getOverlapGenes("GS1", "MISSING", "DS1").isEmpty());
+	}
+
+	@Test
+	public void testGeneSetReplacedWithSameSize() {
+		EnrichmentMap map = createMap();
+		EMDataSet ds = map.createDataSet("DS1", Method.Generic, new DataSetFiles());
+		SetOfGeneSets geneSetsOfInterest = ds.getGeneSetsOfInterest();
+		geneSetsOfInterest.addGeneSet("GS1", geneSet(map, "GS1", "A", "B", "C"));
+		geneSetsOfInterest.addGeneSet("GS2", geneSet(map, "GS2", "B", "C", "D"));
+
+		OverlapGenesCache cache = map.getOverlapGenesCache();
+		assertEquals(Arrays.asList("B", "C"), cache.getOverlapGenes("GS1", "GS2", "DS1"));
+
+		// same key, so the number of gene sets doesn't change
+		geneSetsOfInterest.addGeneSet("GS1", geneSet(map, "GS1", "D"));
+		assertEquals(2, geneSetsOfInterest.size());
+		assertEquals(Arrays.asList("D"), cache.getOverlapGenes("GS1", "GS2", "DS1"));
+
+		// remove one and add another, also keeps the size
+		geneSetsOfInterest.removeIf("GS1"::equals);
+		geneSetsOfInterest.addGeneSet("GS3", geneSet(map, "GS3", "C"));
+		assertEquals(2, geneSetsOfInterest.size());
+		assertTrue(cache.getOverlapGenes("GS1", "GS2", "DS1").isEmpty());
+		assertEquals(Arrays.asList("C"), cache.getOverlapGenes("GS3", "GS2", "DS1"));
+	}
+}
@@ -0,0 +1,72 @@
+package org.baderlab.csplugins.enrichmentmap.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class RankingTest {
+
+	private static Ranking createRanking() {
+		Ranking ranking = new Ranking();
+		ranking.addRank(10, new Rank("A", 2.5, 1));
+		ranking.addRank(12, new Rank("B", -1.0, 2));
+		ranking.addRank(15, new Rank("C", 0.5, 4));
+		ranking.addRank(11, new Rank("D", Double.NaN)); // no rank
+		return ranking;
+	}
+
+	@Test
+	public void testScoresAndRanks() {
+		Ranking ranking = createRanking();
+
+		assertEquals(2.5, ranking.getScore(10), 0.0);
+		assertEquals(-1.0, ranking.getScore(12), 0.0);
+		assertTrue(Double.isNaN(ranking.getScore(11)));
+		assertNull(ranking.getScore(13));
+		assertNull(ranking.getScore(9));
+		assertNull(ranking.getScore(100));
+
+		assertEquals(10, ranking.getGene(1));
+		assertEquals(15, ranking.getGene(4));
+		assertTrue(ranking.containsRank(2));
+		assertFalse(ranking.containsRank(3));
+		assertFalse(ranking.containsRank(0));
+		assertFalse(ranking.containsRank(5));
+		assertEquals(4, ranking.getMaxRank());
+
+		// NaN sorts last like Arrays.sort
+		assertArrayEquals(new double[] { -1.0, 0.5, 2.5, Double.NaN }, ranking.getScores(), 0.0);
+	}
+
+	@Test
+	public void testIndexRebuiltAfterAddRank() {
+		Ranking ranking = createRanking();
+		RankingIndex index = ranking.getIndex();
+		assertSame(index, ranking.getIndex());
+
+		ranking.addRank(20, new Rank("E", 7.0, 9));
+		assertNotSame(index, ranking.getIndex());
+		assertEquals(9, ranking.getMaxRank());
+		assertEquals(20, ranking.getGene(9));
+		assertEquals(5, ranking.getIndex().size());
+		assertEquals(7.0, ranking.getIndex().getScore(20), 0.0);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testGetGeneMissingRank() {
+		createRanking().getGene(3);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testMaxRankEmpty() {
+		new Ranking().getMaxRank();
+	}
+}
@@ -2,7 +2,10 @@ package org.baderlab.csplugins.enrichmentmap.parsers;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.baderlab.csplugins.enrichmentmap.TestUtils;
@@ -15,6 +18,7 @@ import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResult;
 import org.baderlab.csplugins.enrichmentmap.model.GSEAResult;
 import org.baderlab.csplugins.enrichmentmap.model.GenericResult;
 import org.baderlab.csplugins.enrichmentmap.model.LegacySupport;
+import org.baderlab.csplugins.enrichmentmap.model.SetOfGeneSets;
 import org.baderlab.csplugins.enrichmentmap.model.Transform;
 import org.baderlab.csplugins.enrichmentmap.parsers.ParseGSEAEnrichmentResults.ParseGSEAEnrichmentStrategy;
 import org.cytoscape.service.util.CyServiceRegistrar;
@@ -61,6 +65,51 @@ public class FileReaderTest {
 
     }
 
+	@Test
+	public void testGMTFileReadTask(Provider<EnrichmentMapParameters> empFactory) throws Exception {
+		String gmtFile1 = "src/test/resources/org/baderlab/csplugins/enrichmentmap/Genesetstestfile.gmt";
+		String gmtFile2 = "src/test/resources/org/baderlab/csplugins/enrichmentmap/task/LoadDataset/GSEA_example_results/edb/gene_sets.gmt";
+		
+		// files loaded one at a time
+		EnrichmentMap expected = new EnrichmentMap(empFactory.get().getCreationParameters(), serviceRegistrar);
+		new GMTFileReaderTask(expected, gmtFile1, new SetOfGeneSets()).run(taskMonitor);
+		new GMTFileReaderTask(expected, gmtFile2, new SetOfGeneSets()).run(taskMonitor);
+		
+		// files read in the opposite order, then added to the map in order
+		EnrichmentMap map = new EnrichmentMap(empFactory.get().getCreationParameters(), serviceRegistrar);
+		SetOfGeneSets geneSets1 = new SetOfGeneSets();
+		GMTFileReaderTask task1 = new GMTFileReaderTask(map, gmtFile1, geneSets1);
+		GMTFileReaderTask task2 = new GMTFileReaderTask(map, gmtFile2, new SetOfGeneSets());
+		task2.createReadTask().run(taskMonitor);
+		task1.createReadTask().run(taskMonitor);
+		assertEquals(0, map.getNumberOfGenes());
+		task1.run(taskMonitor);
+		task2.run(taskMonitor);
+		
+		assertEquals(10, geneSets1.size());
+		assertEquals(expected.getNumberOfGenes(), map.getNumberOfGenes());
+		for(String gene : expected.getAllGenes()) {
+			assertEquals(expected.getHashFromGene(gene), map.getHashFromGene(gene));
+		}
+	}
+	
+	@Test
+	public void testGMTFileReaderConsumer(Provider<EnrichmentMapParameters> empFactory) throws Exception {
+		String testDataFileName = "src/test/resources/org/baderlab/csplugins/enrichmentmap/Genesetstestfile.gmt";
+		EnrichmentMapParameters params = empFactory.get();
+		EnrichmentMap map = new EnrichmentMap(params.getCreationParameters(), serviceRegistrar);
+		
+		List<SetOfGeneSets> completed = new ArrayList<>();
+		
+		GMTFileReaderTask task = new GMTFileReaderTask(map, () -> testDataFileName, completed::add);
+		task.run(taskMonitor);
+		
+		// the consumer is called once at the end with all 10 gene sets
+		assertEquals(1, completed.size());
+		assertEquals(10, completed.get(0).getGeneSets().size());
+		verify(taskMonitor).setProgress(1.0);
+	}
+
 	@Test
     public void testExpression1ReaderNormal(Provider<EnrichmentMapParameters> empFactory) throws Exception{
 
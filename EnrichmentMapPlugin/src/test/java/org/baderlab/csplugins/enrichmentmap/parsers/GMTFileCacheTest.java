@@ -0,0 +1,77 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GMTFileCacheTest {
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+	
+	
+	private static ParsedGMTFile parse(String... names) {
+		ParsedGMTFile.Builder builder = new ParsedGMTFile.Builder(false);
+		for(String name : names) {
+			builder.addGeneSet(name, "desc", null, null, null, new String[] { "a", "b", "A" }, 0);
+		}
+		return builder.build();
+	}
+	
+	private Path createFile(String name) throws Exception {
+		Path path = folder.newFile(name).toPath();
+		Files.write(path, "GS\tdesc\tA\tB\n".getBytes());
+		return path;
+	}
+	
+	
+	@Test
+	public void testReuse() throws Exception {
+		Path path = createFile("a.gmt");
+		GMTFileCache cache = new GMTFileCache(Long.MAX_VALUE);
+		AtomicInteger loads = new AtomicInteger();
+		
+		ParsedGMTFile first = cache.get(path, false, () -> { loads.incrementAndGet(); return parse("GS"); });
+		ParsedGMTFile second = cache.get(path, false, () -> { loads.incrementAndGet(); return parse("GS"); });
+		assertSame(first, second);
+		assertEquals(1, loads.get());
+		assertEquals(2, first.getNumberOfGenes()); // case insensitive
+		
+		// the Baderlab flag is part of the key
+		cache.get(path, true, () -> { loads.incrementAndGet(); return parse("GS"); });
+		assertEquals(2, loads.get());
+		
+		// modifying the file invalidates the entry
+		Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 10000));
+		ParsedGMTFile third = cache.get(path, false, () -> { loads.incrementAndGet(); return parse("GS"); });
+		assertNotSame(first, third);
+		assertEquals(3, loads.get());
+		assertEquals(2, cache.size());
+	}
+	
+	
+	@Test
+	public void testEviction() throws Exception {
+		Path path1 = createFile("1.gmt");
+		Path path2 = createFile("2.gmt");
+		Path path3 = createFile("3.gmt");
+		
+		long bytes = parse("GS").estimateBytes();
+		GMTFileCache cache = new GMTFileCache(bytes * 2);
+		
+		ParsedGMTFile file1 = cache.get(path1, false, () -> parse("GS"));
+		cache.get(path2, false, () -> parse("GS"));
+		assertSame(file1, cache.get(path1, false, () -> parse("GS"))); // path1 is now most recently used
+		cache.get(path3, false, () -> parse("GS"));
+		
+		assertEquals(2, cache.size());
+		assertTrue(cache.getUsedBytes() <= bytes * 2);
+		assertSame(file1, cache.get(path1, false, () -> parse("GS")));
+	}
+}
@@ -0,0 +1,120 @@
+package org.baderlab.csplugins.enrichmentmap.parsers;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TabDelimitedScannerTest {
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+
+	private Path createFile(String contents) throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, contents.getBytes(Charset.defaultCharset()));
+		return path;
+	}
+
+	private static String[] tokens(TabDelimitedScanner scanner) {
+		String[] tokens = new String[scanner.getTokenCount()];
+		for(int i = 0; i < tokens.length; i++) {
+			tokens[i] = scanner.getToken(i);
+		}
+		return tokens;
+	}
+
+
+	@Test
+	public void testSameAsSplit() throws Exception {
+		String[] lines = { "a\tb\tc", "", "a\t\tb", "a\tb\t\t", "\t\t", "  ", "\tx", "single", "gène\tü" };
+		Path path = createFile(String.join("\n", lines[0], lines[1], lines[2]) + "\r\n" + String.join("\r", Arrays.copyOfRange(lines, 3, lines.length)) + "\n");
+
+		List<String> actualLines = new ArrayList<>();
+		try(TabDelimitedScanner scanner = TabDelimitedScanner.open(path.toString())) {
+			while(scanner.nextLine()) {
+				String line = scanner.getLine();
+				actualLines.add(line);
+				assertArrayEquals(line, line.split("\t"), tokens(scanner));
+				assertEquals(line.isBlank(), scanner.isBlank());
+				assertEquals(actualLines.size(), scanner.getLineNumber());
+			}
+			assertEquals(Files.size(path), scanner.getPosition());
+		}
+		// Non ASCII characters go through the default charset like FileReader
+		for(int i = 0; i < lines.length; i++) {
+			assertEquals(new String(lines[i].getBytes(Charset.defaultCharset()), Charset.defaultCharset()), actualLines.get(i));
+		}
+		assertEquals(lines.length, actualLines.size());
+	}
+
+
+	@Test
+	public void testParseFloat() throws Exception {
+		String[] numbers = { "0", "1", "-1", "+2.5", "0.1", "-0.0", "1234567", "12345678", "0.0000001", "3.14159265358979", "1e-3", "1.5E10", ".5", "5.", "NaN", "-Infinity", " 7 " };
+		Path path = createFile(String.join("\t", numbers) + "\tabc\t-\t.");
+
+		try(TabDelimitedScanner scanner = TabDelimitedScanner.open(path.toString())) {
+			assertTrue(scanner.nextLine());
+			for(int i = 0; i < numbers.length; i++) {
+				assertEquals(numbers[i], Float.floatToIntBits(Float.parseFloat(numbers[i])), Float.floatToIntBits(scanner.parseFloat(i)));
+			}
+			for(int i = numbers.length; i < scanner.getTokenCount(); i++) {
+				try {
+					scanner.parseFloat(i);
+					fail(scanner.getToken(i));
+				} catch(NumberFormatException e) { }
+			}
+			assertFalse(scanner.nextLine());
+		}
+	}
+
+
+	@Test
+	public void testParseDouble() throws Exception {
+		String[] numbers = { "0", "-0", "1", "-1", "+2.5", "0.1", "29.999", "-0.0", "123456789012345", "1234567890123456", "0.000000000000001", "3.14159265358979", "3.141592653589793", "1e-3", "1.5E10", ".5", "5.", "NaN", "-Infinity", " 7 " };
+		Path path = createFile(String.join("\t", numbers) + "\tabc\t-\t.");
+
+		try(TabDelimitedScanner scanner = TabDelimitedScanner.open(path.toString())) {
+			assertTrue(scanner.nextLine());
+			for(int i = 0; i < numbers.length; i++) {
+				assertEquals(numbers[i], Double.doubleToLongBits(Double.parseDouble(numbers[i])), Double.doubleToLongBits(scanner.parseDouble(i)));
+			}
+			for(int i = numbers.length; i < scanner.getTokenCount(); i++) {
+				try {
+					scanner.parseDouble(i);
+					fail(scanner.getToken(i));
+				} catch(NumberFormatException e) { }
+			}
+			assertFalse(scanner.nextLine());
+		}
+	}
+
+	@Test
+	public void testInterner() throws Exception {
+		Path path = createFile("abc\tABC\t Abc \tdef\tabc");
+		List<String> resolved = new ArrayList<>();
+		TokenInterner interner = new TokenInterner(true, true, name -> {
+			resolved.add(name);
+			return name.equals("DEF") ? -1 : resolved.size();
+		});
+
+		try(TabDelimitedScanner scanner = TabDelimitedScanner.open(path.toString())) {
+			assertTrue(scanner.nextLine());
+			assertEquals(1, scanner.intern(0, interner));
+			assertEquals(1, scanner.intern(1, interner));
+			assertEquals(1, scanner.intern(2, interner));
+			assertEquals(-1, scanner.intern(3, interner));
+			assertEquals(1, scanner.intern(4, interner));
+		}
+		assertEquals(Arrays.asList("ABC", "DEF"), resolved);
+	}
+}
@@ -0,0 +1,140 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ParallelTaskExecutorTest {
+
+	private static final long TIMEOUT = 10;
+
+
+	@Test
+	public void testParallelismLimit() throws Exception {
+		ParallelTaskExecutor executor = new ParallelTaskExecutor(4);
+		ParallelTaskExecutor.Scope scope = executor.newScope(2);
+		assertEquals(2, scope.getParallelism());
+
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			futures.add(scope.submit(() -> {
+				int r = running.incrementAndGet();
+				maxRunning.accumulateAndGet(r, Math::max);
+				try {
+					Thread.sleep(10);
+				} catch(InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				running.decrementAndGet();
+			}));
+		}
+		for(Future<?> future : futures) {
+			future.get(TIMEOUT, TimeUnit.SECONDS);
+		}
+		scope.shutdown();
+		assertTrue(scope.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+
+		assertTrue(maxRunning.get() <= 2);
+		assertEquals(0, running.get());
+		assertNull(scope.getFailure());
+	}
+
+	@Test
+	public void testShutdownNowCancelsQueuedWork() throws Exception {
+		ParallelTaskExecutor executor = new ParallelTaskExecutor(2);
+		ParallelTaskExecutor.Scope scope = executor.newScope(1);
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Future<?> first = scope.submit(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT * 2));
+			} catch(InterruptedException e) {
+				interrupted.countDown();
+			}
+		});
+		Future<String> queued = scope.submit(() -> "never runs");
+
+		assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+		List<Runnable> discarded = scope.shutdownNow();
+		assertEquals(1, discarded.size());
+
+		try {
+			queued.get(TIMEOUT, TimeUnit.SECONDS);
+			fail();
+		} catch(CancellationException e) { }
+		assertTrue(queued.isCancelled());
+
+		// the running one is interrupted
+		assertTrue(interrupted.await(TIMEOUT, TimeUnit.SECONDS));
+		first.get(TIMEOUT, TimeUnit.SECONDS);
+		assertTrue(scope.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+		assertTrue(scope.isShutdown());
+	}
+
+	@Test
+	public void testExecuteFailure() throws Exception {
+		ParallelTaskExecutor executor = new ParallelTaskExecutor(2);
+		ParallelTaskExecutor.Scope scope = executor.newScope(1);
+
+		CountDownLatch release = new CountDownLatch(1);
+		RuntimeException error = new RuntimeException("failed");
+		scope.execute(() -> {
+			try {
+				release.await();
+			} catch(InterruptedException e) { }
+			throw error;
+		});
+		Future<String> queued = scope.submit(() -> "never runs");
+
+		release.countDown();
+		assertTrue(scope.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+
+		assertSame(error, scope.getFailure());
+		assertTrue(queued.isCancelled());
+		assertTrue(scope.isShutdown());
+	}
+
+	@Test
+	public void testScopesAreIndependent() throws Exception {
+		ParallelTaskExecutor executor = new ParallelTaskExecutor(2);
+		ParallelTaskExecutor.Scope scope1 = executor.newScope(1);
+		ParallelTaskExecutor.Scope scope2 = executor.newScope(1);
+
+		CountDownLatch started = new CountDownLatch(1);
+		scope1.submit(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT * 2));
+			} catch(InterruptedException e) { }
+		});
+		Future<String> queued = scope1.submit(() -> "never runs");
+		assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+
+		scope1.shutdownNow();
+		assertTrue(queued.isCancelled());
+
+		assertFalse(scope2.isShutdown());
+		assertEquals("runs", scope2.submit(() -> "runs").get(TIMEOUT, TimeUnit.SECONDS));
+		assertNull(scope2.getFailure());
+
+		// the thread that was interrupted by scope1 can be reused without the interrupt
+		for(int i = 0; i < 4; i++) {
+			assertFalse(scope2.submit(() -> Thread.currentThread().isInterrupted()).get(TIMEOUT, TimeUnit.SECONDS));
+		}
+		scope2.shutdown();
+		assertTrue(scope2.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+		assertTrue(scope1.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,118 @@
+package org.baderlab.csplugins.enrichmentmap.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import org.baderlab.csplugins.enrichmentmap.CytoscapeServiceModule.Continuous;
+import org.baderlab.csplugins.enrichmentmap.TestUtils;
+import org.baderlab.csplugins.enrichmentmap.model.DataSetFiles;
+import org.baderlab.csplugins.enrichmentmap.model.DataSetParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.EdgeStrategy;
+import org.baderlab.csplugins.enrichmentmap.model.EMCreationParameters.SimilarityMetric;
+import org.baderlab.csplugins.enrichmentmap.model.EMDataSet.Method;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMap;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentMapManager;
+import org.baderlab.csplugins.enrichmentmap.model.EnrichmentResultFilterParams.NESFilter;
+import org.baderlab.csplugins.enrichmentmap.model.LegacySupport;
+import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisFilterType;
+import org.baderlab.csplugins.enrichmentmap.model.PostAnalysisParameters;
+import org.baderlab.csplugins.enrichmentmap.style.EMStyleBuilder.Columns;
+import org.baderlab.csplugins.enrichmentmap.task.postanalysis.FilterMetric;
+import org.baderlab.csplugins.enrichmentmap.task.postanalysis.FilterMetricSet;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNetworkManager;
+import org.cytoscape.property.CyProperty;
+import org.cytoscape.view.vizmap.VisualMappingFunctionFactory;
+import org.jukito.JukitoRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Post-analysis on a map created with lazy overlap genes, see OverlapGenesCache.
+ */
+@RunWith(JukitoRunner.class)
+public class PostAnalysisLazyOverlapGenesTest extends BaseNetworkTest {
+
+	private static final String PATH = "src/test/resources/org/baderlab/csplugins/enrichmentmap/task/EMandPA/";
+
+	public static class TestModule extends BaseNetworkTest.TestModule { }
+
+
+	@Before
+	public void setUp(CyProperty<Properties> emProps) {
+		Properties properties = new Properties();
+		properties.setProperty("create.lazyOverlapGenes", "true"); // see PropertyManager.CREATE_LAZY_OVERLAP_GENES
+		when(emProps.getProperties()).thenReturn(properties);
+	}
+
+	@Test
+	public void testPostAnalysisOnLazyMap(@Continuous VisualMappingFunctionFactory cmFactory, CyNetworkManager networkManager, EnrichmentMapManager emManager) throws Exception {
+		mockContinuousMappingFactory(cmFactory);
+
+		DataSetFiles dataset1files = new DataSetFiles();
+		dataset1files.setGMTFileName(PATH + "gene_sets.gmt");
+		dataset1files.setExpressionFileName(PATH + "FakeExpression.txt");
+		dataset1files.setEnrichmentFileName1(PATH + "fakeEnrichments.txt");
+		dataset1files.setRankedFile(PATH + "FakeRank.rnk");
+
+		EMCreationParameters params =
+			new EMCreationParameters("EM1_", null, 0.1, 0.1, NESFilter.ALL, Optional.empty(), true, false,
+					SimilarityMetric.JACCARD, 0.1, 0.1, EdgeStrategy.COMPOUND);
+
+		buildEnrichmentMap(params, new DataSetParameters(LegacySupport.DATASET1, Method.Generic, dataset1files));
+
+		assertEquals(1, networkManager.getNetworkSet().size());
+		CyNetwork network = networkManager.getNetworkSet().iterator().next();
+		EnrichmentMap map = emManager.getEnrichmentMap(network.getSUID());
+		assertTrue(map.getParams().isLazyOverlapGenes());
+
+		String overlapGenesCol = Columns.EDGE_OVERLAP_GENES.with("EM1_", null);
+		assertNull(network.getDefaultEdgeTable().getColumn(overlapGenesCol));
+
+		PostAnalysisParameters.Builder builder = new PostAnalysisParameters.Builder();
+		builder.setAttributePrefix("EM1_");
+		builder.setName("testPostAnalysisOnLazyMap");
+		FilterMetricSet rankTest = new FilterMetricSet(PostAnalysisFilterType.HYPERGEOM);
+		rankTest.put(LegacySupport.DATASET1, new FilterMetric.Hypergeom(0.25, 11445));
+		builder.setRankTestParameters(rankTest);
+
+		runPostAnalysis(network, builder, PATH + "PA_top8_middle8_bottom8.gmt", LegacySupport.DATASET1);
+
+		// post-analysis creates the column for the signature edges
+		assertNotNull(network.getDefaultEdgeTable().getColumn(overlapGenesCol));
+
+		Map<String,CyEdge> sigEdges = TestUtils.getSignatureEdges(network, "EM1_", "testPostAnalysisOnLazyMap");
+		assertEquals(4, sigEdges.size());
+		CyEdge sigEdge = sigEdges.get("PA_TOP8_MIDDLE8_BOTTOM8 (sig_Dataset 1) TOP8_PLUS100");
+		assertNotNull(sigEdge);
+		List<String> sigGenes = Columns.EDGE_OVERLAP_GENES.get(network.getRow(sigEdge), "EM1_");
+		assertNotNull(sigGenes);
+		assertEquals(8, sigGenes.size());
+		assertEquals(sigGenes, map.getOverlapGenesCache().getOverlapGenes(network, sigEdge));
+
+		// enrichment edges still have no stored value and are computed on demand
+		CyEdge edge = TestUtils.getEdgeSimilarities(network).getEdge("TOP8_PLUS100", "Geneset_Overlap", "MIDDLE8_PLUS100");
+		assertNotNull(edge);
+		assertNull(Columns.EDGE_OVERLAP_GENES.get(network.getRow(edge), "EM1_"));
+		List<String> genes = map.getOverlapGenesCache().getOverlapGenes(network, edge);
+		assertFalse(genes.isEmpty());
+		assertEquals(Columns.EDGE_OVERLAP_SIZE.get(network.getRow(edge), "EM1_").intValue(), genes.size());
+
+		// the cached lists are dropped when the gene sets of interest change
+		map.getDataSet(LegacySupport.DATASET1).getGeneSetsOfInterest().filterGeneSets(Collections.emptySet());
+		assertTrue(map.getOverlapGenesCache().getOverlapGenes(network, edge).isEmpty());
+	}
+}
@@ -0,0 +1,102 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.baderlab.csplugins.brainlib.DistanceMatrix;
+import org.baderlab.csplugins.brainlib.DistanceMetric;
+import org.baderlab.csplugins.enrichmentmap.view.heatmap.HeatMapParams.Distance;
+import org.junit.Test;
+
+public class DistanceMatrixCalculatorTest {
+
+	/** Rows of random values, with NaNs in the first value of row 3 and in the middle of the last row */
+	private static float[] createMatrix(Random random, int rows, int cols) {
+		float[] values = new float[rows * cols];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = (float) random.nextGaussian();
+		}
+		values[3 * cols] = Float.NaN;
+		values[(rows - 1) * cols + cols / 2] = Float.NaN;
+		return values;
+	}
+
+	private static List<float[]> toRows(float[] values, int rows, int cols) {
+		List<float[]> list = new ArrayList<>(rows);
+		for(int i = 0; i < rows; i++) {
+			list.add(Arrays.copyOfRange(values, i * cols, (i + 1) * cols));
+		}
+		return list;
+	}
+
+	private static void assertSameDistances(Distance distance, float[] values, int rows, int cols) {
+		DistanceMetric metric = distance.getMetric();
+		List<float[]> rowList = toRows(values, rows, cols);
+
+		DistanceMatrix expected = new DistanceMatrix(rows);
+		expected.calcDistances(rowList, metric);
+
+		DistanceMatrixCalculator calculator = new DistanceMatrixCalculator(distance.getMetric(), 3);
+		DistanceMatrix actual = calculator.calculate(values, rows, cols, null, () -> false);
+		float[] condensed = calculator.calculateCondensed(values, rows, cols, null, () -> false);
+
+		for(int i = 0; i < rows; i++) {
+			for(int j = 0; j < i; j++) {
+				String message = distance + " (" + i + "," + j + ")";
+				assertEquals(message, expected.getValue(i, j), actual.getValue(i, j), 0.0);
+				assertEquals(message, (float)expected.getValue(i, j), condensed[i * (i - 1) / 2 + j], 0.0f);
+			}
+		}
+	}
+
+
+	@Test
+	public void testSameDistancesAsMetric() {
+		Random random = new Random(7);
+		// 1100 columns makes the tiles 16 rows, so 37 rows leaves a partial tile at the end of each side
+		int[][] shapes = { { 37, 1100 }, { 7, 4 } };
+		for(int[] shape : shapes) {
+			int rows = shape[0];
+			int cols = shape[1];
+			float[] values = createMatrix(random, rows, cols);
+			for(Distance distance : Distance.values()) {
+				assertSameDistances(distance, values, rows, cols);
+			}
+		}
+	}
+
+	@Test
+	public void testMissingGeneRow() {
+		Random random = new Random(11);
+		int rows = 20;
+		int cols = 5;
+		float[] values = createMatrix(random, rows, cols);
+		// HierarchicalClusterTask leaves the row of a gene that is missing from the expression file as zeros
+		Arrays.fill(values, 5 * cols, 6 * cols, 0.0f);
+
+		// euclidean distances to a row of zeros are fine
+		assertSameDistances(Distance.EUCLIDEAN, values, rows, cols);
+
+		// the metric classes throw for a row of zeros, the calculator has to fail the same way
+		for(Distance distance : Arrays.asList(Distance.PEARSON, Distance.COSINE)) {
+			String expectedMessage = null;
+			try {
+				new DistanceMatrix(rows).calcDistances(toRows(values, rows, cols), distance.getMetric());
+				fail();
+			} catch(RuntimeException e) {
+				expectedMessage = e.getMessage();
+			}
+			try {
+				new DistanceMatrixCalculator(distance.getMetric(), 3).calculate(values, rows, cols, null, () -> false);
+				fail();
+			} catch(RuntimeException e) {
+				assertEquals(expectedMessage, e.getMessage());
+			}
+		}
+	}
+}
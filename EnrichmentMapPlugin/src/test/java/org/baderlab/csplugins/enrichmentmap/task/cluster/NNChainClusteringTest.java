@@ -0,0 +1,129 @@
+package org.baderlab.csplugins.enrichmentmap.task.cluster;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.baderlab.csplugins.brainlib.AvgLinkHierarchicalClustering;
+import org.baderlab.csplugins.brainlib.DistanceMatrix;
+import org.baderlab.csplugins.brainlib.HierarchicalClusteringResultTree;
+import org.junit.Test;
+
+public class NNChainClusteringTest {
+
+	private static float[] randomMatrix(Random random, int rows, int cols) {
+		float[] values = new float[rows * cols];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = (float) random.nextGaussian();
+		}
+		return values;
+	}
+
+	/** The leaves of each internal node of the tree, with the distance the node was joined at */
+	private static Map<Set<Integer>,Double> clusters(HierarchicalClusteringResultTree tree, Map<Set<Integer>,Double> clusters) {
+		if(!tree.leaf) {
+			Set<Integer> leaves = new TreeSet<>();
+			collectLeaves(tree, leaves);
+			clusters.put(leaves, tree.distance);
+			clusters(tree.left, clusters);
+			clusters(tree.right, clusters);
+		}
+		return clusters;
+	}
+
+	private static void collectLeaves(HierarchicalClusteringResultTree tree, Set<Integer> leaves) {
+		if(tree.leaf) {
+			leaves.add(tree.nodeIndex);
+		} else {
+			collectLeaves(tree.left, leaves);
+			collectLeaves(tree.right, leaves);
+		}
+	}
+
+	private static Map<Set<Integer>,Double> clusters(int[][] result, double[] linkDistance) {
+		List<Set<Integer>> nodes = new ArrayList<>();
+		Map<Set<Integer>,Double> clusters = new HashMap<>();
+		for(int k = 0; k < result.length; k++) {
+			Set<Integer> leaves = new TreeSet<>();
+			for(int child : result[k]) {
+				if(child >= 0)
+					leaves.add(child);
+				else
+					leaves.addAll(nodes.get(-child - 1));
+			}
+			nodes.add(leaves);
+			clusters.put(leaves, linkDistance[k]);
+		}
+		return clusters;
+	}
+
+
+	@Test
+	public void testSameTreeAsAvgLink() {
+		Random random = new Random(42);
+		for(int t = 0; t < 20; t++) {
+			int rows = 2 + random.nextInt(100);
+			int cols = 3 + random.nextInt(10);
+			float[] values = randomMatrix(random, rows, cols);
+			DistanceMatrixCalculator calculator = new DistanceMatrixCalculator(t % 2 == 0 ? new PearsonCorrelation() : new EuclideanDistance(), 2);
+
+			DistanceMatrix distanceMatrix = calculator.calculate(values, rows, cols, null, () -> false);
+			List<String> labels = new ArrayList<>();
+			for(int i = 0; i < rows; i++) {
+				labels.add(String.valueOf(i));
+			}
+			distanceMatrix.setLabels(labels);
+			AvgLinkHierarchicalClustering avgLink = new AvgLinkHierarchicalClustering(distanceMatrix);
+			avgLink.setOptimalLeafOrdering(false);
+			avgLink.run();
+
+			float[] distances = calculator.calculateCondensed(values, rows, cols, null, () -> false);
+			NNChainClustering nnChain = new NNChainClustering(distances, rows, calculator.createKernel(values, rows, cols));
+			nnChain.run(() -> false);
+
+			// same tree, the distances are only as precise as floats
+			Map<Set<Integer>,Double> expected = clusters(avgLink.getResult(), new HashMap<>());
+			Map<Set<Integer>,Double> actual = clusters(nnChain.getResult(), nnChain.getLinkDistance());
+			assertEquals(expected.keySet(), actual.keySet());
+			for(Set<Integer> cluster : expected.keySet()) {
+				assertEquals(expected.get(cluster), actual.get(cluster), 1e-5);
+			}
+
+			double[] linkDistance = nnChain.getLinkDistance();
+			for(int k = 1; k < linkDistance.length; k++) {
+				assertEquals(true, linkDistance[k - 1] <= linkDistance[k]);
+			}
+
+			int[] order = nnChain.getLeafOrder().clone();
+			Arrays.sort(order);
+			for(int i = 0; i < rows; i++) {
+				assertEquals(i, order[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testLeafOrderKeepsClustersTogether() {
+		// two well separated groups of points on a line
+		float[] values = { 0.0f, 10.0f, 0.2f, 10.3f, 0.1f };
+		DistanceMatrixCalculator calculator = new DistanceMatrixCalculator(new EuclideanDistance(), 1);
+		float[] distances = calculator.calculateCondensed(values, 5, 1, null, () -> false);
+		NNChainClustering nnChain = new NNChainClustering(distances, 5, calculator.createKernel(values, 5, 1));
+		nnChain.run(() -> false);
+
+		int[] order = nnChain.getLeafOrder();
+		Set<Integer> firstTwo = new HashSet<>(Arrays.asList(order[0], order[1]));
+		Set<Integer> lastTwo  = new HashSet<>(Arrays.asList(order[3], order[4]));
+		assertEquals(true, firstTwo.equals(new HashSet<>(Arrays.asList(1, 3))) || lastTwo.equals(new HashSet<>(Arrays.asList(1, 3))));
+		assertArrayEquals(new double[] { 0.1, 0.15, 0.3, 10.05 }, nnChain.getLinkDistance(), 1e-5);
+	}
+}
@@ -0,0 +1,42 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HypergeometricCalculatorTest {
+
+	@Test
+	public void testSameAsHypergeometric() {
+		HypergeometricCalculator calculator = new HypergeometricCalculator();
+		Random random = new Random(11);
+		for(int t = 0; t < 5000; t++) {
+			int N = 1 + random.nextInt(t % 2 == 0 ? 50 : 5000);
+			int n = random.nextInt(N + 1);
+			int m = random.nextInt(N + 1);
+			int k = Math.max(0, n + m - N) + random.nextInt(Math.min(n, m) - Math.max(0, n + m - N) + 2);
+
+			double expected = Hypergeometric.hyperGeomPvalueSum(N, n, m, k, 0);
+			double actual = calculator.upperTail(N, n, m, k);
+			assertEquals("N=" + N + " n=" + n + " m=" + m + " k=" + k, expected, actual, expected * 1e-9 + 1e-300);
+			// again from the cache
+			assertEquals(actual, calculator.upperTail(N, n, m, k), 0.0);
+		}
+	}
+
+	@Test
+	public void testEdgeCases() {
+		HypergeometricCalculator calculator = new HypergeometricCalculator();
+		assertEquals(1.0, calculator.upperTail(10, 0, 0, 0), 1e-15);
+		assertEquals(1.0, calculator.upperTail(10, 10, 5, 5), 1e-15);
+		assertEquals(0.0, calculator.upperTail(10, 3, 5, 4), 0.0);
+		assertEquals(Hypergeometric.hyperGeomPvalue(50, 10, 5, 5), calculator.upperTail(50, 10, 5, 5), 1e-20);
+	}
+
+	@Test(expected=ArithmeticException.class)
+	public void testBadParameters() {
+		new HypergeometricCalculator().upperTail(128, 63, 105, 2);
+	}
+}
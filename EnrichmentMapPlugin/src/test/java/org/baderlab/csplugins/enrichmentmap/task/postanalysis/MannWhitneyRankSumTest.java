@@ -0,0 +1,74 @@
+package org.baderlab.csplugins.enrichmentmap.task.postanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.baderlab.csplugins.enrichmentmap.model.Rank;
+import org.baderlab.csplugins.enrichmentmap.model.Ranking;
+import org.baderlab.csplugins.mannwhit.MannWhitneyTestResult;
+import org.baderlab.csplugins.mannwhit.MannWhitneyUTestSided;
+import org.junit.Test;
+
+public class MannWhitneyRankSumTest {
+
+	@Test
+	public void testSameAsMannWhitneyUTest() {
+		Random random = new Random(7);
+		for(int t = 0; t < 200; t++) {
+			Ranking ranking = new Ranking();
+			int n = 1 + random.nextInt(300);
+			for(int gene = 0; gene < n; gene++) {
+				// lots of ties
+				double score = random.nextBoolean() ? random.nextInt(10) : random.nextGaussian();
+				ranking.addRank(gene, new Rank("G" + gene, score, gene));
+			}
+
+			Set<Integer> geneSet = new HashSet<>();
+			Set<Integer> sigSet = new HashSet<>();
+			for(int i = 0; i < 100; i++) {
+				geneSet.add(random.nextInt(n + 20));
+				sigSet.add(random.nextInt(n + 20));
+			}
+
+			Set<Integer> overlap = new HashSet<>(geneSet);
+			overlap.retainAll(sigSet);
+			double[] x = overlap.stream().filter(ranking::contains).mapToDouble(ranking::getScore).toArray();
+
+			MannWhitneyRankSum rankSum = MannWhitneyRankSum.of(ranking.getIndex(), geneSet, sigSet);
+			assertEquals(overlap.size(), rankSum.getOverlapSize());
+			assertEquals(x.length > 0, rankSum.hasData());
+			if(x.length == 0)
+				continue;
+
+			MannWhitneyTestResult expected = new MannWhitneyUTestSided().mannWhitneyUTestBatch(x, ranking.getScores());
+			MannWhitneyTestResult actual = rankSum.test();
+			assertEquals(expected.twoSided, actual.twoSided, 0.0);
+			assertEquals(expected.greater, actual.greater, 0.0);
+			assertEquals(expected.less, actual.less, 0.0);
+		}
+	}
+
+	@Test
+	public void testNoOverlap() {
+		Ranking ranking = new Ranking();
+		ranking.addRank(1, new Rank("A", 1.0, 1));
+		Set<Integer> geneSet = new HashSet<>();
+		geneSet.add(2);
+		Set<Integer> sigSet = new HashSet<>();
+		sigSet.add(2);
+		sigSet.add(3);
+
+		MannWhitneyRankSum rankSum = MannWhitneyRankSum.of(ranking.getIndex(), geneSet, sigSet);
+		assertEquals(1, rankSum.getOverlapSize());
+		assertFalse(rankSum.hasData());
+
+		geneSet.add(1);
+		sigSet.add(1);
+		assertTrue(MannWhitneyRankSum.of(ranking.getIndex(), geneSet, sigSet).hasData());
+	}
+}
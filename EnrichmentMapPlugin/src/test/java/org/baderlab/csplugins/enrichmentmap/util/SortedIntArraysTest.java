@@ -0,0 +1,62 @@
+package org.baderlab.csplugins.enrichmentmap.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class SortedIntArraysTest {
+
+	@Test
+	public void testIntersection() {
+		int[] a = { 1, 3, 5, 7, 9 };
+		int[] b = { 2, 3, 4, 5, 10 };
+
+		assertEquals(2, SortedIntArrays.intersectionSize(a, b));
+		assertArrayEquals(new int[] { 3, 5 }, SortedIntArrays.intersection(a, b));
+
+		assertEquals(0, SortedIntArrays.intersectionSize(a, new int[0]));
+		assertEquals(0, SortedIntArrays.intersectionSize(new int[] { 1, 2 }, new int[] { 3, 4 }));
+		assertArrayEquals(new int[0], SortedIntArrays.intersection(new int[] { 1, 2 }, new int[] { 3, 4 }));
+	}
+
+	@Test
+	public void testIntersectionMatchesSets() {
+		Random random = new Random(42);
+		for(int trial = 0; trial < 200; trial++) {
+			// include very skewed sizes to exercise the binary search path
+			Set<Integer> set1 = randomSet(random, 1 + random.nextInt(5), 500);
+			Set<Integer> set2 = randomSet(random, random.nextInt(400), 500);
+
+			int[] a = SortedIntArrays.toSortedArray(set1);
+			int[] b = SortedIntArrays.toSortedArray(set2);
+			Set<Integer> expected = Sets.intersection(set1, set2);
+
+			assertEquals(expected.size(), SortedIntArrays.intersectionSize(a, b));
+			assertEquals(expected.size(), SortedIntArrays.intersectionSize(b, a));
+			assertEquals(expected, SortedIntArrays.toSet(SortedIntArrays.intersection(a, b)));
+		}
+	}
+
+	@Test
+	public void testToSortedArray() {
+		int[] array = SortedIntArrays.toSortedArray(Arrays.asList(9, 2, 7, 1));
+		assertArrayEquals(new int[] { 1, 2, 7, 9 }, array);
+		assertTrue(SortedIntArrays.contains(array, 7));
+		assertFalse(SortedIntArrays.contains(array, 8));
+	}
+
+	private static Set<Integer> randomSet(Random random, int size, int max) {
+		Set<Integer> set = new HashSet<>();
+		while(set.size() < size) {
+			set.add(random.nextInt(max));
+		}
+		return set;
+	}
+}